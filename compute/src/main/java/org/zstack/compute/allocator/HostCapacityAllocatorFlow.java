@@ -8,11 +8,14 @@ import org.zstack.core.db.DatabaseFacade;
 import org.zstack.header.allocator.AbstractHostAllocatorFlow;
 import org.zstack.header.allocator.HostCapacityOverProvisioningManager;
 import org.zstack.header.allocator.HostCpuOverProvisioningManager;
+import org.zstack.header.allocator.ReservedHostCapacity;
 import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.host.HostVO;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -29,21 +32,18 @@ public class HostCapacityAllocatorFlow extends AbstractHostAllocatorFlow {
     @Autowired
     private HostCpuOverProvisioningManager cpuRatioMgr;
 
-    private boolean memoryCheck(long vmMemSize, long oldMemory, HostVO hvo) {
-        if (HostAllocatorGlobalConfig.HOST_ALLOCATOR_MAX_MEMORY.value(Boolean.class)) {
-            if ((vmMemSize + oldMemory) >= hvo.getCapacity().getTotalPhysicalMemory()) {
-                return false;
-            }
-        }
-
-        return ratioMgr.calculateHostAvailableMemoryByRatio(hvo.getUuid(), hvo.getCapacity().getAvailableMemory()) >= vmMemSize;
-    }
-
-
     private List<HostVO> allocate(List<HostVO> vos, long cpu, long memory, long oldMemory) {
-        return vos.parallelStream()
-                .filter(hvo -> (cpu == 0 || hvo.getCapacity().getAvailableCpu() >= cpu)
-                        && (memory == 0 || memoryCheck(memory, oldMemory, hvo))).collect(Collectors.toList());
+        List<String> huuids = vos.stream().map(HostVO::getUuid).collect(Collectors.toList());
+        HostCapacityIndex index = HostCapacityIndex.valueOf(vos,
+                memory == 0 ? Collections.<String, Double>emptyMap() : ratioMgr.getMemoryRatios(huuids),
+                memory == 0 ? Collections.<String, ReservedHostCapacity>emptyMap() : reserveMgr.getReservedHostCapacities(huuids));
+
+        int[] hits = index.filter(cpu, memory, oldMemory, HostAllocatorGlobalConfig.HOST_ALLOCATOR_MAX_MEMORY.value(Boolean.class));
+        List<HostVO> ret = new ArrayList<>(hits.length);
+        for (int i : hits) {
+            ret.add(vos.get(i));
+        }
+        return ret;
     }
 
     private boolean isNoCpu(int cpu) {
@@ -60,11 +60,10 @@ public class HostCapacityAllocatorFlow extends AbstractHostAllocatorFlow {
         if (amITheFirstFlow()) {
             throw new CloudRuntimeException("HostCapacityAllocatorFlow cannot be the first allocator flow");
         } else {
+            // the reserved capacity is checked in the same pass
             ret = allocate(candidates, spec.getCpuCapacity(), spec.getMemoryCapacity(), spec.getOldMemoryCapacity());
         }
 
-        ret = reserveMgr.filterOutHostsByReservedCapacity(ret, spec.getCpuCapacity(), spec.getMemoryCapacity());
-
         if (ret.isEmpty()) {
             fail(Platform.operr("no host having cpu[%s], memory[%s bytes] found",
                     spec.getCpuCapacity(), spec.getMemoryCapacity()));
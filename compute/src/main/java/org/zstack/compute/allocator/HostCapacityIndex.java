@@ -0,0 +1,96 @@
+package org.zstack.compute.allocator;
+
+import org.zstack.header.allocator.HostCapacityVO;
+import org.zstack.header.allocator.ReservedHostCapacity;
+import org.zstack.header.host.HostVO;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * a columnar snapshot of host capacities, built by the host allocator for one allocation.
+ *
+ * Capacity, memory over-provisioning ratio and reserved capacity of candidates are laid
+ * out in primitive arrays when a capacity filter starts, ratios and reserved capacity are
+ * resolved for all candidates in bulk, then filtering is a tight loop over the arrays
+ * instead of per-host lookups. The snapshot is not kept across allocations, capacities
+ * are copied from the candidates earlier flows have loaded, as capacity is also written
+ * by SQL and by other management nodes.
+ */
+public class HostCapacityIndex {
+    private final int size;
+    private final long[] availableCpu;
+    private final long[] availableMemory;
+    private final long[] totalPhysicalMemory;
+    private final double[] memoryRatio;
+    private final long[] reservedMemory;
+
+    public HostCapacityIndex(int size) {
+        this.size = size;
+        availableCpu = new long[size];
+        availableMemory = new long[size];
+        totalPhysicalMemory = new long[size];
+        memoryRatio = new double[size];
+        reservedMemory = new long[size];
+    }
+
+    public static HostCapacityIndex valueOf(List<HostVO> hosts, Map<String, Double> memoryRatios, Map<String, ReservedHostCapacity> reserves) {
+        HostCapacityIndex index = new HostCapacityIndex(hosts.size());
+        for (int i = 0; i < hosts.size(); i++) {
+            HostVO host = hosts.get(i);
+            HostCapacityVO cap = host.getCapacity();
+            Double ratio = memoryRatios.get(host.getUuid());
+            ReservedHostCapacity reserve = reserves.get(host.getUuid());
+            index.set(i, cap.getAvailableCpu(), cap.getAvailableMemory(), cap.getTotalPhysicalMemory(),
+                    ratio == null ? 1 : ratio, reserve == null ? 0 : reserve.getReservedMemoryCapacity());
+        }
+
+        return index;
+    }
+
+    public void set(int i, long availableCpu, long availableMemory, long totalPhysicalMemory, double memoryRatio, long reservedMemory) {
+        this.availableCpu[i] = availableCpu;
+        this.availableMemory[i] = availableMemory;
+        this.totalPhysicalMemory[i] = totalPhysicalMemory;
+        this.memoryRatio[i] = memoryRatio;
+        this.reservedMemory[i] = reservedMemory;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param checkMaxMemory reject hosts whose physical memory cannot hold the memory and the old memory
+     * @return positions of hosts that can provide the cpu and memory after subtracting reserved memory
+     */
+    public int[] filter(long cpu, long memory, long oldMemory, boolean checkMaxMemory) {
+        int[] hits = new int[size];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if (cpu != 0 && availableCpu[i] < cpu) {
+                continue;
+            }
+
+            if (memory != 0) {
+                if (checkMaxMemory && memory + oldMemory >= totalPhysicalMemory[i]) {
+                    continue;
+                }
+
+                if (Math.round(availableMemory[i] * memoryRatio[i]) < memory) {
+                    continue;
+                }
+
+                if (availableMemory[i] - reservedMemory[i] < Math.round(memory / memoryRatio[i])) {
+                    continue;
+                }
+            }
+
+            hits[n++] = i;
+        }
+
+        int[] ret = new int[n];
+        System.arraycopy(hits, 0, ret, 0, n);
+        return ret;
+    }
+}
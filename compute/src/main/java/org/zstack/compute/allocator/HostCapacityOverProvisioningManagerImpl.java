@@ -7,7 +7,7 @@ import org.zstack.resourceconfig.ResourceConfig;
 import org.zstack.resourceconfig.ResourceConfigFacade;
 import org.zstack.header.allocator.HostCapacityOverProvisioningManager;
 
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -63,6 +63,28 @@ public class HostCapacityOverProvisioningManagerImpl implements HostCapacityOver
         }
     }
 
+    @Override
+    public Map<String, Double> getMemoryRatios(Collection<String> hostUuids) {
+        Map<String, Double> ret = new HashMap<>();
+        List<String> unset = new ArrayList<>();
+        hostUuids.forEach(huuid -> {
+            Double ratio = hostMemoryRatio.get(huuid);
+            if (ratio != null) {
+                ret.put(huuid, ratio);
+            } else {
+                unset.add(huuid);
+            }
+        });
+
+        if (globalConfig != null) {
+            ret.putAll(rcf.getResourceConfigValues(globalConfig, unset, Double.class));
+        } else {
+            unset.forEach(huuid -> ret.put(huuid, globalMemoryRatio));
+        }
+
+        return ret;
+    }
+
     @Override
     public Map<String, Double> getAllMemoryRatio() {
         return hostMemoryRatio;
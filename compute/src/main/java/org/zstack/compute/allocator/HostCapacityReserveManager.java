@@ -1,20 +1,23 @@
 package org.zstack.compute.allocator;
 
 import org.zstack.header.allocator.ReservedHostCapacity;
-import org.zstack.header.host.HostVO;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  */
 public interface HostCapacityReserveManager {
-    List<HostVO> filterOutHostsByReservedCapacity(List<HostVO> candidates, long requiredCpu, long requiredMemory);
-
     ReservedHostCapacity getReservedHostCapacityByZones(List<String> zoneUuids);
 
     ReservedHostCapacity getReservedHostCapacityByClusters(List<String> clusterUuids);
 
     ReservedHostCapacity getReservedHostCapacityByHosts(List<String> hostUuids);
 
+    /**
+     * @return reserved capacity of each host, hosts not enabled or connected reserve nothing
+     */
+    Map<String, ReservedHostCapacity> getReservedHostCapacities(List<String> hostUuids);
+
     void reserveCapacity(String hostUuid, long requiredCpu, long requiredMemory, boolean skipCheck);
 }
@@ -17,7 +17,6 @@ import org.zstack.utils.logging.CLogger;
 
 import javax.persistence.Tuple;
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  */
@@ -68,23 +67,24 @@ public class HostCapacityReserveManagerImpl implements HostCapacityReserveManage
             hq.add(HostVO_.status,Op.EQ, HostStatus.Connected);
             List<Tuple> tuples = hq.listTuple();
 
-            tuples.parallelStream().forEach(t -> {
-                String huuid = t.get(0, String.class);
-                String hvType = t.get(1, String.class);
+            Map<String, List<String>> hostUuidsByHvType = new HashMap<>();
+            tuples.forEach(t -> hostUuidsByHvType.computeIfAbsent(t.get(1, String.class), k -> new ArrayList<>()).add(t.get(0, String.class)));
 
+            hostUuidsByHvType.forEach((hvType, huuids) -> {
                 HostReservedCapacityExtensionPoint ext = exts.get(hvType);
                 if (ext == null) {
                     return;
                 }
 
-                ReservedHostCapacity hc = result.get(huuid);
-                ReservedHostCapacity extHc = ext.getReservedHostCapacity(huuid);
-                if (hc.getReservedMemoryCapacity() == -1) {
-                    hc.setReservedMemoryCapacity(extHc.getReservedMemoryCapacity());
-                }
-                if (hc.getReservedCpuCapacity() == -1) {
-                    hc.setReservedCpuCapacity(extHc.getReservedCpuCapacity());
-                }
+                ext.getReservedHostCapacities(huuids).forEach((huuid, extHc) -> {
+                    ReservedHostCapacity hc = result.get(huuid);
+                    if (hc.getReservedMemoryCapacity() == -1) {
+                        hc.setReservedMemoryCapacity(extHc.getReservedMemoryCapacity());
+                    }
+                    if (hc.getReservedCpuCapacity() == -1) {
+                        hc.setReservedCpuCapacity(extHc.getReservedCpuCapacity());
+                    }
+                });
             });
         }
 
@@ -125,34 +125,10 @@ public class HostCapacityReserveManagerImpl implements HostCapacityReserveManage
     }
 
     @Override
-    public List<HostVO> filterOutHostsByReservedCapacity(List<HostVO> candidates, long requiredCpu, long requiredMemory) {
+    public Map<String, ReservedHostCapacity> getReservedHostCapacities(List<String> hostUuids) {
         ReservedCapacityFinder finder = new ReservedCapacityFinder();
-        finder.hostUuids = candidates.stream().map(HostVO::getUuid).collect(Collectors.toList());
-
-        Map<String, ReservedHostCapacity> reserves = finder.find();
-        return candidates.parallelStream()
-                .filter(hvo -> {
-                    ReservedHostCapacity hc = reserves.get(hvo.getUuid());
-                    if (requiredMemory == 0 || hvo.getCapacity().getAvailableMemory() - hc.getReservedMemoryCapacity() >= ratioMgr.calculateMemoryByRatio(hvo.getUuid(), requiredMemory)) {
-                        return true;
-                    } else {
-                        if (logger.isTraceEnabled()) {
-                            if (hvo.getCapacity().getAvailableMemory() - hc.getReservedMemoryCapacity() < requiredMemory) {
-                                logger.trace(String.format("remove host[uuid:%s] from candidates;because after subtracting reserved memory[%s bytes]," +
-                                                " it cannot provide required memory[%s bytes]",
-                                        hvo.getUuid(), hc.getReservedMemoryCapacity(), requiredMemory));
-                            }
-
-                            if (hvo.getCapacity().getAvailableCpu() - hc.getReservedCpuCapacity() < requiredCpu) {
-                                logger.trace(String.format("remove host[uuid:%s] from candidates;because after subtracting reserved cpu[%s]," +
-                                                " it cannot provide required cpu[%s]",
-                                        hvo.getUuid(), hc.getReservedCpuCapacity(), requiredCpu));
-                            }
-                        }
-                        return false;
-                    }
-                })
-                .collect(Collectors.toList());
+        finder.hostUuids = new ArrayList<>(hostUuids);
+        return finder.find();
     }
 
     @Override
@@ -48,6 +48,7 @@ import org.zstack.header.tag.SystemTagVO;
 import org.zstack.header.tag.SystemTagVO_;
 import org.zstack.header.vm.*;
 import org.zstack.tag.SystemTagCreator;
+import org.zstack.tag.TagManager;
 import org.zstack.utils.*;
 import org.zstack.utils.data.Pair;
 import org.zstack.utils.function.ForEachFunction;
@@ -90,6 +91,8 @@ public abstract class HostBase extends AbstractHost {
     protected EventFacade evtf;
     @Autowired
     protected HostMaintenancePolicyManager hostMaintenancePolicyMgr;
+    @Autowired
+    protected TagManager tagMgr;
 
     public static class HostDisconnectedCanonicalEvent extends CanonicalEventEmitter {
         HostCanonicalEvents.HostDisconnectedData data;
@@ -1079,6 +1082,7 @@ public abstract class HostBase extends AbstractHost {
                 .eq(SystemTagVO_.resourceType, HostVO.class.getSimpleName())
                 .like(SystemTagVO_.tag, "ConnectedTime::%")
                 .hardDelete();
+            tagMgr.evictSystemTagIndex(Collections.singletonList(self.getUuid()));
         }
     }
 
@@ -143,16 +143,38 @@ public abstract class VmTracer {
 
     @Transactional(readOnly = true)
     protected Map<String, VmInstanceState> buildManagementServerSideVmStates(String hostUuid) {
+        return buildManagementServerSideVmStates(hostUuid, null);
+    }
+
+    /**
+     * @param vmUuids only query states of these VMs, used by incremental syncs which
+     *                only trace VMs changed on the host side. null means all VMs of the host
+     */
+    @Transactional(readOnly = true)
+    protected Map<String, VmInstanceState> buildManagementServerSideVmStates(String hostUuid, Collection<String> vmUuids) {
         Map<String, VmInstanceState> mgmtSideStates = new HashMap<>();
+        if (vmUuids != null && vmUuids.isEmpty()) {
+            return mgmtSideStates;
+        }
+
         String sql = "select vm.uuid, vm.state from VmInstanceVO vm where vm.hostUuid = :huuid or (vm.hostUuid is null and vm.lastHostUuid = :huuid)" +
                 " and vm.state not in (:vmstates)";
 
+        if (vmUuids != null) {
+            sql = "select vm.uuid, vm.state from VmInstanceVO vm where vm.uuid in (:vmuuids)" +
+                    " and (vm.hostUuid = :huuid or (vm.hostUuid is null and vm.lastHostUuid = :huuid))" +
+                    " and vm.state not in (:vmstates)";
+        }
+
         if (!vmTracerHelper.getVmTracerUnsupportedVmInstanceTypeSet().isEmpty()) {
             sql += "and vm.type not in (:vmtypes)";
         }
 
         TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql, Tuple.class);
         q.setParameter("huuid", hostUuid);
+        if (vmUuids != null) {
+            q.setParameter("vmuuids", vmUuids);
+        }
         q.setParameter("vmstates", list(VmInstanceState.Destroyed, VmInstanceState.Destroying));
 
         if (!vmTracerHelper.getVmTracerUnsupportedVmInstanceTypeSet().isEmpty()) {
@@ -20,6 +20,10 @@ public class CoreGlobalProperty {
     public static boolean VM_TRACER_ON;
     @GlobalProperty(name = "profiler.workflow", defaultValue = "false")
     public static boolean PROFILER_WORKFLOW;
+    @GlobalProperty(name = "flowChain.journal.enable", defaultValue = "false")
+    public static boolean FLOW_CHAIN_JOURNAL_ENABLE;
+    @GlobalProperty(name = "flowChain.journal.flushIntervalInMillis", defaultValue = "200")
+    public static long FLOW_CHAIN_JOURNAL_FLUSH_INTERVAL;
     @GlobalProperty(name = "profiler.httpCall", defaultValue = "false")
     public static boolean PROFILER_HTTP_CALL;
     @GlobalProperty(name = "exitJVMOnBootFailure", defaultValue = "true")
@@ -48,6 +52,12 @@ public class CoreGlobalProperty {
     public static int REST_FACADE_MAX_PER_ROUTE;
     @GlobalProperty(name = "RESTFacade.maxTotal", defaultValue = "128")
     public static int REST_FACADE_MAX_TOTAL;
+    @GlobalProperty(name = "RESTFacade.maxInflightPerEndpoint", defaultValue = "0")
+    public static int REST_FACADE_MAX_INFLIGHT_PER_ENDPOINT;
+    @GlobalProperty(name = "RESTFacade.maxPendingPerEndpoint", defaultValue = "1000")
+    public static int REST_FACADE_MAX_PENDING_PER_ENDPOINT;
+    @GlobalProperty(name = "RESTFacade.timeoutWheelTick", defaultValue = "100")
+    public static int REST_FACADE_TIMEOUT_WHEEL_TICK;
     /**
      * When set RestServer.maskSensitiveInfo to true, sensitive info will be
      * masked see @NoLogging.
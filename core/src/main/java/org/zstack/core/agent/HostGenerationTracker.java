@@ -0,0 +1,116 @@
+package org.zstack.core.agent;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * states the management node believes agents of hosts have, by host uuid and then by a key such as
+ * a network or a group, so a command to an agent can carry only what changed since the last command.
+ *
+ * Every change of a state makes a new generation, an agent applies a delta only if it's at the
+ * generation the delta is based on. A state is forgotten, and sent in full next time, when a command
+ * carrying it fails or the agent turns out to be at another generation. It's node-local and starts
+ * empty, states are sent in full at the first command after a node starts.
+ *
+ * A host here is whatever runs the agent, e.g. a hypervisor host or a virtual router.
+ */
+public class HostGenerationTracker<V extends HostGenerationTracker.Generational> {
+    public interface Generational {
+        long getGeneration();
+    }
+
+    // generations keep growing across restarts of a node, an agent never sees an old generation again
+    private final AtomicLong generations = new AtomicLong(System.currentTimeMillis());
+
+    // states by key, by host uuid
+    private final Map<String, Map<String, V>> hosts = new ConcurrentHashMap<>();
+
+    public long nextGeneration() {
+        return generations.incrementAndGet();
+    }
+
+    /**
+     * runs the function with states of the host locked, to change states of the host together
+     *
+     * @param f gets states of the host by key, which it may change
+     */
+    public <R> R withHost(String hostUuid, Function<Map<String, V>, R> f) {
+        Map<String, V> states = hosts.computeIfAbsent(hostUuid, k -> new ConcurrentHashMap<>());
+        synchronized (states) {
+            return f.apply(states);
+        }
+    }
+
+    public V get(String hostUuid, String key) {
+        Map<String, V> states = hostUuid == null ? null : hosts.get(hostUuid);
+        return states == null ? null : states.get(key);
+    }
+
+    public boolean isCurrent(String hostUuid, String key, long generation) {
+        V state = get(hostUuid, key);
+        return state != null && state.getGeneration() == generation;
+    }
+
+    /**
+     * forgets the state if it's still the given generation, a later change has replaced it otherwise
+     */
+    public void forget(String hostUuid, String key, long generation) {
+        Map<String, V> states = hosts.get(hostUuid);
+        if (states == null) {
+            return;
+        }
+
+        synchronized (states) {
+            V state = states.get(key);
+            if (state != null && state.getGeneration() == generation) {
+                states.remove(key);
+            }
+        }
+    }
+
+    public void forget(String hostUuid, String key) {
+        Map<String, V> states = hostUuid == null ? null : hosts.get(hostUuid);
+        if (states == null) {
+            return;
+        }
+
+        synchronized (states) {
+            states.remove(key);
+        }
+    }
+
+    public void forgetHost(String hostUuid) {
+        hosts.remove(hostUuid);
+    }
+
+    /**
+     * forgets states of the key on all hosts
+     */
+    public void forgetKey(String key) {
+        retainHosts(key, null);
+    }
+
+    /**
+     * forgets states of the key on hosts other than the given ones
+     *
+     * @param hostUuids null to forget states of the key on all hosts
+     */
+    public void retainHosts(String key, Collection<String> hostUuids) {
+        hosts.forEach((hostUuid, states) -> {
+            if (hostUuids != null && hostUuids.contains(hostUuid)) {
+                return;
+            }
+
+            synchronized (states) {
+                states.remove(key);
+            }
+        });
+    }
+
+    public void forgetAll() {
+        hosts.clear();
+    }
+}
@@ -0,0 +1,194 @@
+package org.zstack.core.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.zstack.core.Platform;
+import org.zstack.core.cache.DistributedEvictingCacheCanonicalEvents.EvictEvent;
+import org.zstack.core.cloudbus.EventCallback;
+import org.zstack.core.cloudbus.EventFacade;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.zstack.utils.CollectionDSL.e;
+import static org.zstack.utils.CollectionDSL.map;
+import static org.zstack.utils.StringDSL.s;
+
+/**
+ * a node-local cache keyed by string, evicted on all management nodes.
+ *
+ * evict() drops keys on this node right now, and again when the current transaction completes
+ * because the cache may be loaded before the transaction commits; evictions of a transaction
+ * are then published to other management nodes in one DistributedEvictingCacheCanonicalEvents,
+ * once the cache is installed by install(). A value loaded across an eviction is not cached,
+ * and entries expire after the TTL in case of changes made by SQL not reporting to evict().
+ *
+ * Caches whose values don't map one to one to the keys override drop(), e.g. marking parts
+ * of a value dirty instead of dropping it.
+ */
+public class DistributedEvictingCache<V> {
+    private final Cache<String, V> cache;
+    private final AtomicLong generation = new AtomicLong();
+    private volatile String eventPath;
+    private volatile EventFacade evtf;
+
+    private static class PendingEviction {
+        // null to evict all keys
+        Set<String> keys = new LinkedHashSet<>();
+
+        void add(Collection<String> ks) {
+            if (ks == null) {
+                keys = null;
+            } else if (keys != null) {
+                keys.addAll(ks);
+            }
+        }
+    }
+
+    public DistributedEvictingCache(long size, long ttlInSeconds) {
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(size)
+                .expireAfterWrite(ttlInSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * evicts keys evicted by other management nodes, and publishes evictions of this node to them
+     *
+     * @param name unique name of the cache among management nodes
+     */
+    public void install(String name, EventFacade evtf) {
+        this.evtf = evtf;
+        eventPath = s(DistributedEvictingCacheCanonicalEvents.EVICT_EVENT_PATH).formatByMap(map(
+                e("name", name),
+                e("nodeUuid", Platform.getManagementServerId())
+        ));
+
+        evtf.on(s(DistributedEvictingCacheCanonicalEvents.EVICT_EVENT_PATH).formatByMap(map(e("name", name))), new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                if (Platform.getManagementServerId().equals(tokens.get("nodeUuid"))) {
+                    return;
+                }
+
+                evictLocal(((EvictEvent) data).getKeys());
+            }
+        });
+    }
+
+    public V get(String key) {
+        return cache.getIfPresent(key);
+    }
+
+    public Map<String, V> asMap() {
+        return cache.asMap();
+    }
+
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * @param generation got by getGeneration() before loading the value, the value is not
+     *                   cached if keys have been evicted since then because it may be stale
+     */
+    public void put(String key, V value, long generation) {
+        putAll(Collections.singletonMap(key, value), generation);
+    }
+
+    public void putAll(Map<String, V> values, long generation) {
+        synchronized (this.generation) {
+            if (generation == this.generation.get()) {
+                cache.putAll(values);
+            }
+        }
+    }
+
+    /**
+     * drops a value of this node only, without counting as an eviction
+     */
+    public void invalidate(String key) {
+        cache.invalidate(key);
+    }
+
+    /**
+     * drops values of the keys, the generation has been bumped and is locked
+     */
+    protected void drop(Collection<String> keys) {
+        cache.invalidateAll(keys);
+    }
+
+    /**
+     * evicts keys of this node only
+     *
+     * @param keys null to evict all keys
+     */
+    public void evictLocal(Collection<String> keys) {
+        synchronized (generation) {
+            generation.incrementAndGet();
+            if (keys == null) {
+                cache.invalidateAll();
+            } else {
+                drop(keys);
+            }
+        }
+    }
+
+    /**
+     * evicts keys of this node right now, again when the current transaction completes,
+     * and of other management nodes after that
+     *
+     * @param keys null to evict all keys
+     */
+    public void evict(Collection<String> keys) {
+        List<String> ks = keys == null ? null : new ArrayList<>(keys);
+        evictLocal(ks);
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            notifyEviction(ks);
+            return;
+        }
+
+        PendingEviction pending = (PendingEviction) TransactionSynchronizationManager.getResource(this);
+        if (pending != null) {
+            pending.add(ks);
+            return;
+        }
+
+        PendingEviction p = new PendingEviction();
+        p.add(ks);
+        TransactionSynchronizationManager.bindResource(this, p);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(DistributedEvictingCache.this);
+                evictLocal(p.keys);
+                // a rolled back transaction may have been seen as well
+                notifyEviction(p.keys);
+            }
+        });
+    }
+
+    private void notifyEviction(Collection<String> keys) {
+        if (evtf == null) {
+            return;
+        }
+
+        EvictEvent evt = new EvictEvent();
+        evt.setKeys(keys == null ? null : new ArrayList<>(keys));
+        evtf.fire(eventPath, evt);
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+}
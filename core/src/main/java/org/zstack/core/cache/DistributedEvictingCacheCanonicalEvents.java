@@ -0,0 +1,25 @@
+package org.zstack.core.cache;
+
+import org.zstack.header.message.NeedJsonSchema;
+
+import java.util.List;
+
+/**
+ */
+public class DistributedEvictingCacheCanonicalEvents {
+    public static final String EVICT_EVENT_PATH = "/cache/evict/{name}/{nodeUuid}";
+
+    @NeedJsonSchema
+    public static class EvictEvent {
+        // null to evict all keys
+        private List<String> keys;
+
+        public List<String> getKeys() {
+            return keys;
+        }
+
+        public void setKeys(List<String> keys) {
+            this.keys = keys;
+        }
+    }
+}
@@ -93,6 +93,15 @@ public interface CloudBus extends Component {
         throw new AbstractMethodError("not supported");
     }
 
+    /**
+     *  this method should be inherited by implementations using the pipelined HTTP transport
+     * @param frame a batch of messages encoded by CloudBusFrameCodec
+     * @param rsp
+     */
+    default void handleHttpFrame(byte[] frame, HttpServletResponse rsp) {
+        throw new AbstractMethodError("not supported");
+    }
+
     String HEADER_NO_NEED_REPLY_MSG = "noReply";
     String HEADER_CORRELATION_ID = "correlationId";
     String HEADER_REPLY_TO = "replyTo";
@@ -4,6 +4,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.stereotype.Controller;
+import org.springframework.util.StreamUtils;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.zstack.header.exception.CloudRuntimeException;
@@ -49,4 +50,17 @@ public class CloudBusController {
         //Platform.getComponentLoader().getComponent(CloudBusImpl3.class).handleHttpRequest(entity, response);
         bus.handleHttpRequest(entity, response);
     }
+
+    @RequestMapping(value = CloudBusImpl3.HTTP_FRAME_URL, method = RequestMethod.POST)
+    public void handleFrame(HttpServletRequest request, HttpServletResponse response) {
+        byte[] frame;
+        try {
+            frame = StreamUtils.copyToByteArray(request.getInputStream());
+        } catch (Exception e) {
+            logger.warn(e.getMessage(), e);
+            throw new CloudRuntimeException(e);
+        }
+
+        bus.handleHttpFrame(frame, response);
+    }
 }
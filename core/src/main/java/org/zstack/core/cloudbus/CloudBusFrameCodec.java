@@ -0,0 +1,64 @@
+package org.zstack.core.cloudbus;
+
+import org.zstack.header.exception.CloudRuntimeException;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * a frame carries a batch of serialized messages sent to the same management node
+ * in one HTTP request. Layout before deflating:
+ *
+ * magic(int) | version(int) | count(int) | count * [length(int) | message json in UTF-8]
+ */
+public class CloudBusFrameCodec {
+    private static final int MAGIC = 0x5a434246;
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 8192;
+
+    public static byte[] encode(List<String> messages) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(BUFFER_SIZE);
+        try (DataOutputStream dos = new DataOutputStream(new DeflaterOutputStream(out, new Deflater(), BUFFER_SIZE))) {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeInt(messages.size());
+            for (String msg : messages) {
+                byte[] bytes = msg.getBytes(StandardCharsets.UTF_8);
+                dos.writeInt(bytes.length);
+                dos.write(bytes);
+            }
+        }
+
+        return out.toByteArray();
+    }
+
+    public static List<String> decode(byte[] frame) throws IOException {
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(
+                new InflaterInputStream(new ByteArrayInputStream(frame)), BUFFER_SIZE))) {
+            int magic = dis.readInt();
+            if (magic != MAGIC) {
+                throw new CloudRuntimeException(String.format("invalid cloudbus frame, magic[%s] mismatch", Integer.toHexString(magic)));
+            }
+
+            int version = dis.readInt();
+            if (version != VERSION) {
+                throw new CloudRuntimeException(String.format("unsupported cloudbus frame version[%s], expected %s", version, VERSION));
+            }
+
+            int count = dis.readInt();
+            List<String> messages = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] bytes = new byte[dis.readInt()];
+                dis.readFully(bytes);
+                messages.add(new String(bytes, StandardCharsets.UTF_8));
+            }
+
+            return messages;
+        }
+    }
+}
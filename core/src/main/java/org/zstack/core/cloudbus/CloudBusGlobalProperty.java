@@ -54,6 +54,14 @@ public class CloudBusGlobalProperty {
     public static boolean HTTP_ALWAYS;
     @GlobalProperty(name="CloudBus.httpContextPath", defaultValue = "/zstack")
     public static String HTTP_CONTEXT_PATH;
+    // json: one HTTP POST per message; pipeline: batched binary frames over
+    // pooled keep-alive connections with a queue per destination node
+    @GlobalProperty(name="CloudBus.httpTransport", defaultValue = "json")
+    public static String HTTP_TRANSPORT;
+    @GlobalProperty(name="CloudBus.pipelineConnectionsPerNode", defaultValue = "8")
+    public static int PIPELINE_CONN_PER_NODE;
+    @GlobalProperty(name="CloudBus.pipelineMaxFrameMessages", defaultValue = "64")
+    public static int PIPELINE_MAX_FRAME_MESSAGES;
     // Unit of SYNC_CALL_TIMEOUT: millisecond
     @GlobalProperty(name="Cloudbus.syncCallTimeout", defaultValue = "900000")
     public static int SYNC_CALL_TIMEOUT;
@@ -101,6 +101,10 @@ public class CloudBusImpl3 implements CloudBus, CloudBusIN {
     private final static TimeoutRestTemplate http = RESTFacade.createRestTemplate(CoreGlobalProperty.REST_FACADE_READ_TIMEOUT, CoreGlobalProperty.REST_FACADE_CONNECT_TIMEOUT);
 
     public static final String HTTP_BASE_URL = "/cloudbus";
+    public static final String HTTP_FRAME_URL = "/cloudbus/frame";
+    public static final String HTTP_TRANSPORT_PIPELINE = "pipeline";
+
+    private volatile CloudBusPipeline pipeline;
 
     {
         if (CloudBusGlobalProperty.MESSAGE_LOG != null) {
@@ -511,6 +515,28 @@ public class CloudBusImpl3 implements CloudBus, CloudBusIN {
         doPublish(event);
     }
 
+    private CloudBusPipeline getPipeline() {
+        if (pipeline != null) {
+            return pipeline;
+        }
+
+        synchronized (this) {
+            if (pipeline == null) {
+                pipeline = new CloudBusPipeline(thdf);
+                logger.info(String.format("cloudbus uses the pipelined transport, connections per node: %s, max messages per frame: %s",
+                        CloudBusGlobalProperty.PIPELINE_CONN_PER_NODE, CloudBusGlobalProperty.PIPELINE_MAX_FRAME_MESSAGES));
+            }
+
+            return pipeline;
+        }
+    }
+
+    private static String makeHttpUrl(String ip, String path) {
+        return CloudBusGlobalProperty.HTTP_CONTEXT_PATH.isEmpty() ? String.format("http://%s:%s%s",
+                ip, CloudBusGlobalProperty.HTTP_PORT, path) : String.format("http://%s:%s/%s/%s",
+                ip, CloudBusGlobalProperty.HTTP_PORT, CloudBusGlobalProperty.HTTP_CONTEXT_PATH, path);
+    }
+
     class MessageSender {
         private final Message msg;
         private final String managementNodeId;
@@ -548,6 +574,11 @@ public class CloudBusImpl3 implements CloudBus, CloudBusIN {
         }
 
         private void httpSendInQueue(String ip) {
+            if (HTTP_TRANSPORT_PIPELINE.equals(CloudBusGlobalProperty.HTTP_TRANSPORT)) {
+                getPipeline().send(makeHttpUrl(ip, HTTP_FRAME_URL), CloudBusGson.toJson(msg), this::replyErrorIfNeeded);
+                return;
+            }
+
             thdf.chainSubmit(new ChainTask(null) {
                 @Override
                 public String getSyncSignature() {
@@ -592,9 +623,7 @@ public class CloudBusImpl3 implements CloudBus, CloudBusIN {
         }
 
         private void httpSend(String ip) {
-            String url = CloudBusGlobalProperty.HTTP_CONTEXT_PATH.isEmpty() ? String.format("http://%s:%s%s",
-                    ip, CloudBusGlobalProperty.HTTP_PORT, HTTP_BASE_URL) : String.format("http://%s:%s/%s/%s",
-                    ip, CloudBusGlobalProperty.HTTP_PORT, CloudBusGlobalProperty.HTTP_CONTEXT_PATH, HTTP_BASE_URL);
+            String url = makeHttpUrl(ip, HTTP_BASE_URL);
 
             HttpHeaders headers = new HttpHeaders();
             HttpEntity<String> req = new HttpEntity<>(CloudBusGson.toJson(msg), headers);
@@ -1267,24 +1296,56 @@ public class CloudBusImpl3 implements CloudBus, CloudBusIN {
         return CloudBusGson.fromJson(CloudBusGson.toJson(obj), clazz);
     }
 
+    private void deliverHttpMessage(String body) {
+        Message msg = CloudBusGson.fromJson(body);
+        Map raw = JSONObjectUtil.toObject(body, LinkedHashMap.class);
+        try {
+            restoreFromSchema(msg, raw);
+        } catch (ClassNotFoundException e1) {
+            throw new CloudRuntimeException(e1);
+        }
+
+        new MessageSender(msg).localSend();
+    }
+
     @AsyncThread
     public void handleHttpRequest(HttpEntity<String> e, HttpServletResponse rsp) {
         try {
-            Message msg = CloudBusGson.fromJson(e.getBody());
-            Map raw = JSONObjectUtil.toObject(e.getBody(), LinkedHashMap.class);
-            try {
-                restoreFromSchema(msg, raw);
-            } catch (ClassNotFoundException e1) {
-                throw new CloudRuntimeException(e1);
-            }
-
-            new MessageSender(msg).localSend();
+            deliverHttpMessage(e.getBody());
             rsp.setStatus(HttpStatus.OK.value());
         } catch (Throwable t) {
             logger.warn(String.format("unable to deliver a message received from HTTP. HTTP body: %s", e.getBody()), t);
         }
     }
 
+    @Override
+    public void handleHttpFrame(byte[] frame, HttpServletResponse rsp) {
+        List<String> bodies;
+        try {
+            bodies = CloudBusFrameCodec.decode(frame);
+        } catch (Throwable t) {
+            logger.warn("unable to decode a cloudbus frame received from HTTP", t);
+            rsp.setStatus(HttpStatus.BAD_REQUEST.value());
+            return;
+        }
+
+        // the frame is acknowledged once decoded, messages are delivered asynchronously
+        // in the order they are packed
+        rsp.setStatus(HttpStatus.OK.value());
+        deliverHttpMessages(bodies);
+    }
+
+    @AsyncThread
+    private void deliverHttpMessages(List<String> bodies) {
+        for (String body : bodies) {
+            try {
+                deliverHttpMessage(body);
+            } catch (Throwable t) {
+                logger.warn(String.format("unable to deliver a message received from a cloudbus frame. body: %s", body), t);
+            }
+        }
+    }
+
     @Override
     public int getEnvelopeSize() {
         return envelopes.size();
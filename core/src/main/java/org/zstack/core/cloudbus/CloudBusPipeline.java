@@ -0,0 +1,175 @@
+package org.zstack.core.cloudbus;
+
+import org.apache.http.impl.client.HttpClients;
+import org.springframework.http.*;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+import org.zstack.core.CoreGlobalProperty;
+import org.zstack.core.retry.Retry;
+import org.zstack.core.retry.RetryCondition;
+import org.zstack.core.thread.Task;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.zstack.core.Platform.operr;
+
+/**
+ * the pipelined transport of CloudBus3.
+ *
+ * Every destination node owns a queue, at most CloudBus.pipelineConnectionsPerNode drainers
+ * take messages from the queue and send them in batched frames(see CloudBusFrameCodec) through
+ * pooled keep-alive connections, so a slow node only blocks its own queue.
+ */
+class CloudBusPipeline {
+    private static final CLogger logger = Utils.getLogger(CloudBusPipeline.class);
+
+    private final ThreadFacade thdf;
+    private final RestTemplate template;
+    private final Map<String, NodeQueue> queues = new ConcurrentHashMap<>();
+
+    private static class PendingMessage {
+        final String body;
+        final Consumer<ErrorCode> onFailure;
+
+        PendingMessage(String body, Consumer<ErrorCode> onFailure) {
+            this.body = body;
+            this.onFailure = onFailure;
+        }
+    }
+
+    private class NodeQueue {
+        final String url;
+        final Queue<PendingMessage> pending = new ConcurrentLinkedQueue<>();
+        final AtomicInteger drainers = new AtomicInteger(0);
+
+        NodeQueue(String url) {
+            this.url = url;
+        }
+
+        void offer(PendingMessage m) {
+            pending.offer(m);
+            startDrainerIfNeeded();
+        }
+
+        private void startDrainerIfNeeded() {
+            if (drainers.incrementAndGet() > CloudBusGlobalProperty.PIPELINE_CONN_PER_NODE) {
+                drainers.decrementAndGet();
+                return;
+            }
+
+            thdf.submit(new Task<Void>() {
+                @Override
+                public Void call() {
+                    drain();
+                    return null;
+                }
+
+                private void drain() {
+                    try {
+                        List<PendingMessage> frame = pollFrame();
+                        while (!frame.isEmpty()) {
+                            sendFrame(url, frame);
+                            frame = pollFrame();
+                        }
+                    } finally {
+                        drainers.decrementAndGet();
+                        // a message may be offered after the last poll but before the decrement,
+                        // its producer could see all drainers busy and skip starting a new one
+                        if (!pending.isEmpty()) {
+                            startDrainerIfNeeded();
+                        }
+                    }
+                }
+
+                @Override
+                public String getName() {
+                    return String.format("cloudbus-pipeline-%s", url);
+                }
+            });
+        }
+
+        private List<PendingMessage> pollFrame() {
+            List<PendingMessage> frame = new ArrayList<>();
+            PendingMessage m;
+            while (frame.size() < CloudBusGlobalProperty.PIPELINE_MAX_FRAME_MESSAGES && (m = pending.poll()) != null) {
+                frame.add(m);
+            }
+
+            return frame;
+        }
+    }
+
+    CloudBusPipeline(ThreadFacade thdf) {
+        this.thdf = thdf;
+
+        HttpComponentsClientHttpRequestFactory factory = new HttpComponentsClientHttpRequestFactory(HttpClients.custom()
+                .setMaxConnPerRoute(CloudBusGlobalProperty.PIPELINE_CONN_PER_NODE)
+                .setMaxConnTotal(CloudBusGlobalProperty.PIPELINE_CONN_PER_NODE * 32)
+                .build());
+        factory.setReadTimeout(CoreGlobalProperty.REST_FACADE_READ_TIMEOUT);
+        factory.setConnectTimeout(CoreGlobalProperty.REST_FACADE_CONNECT_TIMEOUT);
+        factory.setConnectionRequestTimeout(CoreGlobalProperty.REST_FACADE_CONNECT_TIMEOUT * 2);
+        template = new RestTemplate(factory);
+    }
+
+    void send(String url, String body, Consumer<ErrorCode> onFailure) {
+        queues.computeIfAbsent(url, NodeQueue::new).offer(new PendingMessage(body, onFailure));
+    }
+
+    private void sendFrame(String url, List<PendingMessage> frame) {
+        ErrorCode err = null;
+
+        try {
+            List<String> bodies = new ArrayList<>(frame.size());
+            frame.forEach(m -> bodies.add(m.body));
+
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+            HttpEntity<byte[]> req = new HttpEntity<>(CloudBusFrameCodec.encode(bodies), headers);
+
+            ResponseEntity<String> rsp = new Retry<ResponseEntity<String>>() {
+                {
+                    interval = 2;
+                }
+
+                @Override
+                @RetryCondition(onExceptions = {IOException.class, RestClientException.class, HttpClientErrorException.class})
+                protected ResponseEntity<String> call() {
+                    return template.exchange(url, HttpMethod.POST, req, String.class);
+                }
+            }.run();
+
+            if (!rsp.getStatusCode().is2xxSuccessful()) {
+                err = operr("HTTP ERROR, status code: %s, body: %s", rsp.getStatusCode(), rsp.getBody());
+            }
+        } catch (Throwable t) {
+            err = operr(t.getMessage());
+        }
+
+        if (err == null) {
+            return;
+        }
+
+        for (PendingMessage m : frame) {
+            try {
+                m.onFailure.accept(err);
+            } catch (Throwable t) {
+                logger.warn(String.format("unable to send a message to %s, %s", url, err), t);
+            }
+        }
+    }
+}
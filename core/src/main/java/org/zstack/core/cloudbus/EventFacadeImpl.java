@@ -38,6 +38,8 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
 
     private final Map<String, CallbackWrapper> global = new ConcurrentHashMap<>();
     private final Map<String, CallbackWrapper> local =  new ConcurrentHashMap<>();
+    private final EventPathIndex<CallbackWrapper> globalIndex = new EventPathIndex<>();
+    private final EventPathIndex<CallbackWrapper> localIndex = new EventPathIndex<>();
 
     private EventSubscriberReceipt unsubscriber;
 
@@ -72,13 +74,11 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
 
     private class CallbackWrapper {
         String path;
-        String glob;
         AbstractEventFacadeCallback callback;
         AtomicBoolean hasRun;
 
         CallbackWrapper(String path, AbstractEventFacadeCallback callback) {
             this.path = path;
-            this.glob = createRegexFromGlob(path.replaceAll("\\{.*\\}", ".*"));
             this.callback = callback;
             if (callback instanceof AutoOffEventCallback) {
                 hasRun = new AtomicBoolean(false);
@@ -89,18 +89,13 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
             return callback;
         }
 
-        public String getGlob() {
-            return glob;
-        }
-
         @AsyncThread
-        void call(CanonicalEvent e) {
+        void call(CanonicalEvent e, Map<String, String> tokens) {
             TaskContext.removeTaskContext();
 
             if (callback instanceof EventRunnable) {
                 ((EventRunnable) callback).run();
             } else {
-                Map<String, String> tokens = tokenize(e.getPath(), path);
                 tokens.put(EventFacade.META_DATA_MANAGEMENT_NODE_ID, e.getManagementNodeId());
                 tokens.put(EventFacade.META_DATA_PATH, e.getPath());
                 Object data = null;
@@ -128,81 +123,61 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
     }
 
     public String createRegexFromGlob(String glob) {
-        String out = "^";
-        for(int i = 0; i < glob.length(); ++i) {
-            final char c = glob.charAt(i);
-            switch(c) {
-                case '*': out += ".*"; break;
-                case '?': out += '.'; break;
-                case '\\': out += "\\\\"; break;
-                default: out += c;
-            }
-        }
-        out += '$';
-        return out;
+        return EventPathIndex.createRegexFromGlob(glob);
     }
 
-    private Map<String, String> tokenize(String str1, String str2) {
-        StringTokenizer token = new StringTokenizer(str1, "/");
-        List<String> origins =  new ArrayList<String>();
-        while (token.hasMoreElements()) {
-            origins.add(token.nextToken());
+    private void subscribe(Map<String, CallbackWrapper> wrappers, EventPathIndex<CallbackWrapper> index,
+                           String path, AbstractEventFacadeCallback cb) {
+        CallbackWrapper wrapper = new CallbackWrapper(path, cb);
+        index.add(path, wrapper);
+        CallbackWrapper old = wrappers.put(cb.uniqueIdentity, wrapper);
+        if (old != null) {
+            index.remove(old.path, old);
         }
+    }
 
-        token = new StringTokenizer(str2, "/");
-        List<String> t = new ArrayList<String>();
-        while (token.hasMoreElements()) {
-            t.add(token.nextToken());
-        }
-
-        Map ret = new HashMap();
-        for (int i=0;i<t.size(); i++) {
-            String key = t.get(i);
-            if (!key.startsWith("{") || !key.endsWith("}")) {
-                continue;
-            }
-
-            key = key.replaceAll("\\{", "").replaceAll("\\}", "");
-            ret.put(key, origins.get(i));
+    private void unsubscribe(Map<String, CallbackWrapper> wrappers, EventPathIndex<CallbackWrapper> index,
+                             AbstractEventFacadeCallback cb) {
+        CallbackWrapper old = wrappers.remove(cb.uniqueIdentity);
+        if (old != null) {
+            index.remove(old.path, old);
         }
-
-        return ret;
     }
 
     @Override
     public void on(String path, AutoOffEventCallback cb) {
-        global.put(cb.uniqueIdentity, new CallbackWrapper(path, cb));
+        subscribe(global, globalIndex, path, cb);
     }
 
     @Override
     public void on(String path, final EventCallback cb) {
-        global.put(cb.uniqueIdentity, new CallbackWrapper(path, cb));
+        subscribe(global, globalIndex, path, cb);
     }
 
     @Override
     public void on(String path, EventRunnable cb) {
-        global.put(cb.uniqueIdentity, new CallbackWrapper(path, cb));
+        subscribe(global, globalIndex, path, cb);
     }
 
     @Override
     public void off(AbstractEventFacadeCallback cb) {
-        global.remove(cb.uniqueIdentity);
-        local.remove(cb.uniqueIdentity);
+        unsubscribe(global, globalIndex, cb);
+        unsubscribe(local, localIndex, cb);
     }
 
     @Override
     public void onLocal(String path, AutoOffEventCallback cb) {
-        local.put(cb.uniqueIdentity, new CallbackWrapper(path, cb));
+        subscribe(local, localIndex, path, cb);
     }
 
     @Override
     public void onLocal(String path, EventCallback cb) {
-        local.put(cb.uniqueIdentity, new CallbackWrapper(path, cb));
+        subscribe(local, localIndex, path, cb);
     }
 
     @Override
     public void onLocal(String path, EventRunnable cb) {
-        local.put(cb.uniqueIdentity, new CallbackWrapper(path, cb));
+        subscribe(local, localIndex, path, cb);
     }
 
     @Override
@@ -246,13 +221,8 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
     }
 
     private void fireLocal(CanonicalEvent cevt) {
-        Map<String, CallbackWrapper> wrappers = new HashMap<>();
-        wrappers.putAll(local);
-
-        for (CallbackWrapper w : wrappers.values()) {
-            if (cevt.getPath().matches(w.getGlob())) {
-                w.call(cevt);
-            }
+        for (EventPathIndex.Match<CallbackWrapper> m : localIndex.match(cevt.getPath())) {
+            m.getValue().call(cevt, m.getTokens());
         }
     }
 
@@ -268,12 +238,8 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
         }
 
         CanonicalEvent cevt = (CanonicalEvent)evt;
-        Map<String, CallbackWrapper> wrappers = new HashMap<>();
-        wrappers.putAll(global);
-        for (CallbackWrapper w : wrappers.values()) {
-            if (cevt.getPath().matches(w.getGlob())) {
-                w.call(cevt);
-            }
+        for (EventPathIndex.Match<CallbackWrapper> m : globalIndex.match(cevt.getPath())) {
+            m.getValue().call(cevt, m.getTokens());
         }
 
         return false;
@@ -0,0 +1,227 @@
+package org.zstack.core.cloudbus;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * an index of canonical event subscriptions keyed by path pattern.
+ *
+ * Patterns are split into segments by '/' and kept in a trie: a literal segment
+ * matches itself, a {token} segment matches any one segment, and a '*' segment matches
+ * one or more segments. A path is matched in one walk of the trie, which also extracts
+ * tokens of the matched subscriptions. Patterns with '?', or '*' and {token} inside
+ * a segment, can't be put in the trie and are matched by regex as before.
+ */
+public class EventPathIndex<T> {
+    private static final String ANY_SEGMENTS = "*";
+
+    private final Node<T> root = new Node<>();
+    private final Map<Subscription<T>, Pattern> regexSubscriptions = new ConcurrentHashMap<>();
+
+    private static class Node<T> {
+        final Map<String, Node<T>> children = new ConcurrentHashMap<>();
+        volatile Node<T> anySegment;
+        volatile Node<T> anySegments;
+        final Set<Subscription<T>> subscriptions = ConcurrentHashMap.newKeySet();
+    }
+
+    private static class Subscription<T> {
+        final T value;
+        // token name by the position of the segment in the pattern
+        final Map<Integer, String> tokens = new HashMap<>();
+
+        Subscription(T value, List<String> segments) {
+            this.value = value;
+            for (int i = 0; i < segments.size(); i++) {
+                String s = segments.get(i);
+                if (isToken(s)) {
+                    tokens.put(i, s.substring(1, s.length() - 1));
+                }
+            }
+        }
+
+        Map<String, String> tokenize(List<String> pathSegments) {
+            Map<String, String> ret = new HashMap<>();
+            tokens.forEach((i, name) -> {
+                if (i < pathSegments.size()) {
+                    ret.put(name, pathSegments.get(i));
+                }
+            });
+            return ret;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Subscription && ((Subscription) o).value == value;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(value);
+        }
+    }
+
+    public static class Match<T> {
+        private final T value;
+        private final Map<String, String> tokens;
+
+        Match(T value, Map<String, String> tokens) {
+            this.value = value;
+            this.tokens = tokens;
+        }
+
+        public T getValue() {
+            return value;
+        }
+
+        public Map<String, String> getTokens() {
+            return tokens;
+        }
+    }
+
+    static List<String> split(String path) {
+        List<String> ret = new ArrayList<>();
+        StringTokenizer token = new StringTokenizer(path, "/");
+        while (token.hasMoreElements()) {
+            ret.add(token.nextToken());
+        }
+        return ret;
+    }
+
+    private static boolean isToken(String segment) {
+        return segment.startsWith("{") && segment.endsWith("}") && segment.indexOf('{', 1) < 0;
+    }
+
+    private static boolean isIndexable(String path, List<String> segments) {
+        if (!path.startsWith("/") || path.contains("//") || path.endsWith("/")) {
+            return false;
+        }
+
+        for (String s : segments) {
+            if (isToken(s) || ANY_SEGMENTS.equals(s)) {
+                continue;
+            }
+
+            if (s.contains("*") || s.contains("?") || s.contains("{") || s.contains("}")) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    public static String createRegexFromGlob(String glob) {
+        StringBuilder out = new StringBuilder("^");
+        for (int i = 0; i < glob.length(); ++i) {
+            final char c = glob.charAt(i);
+            switch (c) {
+                case '*': out.append(".*"); break;
+                case '?': out.append('.'); break;
+                case '\\': out.append("\\\\"); break;
+                default: out.append(c);
+            }
+        }
+        out.append('$');
+        return out.toString();
+    }
+
+    public void add(String path, T value) {
+        List<String> segments = split(path);
+        Subscription<T> sub = new Subscription<>(value, segments);
+        if (!isIndexable(path, segments)) {
+            regexSubscriptions.put(sub, Pattern.compile(createRegexFromGlob(path.replaceAll("\\{.*\\}", ".*"))));
+            return;
+        }
+
+        synchronized (root) {
+            Node<T> node = root;
+            for (String s : segments) {
+                if (isToken(s)) {
+                    if (node.anySegment == null) {
+                        node.anySegment = new Node<>();
+                    }
+                    node = node.anySegment;
+                } else if (ANY_SEGMENTS.equals(s)) {
+                    if (node.anySegments == null) {
+                        node.anySegments = new Node<>();
+                    }
+                    node = node.anySegments;
+                } else {
+                    node = node.children.computeIfAbsent(s, k -> new Node<>());
+                }
+            }
+
+            node.subscriptions.add(sub);
+        }
+    }
+
+    public void remove(String path, T value) {
+        Subscription<T> sub = new Subscription<>(value, Collections.emptyList());
+        if (regexSubscriptions.remove(sub) != null) {
+            return;
+        }
+
+        Node<T> node = root;
+        for (String s : split(path)) {
+            if (isToken(s)) {
+                node = node.anySegment;
+            } else if (ANY_SEGMENTS.equals(s)) {
+                node = node.anySegments;
+            } else {
+                node = node.children.get(s);
+            }
+
+            if (node == null) {
+                return;
+            }
+        }
+
+        node.subscriptions.remove(sub);
+    }
+
+    public List<Match<T>> match(String path) {
+        List<String> segments = split(path);
+        Set<Subscription<T>> subs = new LinkedHashSet<>();
+        if (path.startsWith("/")) {
+            match(root, segments, 0, subs);
+        }
+
+        List<Match<T>> ret = new ArrayList<>(subs.size());
+        for (Subscription<T> sub : subs) {
+            ret.add(new Match<>(sub.value, sub.tokenize(segments)));
+        }
+
+        regexSubscriptions.forEach((sub, regex) -> {
+            if (regex.matcher(path).matches()) {
+                ret.add(new Match<>(sub.value, sub.tokenize(segments)));
+            }
+        });
+
+        return ret;
+    }
+
+    private void match(Node<T> node, List<String> segments, int i, Set<Subscription<T>> subs) {
+        if (i == segments.size()) {
+            subs.addAll(node.subscriptions);
+            return;
+        }
+
+        Node<T> child = node.children.get(segments.get(i));
+        if (child != null) {
+            match(child, segments, i + 1, subs);
+        }
+
+        child = node.anySegment;
+        if (child != null) {
+            match(child, segments, i + 1, subs);
+        }
+
+        child = node.anySegments;
+        if (child != null) {
+            for (int j = i + 1; j <= segments.size(); j++) {
+                match(child, segments, j, subs);
+            }
+        }
+    }
+}
@@ -76,12 +76,21 @@ public class DBGraph {
         }
 
         public String toSQL(String field, SimpleQuery.Op op, String value) {
-            return makeSQL(this, field, op, value);
+            return makeSQL(this, field, op, value, false);
         }
 
-        private static String makeSQL(EntityVertex vertex, String field, SimpleQuery.Op op, String val) {
+        /**
+         * the same as toSQL() but selects the field of the first entity as well,
+         * so results of a query matching many values can be mapped back to them
+         */
+        public String toSQLWithSourceField(String field, SimpleQuery.Op op, String value) {
+            return makeSQL(this, field, op, value, true);
+        }
+
+        private static String makeSQL(EntityVertex vertex, String field, SimpleQuery.Op op, String val, boolean selectSourceField) {
             List<String> from = new ArrayList<>();
             List<String> conditions = new ArrayList<>();
+            String source = String.format("%s_.%s", vertex.entityClass.getSimpleName(), field);
             while (true) {
                 String entity = String.format("%s_", vertex.entityClass.getSimpleName());
                 String vo = vertex.entityClass.getSimpleName();
@@ -101,7 +110,7 @@ public class DBGraph {
                 }
 
                 String primaryKey = vertex.previous != null ? vertex.previous.dstKey : EntityMetadata.getPrimaryKeyField(vertex.entityClass).getName();
-                return String.format("select %s.%s from %s where %s", entity, primaryKey,
+                return String.format("select %s%s.%s from %s where %s", selectSourceField ? source + ", " : "", entity, primaryKey,
                         StringUtils.join(from, ", "),
                         StringUtils.join(conditions, " and "));
             }
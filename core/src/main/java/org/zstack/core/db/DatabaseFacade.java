@@ -23,6 +23,11 @@ public interface DatabaseFacade {
     <T> T persist(T entity);
 
     void persistCollection(Collection entities);
+
+    /**
+     * persist entities not in database yet and update the others
+     */
+    void persistOrUpdateCollection(Collection entities);
     
     <T> T persistAndRefresh(T entity);
     
@@ -8,8 +8,10 @@ import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.zstack.core.Platform;
+import org.zstack.core.cloudbus.EventFacade;
 import org.zstack.core.componentloader.PluginRegistry;
 import org.zstack.core.db.TransactionalCallback.Operation;
+import org.zstack.core.jmx.JmxFacade;
 import org.zstack.header.Component;
 import org.zstack.header.core.ExceptionSafe;
 import org.zstack.header.exception.CloudRuntimeException;
@@ -29,6 +31,7 @@ import java.sql.SQLIntegrityConstraintViolationException;
 import java.sql.Timestamp;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 import static org.zstack.utils.CollectionDSL.list;
 
@@ -42,6 +45,10 @@ public class DatabaseFacadeImpl implements DatabaseFacade, Component {
 
     @Autowired
     private PluginRegistry pluginRgty;
+    @Autowired
+    private EventFacade evtf;
+    @Autowired
+    private JmxFacade jmxf;
 
     private static AtomicLong dberror = new AtomicLong(0);
     private static AtomicLong dbdeadlock = new AtomicLong(0);
@@ -57,6 +64,8 @@ public class DatabaseFacadeImpl implements DatabaseFacade, Component {
     private Map<Class, List<HardDeleteEntityExtensionPoint>> hardDeleteExtensions = new HashMap<Class, List<HardDeleteEntityExtensionPoint>>();
     private List<HardDeleteEntityExtensionPoint> hardDeleteForAllExtensions = new ArrayList<HardDeleteEntityExtensionPoint>();
     private Map<Class, EntityInfo> entityInfoMap = new HashMap<Class, EntityInfo>();
+    private Map<String, Class> entityClassesByName = new HashMap<>();
+    private EntityCache entityCache = new EntityCache(Collections.emptyList(), 0, 0);
     private String dbVersion;
 
     class EntityInfo {
@@ -330,6 +339,7 @@ public class DatabaseFacadeImpl implements DatabaseFacade, Component {
             q.setParameter("ids", ids);
             q.setParameter("date", new Timestamp(new Date().getTime()).toString());
             q.executeUpdate();
+            evictEntityCache(voClass, ids);
 
             fireSoftDeleteExtension(ids, voClass);
             fireSoftDeleteExtensionByEOClass(ids, eoClass);
@@ -353,6 +363,7 @@ public class DatabaseFacadeImpl implements DatabaseFacade, Component {
             Query q = getEntityManager().createQuery(sql);
             q.setParameter("ids", ids);
             q.executeUpdate();
+            evictEntityCache(voClass, ids);
             logger.debug(String.format("hard delete %s records from %s", ids.size(), tblName));
 
             fireHardDeleteExtension(ids);
@@ -365,6 +376,7 @@ public class DatabaseFacadeImpl implements DatabaseFacade, Component {
             Query q = getEntityManager().createNativeQuery(sql);
             q.setParameter("ids", ids);
             q.executeUpdate();
+            evictEntityCache(voClass, ids);
         }
 
         @Transactional(propagation = Propagation.REQUIRES_NEW)
@@ -396,13 +408,83 @@ public class DatabaseFacadeImpl implements DatabaseFacade, Component {
 
         @Transactional(propagation = Propagation.REQUIRES_NEW)
         void removeCollection(Collection entities) {
-            for (Object entity : entities) {
-                if (!entity.getClass().isAnnotationPresent(EO.class)) {
-                    hardDelete(entity);
+            JdbcBatch.write(getEntityManager(), entities, true, batch -> {
+                if (!batch.get(0).getClass().isAnnotationPresent(EO.class)) {
+                    hardDelete(batch);
                 } else {
-                    softDelete(entity);
+                    softDeleteEntities(batch);
+                }
+            });
+        }
+
+        private List getVOPrimaryKeyValues(Collection entities) {
+            List ids = new ArrayList();
+            for (Object e : entities) {
+                Object id = getVOPrimaryKeyValue(e);
+                if (id != null) {
+                    ids.add(id);
+                }
+            }
+            return ids;
+        }
+
+        private void hardDelete(List entities) {
+            // load the batch in one query, so the merges below don't select entities one by one
+            listByIds(getVOPrimaryKeyValues(entities));
+
+            List ids = new ArrayList();
+            for (Object entity : entities) {
+                entity = getEntityManager().merge(entity);
+                getEntityManager().remove(entity);
+                ids.add(getVOPrimaryKeyValue(entity));
+            }
+            fireHardDeleteExtension(ids);
+        }
+
+        private void softDeleteEntities(List entities) {
+            List ids = new ArrayList();
+            for (Object e : entities) {
+                Object id = getEOPrimaryKeyValue(e);
+                // null means the entity is physically deleted
+                if (id != null) {
+                    ids.add(id);
                 }
             }
+
+            if (!ids.isEmpty()) {
+                softDelete(ids);
+            }
+        }
+
+        private List listByIds(Collection ids) {
+            if (ids.isEmpty()) {
+                return new ArrayList();
+            }
+
+            String sql = String.format("select e from %s e where e.%s in (:ids)", voClass.getSimpleName(), voPrimaryKeyField.getName());
+            Query q = getEntityManager().createQuery(sql, voClass);
+            q.setParameter("ids", ids);
+            return q.getResultList();
+        }
+
+        void persistOrUpdateCollection(Collection entities) {
+            entityForTranscationCallback(Operation.PERSIST, voClass);
+            entityForTranscationCallback(Operation.UPDATE, voClass);
+            JdbcBatch.write(getEntityManager(), entities, true, batch -> {
+                Set existing = new HashSet();
+                for (Object e : listByIds(getVOPrimaryKeyValues(batch))) {
+                    existing.add(getVOPrimaryKeyValue(e));
+                }
+
+                for (Object e : batch) {
+                    Object id = getVOPrimaryKeyValue(e);
+                    if (id != null && existing.contains(id)) {
+                        getEntityManager().merge(e);
+                    } else {
+                        getEntityManager().persist(e);
+                    }
+                }
+            });
         }
 
         @Transactional(propagation = Propagation.REQUIRES_NEW)
@@ -465,6 +547,7 @@ public class DatabaseFacadeImpl implements DatabaseFacade, Component {
 
     void init() {
         buildEntityInfo();
+        buildEntityCache();
         getDbVersionOnInit();
     }
 
@@ -500,9 +583,8 @@ public class DatabaseFacadeImpl implements DatabaseFacade, Component {
     }
 
     @Override
-    @Transactional(readOnly = true, propagation = Propagation.REQUIRES_NEW)
     public <T> T findById(long id, Class<T> entityClass) {
-        return getEntityManager().find(entityClass, id);
+        return findCachedEntity(entityClass, id, () -> doFind(entityClass, id));
     }
 
     @Override
@@ -537,9 +619,68 @@ public class DatabaseFacadeImpl implements DatabaseFacade, Component {
     }
 
     @Override
-    @Transactional(readOnly = true, propagation = Propagation.REQUIRES_NEW)
     public <T> T findByUuid(String uuid, Class<T> entityClass) {
-        return this.getEntityManager().find(entityClass, uuid);
+        return findCachedEntity(entityClass, uuid, () -> doFind(entityClass, uuid));
+    }
+
+    @Transactional(readOnly = true, propagation = Propagation.REQUIRES_NEW)
+    private <T> T doFind(Class<T> entityClass, Object id) {
+        return this.getEntityManager().find(entityClass, id);
+    }
+
+    <T> T findCachedEntity(Class<T> entityClass, Object id, Supplier<T> loader) {
+        if (id == null || !entityCache.isCached(entityClass)) {
+            return loader.get();
+        }
+
+        T vo = entityCache.get(entityClass, id);
+        if (vo != null) {
+            return vo;
+        }
+
+        long generation = entityCache.getGeneration(entityClass);
+        vo = loader.get();
+        if (vo != null) {
+            entityCache.put(entityClass, id, vo, generation);
+        }
+        return vo;
+    }
+
+    /**
+     * evicts entities from the entity cache of this node right now, and of all nodes
+     * when the current transaction completes
+     *
+     * @param ids null to evict all entities of the class
+     */
+    void evictEntityCache(Class entityClass, Collection ids) {
+        if (entityCache.isEnabled()) {
+            entityCache.evict(entityClass, ids);
+        }
+    }
+
+    void evictEntityCache(String entityName) {
+        Class clz = entityClassesByName.get(entityName);
+        if (clz != null) {
+            evictEntityCache(clz, null);
+        }
+    }
+
+    private void buildEntityCache() {
+        List<Class> classes = new ArrayList<>();
+        for (String name : DatabaseGlobalProperty.EntityCacheEntities) {
+            Class clz = entityClassesByName.get(name.trim());
+            if (clz == null) {
+                logger.warn(String.format("cannot find entity[%s] in DatabaseFacade.entityCache.entity, ignore it", name));
+                continue;
+            }
+
+            classes.add(clz);
+        }
+
+        entityCache = new EntityCache(classes, DatabaseGlobalProperty.EntityCacheSize, DatabaseGlobalProperty.EntityCacheTTL);
+        if (entityCache.isEnabled()) {
+            logger.debug(String.format("entity cache is enabled for %s", classes));
+        }
     }
 
     @Override
@@ -652,9 +793,11 @@ public class DatabaseFacadeImpl implements DatabaseFacade, Component {
 
     @Transactional(propagation = Propagation.REQUIRES_NEW)
     private void doUpdateCollection(Collection entities) {
-        for (Object e : entities) {
-            getEntityManager().merge(e);
-        }
+        JdbcBatch.write(getEntityManager(), entities, true, batch -> {
+            for (Object e : batch) {
+                getEntityManager().merge(e);
+            }
+        });
     }
 
     @Override
@@ -707,12 +850,38 @@ public class DatabaseFacadeImpl implements DatabaseFacade, Component {
     @Override
     @Transactional(propagation = Propagation.REQUIRES_NEW)
     public void persistCollection(Collection entities) {
-        for (Object e : entities) {
-            this.entityForTranscationCallback(Operation.PERSIST, e.getClass());
-            this.getEntityManager().persist(e);
+        if (entities.isEmpty()) {
+            return;
+        }
+
+        Set<Class> classes = new LinkedHashSet<>();
+        entities.forEach(e -> classes.add(e.getClass()));
+        this.entityForTranscationCallback(Operation.PERSIST, classes.toArray(new Class[classes.size()]));
+        JdbcBatch.write(getEntityManager(), entities, true, batch -> {
+            for (Object e : batch) {
+                this.getEntityManager().persist(e);
+            }
+        });
+    }
+
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    private void doPersistOrUpdateCollection(Collection entities) {
+        // runs of the same class in the given order, entities referenced by foreign keys come first
+        for (List<Object> run : JdbcBatch.runsOfClass(entities)) {
+            getEntityInfo(run.get(0).getClass()).persistOrUpdateCollection(run);
         }
     }
 
+    @Override
+    @DeadlockAutoRestart
+    public void persistOrUpdateCollection(Collection entities) {
+        if (entities.isEmpty()) {
+            return;
+        }
+
+        doPersistOrUpdateCollection(entities);
+    }
+
     @Override
     public boolean isExist(Object id, Class<?> clazz) {
         return getEntityInfo(clazz).isExist(id);
@@ -794,12 +963,15 @@ public class DatabaseFacadeImpl implements DatabaseFacade, Component {
     @Override
     public boolean start() {
         populateExtensions();
+        entityCache.install(evtf);
+        jmxf.registerBean("EntityCache", entityCache);
         return true;
     }
 
     private void buildEntityInfo() {
         BeanUtils.reflections.getTypesAnnotatedWith(Entity.class).forEach(clz-> {
             entityInfoMap.put(clz, new EntityInfo(clz));
+            entityClassesByName.put(clz.getSimpleName(), clz);
         });
     }
 
@@ -885,6 +1057,10 @@ public class DatabaseFacadeImpl implements DatabaseFacade, Component {
             return;
         }
 
+        if (entityCache.isEnabled() && (evt == EntityEvent.POST_UPDATE || evt == EntityEvent.POST_REMOVE)) {
+            evictEntityCache(entity.getClass(), list(info.getVOPrimaryKeyValue(entity)));
+        }
+
         info.fireLifeCycleEvent(evt, entity);
     }
 
@@ -5,12 +5,25 @@ import org.zstack.core.GlobalPropertyDefinition;
 import org.zstack.core.propertyvalidator.Vip;
 import org.zstack.core.propertyvalidator.RegexValues;
 
+import java.util.List;
+
 /**
  */
 @GlobalPropertyDefinition
 public class DatabaseGlobalProperty {
     @GlobalProperty(name="DatabaseFacade.deadlockRetryTimes", defaultValue = "20")
     public static int retryTimes;
+    @GlobalProperty(name="DatabaseFacade.jdbcBatchSize", defaultValue = "100")
+    public static int JdbcBatchSize;
+    /**
+     * simple names of entities cached by primary key, e.g. DatabaseFacade.entityCache.entity.0=ZoneVO
+     */
+    @GlobalProperty(name="DatabaseFacade.entityCache.entity.")
+    public static List<String> EntityCacheEntities;
+    @GlobalProperty(name="DatabaseFacade.entityCache.size", defaultValue = "1000")
+    public static long EntityCacheSize;
+    @GlobalProperty(name="DatabaseFacade.entityCache.ttl", defaultValue = "600")
+    public static long EntityCacheTTL;
     @GlobalProperty(name="DB.url")
     @RegexValues(value = "^jdbc:mysql://.*")
     public static String DbUrl;
@@ -0,0 +1,189 @@
+package org.zstack.core.db;
+
+import com.google.common.cache.CacheStats;
+import org.hibernate.Hibernate;
+import org.hibernate.proxy.HibernateProxy;
+import org.zstack.core.cache.DistributedEvictingCache;
+import org.zstack.core.cloudbus.EventFacade;
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.header.vo.EO;
+import org.zstack.utils.FieldUtils;
+
+import javax.persistence.Entity;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * a bounded cache of entities looked up by primary key, for read-mostly entities
+ * enabled by DatabaseFacade.entityCache.entities.
+ *
+ * The cache keeps its own copies of entities and hands out a new copy on every hit,
+ * so callers can modify the returned entity as they do with one loaded from database.
+ * Entities with uninitialized lazy associations are never cached.
+ *
+ * Entries are evicted on all management nodes when an entity is updated or removed through
+ * the entity manager, by a bulk JPQL update/delete or by DatabaseFacade, see
+ * DatabaseFacadeImpl.evictEntityCache. Changes made by native SQL are not seen, so don't
+ * enable the cache for entities changed that way.
+ */
+public class EntityCache implements EntityCacheMXBean {
+    // keyed by the primary key in string
+    private final Map<Class, DistributedEvictingCache<Object>> caches = new HashMap<>();
+    private final Map<Class, List<Class>> affectedClasses = new ConcurrentHashMap<>();
+
+    EntityCache(Collection<Class> entityClasses, long size, long ttl) {
+        for (Class clz : entityClasses) {
+            caches.put(clz, new DistributedEvictingCache<>(size, ttl));
+        }
+    }
+
+    void install(EventFacade evtf) {
+        caches.forEach((clz, cache) -> cache.install(String.format("entityCache-%s", clz.getName()), evtf));
+    }
+
+    boolean isEnabled() {
+        return !caches.isEmpty();
+    }
+
+    boolean isCached(Class clz) {
+        return caches.containsKey(clz);
+    }
+
+    long getGeneration(Class clz) {
+        return caches.get(clz).getGeneration();
+    }
+
+    <T> T get(Class<T> clz, Object id) {
+        Object vo = caches.get(clz).get(id.toString());
+        return vo == null ? null : clz.cast(copy(vo, new IdentityHashMap<>()));
+    }
+
+    /**
+     * @param generation the generation got before loading the entity, the entity is not
+     *                   cached if it has been evicted since then because it may be stale
+     */
+    void put(Class clz, Object id, Object vo, long generation) {
+        Object copy;
+        try {
+            copy = copy(vo, new IdentityHashMap<>());
+        } catch (LazyAssociationException e) {
+            return;
+        }
+
+        caches.get(clz).put(id.toString(), copy, generation);
+    }
+
+    /**
+     * evicts entities of this node right now, and of all nodes when the current transaction
+     * completes
+     *
+     * @param ids null to evict all entities of the class
+     */
+    void evict(Class entityClass, Collection ids) {
+        List<String> keys = ids == null ? null : new ArrayList<>();
+        if (ids != null) {
+            for (Object id : ids) {
+                keys.add(id.toString());
+            }
+        }
+
+        // ids of a parent or child entity are the same as the cached one for JOINED inheritance
+        getAffectedClasses(entityClass).forEach(clz -> caches.get(clz).evict(keys));
+    }
+
+    private List<Class> getAffectedClasses(Class entityClass) {
+        return affectedClasses.computeIfAbsent(entityClass, k -> {
+            List<Class> ret = new ArrayList<>();
+            for (Class clz : caches.keySet()) {
+                EO eo = (EO) clz.getAnnotation(EO.class);
+                if (clz.isAssignableFrom(k) || k.isAssignableFrom(clz) || (eo != null && eo.EOClazz() == k)) {
+                    ret.add(clz);
+                }
+            }
+            return ret;
+        });
+    }
+
+    private static class LazyAssociationException extends RuntimeException {
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object copy(Object obj, IdentityHashMap<Object, Object> copied) {
+        if (obj == null) {
+            return null;
+        }
+
+        if (!Hibernate.isInitialized(obj)) {
+            throw new LazyAssociationException();
+        }
+
+        if (obj instanceof HibernateProxy) {
+            obj = Hibernate.unproxy(obj);
+        }
+
+        Object ret = copied.get(obj);
+        if (ret != null) {
+            return ret;
+        }
+
+        if (obj instanceof Collection) {
+            Collection c = obj instanceof Set ? new LinkedHashSet() : new ArrayList();
+            copied.put(obj, c);
+            for (Object o : (Collection) obj) {
+                c.add(copy(o, copied));
+            }
+            return c;
+        }
+
+        if (obj instanceof Map) {
+            Map m = new LinkedHashMap();
+            copied.put(obj, m);
+            for (Map.Entry e : ((Map<Object, Object>) obj).entrySet()) {
+                m.put(e.getKey(), copy(e.getValue(), copied));
+            }
+            return m;
+        }
+
+        if (!obj.getClass().isAnnotationPresent(Entity.class)) {
+            return obj;
+        }
+
+        try {
+            Constructor c = obj.getClass().getDeclaredConstructor();
+            c.setAccessible(true);
+            ret = c.newInstance();
+            copied.put(obj, ret);
+            for (Field f : FieldUtils.getAllFields(obj.getClass())) {
+                if (Modifier.isStatic(f.getModifiers())) {
+                    continue;
+                }
+
+                f.setAccessible(true);
+                f.set(ret, copy(f.get(obj), copied));
+            }
+            return ret;
+        } catch (ReflectiveOperationException e) {
+            throw new CloudRuntimeException(e);
+        }
+    }
+
+    @Override
+    public List<EntityCacheStatistic> getEntityCacheStatistics() {
+        List<EntityCacheStatistic> ret = new ArrayList<>();
+        caches.forEach((clz, cache) -> {
+            CacheStats stats = cache.stats();
+            EntityCacheStatistic s = new EntityCacheStatistic();
+            s.setEntityName(clz.getSimpleName());
+            s.setSize(cache.size());
+            s.setHitCount(stats.hitCount());
+            s.setMissCount(stats.missCount());
+            s.setHitRate(stats.hitRate());
+            s.setEvictionCount(stats.evictionCount());
+            ret.add(s);
+        });
+        return ret;
+    }
+}
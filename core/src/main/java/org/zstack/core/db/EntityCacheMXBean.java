@@ -0,0 +1,7 @@
+package org.zstack.core.db;
+
+import java.util.List;
+
+public interface EntityCacheMXBean {
+    List<EntityCacheStatistic> getEntityCacheStatistics();
+}
@@ -0,0 +1,64 @@
+package org.zstack.core.db;
+
+import org.hibernate.Session;
+
+import javax.persistence.EntityManager;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * sends writes of many entities in JDBC batches.
+ *
+ * Entities are still written through the entity manager, so JPA lifecycle callbacks,
+ * cascades and transaction callbacks work as before, only the statements are grouped:
+ * entities are written in the given order, a run of consecutive entities of the same
+ * class is written together so foreign keys between classes keep their order, and
+ * the session flushes every DatabaseFacade.jdbcBatchSize entities in one round trip
+ * per statement. With rewriteBatchedStatements=true in DB.url, MySQL Connector/J
+ * further rewrites a batch of inserts into a multi-row INSERT.
+ */
+class JdbcBatch {
+    /**
+     * @return runs of consecutive entities of the same class, in the given order
+     */
+    static List<List<Object>> runsOfClass(Collection entities) {
+        List<List<Object>> ret = new ArrayList<>();
+        List<Object> run = null;
+        for (Object e : entities) {
+            if (run == null || run.get(0).getClass() != e.getClass()) {
+                run = new ArrayList<>();
+                ret.add(run);
+            }
+            run.add(e);
+        }
+        return ret;
+    }
+
+    static int getBatchSize() {
+        return Math.max(DatabaseGlobalProperty.JdbcBatchSize, 1);
+    }
+
+    /**
+     * @param clear detach entities after each flush, only for a transaction owning its
+     *              persistence context, otherwise entities of the caller are detached too
+     */
+    static void write(EntityManager em, Collection entities, boolean clear, Consumer<List<Object>> writer) {
+        Session session = em.unwrap(Session.class);
+        Integer origin = session.getJdbcBatchSize();
+        int batchSize = getBatchSize();
+        session.setJdbcBatchSize(batchSize);
+        try {
+            for (List<Object> run : runsOfClass(entities)) {
+                for (int i = 0; i < run.size(); i += batchSize) {
+                    writer.accept(run.subList(i, Math.min(i + batchSize, run.size())));
+                    em.flush();
+                    if (clear) {
+                        em.clear();
+                    }
+                }
+            }
+        } finally {
+            session.setJdbcBatchSize(origin);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package org.zstack.core.db;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.zstack.utils.DebugUtils;
 
 import javax.persistence.Tuple;
@@ -56,9 +57,19 @@ public class Q {
         return q._count();
     }
 
-    @Transactional(readOnly = true)
     @SuppressWarnings("unchecked")
     public <T> T find() {
+        // entities found in a transaction are managed by it, don't return cached copies
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return _find();
+        }
+
+        return (T) q.findCached(this::_find);
+    }
+
+    @Transactional(readOnly = true)
+    @SuppressWarnings("unchecked")
+    private <T> T _find() {
         return (T) q._find();
     }
 
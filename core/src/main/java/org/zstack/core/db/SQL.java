@@ -18,6 +18,8 @@ import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Created by xing5 on 2017/1/11.
@@ -27,6 +29,8 @@ public class SQL {
     @Autowired
     private DatabaseFacade dbf;
 
+    private static final Pattern UPDATE_ENTITY_PATTERN = Pattern.compile("^\\s*(?:update|delete\\s+from|delete)\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
+
     private Do consumer;
 
     private String sql;
@@ -125,9 +129,17 @@ public class SQL {
         rebuildQueryInTransaction();
         int ret = query.executeUpdate();
         dbf.getEntityManager().flush();
+        evictEntityCache();
         return ret;
     }
 
+    private void evictEntityCache() {
+        Matcher m = UPDATE_ENTITY_PATTERN.matcher(sql);
+        if (m.find()) {
+            ((DatabaseFacadeImpl) dbf).evictEntityCache(m.group(1));
+        }
+    }
+
     public <T> List<T> paginateCollectionUntil(long total, Predicate<T> predicate, int maxCount) {
         DebugUtils.Assert(max != null, "call limit() before paginate");
         if (first == null) {
@@ -7,6 +7,9 @@ import org.springframework.transaction.annotation.Transactional;
 import org.zstack.header.exception.CloudRuntimeException;
 
 import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 /**
  * Created by xing5 on 2017/3/4.
@@ -36,6 +39,37 @@ public abstract class SQLBatch {
         }
     }
 
+    protected void persistCollection(Collection entities) {
+        if (entities.isEmpty()) {
+            return;
+        }
+
+        // entities stay managed because the persistence context belongs to the caller's transaction
+        JdbcBatch.write(databaseFacade.getEntityManager(), entities, false, batch -> batch.forEach(this::persist));
+    }
+
+    protected void removeCollection(Collection entities) {
+        for (List<Object> group : JdbcBatch.runsOfClass(entities)) {
+            Class clz = group.get(0).getClass();
+            Field f = EntityMetadata.getPrimaryKeyField(clz);
+            f.setAccessible(true);
+
+            List<Object> values = new ArrayList<>();
+            try {
+                for (Object k : group) {
+                    values.add(f.get(k));
+                }
+            } catch (IllegalAccessException e) {
+                throw new CloudRuntimeException(e);
+            }
+
+            String text = String.format("DELETE FROM %s vo WHERE vo.%s IN (:values)", clz.getSimpleName(), f.getName());
+            for (int i = 0; i < values.size(); i += JdbcBatch.getBatchSize()) {
+                sql(text).param("values", values.subList(i, Math.min(i + JdbcBatch.getBatchSize(), values.size()))).execute();
+            }
+        }
+    }
+
     protected void flush() {
         databaseFacade.getEntityManager().flush();
     }
@@ -19,6 +19,7 @@ import java.lang.reflect.Array;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.function.Supplier;
 
 @Configurable(preConstruction=true,autowire=Autowire.BY_TYPE,dependencyCheck=true)
 public class SimpleQueryImpl<T> implements SimpleQuery<T> {
@@ -198,11 +199,35 @@ public class SimpleQueryImpl<T> implements SimpleQuery<T> {
     }
 
     @Override
-    @Transactional(readOnly=true, propagation=Propagation.REQUIRES_NEW)
     public T find() {
+        return findCached(this::doFind);
+    }
+
+    @Transactional(readOnly=true, propagation=Propagation.REQUIRES_NEW)
+    private T doFind() {
         return _find();
     }
 
+    /**
+     * @return the primary key if the query only looks up an entity by its primary key, otherwise null
+     */
+    private Object getPrimaryKeyToFind() {
+        if (!_selects.isEmpty() || !orderInfos.isEmpty() || groupByInfo != null || start != null || _conditions.size() != 1) {
+            return null;
+        }
+
+        Condition con = _conditions.get(0);
+        if (con._op != Op.EQ || !con._attr.isId() || con._val == null || con._val.length != 1) {
+            return null;
+        }
+
+        return con._val[0];
+    }
+
+    T findCached(Supplier<T> loader) {
+        return ((DatabaseFacadeImpl) _dbf).findCachedEntity(_entityClass, getPrimaryKeyToFind(), loader);
+    }
+
     @Transactional
     T _find() {
         assert _selects.size() == 0 : "find() for entity doesn't need any parameter in Query.Select(), you have put some parameter in Query.select(..), either removing these parameters or using findValue() or findTuple()";
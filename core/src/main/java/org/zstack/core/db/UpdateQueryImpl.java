@@ -210,6 +210,7 @@ public class UpdateQueryImpl implements UpdateQuery {
 
         int ret = q.executeUpdate();
         dbf.getEntityManager().flush();
+        dbf.evictEntityCache(entityClass, null);
         return ret;
     }
 
@@ -292,6 +293,7 @@ public class UpdateQueryImpl implements UpdateQuery {
 
         int n = q.executeUpdate();
         dbf.getEntityManager().flush();
+        dbf.evictEntityCache(entityClass, null);
         return n;
     }
 }
@@ -0,0 +1,117 @@
+package org.zstack.core.rest;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * limits in-flight async calls per agent endpoint(host:port).
+ *
+ * An async agent call is in flight from sending the request until the agent posts
+ * back the callback or the call times out, calls exceeding the limit wait in a queue
+ * of the endpoint, and are rejected when the queue is full, so one slow agent cannot
+ * absorb unlimited pending requests.
+ */
+class EndpointCallLimiter {
+    private final int maxInflight;
+    private final int maxPending;
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    private static class Endpoint {
+        final AtomicInteger inflight = new AtomicInteger(0);
+        final AtomicInteger pendingSize = new AtomicInteger(0);
+        final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+    }
+
+    EndpointCallLimiter(int maxInflight, int maxPending) {
+        this.maxInflight = maxInflight;
+        this.maxPending = maxPending;
+    }
+
+    static String getEndpoint(String url) {
+        try {
+            URI uri = URI.create(url);
+            return uri.getHost() == null ? url : String.format("%s:%s", uri.getHost(), uri.getPort());
+        } catch (IllegalArgumentException e) {
+            return url;
+        }
+    }
+
+    /**
+     * @param call runs once a slot of the endpoint is acquired, the slot must be
+     *             returned by release() when the call completes
+     * @return false if the pending queue of the endpoint is full
+     */
+    boolean submit(String endpoint, Runnable call) {
+        Endpoint ep = endpoints.computeIfAbsent(endpoint, k -> new Endpoint());
+        if (ep.pendingSize.incrementAndGet() > maxPending) {
+            ep.pendingSize.decrementAndGet();
+            return false;
+        }
+
+        ep.pending.offer(call);
+        drain(ep);
+        return true;
+    }
+
+    /**
+     * removes a call still waiting in the queue, e.g. the call timed out before it got a slot
+     * @return false if the call is not in the queue, it has been taken to run
+     */
+    boolean cancel(String endpoint, Runnable call) {
+        Endpoint ep = endpoints.get(endpoint);
+        if (ep == null || !ep.pending.remove(call)) {
+            return false;
+        }
+
+        ep.pendingSize.decrementAndGet();
+        return true;
+    }
+
+    void release(String endpoint) {
+        Endpoint ep = endpoints.get(endpoint);
+        ep.inflight.decrementAndGet();
+        drain(ep);
+    }
+
+    private void drain(Endpoint ep) {
+        while (!ep.pending.isEmpty()) {
+            int n = ep.inflight.get();
+            if (n >= maxInflight) {
+                return;
+            }
+
+            if (!ep.inflight.compareAndSet(n, n + 1)) {
+                continue;
+            }
+
+            Runnable call = ep.pending.poll();
+            if (call == null) {
+                // taken by another thread, give back the slot and check the queue again
+                ep.inflight.decrementAndGet();
+                continue;
+            }
+
+            ep.pendingSize.decrementAndGet();
+            call.run();
+        }
+    }
+
+    int getInflight(String endpoint) {
+        Endpoint ep = endpoints.get(endpoint);
+        return ep == null ? 0 : ep.inflight.get();
+    }
+
+    int getPending(String endpoint) {
+        Endpoint ep = endpoints.get(endpoint);
+        return ep == null ? 0 : ep.pendingSize.get();
+    }
+
+    Set<String> getEndpoints() {
+        return endpoints.keySet();
+    }
+}
@@ -21,6 +21,7 @@ import org.zstack.core.retry.Retry;
 import org.zstack.core.retry.RetryCondition;
 import org.zstack.core.thread.AsyncThread;
 import org.zstack.core.thread.CancelablePeriodicTask;
+import org.zstack.core.thread.HashedTimingWheel;
 import org.zstack.core.thread.ThreadFacade;
 import org.zstack.core.thread.ThreadFacadeImpl.TimeoutTaskReceipt;
 import org.zstack.core.timeout.ApiTimeoutManager;
@@ -47,6 +48,8 @@ import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.zstack.core.Platform.*;
 
@@ -69,6 +72,10 @@ public class RESTFacadeImpl implements RESTFacade {
     private String baseUrl;
     private String sendCommandUrl;
     private String callbackHostName;
+    private HashedTimingWheel timeoutWheel;
+    private EndpointCallLimiter callLimiter;
+
+    private static final MediaType JSON_UTF8 = MediaType.parseMediaType("application/json; charset=utf-8");
 
     final private Map<String, HttpCallStatistic> statistics = new ConcurrentHashMap<String, HttpCallStatistic>();
     final private Map<String, HttpCallHandlerWrapper> httpCallhandlers = new ConcurrentHashMap<String, HttpCallHandlerWrapper>();
@@ -102,6 +109,12 @@ public class RESTFacadeImpl implements RESTFacade {
                     sb.append("\n");
                 }
             }
+            if (callLimiter != null) {
+                for (String endpoint : callLimiter.getEndpoints()) {
+                    sb.append(String.format("ENDPOINT[%s]: in-flight calls: %s, pending calls: %s\n",
+                            endpoint, callLimiter.getInflight(endpoint), callLimiter.getPending(endpoint)));
+                }
+            }
             sb.append("================ END: REST CALL Statistics =====================\n");
             logger.debug(sb.toString());
         });
@@ -140,6 +153,14 @@ public class RESTFacadeImpl implements RESTFacade {
                 CoreGlobalProperty.REST_FACADE_CONNECT_TIMEOUT,
                 CoreGlobalProperty.REST_FACADE_MAX_PER_ROUTE,
                 CoreGlobalProperty.REST_FACADE_MAX_TOTAL);
+
+        timeoutWheel = new HashedTimingWheel("rest-facade-async-call-timeout", CoreGlobalProperty.REST_FACADE_TIMEOUT_WHEEL_TICK, 512);
+        timeoutWheel.start(thdf);
+
+        if (CoreGlobalProperty.REST_FACADE_MAX_INFLIGHT_PER_ENDPOINT > 0) {
+            callLimiter = new EndpointCallLimiter(CoreGlobalProperty.REST_FACADE_MAX_INFLIGHT_PER_ENDPOINT,
+                    CoreGlobalProperty.REST_FACADE_MAX_PENDING_PER_ENDPOINT);
+        }
     }
 
     // timeout are in milliseconds
@@ -297,12 +318,11 @@ public class RESTFacadeImpl implements RESTFacade {
         long stime = 0;
         if (CoreGlobalProperty.PROFILER_HTTP_CALL) {
             stime = System.currentTimeMillis();
-            HttpCallStatistic stat = statistics.get(url);
-            if (stat == null) {
-                stat = new HttpCallStatistic();
+            statistics.computeIfAbsent(url, k -> {
+                HttpCallStatistic stat = new HttpCallStatistic();
                 stat.setUrl(url);
-                statistics.put(url, stat);
-            }
+                return stat;
+            });
         }
 
         final String taskUuid = Platform.getUuid();
@@ -312,8 +332,7 @@ public class RESTFacadeImpl implements RESTFacade {
         requestHeaders.setContentLength(body.length());
         requestHeaders.set(RESTConstant.TASK_UUID, taskUuid);
         requestHeaders.set(RESTConstant.CALLBACK_URL, callbackUrl);
-        MediaType JSON = MediaType.parseMediaType("application/json; charset=utf-8");
-        requestHeaders.setContentType(JSON);
+        requestHeaders.setContentType(JSON_UTF8);
         if (headers != null) {
             for (Map.Entry<String, String> e : headers.entrySet()) {
                 requestHeaders.set(e.getKey(), e.getValue());
@@ -321,12 +340,17 @@ public class RESTFacadeImpl implements RESTFacade {
         }
 
         HttpEntity<String> req = new HttpEntity<String>(body, requestHeaders);
+        final String endpoint = callLimiter == null ? null : EndpointCallLimiter.getEndpoint(url);
+        // 0: waiting for a slot of the endpoint, 1: sent and holding the slot, 2: completed
+        final AtomicInteger callState = new AtomicInteger(0);
+        // the call queued in the limiter, removed from the queue if it completes before sent
+        final AtomicReference<Runnable> queuedCall = new AtomicReference<>();
 
         AsyncHttpWrapper wrapper = new AsyncHttpWrapper() {
             final AtomicBoolean called = new AtomicBoolean(false);
 
             final AsyncHttpWrapper self = this;
-            final TimeoutTaskReceipt timeoutTaskReceipt = thdf.submitTimeoutTask(new Runnable() {
+            final TimeoutTaskReceipt timeoutTaskReceipt = timeoutWheel.submitTimeoutTask(new Runnable() {
                 @Override
                 public void run() {
                     self.fail(touterr(
@@ -340,6 +364,20 @@ public class RESTFacadeImpl implements RESTFacade {
                 timeoutTaskReceipt.cancel();
             }
 
+            private void releaseEndpoint() {
+                if (endpoint == null) {
+                    return;
+                }
+
+                int state = callState.getAndSet(2);
+                if (state == 1) {
+                    callLimiter.release(endpoint);
+                } else if (state == 0 && queuedCall.get() != null) {
+                    // timed out while waiting for a slot, give back its place in the queue
+                    callLimiter.cancel(endpoint, queuedCall.get());
+                }
+            }
+
             final ReturnValueCompletion<HttpEntity<String>> completion = new ReturnValueCompletion<HttpEntity<String>>(callback) {
                 @Override
                 @AsyncThread
@@ -356,6 +394,7 @@ public class RESTFacadeImpl implements RESTFacade {
 
                     wrappers.remove(taskUuid);
                     cancelTimeout();
+                    releaseEndpoint();
 
                     if (logger.isTraceEnabled()) {
                         List<String> hs = responseEntity.getHeaders().get(RESTConstant.TASK_UUID);
@@ -401,6 +440,7 @@ public class RESTFacadeImpl implements RESTFacade {
                     if (!SysErrors.TIMEOUT.toString().equals(err.getCode())) {
                         cancelTimeout();
                     }
+                    releaseEndpoint();
 
                     logger.warn(String.format("Unable to post to %s: %s", url, err.getDetails()));
                     callback.fail(err);
@@ -418,18 +458,39 @@ public class RESTFacadeImpl implements RESTFacade {
             }
         };
 
-        try {
-            wrappers.put(taskUuid, wrapper);
+        wrappers.put(taskUuid, wrapper);
 
-            if (logger.isTraceEnabled()) {
-                logger.trace(String.format("json %s [%s], %s", method.toString(), url, req));
+        Runnable send = () -> {
+            if (!callState.compareAndSet(0, 1)) {
+                // timed out while waiting for a slot of the endpoint
+                if (endpoint != null) {
+                    callLimiter.release(endpoint);
+                }
+                return;
+            }
+
+            try {
+                if (logger.isTraceEnabled()) {
+                    logger.trace(String.format("json %s [%s], %s", method.toString(), url, req));
+                }
+
+                ListenableFuture<ResponseEntity<String>> f = asyncRestTemplate.exchange(url, method, req, String.class);
+                f.addCallback(rsp -> {}, e -> wrapper.fail(err(SysErrors.HTTP_ERROR, e.getLocalizedMessage())));
+            } catch (RestClientException e) {
+                logger.warn(String.format("Unable to %s to %s: %s", method.toString(), url, e.getMessage()));
+                wrapper.fail(ExceptionDSL.isCausedBy(e, ResourceAccessException.class) ? err(SysErrors.IO_ERROR, e.getMessage()) : inerr(e.getMessage()));
             }
+        };
+
+        if (callLimiter == null) {
+            send.run();
+            return;
+        }
 
-            ListenableFuture<ResponseEntity<String>> f = asyncRestTemplate.exchange(url, method, req, String.class);
-            f.addCallback(rsp -> {}, e -> wrapper.fail(err(SysErrors.HTTP_ERROR, e.getLocalizedMessage())));
-        } catch (RestClientException e) {
-            logger.warn(String.format("Unable to %s to %s: %s", method.toString(), url, e.getMessage()));
-            wrapper.fail(ExceptionDSL.isCausedBy(e, ResourceAccessException.class) ? err(SysErrors.IO_ERROR, e.getMessage()) : inerr(e.getMessage()));
+        queuedCall.set(send);
+        if (!callLimiter.submit(endpoint, send)) {
+            wrapper.fail(operr("too many pending calls to the endpoint[%s], more than %s calls are waiting, reject the call to %s",
+                    endpoint, CoreGlobalProperty.REST_FACADE_MAX_PENDING_PER_ENDPOINT, url));
         }
     }
 
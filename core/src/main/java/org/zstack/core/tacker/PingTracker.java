@@ -8,6 +8,7 @@ import org.zstack.core.cloudbus.CloudBusSteppingCallback;
 import org.zstack.core.thread.PeriodicTask;
 import org.zstack.core.thread.ThreadFacade;
 import org.zstack.header.Component;
+import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.message.MessageReply;
 import org.zstack.header.message.NeedReplyMessage;
 import org.zstack.utils.DebugUtils;
@@ -15,8 +16,12 @@ import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.zstack.core.Platform.operr;
 
 /**
  */
@@ -29,8 +34,12 @@ public abstract class PingTracker implements Component {
 
     private final static CLogger logger = Utils.getLogger(PingTracker.class);
 
-    private final List<String> resourceUuids = Collections.synchronizedList(new ArrayList<String>());
-    private final Set<String> resourceInTracking = Collections.synchronizedSet(new HashSet<String>());
+    // all tracked resources, and the same resources spread into time wheel buckets by
+    // uuid hash, one bucket is pinged per second so pings are spread across the interval
+    private final Set<String> resourceUuids = ConcurrentHashMap.newKeySet();
+    private volatile List<Set<String>> wheel = createWheel(1);
+    private final Set<String> resourceInTracking = ConcurrentHashMap.newKeySet();
+    private final AtomicLong tick = new AtomicLong(0);
     private Future<Void> trackerThread = null;
 
     @Autowired
@@ -38,6 +47,54 @@ public abstract class PingTracker implements Component {
     @Autowired
     protected ThreadFacade thdf;
 
+    private static List<Set<String>> createWheel(int bucketNum) {
+        List<Set<String>> buckets = new ArrayList<>(bucketNum);
+        for (int i = 0; i < bucketNum; i++) {
+            buckets.add(ConcurrentHashMap.newKeySet());
+        }
+
+        return buckets;
+    }
+
+    private static Set<String> bucketOf(List<Set<String>> buckets, String resUuid) {
+        return buckets.get((resUuid.hashCode() & 0x7fffffff) % buckets.size());
+    }
+
+    private synchronized void rebuildWheel() {
+        List<Set<String>> buckets = createWheel(Math.max(1, getPingInterval()));
+        for (String resUuid : resourceUuids) {
+            bucketOf(buckets, resUuid).add(resUuid);
+        }
+
+        wheel = buckets;
+    }
+
+    /**
+     * subclasses return true to ping resources in batches, one message carrying up to
+     * getBatchPingSize() resources, and must implement getBatchPingMessage().
+     */
+    protected boolean isBatchPing() {
+        return false;
+    }
+
+    protected int getBatchPingSize() {
+        return 100;
+    }
+
+    protected NeedReplyMessage getBatchPingMessage(List<String> resUuids) {
+        throw new CloudRuntimeException(String.format("%s doesn't support batch ping", getClass().getName()));
+    }
+
+    /**
+     * split the reply of a batch ping message into replies of every resource,
+     * by default a reply is shared by all resources in the batch
+     */
+    protected Map<String, MessageReply> splitBatchPingReply(List<String> resUuids, MessageReply reply) {
+        Map<String, MessageReply> ret = new HashMap<>();
+        resUuids.forEach(uuid -> ret.put(uuid, reply));
+        return ret;
+    }
+
     private class Tracker implements PeriodicTask {
         @Override
         public TimeUnit getTimeUnit() {
@@ -46,7 +103,7 @@ public abstract class PingTracker implements Component {
 
         @Override
         public long getInterval() {
-            return getPingInterval();
+            return 1;
         }
 
         @Override
@@ -54,40 +111,89 @@ public abstract class PingTracker implements Component {
             return String.format("pingTracker-for-%s-managementNode-%s", getResourceName(), Platform.getManagementServerId());
         }
 
-        @Override
-        public void run() {
+        private void safeHandleReply(String resUuid, MessageReply reply) {
             try {
-                final List<NeedReplyMessage> msgs = new ArrayList<NeedReplyMessage>();
-                synchronized (resourceUuids) {
-                    final Map<NeedReplyMessage, String> tmp = new HashMap<NeedReplyMessage, String>();
+                handleReply(resUuid, reply);
+            } finally {
+                resourceInTracking.remove(resUuid);
+            }
+        }
+
+        private void ping(List<String> resUuids) {
+            final List<NeedReplyMessage> msgs = new ArrayList<>();
+            final Map<NeedReplyMessage, String> tmp = new HashMap<>();
+
+            for (String resUuid : resUuids) {
+                NeedReplyMessage msg = getPingMessage(resUuid);
+                msgs.add(msg);
+                tmp.put(msg, resUuid);
+            }
+
+            bus.send(msgs, getParallelismDegree(), new CloudBusSteppingCallback(null) {
+                @Override
+                public void run(NeedReplyMessage msg, MessageReply reply) {
+                    String resUuid = tmp.get(msg);
+                    DebugUtils.Assert(resUuid!=null, "where is my resource uuid???");
+                    safeHandleReply(resUuid, reply);
+                }
+            });
+        }
+
+        private void batchPing(List<String> resUuids) {
+            final List<NeedReplyMessage> msgs = new ArrayList<>();
+            final Map<NeedReplyMessage, List<String>> tmp = new HashMap<>();
 
-                    for (String resUuid : resourceUuids) {
-                        if (resourceInTracking.contains(resUuid)) {
-                            continue;
+            for (int i = 0; i < resUuids.size(); i += getBatchPingSize()) {
+                List<String> batch = resUuids.subList(i, Math.min(resUuids.size(), i + getBatchPingSize()));
+                NeedReplyMessage msg = getBatchPingMessage(batch);
+                msgs.add(msg);
+                tmp.put(msg, batch);
+            }
+
+            bus.send(msgs, getParallelismDegree(), new CloudBusSteppingCallback(null) {
+                @Override
+                public void run(NeedReplyMessage msg, MessageReply reply) {
+                    List<String> batch = tmp.get(msg);
+                    DebugUtils.Assert(batch!=null, "where are my resource uuids???");
+                    Map<String, MessageReply> replies = splitBatchPingReply(batch, reply);
+                    for (String resUuid : batch) {
+                        MessageReply r = replies.get(resUuid);
+                        if (r == null) {
+                            r = new MessageReply();
+                            r.setError(operr("no ping result of %s[uuid:%s] found in the batch ping reply", getResourceName(), resUuid));
                         }
 
-                        NeedReplyMessage msg = getPingMessage(resUuid);
-                        msgs.add(msg);
-                        resourceInTracking.add(resUuid);
-                        tmp.put(msg, resUuid);
+                        try {
+                            safeHandleReply(resUuid, r);
+                        } catch (Throwable t) {
+                            logger.warn(String.format("unhandled throwable when handling the ping reply of %s[uuid:%s]", getResourceName(), resUuid), t);
+                        }
                     }
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            try {
+                List<Set<String>> buckets = wheel;
+                Set<String> bucket = buckets.get((int) (tick.getAndIncrement() % buckets.size()));
 
-                    if (msgs.isEmpty()) {
-                        return;
+                List<String> toPing = new ArrayList<>();
+                for (String resUuid : bucket) {
+                    if (resourceInTracking.add(resUuid)) {
+                        toPing.add(resUuid);
                     }
+                }
 
-                    bus.send(msgs, getParallelismDegree(), new CloudBusSteppingCallback(null) {
-                        @Override
-                        public void run(NeedReplyMessage msg, MessageReply reply) {
-                            String resUuid = tmp.get(msg);
-                            DebugUtils.Assert(resUuid!=null, "where is my resource uuid???");
-                            try {
-                                handleReply(resUuid, reply);
-                            } finally {
-                                resourceInTracking.remove(resUuid);
-                            }
-                        }
-                    });
+                if (toPing.isEmpty()) {
+                    return;
+                }
+
+                if (isBatchPing()) {
+                    batchPing(toPing);
+                } else {
+                    ping(toPing);
                 }
             } catch (Throwable t) {
                 logger.warn("unhandled throwable", t);
@@ -107,51 +213,49 @@ public abstract class PingTracker implements Component {
     protected void pingIntervalChanged() {
         startTracker();
     }
-    
-    public void track(String resUuid) {
-        synchronized (resourceUuids) {
-            if (!resourceUuids.contains(resUuid)) {
-                resourceUuids.add(resUuid);
-                trackHook(resUuid);
-                logger.debug(String.format("start tracking %s[uuid:%s]", getResourceName(), resUuid));
-            }
+
+    private synchronized boolean doTrack(String resUuid) {
+        if (!resourceUuids.add(resUuid)) {
+            return false;
         }
+
+        bucketOf(wheel, resUuid).add(resUuid);
+        return true;
+    }
+
+    private synchronized void doUntrack(String resUuid) {
+        resourceUuids.remove(resUuid);
+        bucketOf(wheel, resUuid).remove(resUuid);
     }
 
-    public void untrackAll() {
-        synchronized (resourceUuids) {
-            resourceUuids.clear();
-            logger.debug(String.format("untrack all %s", getResourceName()));
+    public void track(String resUuid) {
+        if (doTrack(resUuid)) {
+            trackHook(resUuid);
+            logger.debug(String.format("start tracking %s[uuid:%s]", getResourceName(), resUuid));
         }
     }
 
+    public synchronized void untrackAll() {
+        resourceUuids.clear();
+        wheel.forEach(Set::clear);
+        logger.debug(String.format("untrack all %s", getResourceName()));
+    }
+
     public void untrack(String resUuid) {
-        synchronized (resourceUuids) {
-            resourceUuids.remove(resUuid);
-            untrackHook(resUuid);
-            logger.debug(String.format("stop tracking %s[uuid:%s]", getResourceName(), resUuid));
-        }
+        doUntrack(resUuid);
+        untrackHook(resUuid);
+        logger.debug(String.format("stop tracking %s[uuid:%s]", getResourceName(), resUuid));
     }
 
     public void track(Collection<String> resUuids) {
-        synchronized (resourceUuids) {
-            for (String resUuid : resUuids) {
-                if (!resourceUuids.contains(resUuid)) {
-                    resourceUuids.add(resUuid);
-                    trackHook(resUuid);
-                    logger.debug(String.format("start tracking %s[uuid:%s]", getResourceName(), resUuid));
-                }
-            }
+        for (String resUuid : resUuids) {
+            track(resUuid);
         }
     }
 
     public void untrack(Collection<String> resUuids) {
-        synchronized (resourceUuids) {
-            for (String resUuid : resUuids) {
-                resourceUuids.remove(resUuid);
-                untrackHook(resUuid);
-                logger.debug(String.format("stop tracking %s[uuid:%s]", getResourceName(), resUuid));
-            }
+        for (String resUuid : resUuids) {
+            untrack(resUuid);
         }
     }
 
@@ -160,6 +264,8 @@ public abstract class PingTracker implements Component {
             trackerThread.cancel(true);
         }
 
+        rebuildWheel();
+
         if (CoreGlobalProperty.UNIT_TEST_ON) {
             trackerThread = thdf.submitPeriodicTask(new Tracker(), getPingInterval());
         } else {
@@ -41,18 +41,21 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
     @Autowired
     private org.zstack.core.timeout.Timer zTimer;
 
-    private final HashMap<String, SyncTaskQueueWrapper> syncTasks = new HashMap<>();
-    private final Map<String, ChainTaskQueueWrapper> chainTasks = Collections.synchronizedMap(new HashMap<>());
-    private final Map<String, SingleFlightQueueWrapper> singleFlightTasks = Collections.synchronizedMap(new HashMap<>());
+    private final Map<String, SyncTaskQueueWrapper> syncTasks = new ConcurrentHashMap<>();
+    private final Map<String, ChainTaskQueueWrapper> chainTasks = new ConcurrentHashMap<>();
+    private final Map<String, SingleFlightQueueWrapper> singleFlightTasks = new ConcurrentHashMap<>();
+    // a queue and its entry in the map are guarded by the lock striped by the queue's signature,
+    // submitting to or finishing a queue never blocks queues of other stripes
+    private final LockStripes syncLocks;
+    private final LockStripes chainLocks;
+    private final LockStripes singleFlightLocks;
     private final Map<String, List<String>> apiRunningSignature = new ConcurrentHashMap<>();
     private static final CLogger _logger = CLoggerImpl.getLogger(DispatchQueueImpl.class);
 
     private String dumpChainTaskQueue() {
         List<String> asyncTasks = new ArrayList<>();
-        synchronized (chainTasks) {
-            for (Map.Entry<String, ChainTaskQueueWrapper> e : chainTasks.entrySet()) {
-                asyncTasks.add(e.getValue().dumpTaskQueueInfo());
-            }
+        for (Map.Entry<String, ChainTaskQueueWrapper> e : chainTasks.entrySet()) {
+            asyncTasks.add(e.getValue().dumpTaskQueueInfo());
         }
 
         StringBuilder sb = new StringBuilder();
@@ -64,10 +67,8 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
 
     private String dumpSyncTaskQueue() {
         List<String> queueSyncTasks = new ArrayList<>();
-        synchronized (syncTasks) {
-            for (Map.Entry<String, SyncTaskQueueWrapper> e : syncTasks.entrySet()) {
-                queueSyncTasks.add(e.getValue().dumpTaskQueueInfo());
-            }
+        for (Map.Entry<String, SyncTaskQueueWrapper> e : syncTasks.entrySet()) {
+            queueSyncTasks.add(e.getValue().dumpTaskQueueInfo());
         }
 
         StringBuilder sb = new StringBuilder();
@@ -79,10 +80,8 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
 
     private String dumpSingleFlightTaskQueue() {
         List<String> queueSingleFlightTasks = new ArrayList<>();
-        synchronized (singleFlightTasks) {
-            for (Map.Entry<String, SingleFlightQueueWrapper> e : singleFlightTasks.entrySet()) {
-                queueSingleFlightTasks.add(e.getValue().dumpTaskQueueInfo());
-            }
+        for (Map.Entry<String, SingleFlightQueueWrapper> e : singleFlightTasks.entrySet()) {
+            queueSingleFlightTasks.add(e.getValue().dumpTaskQueueInfo());
         }
 
         StringBuilder sb = new StringBuilder();
@@ -121,7 +120,7 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
         sb.append(String.format("\nTASK QUEUE NUMBER: %s\n", chainTasks.size()));
         List<String> asyncTasks = new ArrayList<>();
         long now = System.currentTimeMillis();
-        synchronized (chainTasks) {
+        synchronized (chainLocks.get(signatureName)) {
             ChainTaskQueueWrapper w = chainTasks.get(signatureName);
             if (w == null) {
                 sb.append(String.format("\n===== NO QUEUE SYNC SIGNATURE: %s =====", signatureName));
@@ -157,7 +156,7 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
     @Override
     public ChainInfo getChainTaskInfo(String signature) {
         long now = System.currentTimeMillis();
-        synchronized (chainTasks) {
+        synchronized (chainLocks.get(signature)) {
             ChainInfo info = new ChainInfo();
             ChainTaskQueueWrapper w = chainTasks.get(signature);
             if (w == null) {
@@ -182,7 +181,7 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
     public ChainInfo cleanChainTaskInfo(String signature, Integer index, Boolean cleanUp, Boolean isRunningTask) {
         beforeCleanQueuedumpThread(signature);
         long now = System.currentTimeMillis();
-        synchronized (chainTasks) {
+        synchronized (chainLocks.get(signature)) {
             ChainInfo info = new ChainInfo();
             ChainTaskQueueWrapper w = chainTasks.get(signature);
             if (w == null) {
@@ -230,7 +229,7 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
     @Override
     public SingleFlightChainInfo getSingleFlightChainTaskInfo(String signature) {
         long now = System.currentTimeMillis();
-        synchronized (singleFlightTasks) {
+        synchronized (singleFlightLocks.get(signature)) {
             SingleFlightChainInfo info = new SingleFlightChainInfo();
 
             SingleFlightQueueWrapper w = singleFlightTasks.get(signature);
@@ -258,7 +257,14 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
         return new HashSet<>(apiRunningSignature.getOrDefault(apiId, Collections.emptyList()));
     }
 
-    public DispatchQueueImpl() {
+    public DispatchQueueImpl(ThreadFacade threadFacade) {
+        // tasks of the queue run in the pools of the facade owning it
+        _threadFacade = threadFacade;
+
+        int lockStripes = ThreadGlobalProperty.DISPATCH_QUEUE_LOCK_STRIPES;
+        syncLocks = new LockStripes(syncTasks, lockStripes);
+        chainLocks = new LockStripes(chainTasks, lockStripes);
+        singleFlightLocks = new LockStripes(singleFlightTasks, lockStripes);
         DebugManager.registerDebugSignalHandler(DUMP_TASK_DEBUG_SINGAL, this);
     }
 
@@ -308,8 +314,13 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
 
     private abstract class AbstractTaskQueueWrapper {
         String syncSignature;
+        final Object lock;
         private final AtomicInteger abnormalPendingQueueThreshold = new AtomicInteger(CoreGlobalProperty.PENDING_QUEUE_MINIMUM_THRESHOLD);
 
+        AbstractTaskQueueWrapper(Object lock) {
+            this.lock = lock;
+        }
+
         /**
          * make getCurrentPendingQueueThreshold() public for test
          * @return int value of abnormalPendingQueueThreshold
@@ -381,7 +392,7 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
         public String dumpTaskQueueInfo() {
             StringBuilder tb = new StringBuilder(String.format("\nQUEUE SYNC SIGNATURE: %s", syncSignature));
 
-            synchronized (chainTasks) {
+            synchronized (lock) {
                 tb.append(getTaskQueueInfo());
             }
 
@@ -394,6 +405,10 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
         AtomicInteger counter = new AtomicInteger(0);
         int maxThreadNum = -1;
 
+        SyncTaskQueueWrapper(Object lock) {
+            super(lock);
+        }
+
         void addTask(SyncTaskFuture task) {
             queue.offer(task);
             if (maxThreadNum == -1) {
@@ -428,10 +443,10 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
                             stask.run();
                         }
 
-                        synchronized (syncTasks) {
+                        synchronized (lock) {
                             if (queue.isEmpty()) {
                                 if (counter.decrementAndGet() == 0) {
-                                    syncTasks.remove(syncSignature);
+                                    syncTasks.remove(syncSignature, SyncTaskQueueWrapper.this);
                                 }
 
                                 break;
@@ -490,10 +505,11 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
         assert syncTask.getSyncSignature() != null : "How can you submit a sync task without sync signature ???";
 
         SyncTaskFuture f;
-        synchronized (syncTasks) {
+        Object lock = syncLocks.get(syncTask.getSyncSignature());
+        synchronized (lock) {
             SyncTaskQueueWrapper wrapper = syncTasks.get(syncTask.getSyncSignature());
             if (wrapper == null) {
-                wrapper = new SyncTaskQueueWrapper();
+                wrapper = new SyncTaskQueueWrapper(lock);
                 syncTasks.put(syncTask.getSyncSignature(), wrapper);
             }
             f = new SyncTaskFuture(syncTask);
@@ -638,6 +654,10 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
         volatile SingleFlightFuture runningTask = null;
         AtomicInteger taskCounter = new AtomicInteger(0);
 
+        SingleFlightQueueWrapper(Object lock) {
+            super(lock);
+        }
+
         boolean addSingleFlightTask(SingleFlightFuture task) {
             task.setTaskId(taskCounter.addAndGet(1));
             pendingQueue.offer(task);
@@ -668,7 +688,7 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
 
                 @AsyncThread
                 private void runSingleFlight() {
-                    synchronized (singleFlightTasks) {
+                    synchronized (lock) {
                         if (runningTask != null) {
                             logger.debug(String.format("single flight task[signature: %s, id: %s] is running now," +
                                             " skip poll new running task, current pending task num: %d", runningTask.getSyncSignature(),
@@ -680,7 +700,7 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
                         if (runningTask == null) {
                             logger.debug(String.format("single flight task[signature: %s] has no task available" +
                                     " skip execute", syncSignature));
-                            singleFlightTasks.remove(syncSignature);
+                            singleFlightTasks.remove(syncSignature, SingleFlightQueueWrapper.this);
                             return;
                         }
                     }
@@ -701,7 +721,7 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
                 }
 
                 private void executeSingleRunTasks(Object object, ErrorCode errorCode) {
-                    synchronized (singleFlightTasks) {
+                    synchronized (lock) {
                         safeRun(object, runningTask, errorCode);
                         pendingQueue.forEach(task -> safeRun(object, (SingleFlightFuture) task, errorCode));
 
@@ -788,6 +808,10 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
         AtomicInteger counter = new AtomicInteger(0);
         int maxThreadNum = -1;
 
+        ChainTaskQueueWrapper(Object lock) {
+            super(lock);
+        }
+
         int addSubPending(String deduplicateStr) {
             subPendingMap.compute(deduplicateStr, (k, v) -> {
                 if (v == null) {
@@ -876,13 +900,13 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
                 @AsyncThread
                 private void runQueue() {
                     ChainFuture cf;
-                    synchronized (chainTasks) {
+                    synchronized (lock) {
                         // remove from pending queue and add to running queue later
                         cf = (ChainFuture) pendingQueue.poll();
 
                         if (cf == null) {
                             if (counter.decrementAndGet() == 0) {
-                                chainTasks.remove(syncSignature);
+                                chainTasks.remove(syncSignature, ChainTaskQueueWrapper.this);
                             }
 
                             return;
@@ -989,11 +1013,12 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
         assert task.getSyncSignature() != null : "How can you submit a chain task without sync signature ???";
         DebugUtils.Assert(task.getSyncLevel() >= 1, "getSyncLevel() must return 1 at least ");
 
-        synchronized (chainTasks) {
-            final String signature = task.getSyncSignature();
+        final String signature = task.getSyncSignature();
+        Object lock = chainLocks.get(signature);
+        synchronized (lock) {
             ChainTaskQueueWrapper wrapper = chainTasks.get(signature);
             if (wrapper == null) {
-                wrapper = new ChainTaskQueueWrapper();
+                wrapper = new ChainTaskQueueWrapper(lock);
                 chainTasks.put(signature, wrapper);
             }
 
@@ -1024,11 +1049,12 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
     private <T> Future<T> doSingleFlightSyncSubmit(SingleFlightTask task) {
         assert task.getSyncSignature() != null : "How can you submit a single flight chain task without sync signature ???";
 
-        synchronized (singleFlightTasks) {
-            final String signature = task.getSyncSignature();
+        final String signature = task.getSyncSignature();
+        Object lock = singleFlightLocks.get(signature);
+        synchronized (lock) {
             SingleFlightQueueWrapper wrapper = singleFlightTasks.get(signature);
             if (wrapper == null) {
-                wrapper = new SingleFlightQueueWrapper<T>();
+                wrapper = new SingleFlightQueueWrapper<T>(lock);
                 singleFlightTasks.put(signature, wrapper);
             }
 
@@ -1042,18 +1068,16 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
     @Override
     public Map<String, SyncTaskStatistic> getSyncTaskStatistics() {
         Map<String, SyncTaskStatistic> ret = new ConcurrentHashMap<>();
-        synchronized (syncTasks) {
-            for (SyncTaskQueueWrapper wrapper : syncTasks.values()) {
-                SyncTaskStatistic statistic = new SyncTaskStatistic(
-                        wrapper.syncSignature,
-                        wrapper.maxThreadNum,
-                        wrapper.counter.intValue(),
-                        wrapper.queue.size()
-                );
-                ret.put(statistic.getSyncSignature(), statistic);
-
-                logger.warn(JSONObjectUtil.toJsonString(statistic));
-            }
+        for (SyncTaskQueueWrapper wrapper : syncTasks.values()) {
+            SyncTaskStatistic statistic = new SyncTaskStatistic(
+                    wrapper.syncSignature,
+                    wrapper.maxThreadNum,
+                    wrapper.counter.intValue(),
+                    wrapper.queue.size()
+            );
+            ret.put(statistic.getSyncSignature(), statistic);
+
+            logger.warn(JSONObjectUtil.toJsonString(statistic));
         }
 
         return ret;
@@ -1062,24 +1086,20 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
     @Override
     public Map<String, ChainTaskStatistic> getChainTaskStatistics() {
         Map<String, ChainTaskStatistic> ret =  new ConcurrentHashMap<>();
-        synchronized (chainTasks) {
-            for (ChainTaskQueueWrapper wrapper : chainTasks.values()) {
-                ChainTaskStatistic statistic = new ChainTaskStatistic(
-                        wrapper.syncSignature,
-                        wrapper.maxThreadNum,
-                        wrapper.counter.intValue(),
-                        wrapper.pendingQueue.size()
-                );
-                ret.put(statistic.getSyncSignature(), statistic);
-            }
+        for (ChainTaskQueueWrapper wrapper : chainTasks.values()) {
+            ChainTaskStatistic statistic = new ChainTaskStatistic(
+                    wrapper.syncSignature,
+                    wrapper.maxThreadNum,
+                    wrapper.counter.intValue(),
+                    wrapper.pendingQueue.size()
+            );
+            ret.put(statistic.getSyncSignature(), statistic);
         }
         return ret;
     }
 
     @Override
     public boolean isChainTaskRunning(String signature) {
-        synchronized (chainTasks) {
-            return chainTasks.containsKey(signature);
-        }
+        return chainTasks.containsKey(signature);
     }
 }
@@ -0,0 +1,123 @@
+package org.zstack.core.thread;
+
+import org.zstack.core.thread.ThreadFacadeImpl.TimeoutTaskReceipt;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * a hashed timing wheel for a large number of short-lived timeouts that are
+ * mostly cancelled before expiring, e.g. timeouts of agent http calls.
+ *
+ * Unlike ThreadFacade.submitTimeoutTask, which schedules a timer task per timeout,
+ * submitting and cancelling a timeout here is O(1) and only one periodic task ticks
+ * the wheel. A timeout fires within one tick after its deadline. Expired tasks run
+ * in the ticking thread, they should be short or dispatch the work to other threads.
+ */
+public class HashedTimingWheel {
+    private static final CLogger logger = Utils.getLogger(HashedTimingWheel.class);
+
+    private final String name;
+    private final long tickMs;
+    private final Queue<Timeout>[] buckets;
+    private volatile long lastTick;
+
+    private class Timeout implements TimeoutTaskReceipt {
+        final Runnable task;
+        final long deadline;
+        final AtomicBoolean done = new AtomicBoolean(false);
+
+        Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public boolean cancel() {
+            // the cancelled timeout is dropped when the wheel reaches its bucket
+            return done.compareAndSet(false, true);
+        }
+
+        void expire() {
+            if (!done.compareAndSet(false, true)) {
+                return;
+            }
+
+            try {
+                task.run();
+            } catch (Throwable t) {
+                logger.warn(String.format("unhandled exception happened when running timeout task of the timing wheel[%s]", name), t);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public HashedTimingWheel(String name, long tickMs, int wheelSize) {
+        this.name = name;
+        this.tickMs = tickMs;
+        buckets = new Queue[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            buckets[i] = new ConcurrentLinkedQueue<>();
+        }
+        lastTick = System.currentTimeMillis() / tickMs;
+    }
+
+    public void start(ThreadFacade thdf) {
+        thdf.submitPeriodicTask(new PeriodicTask() {
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.MILLISECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                return tickMs;
+            }
+
+            @Override
+            public String getName() {
+                return String.format("timing-wheel-%s", name);
+            }
+
+            @Override
+            public void run() {
+                tick(System.currentTimeMillis());
+            }
+        });
+    }
+
+    public TimeoutTaskReceipt submitTimeoutTask(Runnable task, TimeUnit unit, long delay) {
+        Timeout timeout = new Timeout(task, System.currentTimeMillis() + unit.toMillis(delay));
+        // round the deadline up to a tick, a deadline falling into a passed tick goes to the next tick
+        long tick = Math.max((timeout.deadline + tickMs - 1) / tickMs, lastTick + 1);
+        buckets[(int) (tick % buckets.length)].offer(timeout);
+        return timeout;
+    }
+
+    synchronized void tick(long now) {
+        long currentTick = now / tickMs;
+        // catch up ticks missed because of a busy thread pool, a whole round at most
+        long from = Math.max(lastTick + 1, currentTick - buckets.length + 1);
+        for (long t = from; t <= currentTick; t++) {
+            Iterator<Timeout> it = buckets[(int) (t % buckets.length)].iterator();
+            while (it.hasNext()) {
+                Timeout timeout = it.next();
+                if (timeout.done.get()) {
+                    it.remove();
+                } else if (timeout.deadline <= now) {
+                    it.remove();
+                    timeout.expire();
+                }
+            }
+        }
+
+        if (currentTick > lastTick) {
+            lastTick = currentTick;
+        }
+    }
+}
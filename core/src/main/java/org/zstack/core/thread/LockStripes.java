@@ -0,0 +1,38 @@
+package org.zstack.core.thread;
+
+/**
+ * maps a key to one of a fixed set of monitors, so that operations on
+ * different keys rarely contend on the same lock.
+ *
+ * When the stripe number is not positive, every key maps to the global lock,
+ * which is the same as a single synchronized block.
+ */
+class LockStripes {
+    private final Object globalLock;
+    private final Object[] locks;
+
+    LockStripes(Object globalLock, int stripes) {
+        this.globalLock = globalLock;
+
+        if (stripes <= 0) {
+            locks = null;
+            return;
+        }
+
+        locks = new Object[stripes];
+        for (int i = 0; i < stripes; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    Object get(String key) {
+        if (locks == null) {
+            return globalLock;
+        }
+
+        int h = key.hashCode();
+        // spread the high bits as HashMap does, signatures often share long prefixes
+        h ^= (h >>> 16);
+        return locks[(h & 0x7fffffff) % locks.length];
+    }
+}
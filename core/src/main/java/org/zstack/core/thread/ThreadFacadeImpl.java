@@ -21,6 +21,7 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
     private static final AtomicInteger seqNum = new AtomicInteger(0);
     private ScheduledThreadPoolExecutorExt _pool;
     private ScheduledThreadPoolExecutorExt _syncpool;  // for sync tasks
+    private VirtualThreadExecutor _vpool;  // replaces _pool and _syncpool for non-scheduled tasks when enabled
     private DispatchQueue dpq;
     private final TimerPool timerPool = new TimerPool(5);
 
@@ -99,6 +100,11 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
         );
     }
 
+    @Override
+    public VirtualThreadStatistic getVirtualThreadStatistic() {
+        return _vpool == null ? null : _vpool.getStatistic();
+    }
+
     public static class Worker<T> implements Callable<T> {
         private final Task<T> _task;
 
@@ -128,6 +134,11 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
     }
 
     public void init() {
+        createExecutors(ThreadGlobalProperty.VIRTUAL_THREAD);
+        jmxf.registerBean("ThreadFacade", this);
+    }
+
+    protected void createExecutors(boolean virtualThread) {
         int totalThreadNum = ThreadGlobalProperty.MAX_THREAD_NUM;
         if (totalThreadNum < 10) {
             _logger.warn(String.format("ThreadFacade.maxThreadNum is configured to %s, which is too small for running zstack. Change it to 10", ThreadGlobalProperty.MAX_THREAD_NUM));
@@ -136,22 +147,37 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
         _pool = new ScheduledThreadPoolExecutorExt(totalThreadNum, this, this);
         _syncpool = new ScheduledThreadPoolExecutorExt(getSyncThreadNum(totalThreadNum), this, this);
         _logger.debug(String.format("create ThreadFacade with max thread number:%s", totalThreadNum));
-        dpq = new DispatchQueueImpl();
-
-        jmxf.registerBean("ThreadFacade", this);
+        if (virtualThread) {
+            _vpool = VirtualThreadExecutor.create("zs-vthread-");
+            if (_vpool != null) {
+                _logger.debug("submitted tasks and sync tasks of ThreadFacade run in virtual threads");
+            }
+        }
+        dpq = new DispatchQueueImpl(this);
     }
 
     public void destroy() {
         _pool.shutdownNow();
         _syncpool.shutdown();
+        if (_vpool != null) {
+            _vpool.shutdownNow();
+        }
     }
 
     @Override
     public <T> Future<T> submit(Task<T> task) {
+        if (_vpool != null) {
+            return _vpool.submit(new Worker<T>(task));
+        }
+
         return _pool.submit(new Worker<T>(task));
     }
 
     public <T> Future<T> submitSyncPool(Task<T> task) {
+        if (_vpool != null) {
+            return _vpool.submit(new Worker<T>(task));
+        }
+
         return _syncpool.submit(new Worker<T>(task));
     }
 
@@ -206,12 +232,18 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
     public void registerHook(ThreadAroundHook hook) {
         _pool.registerHook(hook);
         _syncpool.registerHook(hook);
+        if (_vpool != null) {
+            _vpool.registerHook(hook);
+        }
     }
 
     @Override
     public void unregisterHook(ThreadAroundHook hook) {
         _pool.unregisterHook(hook);
         _syncpool.unregisterHook(hook);
+        if (_vpool != null) {
+            _vpool.unregisterHook(hook);
+        }
     }
 
     @Override
@@ -316,6 +348,9 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
     @Override
     public boolean stop() {
         _pool.shutdown();
+        if (_vpool != null) {
+            _vpool.shutdown();
+        }
         timerPool.stop();
         return true;
     }
@@ -374,6 +409,15 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
                         "completedSyncTask: %s, pendingSyncTask: %s, queueSyncTasks: %s", _syncpool.getPoolSize(), _syncpool.getActiveCount(),
                 _syncpool.getCorePoolSize(), _syncpool.getMaximumPoolSize(), completedSyncTask, pendingSyncTask,
                 _syncpool.getQueue().size()));
+        if (_vpool != null) {
+            VirtualThreadStatistic vstat = _vpool.getStatistic();
+            builder.append("check virtual threads and tasks: ");
+            builder.append(String.format("submittedTasks: %s, completedTasks: %s, runningTasks: %s, peakRunningTasks: %s, configuredParallelism: %s, " +
+                    "carrierBusyRatio: %.2f, pinnedEvents: %s",
+                    vstat.getSubmittedTaskNum(), vstat.getCompletedTaskNum(), vstat.getRunningTaskNum(),
+                    vstat.getPeakRunningTaskNum(), vstat.getConfiguredParallelism(), vstat.getCarrierBusyRatio(),
+                    vstat.getPinnedEventNum()));
+        }
 
         _logger.debug(builder.toString());
     }
@@ -9,4 +9,12 @@ import org.zstack.core.GlobalPropertyDefinition;
 public class ThreadGlobalProperty {
     @GlobalProperty(name="ThreadFacade.maxThreadNum", defaultValue = "150")
     public static int MAX_THREAD_NUM;
+    // number of lock stripes guarding chain/sync/single flight task queues,
+    // 0 means all queues share one lock per task type
+    @GlobalProperty(name="ThreadFacade.dispatchQueueLockStripes", defaultValue = "0")
+    public static int DISPATCH_QUEUE_LOCK_STRIPES;
+    // run submitted and sync tasks in virtual threads(JDK 21+), periodic and
+    // scheduled tasks still run in the platform thread pool
+    @GlobalProperty(name="ThreadFacade.virtualThread", defaultValue = "false")
+    public static boolean VIRTUAL_THREAD;
 }
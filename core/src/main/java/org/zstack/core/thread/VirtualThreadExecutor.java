@@ -0,0 +1,177 @@
+package org.zstack.core.thread;
+
+import org.apache.logging.log4j.ThreadContext;
+import org.zstack.utils.logging.CLogger;
+import org.zstack.utils.logging.CLoggerImpl;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * runs every task in a new virtual thread, ThreadAroundHook are called around tasks
+ * the same way as ScheduledThreadPoolExecutorExt does.
+ *
+ * Virtual threads are only available on JDK 21+, the factory is looked up reflectively
+ * so the class still loads on older JDKs; use create() to get null there.
+ */
+public class VirtualThreadExecutor extends AbstractExecutorService {
+    private static final CLogger _logger = CLoggerImpl.getLogger(VirtualThreadExecutor.class);
+
+    private final List<ThreadAroundHook> _hooks = new ArrayList<>(8);
+    private final ThreadFactory factory;
+    private volatile boolean shutdown;
+
+    private final AtomicLong submittedTaskNum = new AtomicLong(0);
+    private final AtomicLong completedTaskNum = new AtomicLong(0);
+    private final AtomicInteger runningTaskNum = new AtomicInteger(0);
+    private final AtomicInteger peakRunningTaskNum = new AtomicInteger(0);
+    private final int configuredParallelism = Integer.getInteger("jdk.virtualThreadScheduler.parallelism",
+            Runtime.getRuntime().availableProcessors());
+    private final VirtualThreadMonitor monitor = new VirtualThreadMonitor(configuredParallelism);
+
+    private VirtualThreadExecutor(ThreadFactory factory) {
+        this.factory = factory;
+    }
+
+    public static VirtualThreadExecutor create(String namePrefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Method name = builderClass.getMethod("name", String.class, long.class);
+            builder = name.invoke(builder, namePrefix, 0L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            VirtualThreadExecutor executor = new VirtualThreadExecutor(factory);
+            executor.monitor.start();
+            return executor;
+        } catch (Exception e) {
+            _logger.warn(String.format("virtual threads are not supported by the running JVM[%s]", System.getProperty("java.version")));
+            return null;
+        }
+    }
+
+    public void registerHook(ThreadAroundHook hook) {
+        synchronized (_hooks) {
+            _hooks.add(hook);
+        }
+    }
+
+    public void unregisterHook(ThreadAroundHook hook) {
+        synchronized (_hooks) {
+            _hooks.remove(hook);
+        }
+    }
+
+    private List<ThreadAroundHook> copyHooks() {
+        synchronized (_hooks) {
+            return new ArrayList<>(_hooks);
+        }
+    }
+
+    private void beforeExecute(Thread t, Runnable r) {
+        ThreadContext.clearMap();
+        ThreadContext.clearStack();
+
+        for (ThreadAroundHook hook : copyHooks()) {
+            try {
+                hook.beforeExecute(t, r);
+            } catch (Exception e) {
+                _logger.warn("Unhandled exception happened during executing ThreadAroundHook: " + hook.getClass().getCanonicalName(), e);
+            }
+        }
+    }
+
+    private void afterExecute(Runnable r, Throwable t) {
+        ThreadContext.clearMap();
+        ThreadContext.clearStack();
+
+        for (ThreadAroundHook hook : copyHooks()) {
+            try {
+                hook.afterExecute(r, t);
+            } catch (Exception e) {
+                _logger.warn("Unhandled exception happened during executing ThreadAroundHook: " + hook.getClass().getCanonicalName(), e);
+            }
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (shutdown) {
+            throw new RejectedExecutionException("Task " + command.getClass().getSimpleName() + " got rejected by the virtual thread executor, it has been shut down");
+        }
+
+        submittedTaskNum.incrementAndGet();
+        factory.newThread(() -> {
+            int running = runningTaskNum.incrementAndGet();
+            peakRunningTaskNum.accumulateAndGet(running, Math::max);
+
+            Throwable err = null;
+            beforeExecute(Thread.currentThread(), command);
+            try {
+                command.run();
+            } catch (Throwable t) {
+                err = t;
+                throw t;
+            } finally {
+                afterExecute(command, err);
+                runningTaskNum.decrementAndGet();
+                completedTaskNum.incrementAndGet();
+            }
+        }).start();
+    }
+
+    public VirtualThreadStatistic getStatistic() {
+        return new VirtualThreadStatistic(
+                submittedTaskNum.get(),
+                completedTaskNum.get(),
+                runningTaskNum.get(),
+                peakRunningTaskNum.get(),
+                configuredParallelism,
+                monitor.getCarrierBusyRatio(),
+                monitor.getPinnedEventNum()
+        );
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        monitor.stop();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown();
+        return new ArrayList<>();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        // a task counts from its submission, its virtual thread may not have started yet
+        return shutdown && completedTaskNum.get() == submittedTaskNum.get();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!isTerminated()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+
+        return true;
+    }
+}
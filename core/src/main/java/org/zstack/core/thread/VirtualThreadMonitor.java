@@ -0,0 +1,139 @@
+package org.zstack.core.thread;
+
+import org.zstack.utils.logging.CLogger;
+import org.zstack.utils.logging.CLoggerImpl;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * measures what task counters of VirtualThreadExecutor can't see: how busy carrier threads
+ * are, and how often virtual threads pin their carriers.
+ *
+ * The carrier busy ratio is the CPU time of carrier threads divided by the elapsed time and
+ * the configured parallelism, sampled when the statistic is read and at most once a second,
+ * so it covers the period since the previous read. Pinning is counted from the JFR event
+ * jdk.VirtualThreadPinned, emitted when a virtual thread blocks pinned longer than 20ms,
+ * by a JFR RecordingStream; the event covers all virtual threads of the JVM.
+ *
+ * Both are looked up reflectively as the build targets Java 8, and are -1 if the JVM
+ * doesn't support them.
+ */
+public class VirtualThreadMonitor {
+    private static final CLogger _logger = CLoggerImpl.getLogger(VirtualThreadMonitor.class);
+    private static final String CARRIER_THREAD_CLASS = "jdk.internal.misc.CarrierThread";
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+    private static final long MIN_SAMPLE_PERIOD = TimeUnit.SECONDS.toNanos(1);
+
+    private final int parallelism;
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private final AtomicLong pinnedEventNum = new AtomicLong(0);
+    private AutoCloseable pinnedEventStream;
+
+    // CPU time by carrier thread id at the previous sample
+    private Map<Long, Long> carrierCpuTimes;
+    private long sampledAt;
+    private double carrierBusyRatio = -1;
+
+    VirtualThreadMonitor(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    synchronized void start() {
+        if (threadMXBean.isThreadCpuTimeSupported() && threadMXBean.isThreadCpuTimeEnabled()) {
+            carrierCpuTimes = getCarrierCpuTimes();
+            sampledAt = System.nanoTime();
+        }
+
+        pinnedEventStream = openPinnedEventStream();
+    }
+
+    private AutoCloseable openPinnedEventStream() {
+        try {
+            Class<?> clz = Class.forName("jdk.jfr.consumer.RecordingStream");
+            Object stream = clz.getConstructor().newInstance();
+            clz.getMethod("enable", String.class).invoke(stream, PINNED_EVENT);
+            Consumer<Object> counter = e -> pinnedEventNum.incrementAndGet();
+            clz.getMethod("onEvent", String.class, Consumer.class).invoke(stream, PINNED_EVENT, counter);
+            clz.getMethod("startAsync").invoke(stream);
+            return (AutoCloseable) stream;
+        } catch (Exception e) {
+            _logger.warn(String.format("cannot count %s events of the running JVM[%s], %s", PINNED_EVENT,
+                    System.getProperty("java.version"), e));
+            return null;
+        }
+    }
+
+    private static ThreadGroup getRootThreadGroup() {
+        ThreadGroup group = Thread.currentThread().getThreadGroup();
+        while (group.getParent() != null) {
+            group = group.getParent();
+        }
+        return group;
+    }
+
+    private Map<Long, Long> getCarrierCpuTimes() {
+        ThreadGroup root = getRootThreadGroup();
+        Thread[] threads = new Thread[root.activeCount() * 2 + 16];
+        int num = root.enumerate(threads, true);
+
+        Map<Long, Long> ret = new HashMap<>();
+        for (int i = 0; i < num; i++) {
+            Thread t = threads[i];
+            if (!CARRIER_THREAD_CLASS.equals(t.getClass().getName())) {
+                continue;
+            }
+
+            long cpuTime = threadMXBean.getThreadCpuTime(t.getId());
+            if (cpuTime >= 0) {
+                ret.put(t.getId(), cpuTime);
+            }
+        }
+        return ret;
+    }
+
+    synchronized double getCarrierBusyRatio() {
+        if (carrierCpuTimes == null) {
+            return -1;
+        }
+
+        long now = System.nanoTime();
+        long elapsed = now - sampledAt;
+        if (elapsed < MIN_SAMPLE_PERIOD) {
+            return carrierBusyRatio;
+        }
+
+        Map<Long, Long> cpuTimes = getCarrierCpuTimes();
+        long busy = 0;
+        for (Map.Entry<Long, Long> e : cpuTimes.entrySet()) {
+            // carriers started in the period count from zero, ended ones are no longer seen
+            busy += e.getValue() - carrierCpuTimes.getOrDefault(e.getKey(), 0L);
+        }
+
+        carrierBusyRatio = (double) busy / elapsed / parallelism;
+        carrierCpuTimes = cpuTimes;
+        sampledAt = now;
+        return carrierBusyRatio;
+    }
+
+    long getPinnedEventNum() {
+        return pinnedEventStream == null ? -1 : pinnedEventNum.get();
+    }
+
+    synchronized void stop() {
+        if (pinnedEventStream == null) {
+            return;
+        }
+
+        try {
+            pinnedEventStream.close();
+        } catch (Exception e) {
+            _logger.warn(String.format("failed to close the %s event stream", PINNED_EVENT), e);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.zstack.core.thread;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * task counters of VirtualThreadExecutor, with carrier busy ratio and pinning measured by
+ * VirtualThreadMonitor
+ */
+public class VirtualThreadStatistic {
+    private long submittedTaskNum;
+    private long completedTaskNum;
+    private int runningTaskNum;
+    private int peakRunningTaskNum;
+    // jdk.virtualThreadScheduler.parallelism, or the number of processors if not set
+    private int configuredParallelism;
+    // CPU time of carrier threads over the configured parallelism since the previous read, -1 if not measurable
+    private double carrierBusyRatio;
+    // jdk.VirtualThreadPinned events of the JVM, -1 if JFR streaming is not available
+    private long pinnedEventNum;
+
+    @ConstructorProperties({"submittedTaskNum", "completedTaskNum", "runningTaskNum", "peakRunningTaskNum", "configuredParallelism",
+            "carrierBusyRatio", "pinnedEventNum"})
+    public VirtualThreadStatistic(long submittedTaskNum, long completedTaskNum, int runningTaskNum, int peakRunningTaskNum, int configuredParallelism,
+                                  double carrierBusyRatio, long pinnedEventNum) {
+        this.submittedTaskNum = submittedTaskNum;
+        this.completedTaskNum = completedTaskNum;
+        this.runningTaskNum = runningTaskNum;
+        this.peakRunningTaskNum = peakRunningTaskNum;
+        this.configuredParallelism = configuredParallelism;
+        this.carrierBusyRatio = carrierBusyRatio;
+        this.pinnedEventNum = pinnedEventNum;
+    }
+
+    public long getSubmittedTaskNum() {
+        return submittedTaskNum;
+    }
+
+    public long getCompletedTaskNum() {
+        return completedTaskNum;
+    }
+
+    public int getRunningTaskNum() {
+        return runningTaskNum;
+    }
+
+    public int getPeakRunningTaskNum() {
+        return peakRunningTaskNum;
+    }
+
+    public int getConfiguredParallelism() {
+        return configuredParallelism;
+    }
+
+    public double getCarrierBusyRatio() {
+        return carrierBusyRatio;
+    }
+
+    public long getPinnedEventNum() {
+        return pinnedEventNum;
+    }
+}
@@ -0,0 +1,435 @@
+package org.zstack.core.workflow;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.CoreGlobalProperty;
+import org.zstack.core.Platform;
+import org.zstack.core.componentloader.PluginRegistry;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.Q;
+import org.zstack.core.db.SQL;
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.thread.PeriodicTask;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.Component;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.header.managementnode.ManagementNodeChangeListener;
+import org.zstack.header.managementnode.ManagementNodeInventory;
+import org.zstack.header.managementnode.ManagementNodeVO;
+import org.zstack.header.managementnode.ManagementNodeVO_;
+import org.zstack.utils.Utils;
+import org.zstack.utils.gson.JSONObjectUtil;
+import org.zstack.utils.logging.CLogger;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * an append-only execution journal of flow chains enabled by SimpleFlowChain.journal(),
+ * off unless flowChain.journal.enable is set.
+ *
+ * Flow boundaries are queued by the chain and written to WorkFlowChainVO/WorkFlowVO
+ * in one JDBC batch every flowChain.journal.flushIntervalInMillis, the journal of a
+ * chain is deleted once the chain completes, so a chain starting and completing between
+ * two flushes costs no database write. Records failing to write are kept and written
+ * by the next flush. When a management node leaves, one of the rest nodes takes over
+ * its unfinished chains and hands them to the FlowChainRecoveryExtensionPoint registered
+ * for the journal name; a node restarting with the same id takes over its own chains
+ * when it joins.
+ *
+ * Boundaries queued in the last flush interval are lost if the node dies, so a recovered
+ * chain may re-run or roll back a flow it has completed, flows in a journaled chain
+ * should be idempotent.
+ */
+public class FlowChainJournal implements Component, ManagementNodeChangeListener {
+    private static final CLogger logger = Utils.getLogger(FlowChainJournal.class);
+
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private ThreadFacade thdf;
+    @Autowired
+    private PluginRegistry pluginRgty;
+
+    private final Queue<Object> pendingRecords = new ConcurrentLinkedQueue<>();
+    // records of the last failed flush, written before the pending ones
+    private final List<Object> unwrittenRecords = new ArrayList<>();
+    // chains running in this JVM, not to be taken over as chains of a previous run
+    private final Set<String> localChains = ConcurrentHashMap.newKeySet();
+    private final Map<String, FlowChainRecoveryExtensionPoint> recoveryExtensions = new HashMap<>();
+    private Future<Void> flushTask;
+
+    private final AtomicLong recordCount = new AtomicLong();
+    private final AtomicLong writtenRecordCount = new AtomicLong();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong flushTimeInNanos = new AtomicLong();
+
+    private static class ChainCompletion {
+        final String chainUuid;
+
+        ChainCompletion(String chainUuid) {
+            this.chainUuid = chainUuid;
+        }
+    }
+
+    private void queue(Object record) {
+        recordCount.incrementAndGet();
+        pendingRecords.add(record);
+    }
+
+    private WorkFlowVO newFlowRecord(String chainUuid, int position, String flowName, WorkFlowState state) {
+        WorkFlowVO vo = new WorkFlowVO();
+        vo.setChainUuid(chainUuid);
+        vo.setPosition(position);
+        vo.setName(flowName);
+        vo.setState(state);
+        vo.setOperationDate(new Date());
+        return vo;
+    }
+
+    void chainStarted(String chainUuid, String chainName, int totalFlows) {
+        WorkFlowChainVO vo = new WorkFlowChainVO();
+        vo.setUuid(chainUuid);
+        vo.setName(chainName);
+        vo.setOwner(Platform.getManagementServerId());
+        vo.setState(WorkFlowChainState.Processing);
+        vo.setTotalWorkFlows(totalFlows);
+        vo.setCurrentPosition(0);
+        vo.setOperationDate(new Date());
+        localChains.add(chainUuid);
+        queue(vo);
+    }
+
+    void chainRecovered(String chainUuid) {
+        localChains.add(chainUuid);
+    }
+
+    void flowStarted(String chainUuid, int position, String flowName, Map data) {
+        WorkFlowVO vo = newFlowRecord(chainUuid, position, flowName, WorkFlowState.Processing);
+        vo.setContext(serializeData(data));
+        queue(vo);
+    }
+
+    void flowDone(String chainUuid, int position, String flowName) {
+        queue(newFlowRecord(chainUuid, position, flowName, WorkFlowState.Done));
+    }
+
+    void flowFailed(String chainUuid, int position, String flowName, ErrorCode error) {
+        WorkFlowVO vo = newFlowRecord(chainUuid, position, flowName, WorkFlowState.Failed);
+        vo.setReason(error == null ? null : error.toString());
+        queue(vo);
+    }
+
+    void flowRolledBack(String chainUuid, int position, String flowName) {
+        queue(newFlowRecord(chainUuid, position, flowName, WorkFlowState.RollbackDone));
+    }
+
+    void chainCompleted(String chainUuid) {
+        localChains.remove(chainUuid);
+        queue(new ChainCompletion(chainUuid));
+    }
+
+    /**
+     * deletes the journal of a chain, for FlowChainRecoveryExtensionPoints that recover a chain
+     * without running it by SimpleFlowChain.recover()
+     */
+    public void recoveryCompleted(String chainUuid) {
+        chainCompleted(chainUuid);
+    }
+
+    private static boolean isJournaledValue(Object value) {
+        if (value == null) {
+            return false;
+        }
+
+        Class clz = value.getClass();
+        if (value instanceof String || value instanceof Number || value instanceof Boolean || clz.isEnum()
+                || clz.getSimpleName().endsWith("Inventory")) {
+            return true;
+        }
+
+        return value instanceof Collection && ((Collection<?>) value).stream().allMatch(it -> it instanceof String);
+    }
+
+    /**
+     * only values that can be restored from JSON are journaled: strings, numbers, booleans, enums,
+     * inventories and collections of strings
+     */
+    static byte[] serializeData(Map<?, ?> data) {
+        Map<String, String> ret = new HashMap<>();
+        data.forEach((k, v) -> {
+            if (k instanceof String && isJournaledValue(v)) {
+                ret.put((String) k, JSONObjectUtil.toTypedJsonString(v));
+            }
+        });
+
+        return JSONObjectUtil.toJsonString(ret).getBytes(StandardCharsets.UTF_8);
+    }
+
+    static Map<String, Object> deserializeData(byte[] context) {
+        Map<String, Object> ret = new HashMap<>();
+        if (context == null) {
+            return ret;
+        }
+
+        Map<String, String> values = JSONObjectUtil.toObject(new String(context, StandardCharsets.UTF_8), LinkedHashMap.class);
+        values.forEach((k, v) -> {
+            try {
+                ret.put(k, JSONObjectUtil.fromTypedJsonString(v));
+            } catch (RuntimeException e) {
+                logger.warn(String.format("unable to restore flow chain data[%s], skip it", k), e);
+            }
+        });
+        return ret;
+    }
+
+    synchronized void flush() {
+        List<Object> records = new ArrayList<>(unwrittenRecords);
+        unwrittenRecords.clear();
+        for (Object r = pendingRecords.poll(); r != null; r = pendingRecords.poll()) {
+            records.add(r);
+        }
+
+        if (records.isEmpty()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        Set<String> completed = records.stream().filter(it -> it instanceof ChainCompletion)
+                .map(it -> ((ChainCompletion) it).chainUuid).collect(Collectors.toSet());
+        // records of chains completed in this interval are not written at all
+        List<Object> toWrite = records.stream().filter(it -> {
+            if (it instanceof WorkFlowChainVO) {
+                return !completed.contains(((WorkFlowChainVO) it).getUuid());
+            } else if (it instanceof WorkFlowVO) {
+                return !completed.contains(((WorkFlowVO) it).getChainUuid());
+            }
+            return false;
+        }).collect(Collectors.toList());
+
+        try {
+            if (!toWrite.isEmpty()) {
+                dbf.persistCollection(toWrite);
+            }
+        } catch (Throwable t) {
+            logger.warn(String.format("failed to write %s flow chain journal records, retry in the next flush", toWrite.size()), t);
+            // the rolled back inserts may have set the IDENTITY key
+            toWrite.stream().filter(it -> it instanceof WorkFlowVO).forEach(it -> ((WorkFlowVO) it).setId(0));
+            unwrittenRecords.addAll(records);
+            flushCount.incrementAndGet();
+            flushTimeInNanos.addAndGet(System.nanoTime() - start);
+            return;
+        }
+
+        writtenRecordCount.addAndGet(toWrite.size());
+
+        try {
+            if (!completed.isEmpty()) {
+                SQL.New(WorkFlowVO.class).in(WorkFlowVO_.chainUuid, completed).hardDelete();
+                SQL.New(WorkFlowChainVO.class).in(WorkFlowChainVO_.uuid, completed).hardDelete();
+            }
+        } catch (Throwable t) {
+            logger.warn(String.format("failed to delete the journal of %s completed flow chains, retry in the next flush", completed.size()), t);
+            completed.forEach(it -> unwrittenRecords.add(new ChainCompletion(it)));
+        }
+
+        flushCount.incrementAndGet();
+        flushTimeInNanos.addAndGet(System.nanoTime() - start);
+    }
+
+    public long getRecordCount() {
+        return recordCount.get();
+    }
+
+    public long getWrittenRecordCount() {
+        return writtenRecordCount.get();
+    }
+
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    public long getFlushTimeInNanos() {
+        return flushTimeInNanos.get();
+    }
+
+    private FlowChainJournalRecord loadRecord(WorkFlowChainVO chain) {
+        FlowChainJournalRecord record = new FlowChainJournalRecord();
+        record.setChainUuid(chain.getUuid());
+        record.setChainName(chain.getName());
+        record.setOwner(chain.getOwner());
+        record.setTotalFlows(chain.getTotalWorkFlows());
+
+        List<WorkFlowVO> flows = Q.New(WorkFlowVO.class).eq(WorkFlowVO_.chainUuid, chain.getUuid())
+                .orderBy(WorkFlowVO_.id, SimpleQuery.Od.ASC).list();
+        TreeMap<Integer, String> completed = new TreeMap<>();
+        for (WorkFlowVO flow : flows) {
+            switch (flow.getState()) {
+                case Processing:
+                    record.setData(deserializeData(flow.getContext()));
+                    record.setInterruptedFlow(flow.getName());
+                    break;
+                case Done:
+                    completed.put(flow.getPosition(), flow.getName());
+                    record.setInterruptedFlow(null);
+                    break;
+                case Failed:
+                    record.setRollingBack(true);
+                    break;
+                case RollbackDone:
+                    completed.remove(flow.getPosition());
+                    if (flow.getName().equals(record.getInterruptedFlow())) {
+                        record.setInterruptedFlow(null);
+                    }
+                    break;
+                default:
+                    throw new CloudRuntimeException(String.format("unknown flow state[%s]", flow.getState()));
+            }
+        }
+
+        record.setCompletedFlows(new ArrayList<>(completed.values()));
+        return record;
+    }
+
+    // chains left by a previous run of this node, no other node takes them over as the node id is alive
+    private void takeOverOwnChains() {
+        List<WorkFlowChainVO> chains = Q.New(WorkFlowChainVO.class)
+                .eq(WorkFlowChainVO_.owner, Platform.getManagementServerId())
+                .eq(WorkFlowChainVO_.state, WorkFlowChainState.Processing)
+                .list();
+
+        chains.stream().filter(it -> !localChains.contains(it.getUuid())).forEach(it -> recover(loadRecord(it)));
+    }
+
+    private void takeOver(List<String> nodeUuids) {
+        List<WorkFlowChainVO> chains = Q.New(WorkFlowChainVO.class)
+                .in(WorkFlowChainVO_.owner, nodeUuids)
+                .eq(WorkFlowChainVO_.state, WorkFlowChainState.Processing)
+                .list();
+
+        for (WorkFlowChainVO chain : chains) {
+            // every node gets the node left event, the one updating the owner takes over the chain
+            int claimed = SQL.New(WorkFlowChainVO.class)
+                    .eq(WorkFlowChainVO_.uuid, chain.getUuid())
+                    .eq(WorkFlowChainVO_.owner, chain.getOwner())
+                    .set(WorkFlowChainVO_.owner, Platform.getManagementServerId())
+                    .update();
+            if (claimed == 0) {
+                continue;
+            }
+
+            recover(loadRecord(chain));
+        }
+    }
+
+    private void recover(FlowChainJournalRecord record) {
+        FlowChainRecoveryExtensionPoint ext = recoveryExtensions.get(record.getChainName());
+        if (ext == null) {
+            String reason = String.format("management node[uuid:%s] left when running the flow chain, and no recovery for it",
+                    record.getOwner());
+            logger.warn(String.format("[FlowChain(%s): %s] %s, completed flows: %s, interrupted flow: %s",
+                    record.getChainUuid(), record.getChainName(), reason, record.getCompletedFlows(), record.getInterruptedFlow()));
+            SQL.New(WorkFlowChainVO.class).eq(WorkFlowChainVO_.uuid, record.getChainUuid())
+                    .set(WorkFlowChainVO_.state, WorkFlowChainState.ProcessFailed)
+                    .set(WorkFlowChainVO_.reason, reason)
+                    .update();
+            return;
+        }
+
+        logger.debug(String.format("[FlowChain(%s): %s] recover the flow chain of management node[uuid:%s] by %s",
+                record.getChainUuid(), record.getChainName(), record.getOwner(), ext.getClass()));
+        try {
+            ext.recoverFlowChain(record);
+        } catch (Throwable t) {
+            logger.warn(String.format("unhandled exception when recovering flow chain[%s]", record.getChainUuid()), t);
+        }
+    }
+
+    @Override
+    public void nodeJoin(ManagementNodeInventory inv) {
+    }
+
+    @Override
+    public void nodeLeft(ManagementNodeInventory inv) {
+        takeOver(Collections.singletonList(inv.getUuid()));
+    }
+
+    @Override
+    public void iAmDead(ManagementNodeInventory inv) {
+    }
+
+    @Override
+    public void iJoin(ManagementNodeInventory inv) {
+        // chains of nodes stopped when no other node was running
+        List<String> owners = Q.New(WorkFlowChainVO.class).select(WorkFlowChainVO_.owner)
+                .eq(WorkFlowChainVO_.state, WorkFlowChainState.Processing).listValues();
+        owners = owners.stream().distinct().collect(Collectors.toList());
+        // the node id is derived from the node IP, a restarted node gets its own chains back
+        if (owners.remove(Platform.getManagementServerId())) {
+            takeOverOwnChains();
+        }
+
+        if (owners.isEmpty()) {
+            return;
+        }
+
+        List<String> alive = Q.New(ManagementNodeVO.class).select(ManagementNodeVO_.uuid)
+                .in(ManagementNodeVO_.uuid, owners).listValues();
+        owners.removeAll(alive);
+        if (!owners.isEmpty()) {
+            takeOver(owners);
+        }
+    }
+
+    @Override
+    public boolean start() {
+        for (FlowChainRecoveryExtensionPoint ext : pluginRgty.getExtensionList(FlowChainRecoveryExtensionPoint.class)) {
+            FlowChainRecoveryExtensionPoint old = recoveryExtensions.get(ext.getFlowChainNameForRecovery());
+            if (old != null) {
+                throw new CloudRuntimeException(String.format("duplicate FlowChainRecoveryExtensionPoint[%s, %s] for flow chain[%s]",
+                        old.getClass(), ext.getClass(), ext.getFlowChainNameForRecovery()));
+            }
+
+            recoveryExtensions.put(ext.getFlowChainNameForRecovery(), ext);
+        }
+
+        flushTask = thdf.submitPeriodicTask(new PeriodicTask() {
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.MILLISECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                return CoreGlobalProperty.FLOW_CHAIN_JOURNAL_FLUSH_INTERVAL;
+            }
+
+            @Override
+            public String getName() {
+                return "flow-chain-journal-flush";
+            }
+
+            @Override
+            public void run() {
+                flush();
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        if (flushTask != null) {
+            flushTask.cancel(true);
+        }
+
+        flush();
+        return true;
+    }
+}
@@ -0,0 +1,86 @@
+package org.zstack.core.workflow;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * journal of an interrupted flow chain, built from WorkFlowChainVO and its WorkFlowVOs
+ */
+public class FlowChainJournalRecord {
+    private String chainUuid;
+    private String chainName;
+    private String owner;
+    private int totalFlows;
+    // names of flows completed and not rolled back, in execution order
+    private List<String> completedFlows = new ArrayList<>();
+    // name of the flow started but not completed
+    private String interruptedFlow;
+    private boolean rollingBack;
+    private Map<String, Object> data = new HashMap<>();
+
+    public String getChainUuid() {
+        return chainUuid;
+    }
+
+    public void setChainUuid(String chainUuid) {
+        this.chainUuid = chainUuid;
+    }
+
+    public String getChainName() {
+        return chainName;
+    }
+
+    public void setChainName(String chainName) {
+        this.chainName = chainName;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    public int getTotalFlows() {
+        return totalFlows;
+    }
+
+    public void setTotalFlows(int totalFlows) {
+        this.totalFlows = totalFlows;
+    }
+
+    public List<String> getCompletedFlows() {
+        return completedFlows;
+    }
+
+    public void setCompletedFlows(List<String> completedFlows) {
+        this.completedFlows = completedFlows;
+    }
+
+    public String getInterruptedFlow() {
+        return interruptedFlow;
+    }
+
+    public void setInterruptedFlow(String interruptedFlow) {
+        this.interruptedFlow = interruptedFlow;
+    }
+
+    public boolean isRollingBack() {
+        return rollingBack;
+    }
+
+    public void setRollingBack(boolean rollingBack) {
+        this.rollingBack = rollingBack;
+    }
+
+    public Map<String, Object> getData() {
+        return data;
+    }
+
+    public void setData(Map<String, Object> data) {
+        this.data = data;
+    }
+}
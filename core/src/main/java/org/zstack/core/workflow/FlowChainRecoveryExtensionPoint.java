@@ -0,0 +1,17 @@
+package org.zstack.core.workflow;
+
+/**
+ * recovers flow chains interrupted because their management node left.
+ *
+ * The implementation usually rebuilds the chain with the same flows and calls
+ * SimpleFlowChain.recover() to resume or roll it back; an implementation cleaning up
+ * by itself calls FlowChainJournal.recoveryCompleted() when done.
+ */
+public interface FlowChainRecoveryExtensionPoint {
+    /**
+     * @return the journal name given to SimpleFlowChain.journal()
+     */
+    String getFlowChainNameForRecovery();
+
+    void recoverFlowChain(FlowChainJournalRecord record);
+}
@@ -63,6 +63,9 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
     private List<List<Runnable>> afterFinal = new ArrayList<>();
 
     private boolean isFailCalled;
+    private FlowChainJournal journal;
+    private String journalName;
+    private int currentRollbackPosition;
 
     private static final Map<String, WorkFlowStatistic> statistics = new ConcurrentHashMap<>();
 
@@ -355,6 +358,9 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
                         return;
                     }
                 }
+                if (journal != null) {
+                    journal.flowStarted(id, currentLoop, getJournalFlowName(currentLoop), data);
+                }
                 toRun.run(this, data);
             }
         } catch (OperationFailureException oe) {
@@ -376,6 +382,7 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
     private void rollbackFlow(Flow flow) {
         try {
             logger.debug(String.format("[FlowChain(%s): %s] start to rollback flow[%s]", id, name, getFlowName(flow)));
+            currentRollbackPosition = currentLoop;
             currentLoop --;
 
             if (contextHandler != null) {
@@ -396,6 +403,10 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
     }
 
     private void callErrorHandler(boolean info) {
+        if (journal != null) {
+            journal.chainCompleted(id);
+        }
+
         if (info) {
             logger.debug(String.format("[FlowChain(%s): %s] rolled back all flows because error%s", id, name, errorCode));
         }
@@ -435,6 +446,16 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
         return name;
     }
 
+    /**
+     * the name of the flow declared at the position, stable across management nodes: it's not
+     * affected by trace logging, and a flow replaced by the FlowMarshaller keeps the declared one
+     */
+    private String getJournalFlowName(int position) {
+        Flow flow = flows.get(position - 1);
+        String innerName = FieldUtils.getFieldValue("__name__", flow);
+        return innerName == null ? flow.getClass().getName() : innerName;
+    }
+
     private String getFlowName(Flow flow) {
         StringBuilder name = new StringBuilder();
         String innerName = FieldUtils.getFieldValue("__name__", flow);
@@ -469,6 +490,10 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
         }
 
         isRollbackStart = true;
+        if (journal != null && currentRollbackFlow != null) {
+            journal.flowRolledBack(id, currentRollbackPosition, getJournalFlowName(currentRollbackPosition));
+        }
+
         if (rollBackFlows.empty()) {
             callErrorHandler(true);
             return;
@@ -543,6 +568,10 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
     }
 
     private void callDoneHandler() {
+        if (journal != null) {
+            journal.chainCompleted(id);
+        }
+
         if (CoreGlobalProperty.PROFILER_WORKFLOW || allowWatch) {
             stopWatch.stop();
         }
@@ -580,6 +609,9 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
     public void fail(ErrorCode errorCode) {
         isFailCalled = true;
         setErrorCode(errorCode);
+        if (journal != null) {
+            journal.flowFailed(id, currentLoop, getJournalFlowName(currentLoop), errorCode);
+        }
         rollBackFlows.push(currentFlow);
         rollback();
     }
@@ -624,6 +656,9 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
         rollBackFlows.push(currentFlow);
 
         logger.debug(String.format("[FlowChain(%s): %s] successfully executed flow[%s]", id, name, getFlowName(currentFlow)));
+        if (journal != null) {
+            journal.flowDone(id, currentLoop, getJournalFlowName(currentLoop));
+        }
 
         runFlowOrComplete();
     }
@@ -666,6 +701,10 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
             logger.trace(String.format("execution path:\n%s", StringUtils.join(names, " -->\n")));
         }
 
+        if (journal != null) {
+            journal.chainStarted(id, journalName, flows.size());
+        }
+
         it = flows.iterator();
         runFlowOrComplete();
     }
@@ -689,6 +728,94 @@ public class SimpleFlowChain implements FlowTrigger, FlowRollback, FlowChain, Fl
         }
     }
 
+    /**
+     * writes the execution of the chain to FlowChainJournal, so the chain can be recovered by
+     * a FlowChainRecoveryExtensionPoint if the management node leaves before the chain completes,
+     * see FlowChainJournal
+     *
+     * @param journalName the name the FlowChainRecoveryExtensionPoint is registered for, unlike
+     *                    the chain name it must not contain resource uuids
+     */
+    public SimpleFlowChain journal(String journalName) {
+        if (CoreGlobalProperty.FLOW_CHAIN_JOURNAL_ENABLE) {
+            journal = Platform.getComponentLoader().getComponent(FlowChainJournal.class);
+            this.journalName = journalName;
+            // the id is the primary key of WorkFlowChainVO
+            id = Platform.getUuid();
+        }
+        return this;
+    }
+
+    /**
+     * continues a chain interrupted by its management node leaving, the chain must be set up
+     * with the same flows as the interrupted one.
+     *
+     * @param resume true to run the rest flows from the interrupted one, false to roll back
+     *               the completed flows. A chain interrupted in rollback is always rolled back.
+     */
+    public void recover(FlowChainJournalRecord record, boolean resume) {
+        if (processors != null) {
+            for (FlowChainProcessor p : processors) {
+                p.processFlowChain(this);
+            }
+        }
+
+        List<String> completed = record.getCompletedFlows();
+        if (completed.size() > flows.size()) {
+            throw new CloudRuntimeException(String.format("[FlowChain(%s): %s] the chain has %s flows but %s flows were completed",
+                    record.getChainUuid(), name, flows.size(), completed.size()));
+        }
+
+        for (int i = 0; i < completed.size(); i++) {
+            String fname = getJournalFlowName(i + 1);
+            if (!fname.equals(completed.get(i))) {
+                throw new CloudRuntimeException(String.format("[FlowChain(%s): %s] flow[%s] at %s doesn't match the completed flow[%s]",
+                        record.getChainUuid(), name, fname, i + 1, completed.get(i)));
+            }
+        }
+
+        id = record.getChainUuid();
+        journalName = record.getChainName();
+        data.putAll(record.getData());
+        isStart = true;
+        if (CoreGlobalProperty.FLOW_CHAIN_JOURNAL_ENABLE) {
+            journal = Platform.getComponentLoader().getComponent(FlowChainJournal.class);
+            journal.chainRecovered(id);
+        }
+
+        for (int i = 0; i < completed.size(); i++) {
+            currentFlow = flows.get(i);
+            rollBackFlows.push(currentFlow);
+        }
+        currentLoop = completed.size();
+
+        logger.debug(String.format("[FlowChain(%s): %s] recovers from the management node[uuid:%s], completed flows: %s," +
+                " interrupted flow: %s, resume: %s", id, name, record.getOwner(), completed, record.getInterruptedFlow(), resume));
+
+        if (resume && !record.isRollingBack()) {
+            it = flows.listIterator(currentLoop);
+            runFlowOrComplete();
+            return;
+        }
+
+        // the interrupted flow may have done part of its work, roll it back as well
+        if (record.getInterruptedFlow() != null && currentLoop < flows.size()
+                && record.getInterruptedFlow().equals(getJournalFlowName(currentLoop + 1))) {
+            currentLoop ++;
+            currentFlow = flows.get(currentLoop - 1);
+            rollBackFlows.push(currentFlow);
+        }
+
+        isFailCalled = true;
+        ErrorCode err = inerr("the management node[uuid:%s] running the flow chain[%s] left", record.getOwner(), name);
+        if (currentFlow == null) {
+            errorCode = err;
+        } else {
+            setErrorCode(err);
+        }
+        rollback();
+    }
+
     public static Map<String, WorkFlowStatistic> getStatistics() {
         return statistics;
     }
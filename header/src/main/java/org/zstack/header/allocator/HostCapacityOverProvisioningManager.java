@@ -1,5 +1,6 @@
 package org.zstack.header.allocator;
 
+import java.util.Collection;
 import java.util.Map;
 
 /**
@@ -18,6 +19,8 @@ public interface HostCapacityOverProvisioningManager {
 
     double getMemoryRatio(String hostUuid);
 
+    Map<String, Double> getMemoryRatios(Collection<String> hostUuids);
+
     Map<String, Double> getAllMemoryRatio();
 
     long calculateMemoryByRatio(String hostUuid, long capacity);
@@ -1,9 +1,19 @@
 package org.zstack.header.allocator;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  */
 public interface HostReservedCapacityExtensionPoint {
     String getHypervisorTypeForHostReserveCapacityExtension();
 
     ReservedHostCapacity getReservedHostCapacity(String hostUuid);
+
+    default Map<String, ReservedHostCapacity> getReservedHostCapacities(Collection<String> hostUuids) {
+        Map<String, ReservedHostCapacity> ret = new HashMap<>();
+        hostUuids.forEach(huuid -> ret.put(huuid, getReservedHostCapacity(huuid)));
+        return ret;
+    }
 }
@@ -8,8 +8,18 @@ public class PolicyMatcher {
     private AntPathMatcher matcher = new AntPathMatcher();
 
     public boolean match(String policy, String path) {
-        policy = policy.replaceAll("\\.", "/");
-        path = path.replaceAll("\\.", "/");
+        return matchNormalized(normalize(policy), normalize(path));
+    }
+
+    /**
+     * converts a policy pattern or an API name to the path form used by match(), so a pattern
+     * matched against many API names can be converted once
+     */
+    public static String normalize(String policyOrPath) {
+        return policyOrPath.replace('.', '/');
+    }
+
+    public boolean matchNormalized(String policy, String path) {
         return matcher.match(policy, path) || path.endsWith(policy);
     }
 
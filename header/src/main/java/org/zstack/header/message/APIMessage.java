@@ -11,6 +11,9 @@ import org.zstack.utils.DebugUtils;
 import org.zstack.utils.FieldUtils;
 import org.zstack.utils.TypeUtils;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.*;
@@ -40,6 +43,65 @@ public abstract class APIMessage extends NeedReplyMessage implements Configurabl
     public static class FieldParam {
         public Field field;
         public APIParam param;
+
+        private MethodHandle getter;
+        private MethodHandle setter;
+        private CompiledApiParam compiled;
+
+        /**
+         * resolves the accessors and the checks of the param once, so validating a message
+         * neither reflects on fields nor reads annotations
+         */
+        void compile() {
+            try {
+                field.setAccessible(true);
+                getter = MethodHandles.lookup().unreflectGetter(field).asType(MethodType.methodType(Object.class, Object.class));
+                // final fields can't have setters, they are set by reflection when trimmed
+                if (!Modifier.isFinal(field.getModifiers())) {
+                    setter = MethodHandles.lookup().unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, Object.class));
+                }
+            } catch (IllegalAccessException e) {
+                throw new CloudRuntimeException(e);
+            }
+
+            compiled = new CompiledApiParam(field, param);
+        }
+
+        public Object get(APIMessage msg) {
+            try {
+                return (Object) getter.invokeExact((Object) msg);
+            } catch (Throwable t) {
+                throw new CloudRuntimeException(t);
+            }
+        }
+
+        public void set(APIMessage msg, Object value) {
+            try {
+                if (setter == null) {
+                    field.set(msg, value);
+                    return;
+                }
+
+                setter.invokeExact((Object) msg, value);
+            } catch (Throwable t) {
+                throw new CloudRuntimeException(t);
+            }
+        }
+
+        public CompiledApiParam getCompiled() {
+            return compiled;
+        }
+
+        /**
+         * a compiled param of a field, for validators called field by field
+         */
+        public static FieldParam valueOf(Field field, APIParam param) {
+            FieldParam fp = new FieldParam();
+            fp.field = field;
+            fp.param = param;
+            fp.compile();
+            return fp;
+        }
     }
 
     @NoJsonSchema
@@ -153,7 +215,10 @@ public abstract class APIMessage extends NeedReplyMessage implements Configurabl
                 }
             }
 
-            apiParams.put(clz, fmap.values());
+            // a list, validators get values of a message in the order of its params
+            List<FieldParam> params = new ArrayList<>(fmap.values());
+            params.forEach(FieldParam::compile);
+            apiParams.put(clz, params);
         }
     }
 
@@ -199,26 +264,28 @@ public abstract class APIMessage extends NeedReplyMessage implements Configurabl
     }
 
     public void validate(Collection<ApiMessageValidator> validators) throws IllegalAccessException {
-        Collection<FieldParam> params = apiParams.get(this.getClass());
-        if (params == null) {
+        Collection<FieldParam> fps = apiParams.get(this.getClass());
+        if (fps == null) {
             throw new CloudRuntimeException(String.format("cannot find ApiParams for the class[%s]", this.getClass()));
         }
 
-        for (FieldParam fp : params) {
-            Field f = fp.field;
-            final APIParam at = fp.param;
+        List<FieldParam> params = fps instanceof List ? (List<FieldParam>) fps : new ArrayList<>(fps);
 
-            f.setAccessible(true);
-            Object value = f.get(this);
+        Object[] values = new Object[params.size()];
+        for (int i = 0; i < values.length; i++) {
+            FieldParam fp = params.get(i);
+            Object value = fp.get(this);
 
-            if (value instanceof String && !at.noTrim()) {
+            if (value instanceof String && fp.compiled.trim) {
                 value = ((String) value).trim();
-                f.set(this, value);
-            }
-            
-            for (ApiMessageValidator validator : validators) {
-                validator.validate(this, f, value, at);
+                fp.set(this, value);
             }
+
+            values[i] = value;
+        }
+
+        for (ApiMessageValidator validator : validators) {
+            validator.validate(this, params, values);
         }
     }
 
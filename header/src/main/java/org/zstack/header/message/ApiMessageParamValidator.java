@@ -1,120 +1,116 @@
 package org.zstack.header.message;
 
 import org.springframework.core.Ordered;
-import org.springframework.util.StringUtils;
 import org.zstack.utils.DebugUtils;
-import org.zstack.utils.TypeUtils;
 import org.zstack.header.message.APIMessage.InvalidApiMessageException;
 
 import java.lang.reflect.Field;
-import java.util.Arrays;
 import java.util.Collection;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Collections;
+import java.util.List;
 
 public class ApiMessageParamValidator implements ApiMessageValidator, Ordered {
-    
+
     @Override
-    public void validate(APIMessage msg, Field f, Object value, APIParam at) {
-        if (at.required() && value == null) {
-            throw new InvalidApiMessageException("field[%s] of message[%s] is mandatory, can not be null", f.getName(), getClass().getName());
-        }
-        
-        if (value != null) {
-            validateNonNullValue(msg, f, value, at);
+    public void validate(APIMessage msg, List<APIMessage.FieldParam> params, Object[] values) {
+        for (int i = 0; i < values.length; i++) {
+            CompiledApiParam p = params.get(i).getCompiled();
+            Object value = values[i];
+
+            if (p.required && value == null) {
+                throw new InvalidApiMessageException("field[%s] of message[%s] is mandatory, can not be null", p.name, getClass().getName());
+            }
+
+            if (value != null) {
+                validateNonNullValue(p, value);
+            }
         }
     }
-    
-    private void validateNonNullValue(APIMessage msg, Field f, Object value, APIParam at) {
-        if (at.maxLength() != Integer.MIN_VALUE && (value instanceof String)) {
+
+    private void validateNonNullValue(CompiledApiParam p, Object value) {
+        if (value instanceof String) {
             String str = (String) value;
-            if (str.length() > at.maxLength()) {
+            if (p.maxLength != Integer.MIN_VALUE && str.length() > p.maxLength) {
                 throw new InvalidApiMessageException("field[%s] of message[%s] exceeds max length of string. expected was <= %s, actual was %s",
-                    f.getName(), getClass().getName(), at.maxLength(), str.length());
+                    p.name, getClass().getName(), p.maxLength, str.length());
             }
-        }
-    
-        if (at.minLength() != 0 && (value instanceof String)) {
-            String str = (String) value;
-            if (str.length() < at.minLength()) {
+
+            if (p.minLength != 0 && str.length() < p.minLength) {
                 throw new InvalidApiMessageException("field[%s] of message[%s] less than the min length of string. expected was >= %s, actual was %s",
-                    f.getName(), getClass().getName(), at.minLength(), str.length());
+                    p.name, getClass().getName(), p.minLength, str.length());
             }
         }
-    
-        if (at.validValues().length > 0) {
+
+        if (p.validValues != null) {
             if (value instanceof Collection) {
                 for (Object v : (Collection<?>) value) {
-                    validateValue(at.validValues(), v.toString(), f.getName(), getClass().getName());
+                    validateValue(p, v.toString());
                 }
             } else {
-                validateValue(at.validValues(), value.toString(), f.getName(), getClass().getName());
+                validateValue(p, value.toString());
             }
         }
-    
-        if (at.validRegexValues().trim().equals("") == false) {
-            String regex = at.validRegexValues().trim();
-            Pattern p = Pattern.compile(regex);
-            Matcher mt = p.matcher(value.toString());
-            if (!mt.matches()){
-                throw new InvalidApiMessageException("valid regex value for field[%s] of message[%s] are %s, but %s found", f.getName(),
-                    getClass().getName(), regex, value);
-            }
+
+        if (p.validRegex != null && !p.matchesValidRegex(value.toString())) {
+            throw new InvalidApiMessageException("valid regex value for field[%s] of message[%s] are %s, but %s found", p.name,
+                getClass().getName(), p.validRegex, value);
         }
-    
-        if (at.nonempty() && value instanceof Collection) {
+
+        if (value instanceof Collection) {
             Collection<?> col = (Collection<?>) value;
-            if (col.isEmpty()) {
-                throw new InvalidApiMessageException("field[%s] must be a nonempty list", f.getName());
+            if (p.nonempty && col.isEmpty()) {
+                throw new InvalidApiMessageException("field[%s] must be a nonempty list", p.name);
             }
-        }
-    
-        if (!at.nullElements() && value instanceof Collection) {
-            Collection<?> col = (Collection<?>) value;
-            for (Object o : col) {
-                if (o == null) {
-                    throw new InvalidApiMessageException("field[%s] cannot contain a NULL element", f.getName());
+
+            if (!p.nullElements) {
+                for (Object o : col) {
+                    if (o == null) {
+                        throw new InvalidApiMessageException("field[%s] cannot contain a NULL element", p.name);
+                    }
                 }
             }
         }
-    
-        if (!at.emptyString()) {
-            if (value instanceof String && StringUtils.isEmpty(value)) {
-                throw new InvalidApiMessageException("field[%s] cannot be an empty string", f.getName());
+
+        if (!p.emptyString) {
+            if (value instanceof String && ((String) value).isEmpty()) {
+                throw new InvalidApiMessageException("field[%s] cannot be an empty string", p.name);
             } else if (value instanceof Collection) {
                 for (Object v : (Collection<?>) value) {
-                    if (v instanceof String && StringUtils.isEmpty(v)) {
-                        throw new InvalidApiMessageException("field[%s] cannot contain any empty string", f.getName());
+                    if (v instanceof String && ((String) v).isEmpty()) {
+                        throw new InvalidApiMessageException("field[%s] cannot contain any empty string", p.name);
                     }
                 }
             }
         }
-    
-        if (at.numberRange().length > 0 && TypeUtils.isTypeOf(value, Integer.TYPE, Integer.class, Long.TYPE, Long.class)) {
-            DebugUtils.Assert(at.numberRange().length == 2, String.format("invalid field[%s], APIParam.numberRange must have and only have 2 items", f.getName()));
-            long low = at.numberRange()[0];
-            long high = at.numberRange()[1];
+
+        if (p.numberRange.length > 0 && (value instanceof Integer || value instanceof Long)) {
+            DebugUtils.Assert(p.numberRange.length == 2, String.format("invalid field[%s], APIParam.numberRange must have and only have 2 items", p.name));
+            long low = p.numberRange[0];
+            long high = p.numberRange[1];
             long val = ((Number) value).longValue();
             if (val < low || val > high) {
-                if (at.numberRangeUnit().length > 0) {
-                    DebugUtils.Assert(at.numberRangeUnit().length == 2, String.format("invalid field[%s], APIParam.numberRangeUnit must have and only have 2 items", f.getName()));
-                    String lowUnit = at.numberRangeUnit()[0];
-                    String highUnit = at.numberRangeUnit()[1];
-                    throw new InvalidApiMessageException("field[%s] must be in range of [%s %s, %s %s]", f.getName(), low, lowUnit, high, highUnit);
+                if (p.numberRangeUnit.length > 0) {
+                    DebugUtils.Assert(p.numberRangeUnit.length == 2, String.format("invalid field[%s], APIParam.numberRangeUnit must have and only have 2 items", p.name));
+                    throw new InvalidApiMessageException("field[%s] must be in range of [%s %s, %s %s]", p.name, low, p.numberRangeUnit[0], high, p.numberRangeUnit[1]);
                 } else {
-                    throw new InvalidApiMessageException("field[%s] must be in range of [%s, %s]", f.getName(), low, high);
+                    throw new InvalidApiMessageException("field[%s] must be in range of [%s, %s]", p.name, low, high);
                 }
             }
         }
     }
-    
-    private void validateValue(String[] validValues, String value, String fieldName, String msgName) {
-        if (Arrays.stream(validValues).noneMatch(it -> it.equals(value))) {
+
+    private void validateValue(CompiledApiParam p, String value) {
+        if (!p.isValidValue(value)) {
             throw new InvalidApiMessageException("valid value for field[%s] of message[%s] are %s, but %s found",
-                fieldName, msgName, Arrays.toString(validValues), value);
+                p.name, getClass().getName(), p.validValuesString, value);
         }
     }
-    
+
+    @Override
+    public void validate(APIMessage msg, Field f, Object value, APIParam at) {
+        validate(msg, Collections.singletonList(APIMessage.FieldParam.valueOf(f, at)), new Object[]{value});
+    }
+
     @Override
     public int getOrder() {
         return HIGHEST_PRECEDENCE;
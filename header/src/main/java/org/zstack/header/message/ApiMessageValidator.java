@@ -1,10 +1,22 @@
 package org.zstack.header.message;
 
 import java.lang.reflect.Field;
+import java.util.List;
 
 /**
  * Created by xing5 on 2017/9/7.
  */
 public interface ApiMessageValidator {
     void validate(APIMessage msg, Field field, Object value, APIParam param);
+
+    /**
+     * validates all params of a message, values[i] is the value of params[i]. Validators override
+     * it to check with compiled params, or to check params together
+     */
+    default void validate(APIMessage msg, List<APIMessage.FieldParam> params, Object[] values) {
+        for (int i = 0; i < values.length; i++) {
+            APIMessage.FieldParam fp = params.get(i);
+            validate(msg, fp.field, values[i], fp.param);
+        }
+    }
 }
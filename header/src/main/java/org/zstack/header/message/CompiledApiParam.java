@@ -0,0 +1,79 @@
+package org.zstack.header.message;
+
+import java.lang.reflect.Field;
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * checks of an APIParam resolved from the annotation once, annotation methods are proxy calls
+ * copying arrays on every call, and valid regex values were compiled on every message.
+ */
+public class CompiledApiParam {
+    public final String name;
+    public final Class<?> type;
+    public final boolean trim;
+    public final boolean required;
+    // Integer.MIN_VALUE if not limited
+    public final int maxLength;
+    // 0 if not limited
+    public final int minLength;
+    // null if any value is valid
+    public final Set<String> validValues;
+    public final String validValuesString;
+    // null if no regex is given
+    public final String validRegex;
+    public final Pattern validRegexPattern;
+    public final boolean nonempty;
+    public final boolean nullElements;
+    public final boolean emptyString;
+    // empty if not limited
+    public final long[] numberRange;
+    public final String[] numberRangeUnit;
+    // null if the param is not a resource uuid
+    public final Class resourceType;
+    public final boolean successIfResourceNotExisting;
+
+    CompiledApiParam(Field field, APIParam at) {
+        name = field.getName();
+        type = field.getType();
+        trim = !at.noTrim();
+        required = at.required();
+        maxLength = at.maxLength();
+        minLength = at.minLength();
+
+        String[] vv = at.validValues();
+        validValues = vv.length == 0 ? null : Collections.unmodifiableSet(new HashSet<>(Arrays.asList(vv)));
+        validValuesString = Arrays.toString(vv);
+
+        String regex = at.validRegexValues().trim();
+        validRegex = regex.isEmpty() ? null : regex;
+        Pattern pattern = null;
+        if (validRegex != null) {
+            try {
+                pattern = Pattern.compile(validRegex);
+            } catch (PatternSyntaxException e) {
+                // fails as before when a value is validated
+                pattern = null;
+            }
+        }
+        validRegexPattern = pattern;
+
+        nonempty = at.nonempty();
+        nullElements = at.nullElements();
+        emptyString = at.emptyString();
+        numberRange = at.numberRange();
+        numberRangeUnit = at.numberRangeUnit();
+        resourceType = at.resourceType() == Object.class ? null : at.resourceType();
+        successIfResourceNotExisting = at.successIfResourceNotExisting();
+    }
+
+    public boolean isValidValue(String value) {
+        return validValues == null || validValues.contains(value);
+    }
+
+    public boolean matchesValidRegex(String value) {
+        Pattern p = validRegexPattern != null ? validRegexPattern : Pattern.compile(validRegex);
+        return p.matcher(value).matches();
+    }
+}
@@ -10,6 +10,7 @@ import org.zstack.utils.logging.CLogger;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by xing5 on 2016/12/12.
@@ -17,6 +18,10 @@ import java.util.*;
 public class JsonSchemaBuilder {
     private static final CLogger logger = Utils.getLogger(JsonSchemaBuilder.class);
 
+    // the walkable fields of a class never change, cache them to avoid
+    // reflecting the class hierarchy for every message sent
+    private static final Map<Class, List<Field>> schemaFields = new ConcurrentHashMap<>();
+
     Object object;
 
     private LinkedHashMap<String, String> schema = new LinkedHashMap<>();
@@ -30,16 +35,27 @@ public class JsonSchemaBuilder {
                 || f.isAnnotationPresent(GsonTransient.class);
     }
 
-    private void build(Object o, Stack<String> paths) throws IllegalAccessException {
-        List<Field> fields = FieldUtils.getAllFields(o.getClass());
-
-        for (Field f : fields) {
-            try {
+    private List<Field> getSchemaFields(Class clz) {
+        return schemaFields.computeIfAbsent(clz, k -> {
+            List<Field> ret = new ArrayList<>();
+            for (Field f : FieldUtils.getAllFields(k)) {
                 if (isSkip(f)) {
                     continue;
                 }
 
                 f.setAccessible(true);
+                ret.add(f);
+            }
+
+            return ret;
+        });
+    }
+
+    private void build(Object o, Stack<String> paths) throws IllegalAccessException {
+        List<Field> fields = getSchemaFields(o.getClass());
+
+        for (Field f : fields) {
+            try {
                 Object value = f.get(o);
                 if (value == null) {
                     // null value
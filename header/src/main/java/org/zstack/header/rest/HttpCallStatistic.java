@@ -1,14 +1,21 @@
 package org.zstack.header.rest;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 /**
  */
 public class HttpCallStatistic {
+    // upper bounds of latency histogram buckets in milliseconds, the last bucket has no upper bound
+    private static final long[] LATENCY_BUCKETS = {10, 50, 100, 500, 1000, 5000, 30000, 60000, 300000};
+
     private String url;
     private long totalTime;
     private long count;
     private long averageTime;
+    private long maxTime;
+    private final long[] latencyHistogram = new long[LATENCY_BUCKETS.length + 1];
 
     public String getUrl() {
         return url;
@@ -42,18 +49,58 @@ public class HttpCallStatistic {
         this.averageTime = averageTime;
     }
 
-    public void addStatistic(long time) {
+    public long getMaxTime() {
+        return maxTime;
+    }
+
+    public synchronized Map<String, Long> getLatencyHistogram() {
+        Map<String, Long> ret = new LinkedHashMap<>();
+        for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+            ret.put(String.format("<=%sms", LATENCY_BUCKETS[i]), latencyHistogram[i]);
+        }
+        ret.put(String.format(">%sms", LATENCY_BUCKETS[LATENCY_BUCKETS.length - 1]), latencyHistogram[LATENCY_BUCKETS.length]);
+        return ret;
+    }
+
+    /**
+     * @return the estimated latency in milliseconds below which the given percent of calls fall,
+     * which is the upper bound of the histogram bucket containing the percentile
+     */
+    public synchronized long getPercentileTime(double percent) {
+        long target = (long) Math.ceil(count * percent / 100);
+        long sum = 0;
+        for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+            sum += latencyHistogram[i];
+            if (sum >= target) {
+                return Math.min(LATENCY_BUCKETS[i], maxTime);
+            }
+        }
+
+        return maxTime;
+    }
+
+    public synchronized void addStatistic(long time) {
         totalTime += time;
         count++;
         averageTime = totalTime / count;
+        maxTime = Math.max(maxTime, time);
+
+        int i = 0;
+        while (i < LATENCY_BUCKETS.length && time > LATENCY_BUCKETS[i]) {
+            i++;
+        }
+        latencyHistogram[i]++;
     }
 
     @Override
     public String toString() {
-        return String.format("URL[%s]: total time: %s secs, total count: %s, average time: %s secs",
+        return String.format("URL[%s]: total time: %s secs, total count: %s, average time: %s secs, p99 time: %s ms, max time: %s ms, latency histogram: %s",
                 url,
                 TimeUnit.MILLISECONDS.toSeconds(totalTime),
                 count,
-                TimeUnit.MILLISECONDS.toSeconds(averageTime));
+                TimeUnit.MILLISECONDS.toSeconds(averageTime),
+                getPercentileTime(99),
+                maxTime,
+                getLatencyHistogram());
     }
 }
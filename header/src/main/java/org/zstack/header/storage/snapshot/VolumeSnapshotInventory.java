@@ -168,6 +168,32 @@ public class VolumeSnapshotInventory {
             joinColumn = @JoinColumn(name = "volumeSnapshotUuid", referencedColumnName = "volumeSnapshotGroupUuid"))
     private String groupUuid;
 
+    public VolumeSnapshotInventory() {
+    }
+
+    public VolumeSnapshotInventory(VolumeSnapshotInventory other) {
+        this.uuid = other.uuid;
+        this.name = other.name;
+        this.description = other.description;
+        this.type = other.type;
+        this.volumeUuid = other.volumeUuid;
+        this.treeUuid = other.treeUuid;
+        this.parentUuid = other.parentUuid;
+        this.primaryStorageUuid = other.primaryStorageUuid;
+        this.primaryStorageInstallPath = other.primaryStorageInstallPath;
+        this.volumeType = other.volumeType;
+        this.format = other.format;
+        this.latest = other.latest;
+        this.size = other.size;
+        this.distance = other.distance;
+        this.state = other.state;
+        this.status = other.status;
+        this.createDate = other.createDate;
+        this.lastOpDate = other.lastOpDate;
+        this.backupStorageRefs = other.backupStorageRefs == null ? null : new ArrayList<>(other.backupStorageRefs);
+        this.groupUuid = other.groupUuid;
+    }
+
     public static VolumeSnapshotInventory valueOf(VolumeSnapshotVO vo) {
         VolumeSnapshotInventory inv = new VolumeSnapshotInventory();
         inv.setName(vo.getName());
@@ -5,6 +5,7 @@ import org.zstack.header.identity.*;
 import org.zstack.header.identity.rbac.RBAC;
 import org.zstack.header.message.APIMessage;
 import org.zstack.header.message.APISyncCallMessage;
+import org.zstack.identity.rbac.CompiledPolicyCache;
 import org.zstack.utils.Utils;
 import org.zstack.utils.gson.JSONObjectUtil;
 import org.zstack.utils.logging.CLogger;
@@ -35,6 +36,7 @@ public class IAMIdentityResourceGenerator implements IdentityResourceGenerateExt
                 sql(PolicyVO.class).eq(PolicyVO_.name, "DEFAULT-READ").set(PolicyVO_.data, readAPIsForNormalAccountJSONStatement).update();
             }
         }.execute();
+        CompiledPolicyCache.invalidate();
     }
 
     private void makeReadAPIsForNormalAccountJSONStatement() {
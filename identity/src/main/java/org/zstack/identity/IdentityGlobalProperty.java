@@ -9,4 +9,10 @@ public class IdentityGlobalProperty {
     public static int AUTHORIZATION_SESSION_CACHE_SIZE;
     @GlobalProperty(name = "identity.init.type", defaultValue = "IAM,IAM2")
     public static String IDENTITY_INIT_TYPE;
+    @GlobalProperty(name = "identity.rbac.compiledPolicy.cache.enable", defaultValue = "true")
+    public static boolean COMPILED_POLICY_CACHE_ENABLE;
+    @GlobalProperty(name = "identity.rbac.compiledPolicy.cache.size", defaultValue = "1000")
+    public static int COMPILED_POLICY_CACHE_SIZE;
+    @GlobalProperty(name = "identity.rbac.compiledPolicy.cache.ttlInSeconds", defaultValue = "300")
+    public static long COMPILED_POLICY_CACHE_TTL;
 }
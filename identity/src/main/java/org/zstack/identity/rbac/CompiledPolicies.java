@@ -0,0 +1,183 @@
+package org.zstack.identity.rbac;
+
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.header.identity.*;
+import org.zstack.header.identity.rbac.PolicyMatcher;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * policies of an account/user compiled for RBACAPIRequestChecker.
+ *
+ * Statements whose principals don't match the account/user are dropped and action patterns are
+ * parsed once when compiling. Decisions are memoized by API name, so checking an API already seen
+ * is a map lookup. An instance is bound to the policies it's compiled from, CompiledPolicyCache
+ * drops it when policies or their attachments change.
+ */
+public class CompiledPolicies {
+    private static final PolicyMatcher policyMatcher = new PolicyMatcher();
+
+    static class DenyRule {
+        final PolicyInventory policy;
+        final String statement;
+        final String apiPattern;
+        final String[] apiFields;
+
+        DenyRule(PolicyInventory policy, String statement) {
+            this.policy = policy;
+            this.statement = statement;
+            // action string format is:
+            // api-full-name:optional-api-field-list-split-by-comma
+            String[] ss = statement.split(":", 2);
+            apiPattern = PolicyMatcher.normalize(ss[0]);
+            apiFields = ss.length > 1 ? ss[1].split(",") : null;
+        }
+    }
+
+    static class AllowRule {
+        final PolicyInventory policy;
+        final String statement;
+        final String apiPattern;
+
+        AllowRule(PolicyInventory policy, String statement, String apiPattern) {
+            this.policy = policy;
+            this.statement = statement;
+            this.apiPattern = PolicyMatcher.normalize(apiPattern);
+        }
+    }
+
+    private static final AllowRule NO_ALLOW_RULE = new AllowRule(null, null, "");
+
+    // rules of statements whose principals match the account/user, evaluated by check()
+    private final List<DenyRule> denyRules = new ArrayList<>();
+    private final List<AllowRule> allowRules = new ArrayList<>();
+    // patterns of all statements regardless of principals, evaluated by evalAPIPermission()
+    private final List<String> denyPatterns = new ArrayList<>();
+    private final List<String> allowPatterns = new ArrayList<>();
+
+    private final Map<String, List<DenyRule>> denyRulesByApi = new ConcurrentHashMap<>();
+    private final Map<String, AllowRule> allowRuleByApi = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> permissionByApi = new ConcurrentHashMap<>();
+
+    CompiledPolicies(List<PolicyInventory> policies, SessionInventory session) {
+        for (PolicyInventory policy : policies) {
+            for (PolicyStatement statement : policy.getStatements()) {
+                boolean principalMatched = isPrincipalMatched(statement.getPrincipals(), session);
+                for (String action : statement.getActions()) {
+                    if (statement.getEffect() == StatementEffect.Deny) {
+                        denyPatterns.add(PolicyMatcher.normalize(PolicyUtils.apiNamePatternFromAction(action)));
+                        if (principalMatched) {
+                            denyRules.add(new DenyRule(policy, action));
+                        }
+                    } else if (statement.getEffect() == StatementEffect.Allow) {
+                        allowPatterns.add(PolicyMatcher.normalize(PolicyUtils.apiNamePatternFromAction(action)));
+                        if (principalMatched) {
+                            allowRules.add(new AllowRule(policy, action, PolicyUtils.apiNamePatternFromAction(action, true)));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    static boolean isPrincipalMatched(List<String> principals, SessionInventory session) {
+        // if not principals specified, means the statement applies for all accounts/users
+        // if principals specified, check if they matches current account/user
+        if (principals == null || principals.isEmpty()) {
+            return true;
+        }
+
+        for (String s : principals) {
+            String[] ss = s.split(":", 2);
+            String principal = ss[0];
+            String uuidRegex = ss[1];
+
+            if (session.isAccountSession() && AccountConstant.PRINCIPAL_ACCOUNT.equals(principal)) {
+                if (policyMatcher.match(uuidRegex, session.getAccountUuid())) {
+                    return true;
+                }
+            } else if (AccountConstant.isAdminPermission(session)) {
+                if (policyMatcher.match(uuidRegex, session.getAccountUuid())) {
+                    return true;
+                }
+            } else if (session.isUserSession() && AccountConstant.PRINCIPAL_USER.equals(principal)) {
+                if (policyMatcher.match(uuidRegex, session.getUserUuid())) {
+                    return true;
+                }
+            } else {
+                throw new CloudRuntimeException(String.format("unknown principal[%s]", principal));
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return deny rules matching the API, in the order of policies and statements
+     */
+    List<DenyRule> getDenyRules(String apiName) {
+        return denyRulesByApi.computeIfAbsent(apiName, k -> {
+            String path = PolicyMatcher.normalize(k);
+            List<DenyRule> ret = new ArrayList<>();
+            for (DenyRule rule : denyRules) {
+                if (policyMatcher.matchNormalized(rule.apiPattern, path)) {
+                    ret.add(rule);
+                }
+            }
+            return ret.isEmpty() ? Collections.emptyList() : ret;
+        });
+    }
+
+    List<DenyRule> getDenyRules(Collection<String> apiNames) {
+        if (apiNames.size() == 1) {
+            return getDenyRules(apiNames.iterator().next());
+        }
+
+        Set<DenyRule> matched = Collections.newSetFromMap(new IdentityHashMap<>());
+        apiNames.forEach(api -> matched.addAll(getDenyRules(api)));
+
+        List<DenyRule> ret = new ArrayList<>();
+        for (DenyRule rule : denyRules) {
+            if (matched.contains(rule)) {
+                ret.add(rule);
+            }
+        }
+        return ret;
+    }
+
+    boolean hasAllowRules() {
+        return !allowRules.isEmpty();
+    }
+
+    /**
+     * @return the first allow rule matching the API, or null
+     */
+    AllowRule getAllowRule(String apiName) {
+        AllowRule rule = allowRuleByApi.computeIfAbsent(apiName, k -> {
+            String path = PolicyMatcher.normalize(k);
+            for (AllowRule r : allowRules) {
+                if (policyMatcher.matchNormalized(r.apiPattern, path)) {
+                    return r;
+                }
+            }
+            return NO_ALLOW_RULE;
+        });
+
+        return rule == NO_ALLOW_RULE ? null : rule;
+    }
+
+    /**
+     * the policy decision of an API without evaluating principals and API fields, for permission probing
+     */
+    boolean isPermitted(String apiName) {
+        return permissionByApi.computeIfAbsent(apiName, k -> {
+            String path = PolicyMatcher.normalize(k);
+            if (denyPatterns.stream().anyMatch(p -> policyMatcher.matchNormalized(p, path))) {
+                return false;
+            }
+
+            return allowPatterns.stream().anyMatch(p -> policyMatcher.matchNormalized(p, path));
+        });
+    }
+}
@@ -0,0 +1,51 @@
+package org.zstack.identity.rbac;
+
+import org.zstack.core.cache.DistributedEvictingCache;
+import org.zstack.core.cloudbus.EventFacade;
+import org.zstack.header.identity.SessionInventory;
+import org.zstack.identity.IdentityGlobalProperty;
+
+/**
+ * CompiledPolicies by account/user.
+ *
+ * All entries are dropped when policies, roles or their attachments change on any management
+ * node (see RBACManagerImpl.installPolicyChangeListeners), policies compiled across a change
+ * are not cached. Entries also expire after identity.rbac.compiledPolicy.cache.ttlInSeconds in
+ * case of changes made by bulk SQL not reporting to invalidate().
+ */
+public class CompiledPolicyCache {
+    private static final DistributedEvictingCache<CompiledPolicies> cache = new DistributedEvictingCache<>(
+            IdentityGlobalProperty.COMPILED_POLICY_CACHE_SIZE, IdentityGlobalProperty.COMPILED_POLICY_CACHE_TTL);
+
+    private static String key(SessionInventory session) {
+        return session.getAccountUuid() + "/" + session.getUserUuid();
+    }
+
+    public static CompiledPolicies get(SessionInventory session) {
+        if (!IdentityGlobalProperty.COMPILED_POLICY_CACHE_ENABLE) {
+            return new CompiledPolicies(RBACManager.getPoliciesBySession(session), session);
+        }
+
+        CompiledPolicies policies = cache.get(key(session));
+        if (policies != null) {
+            return policies;
+        }
+
+        long generation = cache.getGeneration();
+        policies = new CompiledPolicies(RBACManager.getPoliciesBySession(session), session);
+        cache.put(key(session), policies, generation);
+        return policies;
+    }
+
+    static void install(EventFacade evtf) {
+        cache.install("compiledPolicies", evtf);
+    }
+
+    /**
+     * drops compiled policies of all management nodes. Within a transaction, the local cache is
+     * invalidated again and other nodes are notified after the transaction completes.
+     */
+    public static void invalidate() {
+        cache.evict(null);
+    }
+}
@@ -15,6 +15,7 @@ import org.zstack.utils.logging.CLogger;
 
 import java.lang.reflect.Field;
 import java.util.*;
+import java.util.stream.Collectors;
 
 import static org.zstack.core.Platform.err;
 import static org.zstack.core.Platform.operr;
@@ -50,10 +51,6 @@ public class RBACAPIRequestChecker implements APIRequestChecker {
         return policyMatcher.match(ap, msgName);
     }
 
-    protected List<PolicyInventory> getPoliciesForAPI() {
-        return RBACManager.getPoliciesByAPI(rbacEntity.getApiMessage());
-    }
-
     /**
      * rule evaluation order:
      * 3. if any user defined policy denies the API, deny
@@ -61,13 +58,15 @@ public class RBACAPIRequestChecker implements APIRequestChecker {
      * 5. then deny by default
      */
     protected void check() {
-        List<PolicyInventory> polices = getPoliciesForAPI();
-        Map<PolicyInventory, List<PolicyStatement>> denyStatements = RBACManager.collectDenyStatements(polices);
-        Map<PolicyInventory, List<PolicyStatement>> allowStatements = RBACManager.collectAllowedStatements(polices);
+        CompiledPolicies policies = CompiledPolicyCache.get(rbacEntity.getApiMessage().getSession());
 
-        evalDenyStatements(denyStatements);
+        Set<String> apiNeedToCheck = new LinkedHashSet<>();
+        apiNeedToCheck.add(rbacEntity.getApiName());
+        apiNeedToCheck.addAll(rbacEntity.getAdditionalApisToCheck());
 
-        if (evalAllowStatements(allowStatements)) {
+        evalDenyRules(policies.getDenyRules(apiNeedToCheck));
+
+        if (evalAllowRules(policies, apiNeedToCheck)) {
             // allowed
             return;
         }
@@ -84,169 +83,73 @@ public class RBACAPIRequestChecker implements APIRequestChecker {
         return CloudBusGson.toLogSafeJson(rbacEntity.getApiMessage());
     }
 
-    protected boolean evalAllowStatements(Map<PolicyInventory, List<PolicyStatement>> policies) {
-        Set<String> apiNeedToCheck = new HashSet<>();
-        apiNeedToCheck.add(rbacEntity.getApiName());
-        apiNeedToCheck.addAll(rbacEntity.getAdditionalApisToCheck());
-
-        for (Map.Entry<PolicyInventory, List<PolicyStatement>> e : policies.entrySet()) {
-            PolicyInventory policy = e.getKey();
-            for (PolicyStatement statement : e.getValue()) {
-                if (!isPrincipalMatched(statement.getPrincipals())) {
-                    continue;
-                }
-
-                for (String as : statement.getActions()) {
-                    apiNeedToCheck.removeIf(api -> evalAllowStatement(as, api));
-
-                    if (apiNeedToCheck.isEmpty()) {
-                        if (logger.isTraceEnabled()) {
-                            logger.trace(String.format("[RBAC] policy[name:%s, uuid:%s]'s statement[%s] allows the API:\n%s", policy.getName(),
-                                    policy.getUuid(), as, jsonMessage()));
-                        }
-                        return true;
-                    }
-                }
-            }
+    private boolean evalAllowRules(CompiledPolicies policies, Set<String> apiNeedToCheck) {
+        if (!policies.hasAllowRules()) {
+            return false;
         }
 
-        return false;
-    }
-
-    protected boolean evalAllowStatement(String as, String targetApiName) {
-        String ap = PolicyUtils.apiNamePatternFromAction(as, true);
-        return RBAC.checkAPIPermission(rbacEntity.getApiMessage(), policyMatcher.match(ap, targetApiName));
-    }
-
-    protected boolean isPrincipalMatched(List<String> principals) {
-        // if not principals specified, means the statement applies for all accounts/users
-        // if principals specified, check if they matches current account/user
-        if (principals != null && !principals.isEmpty()) {
-            for (String s : principals) {
-                String[] ss = s.split(":", 2);
-                String principal = ss[0];
-                String uuidRegex = ss[1];
-
-                if (rbacEntity.getApiMessage().getSession().isAccountSession() && AccountConstant.PRINCIPAL_ACCOUNT.equals(principal)) {
-                    if (checkAccountPrincipal(uuidRegex)) {
-                        return true;
-                    }
-                } else if (AccountConstant.isAdminPermission(rbacEntity.getApiMessage().getSession())) {
-                    if (checkAccountPrincipal(uuidRegex)) {
-                        return true;
-                    }
-                } else if (rbacEntity.getApiMessage().getSession().isUserSession() && AccountConstant.PRINCIPAL_USER.equals(principal)) {
-                    if (checkUserPrincipal(uuidRegex)) {
-                        return true;
-                    }
-                } else {
-                    throw new CloudRuntimeException(String.format("unknown principal[%s]", principal));
-                }
+        CompiledPolicies.AllowRule rule = null;
+        for (String api : apiNeedToCheck) {
+            rule = policies.getAllowRule(api);
+            // API permission checkers may overrule the policy decision
+            if (!RBAC.checkAPIPermission(rbacEntity.getApiMessage(), rule != null)) {
+                return false;
             }
+        }
 
-            return false;
-        } else {
-            return true;
+        if (logger.isTraceEnabled() && rule != null) {
+            logger.trace(String.format("[RBAC] policy[name:%s, uuid:%s]'s statement[%s] allows the API:\n%s", rule.policy.getName(),
+                    rule.policy.getUuid(), rule.statement, jsonMessage()));
         }
-    }
 
-    private boolean additionalApiMatch(String apiName) {
-        return rbacEntity.getAdditionalApisToCheck().stream().anyMatch(api -> policyMatcher.match(apiName, api));
+        return true;
     }
 
-    protected void evalDenyStatements(Map<PolicyInventory, List<PolicyStatement>> denyPolices) {
-        // action string format is:
-        // api-full-name:optional-api-field-list-split-by-comma
-        denyPolices.forEach((p, sts)-> sts.forEach(st-> {
-            if (!isPrincipalMatched(st.getPrincipals())) {
-                return;
-            }
-
-            st.getActions().forEach(statement-> {
-                String[] ss = statement.split(":",2);
-                String apiName = ss[0];
-                String apiFields = null;
-                if (ss.length > 1) {
-                    apiFields = ss[1];
-                }
-
-                if (!policyMatcher.match(apiName, rbacEntity.getApiName()) && !additionalApiMatch(apiName)) {
-                    // the statement not matching this API and not additional api need to check
-                    return;
+    private void evalDenyRules(List<CompiledPolicies.DenyRule> rules) {
+        for (CompiledPolicies.DenyRule rule : rules) {
+            PolicyInventory p = rule.policy;
+            if (rule.apiFields == null) {
+                // no API fields specified, the API is denied by this statement
+                if (logger.isTraceEnabled()) {
+                    logger.trace(String.format("[RBAC] policy[name:%s, uuid:%s]'s statement[%s] denies the API:\n%s", p.getName(),
+                            p.getUuid(), rule.statement, jsonMessage()));
                 }
 
-                // the statement matching this API
-
-                if (apiFields == null) {
-                    // no API fields specified, the API is denied by this statement
-                    if (logger.isTraceEnabled()) {
-                        logger.trace(String.format("[RBAC] policy[name:%s, uuid:%s]'s statement[%s] denies the API:\n%s", p.getName(),
-                                p.getUuid(), statement, jsonMessage()));
-                    }
+                throw new OperationFailureException(operr("the operation is denied by the policy[name:%s uuid:%s]", p.getName(), p.getUuid()));
+            }
 
-                    throw new OperationFailureException(operr("the operation is denied by the policy[name:%s uuid:%s]", p.getName(), p.getUuid()));
-                }
+            Entity entity = Entity.getEntity(rbacEntity.getApiMessage().getClass());
 
-                Entity entity = Entity.getEntity(rbacEntity.getApiMessage().getClass());
-
-                for (String fname : apiFields.split(",")) {
-                    Field field = entity.getFields().get(fname);
-                    try {
-                        if (field != null && field.get(rbacEntity.getApiMessage()) != null) {
-                            if (logger.isTraceEnabled()) {
-                                logger.trace(String.format("[RBAC] policy[name:%s, uuid:%s]'s statement[%s] denies the API:\n%s", p.getName(),
-                                        p.getUuid(), statement, jsonMessage()));
-                            }
-                            throw new OperationFailureException(operr("the operation is denied by the policy[name:%s, uuid:%s], field[%s] is not permitted to set", p.getName(), p.getUuid(), fname));
+            for (String fname : rule.apiFields) {
+                Field field = entity.getFields().get(fname);
+                try {
+                    if (field != null && field.get(rbacEntity.getApiMessage()) != null) {
+                        if (logger.isTraceEnabled()) {
+                            logger.trace(String.format("[RBAC] policy[name:%s, uuid:%s]'s statement[%s] denies the API:\n%s", p.getName(),
+                                    p.getUuid(), rule.statement, jsonMessage()));
                         }
-                    } catch (IllegalAccessException e) {
-                        throw new CloudRuntimeException(e);
+                        throw new OperationFailureException(operr("the operation is denied by the policy[name:%s, uuid:%s], field[%s] is not permitted to set", p.getName(), p.getUuid(), fname));
                     }
+                } catch (IllegalAccessException e) {
+                    throw new CloudRuntimeException(e);
                 }
-            });
-        }));
-    }
-
-    protected boolean checkUserPrincipal(String uuidRegex) {
-        return policyMatcher.match(uuidRegex, rbacEntity.getApiMessage().getSession().getUserUuid());
+            }
+        }
     }
 
-    protected boolean checkAccountPrincipal(String uuidRegex) {
-        return policyMatcher.match(uuidRegex, rbacEntity.getApiMessage().getSession().getAccountUuid());
+    public Map<String, Boolean> evalAPIPermission(List<Class> classes, SessionInventory session) {
+        return evalAPIPermissionByNames(classes.stream().map(Class::getName).collect(Collectors.toList()), session);
     }
 
-    public Map<String, Boolean> evalAPIPermission(List<Class> classes, SessionInventory session) {
-        List<PolicyInventory> policies = RBACManager.getPoliciesBySession(session);
-        Map<PolicyInventory, List<PolicyStatement>> denyStatements = RBACManager.collectDenyStatements(policies);
-        Map<PolicyInventory, List<PolicyStatement>> allowStatements = RBACManager.collectAllowedStatements(policies);
+    /**
+     * evaluates permissions of many APIs against the compiled policies of the session in one pass,
+     * for clients probing which operations to show
+     */
+    public Map<String, Boolean> evalAPIPermissionByNames(Collection<String> apiNames, SessionInventory session) {
+        CompiledPolicies policies = CompiledPolicyCache.get(session);
 
         Map<String, Boolean> ret = new HashMap<>();
-        classes.forEach(clz -> {
-            for (List<PolicyStatement> dss : denyStatements.values()) {
-                for (PolicyStatement ds : dss) {
-                    for (String as : ds.getActions()) {
-                        if (evalStatement(as, clz.getName())) {
-                            ret.put(clz.getName(), false);
-                            return;
-                        }
-                    }
-                }
-            }
-
-            for (List<PolicyStatement> ass : allowStatements.values()) {
-                for (PolicyStatement as : ass) {
-                    for (String a : as.getActions()) {
-                        if (evalStatement(a, clz.getName())) {
-                            ret.put(clz.getName(), true);
-                            return;
-                        }
-                    }
-                }
-            }
-
-            ret.put(clz.getName(), false);
-        });
-
+        apiNames.forEach(api -> ret.put(api, policies.isPermitted(api)));
         return ret;
     }
 
@@ -3,9 +3,12 @@ package org.zstack.identity.rbac;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.zstack.core.Platform;
 import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.cloudbus.EventFacade;
 import org.zstack.core.cloudbus.MessageSafe;
 import org.zstack.core.componentloader.PluginRegistry;
 import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.EntityEvent;
+import org.zstack.core.db.EntityLifeCycleCallback;
 import org.zstack.core.db.SQLBatch;
 import org.zstack.header.AbstractService;
 import org.zstack.header.Component;
@@ -26,6 +29,7 @@ import org.zstack.utils.gson.JSONObjectUtil;
 import org.zstack.utils.logging.CLogger;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -44,6 +48,8 @@ public class RBACManagerImpl extends AbstractService implements RBACManager, Com
     private DatabaseFacade dbf;
     @Autowired
     private PluginRegistry pluginRgty;
+    @Autowired
+    private EventFacade evtf;
 
     @Override
     public boolean start() {
@@ -56,9 +62,25 @@ public class RBACManagerImpl extends AbstractService implements RBACManager, Com
             roleIdentityFactoryMap.put(factory.getIdentity().toString(), factory);
         }
 
+        installPolicyChangeListeners();
         return true;
     }
 
+    private void installPolicyChangeListeners() {
+        EntityLifeCycleCallback cb = (evt, o) -> CompiledPolicyCache.invalidate();
+        List<Class> classes = Arrays.asList(PolicyVO.class, UserPolicyRefVO.class, UserGroupVO.class,
+                UserGroupPolicyRefVO.class, UserGroupUserRefVO.class, RoleVO.class, SystemRoleVO.class,
+                RolePolicyRefVO.class, RolePolicyStatementVO.class, RoleAccountRefVO.class, RoleUserRefVO.class,
+                RoleUserGroupRefVO.class);
+        for (Class clz : classes) {
+            dbf.installEntityLifeCycleCallback(clz, EntityEvent.POST_PERSIST, cb);
+            dbf.installEntityLifeCycleCallback(clz, EntityEvent.POST_UPDATE, cb);
+            dbf.installEntityLifeCycleCallback(clz, EntityEvent.POST_REMOVE, cb);
+        }
+
+        CompiledPolicyCache.install(evtf);
+    }
+
     @Override
     public boolean stop() {
         return true;
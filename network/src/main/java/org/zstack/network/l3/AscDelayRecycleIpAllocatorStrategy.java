@@ -124,6 +124,11 @@ public class AscDelayRecycleIpAllocatorStrategy extends AbstractIpAllocatorStrat
     }
 
     private String allocateIpByAsc(IpRangeVO vo, String excludeIp) {
+        if (l3NwMgr.isIpAllocationIndexEnabled(vo)) {
+            // the found address may only move the cursor without being reserved, leave it free in the index
+            return l3NwMgr.findIpFromIndex(vo, excludeIp);
+        }
+
         List<BigInteger> used = l3NwMgr.getUsedIpInRange(vo);
         if (excludeIp != null) {
             used.add(new BigInteger(String.valueOf(NetworkUtils.ipv4StringToLong(excludeIp))));
@@ -26,6 +26,10 @@ public class FirstAvailableIpAllocatorStrategy extends AbstractIpAllocatorStrate
     }
     
     private String allocateIp(IpRangeVO vo, String excludeIp) {
+        if (l3NwMgr.isIpAllocationIndexEnabled(vo)) {
+            return l3NwMgr.allocateIpFromIndex(vo, excludeIp, false);
+        }
+
         List<BigInteger> used = l3NwMgr.getUsedIpInRange(vo);
         if (excludeIp != null) {
             used.add(new BigInteger(String.valueOf(NetworkUtils.ipv4StringToLong(excludeIp))));
@@ -0,0 +1,148 @@
+package org.zstack.network.l3;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * an in-memory bitmap of used IPv4 addresses of an ip range.
+ *
+ * The bitmap is built from UsedIpVO and answers "first/random free address" without
+ * loading all used addresses of the range from DB for every allocation. It's a hint
+ * rather than the truth: an address picked here is marked used at once and still has
+ * to be reserved in DB, a conflict in DB only costs a retry.
+ *
+ * The index remembers the UsedIpVO of each used address, an address is free again
+ * when its last UsedIpVO is deleted on this management node. Addresses reserved or
+ * released on other management nodes are seen after the index is rebuilt.
+ */
+public class IpRangeAllocationIndex {
+    /**
+     * larger ranges are not indexed, 16M addresses take a 2MB bitmap
+     */
+    static final long MAX_INDEXED_RANGE_SIZE = 1L << 24;
+
+    private final String ipRangeUuid;
+    private final long startIp;
+    private final long endIp;
+    private final BitSet used;
+    // UsedIpVO uuid to address, and the number of UsedIpVO of an address
+    private final Map<String, Long> usedIps = new HashMap<>();
+    private final Map<Long, Integer> usedIpRefs = new HashMap<>();
+    private final long buildTime = System.currentTimeMillis();
+
+    IpRangeAllocationIndex(String ipRangeUuid, long startIp, long endIp, Map<String, Long> usedIps) {
+        this.ipRangeUuid = ipRangeUuid;
+        this.startIp = startIp;
+        this.endIp = endIp;
+        used = new BitSet((int) (endIp - startIp + 1));
+        usedIps.forEach(this::markUsed);
+    }
+
+    static boolean isIndexable(long startIp, long endIp) {
+        return endIp >= startIp && endIp - startIp + 1 <= MAX_INDEXED_RANGE_SIZE;
+    }
+
+    public String getIpRangeUuid() {
+        return ipRangeUuid;
+    }
+
+    boolean isExpired(long ttlMs) {
+        return System.currentTimeMillis() - buildTime > ttlMs;
+    }
+
+    private boolean inRange(long ip) {
+        return ip >= startIp && ip <= endIp;
+    }
+
+    private int toBit(long ip) {
+        return (int) (ip - startIp);
+    }
+
+    private int firstClear(int from, int to, int exclude) {
+        int bit = used.nextClearBit(from);
+        if (bit == exclude) {
+            bit = used.nextClearBit(bit + 1);
+        }
+
+        return bit <= to ? bit : -1;
+    }
+
+    /**
+     * find a free address in [from, to] and mark it used
+     *
+     * @param random pick a free address after a random point of [from, to] instead of the first one
+     * @return the address, or null if all addresses in [from, to] are used
+     */
+    public synchronized Long allocate(long from, long to, Long excludeIp, boolean random) {
+        Long ip = find(from, to, excludeIp, random);
+        if (ip != null) {
+            used.set(toBit(ip));
+        }
+
+        return ip;
+    }
+
+    /**
+     * the same as allocate() but leaves the found address free
+     */
+    public synchronized Long find(long from, long to, Long excludeIp, boolean random) {
+        from = Math.max(from, startIp);
+        to = Math.min(to, endIp);
+        if (from > to) {
+            return null;
+        }
+
+        int f = toBit(from);
+        int t = toBit(to);
+        int ex = excludeIp != null && inRange(excludeIp) ? toBit(excludeIp) : -1;
+
+        int bit;
+        if (random) {
+            int p = f + ThreadLocalRandom.current().nextInt(t - f + 1);
+            bit = firstClear(p, t, ex);
+            if (bit == -1 && p > f) {
+                bit = firstClear(f, p - 1, ex);
+            }
+        } else {
+            bit = firstClear(f, t, ex);
+        }
+
+        return bit == -1 ? null : startIp + bit;
+    }
+
+    public synchronized boolean isFull(long from, long to) {
+        return find(from, to, null, false) == null;
+    }
+
+    public synchronized void markUsed(String usedIpUuid, long ip) {
+        if (!inRange(ip) || usedIps.putIfAbsent(usedIpUuid, ip) != null) {
+            return;
+        }
+
+        usedIpRefs.merge(ip, 1, Integer::sum);
+        used.set(toBit(ip));
+    }
+
+    /**
+     * @return false if the UsedIpVO is unknown to the index
+     */
+    public synchronized boolean release(String usedIpUuid) {
+        Long ip = usedIps.remove(usedIpUuid);
+        if (ip == null) {
+            return false;
+        }
+
+        if (usedIpRefs.merge(ip, -1, Integer::sum) <= 0) {
+            usedIpRefs.remove(ip);
+            used.clear(toBit(ip));
+        }
+
+        return true;
+    }
+
+    public synchronized int getUsedCount() {
+        return used.cardinality();
+    }
+}
@@ -234,6 +234,7 @@ public class L3BasicNetwork implements L3Network {
                 return null;
             }
         }.run();
+        l3NwMgr.releaseIpInAllocationIndex(msg.getUsedIpUuid());
         logger.debug(String.format("Successfully released used ip[%s]", msg.getUsedIpUuid()));
         bus.reply(msg, reply);
     }
@@ -16,6 +16,28 @@ public interface L3NetworkManager {
     
     List<BigInteger> getUsedIpInRange(IpRangeVO vo);
 
+    /**
+     * @return true if IPv4 addresses of the range can be allocated from the in-memory allocation index
+     */
+    boolean isIpAllocationIndexEnabled(IpRangeVO vo);
+
+    /**
+     * allocate a free address in [startIp, endIp] of the range from the allocation index,
+     * the address is marked used in the index and must be reserved by reserveIp() then
+     *
+     * @return the address, or null if the range has no free address
+     */
+    String allocateIpFromIndex(IpRangeVO vo, String excludeIp, boolean random);
+
+    /**
+     * the same as allocateIpFromIndex() but leaves the found address free in the index
+     */
+    String findIpFromIndex(IpRangeVO vo, String excludeIp);
+
+    /**
+     * frees the address of a deleted UsedIpVO in the allocation index, a no-op if the index is off
+     */
+    void releaseIpInAllocationIndex(String usedIpUuid);
 
     L3NetworkFactory getL3NetworkFactory(L3NetworkType type);
 
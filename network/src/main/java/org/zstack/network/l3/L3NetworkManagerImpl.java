@@ -51,13 +51,17 @@ import javax.persistence.TypedQuery;
 import java.math.BigInteger;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static org.zstack.core.Platform.err;
 import static org.zstack.utils.CollectionDSL.*;
 
 public class L3NetworkManagerImpl extends AbstractService implements L3NetworkManager, ReportQuotaExtensionPoint,
-        ResourceOwnerPreChangeExtensionPoint, PrepareDbInitialValueExtensionPoint, ResourceSharingExtensionPoint {
+        ResourceOwnerPreChangeExtensionPoint, PrepareDbInitialValueExtensionPoint, ResourceSharingExtensionPoint,
+        HardDeleteEntityExtensionPoint {
     private static final CLogger logger = Utils.getLogger(L3NetworkManagerImpl.class);
 
     @Autowired
@@ -81,6 +85,7 @@ public class L3NetworkManagerImpl extends AbstractService implements L3NetworkMa
     private Map<String, L3NetworkFactory> l3NetworkFactories = Collections.synchronizedMap(new HashMap<String, L3NetworkFactory>());
     private Map<String, IpAllocatorStrategy> ipAllocatorStrategies = Collections.synchronizedMap(new HashMap<String, IpAllocatorStrategy>());
     private Set<String> notAccountMetaDatas = Collections.synchronizedSet(new HashSet<>());
+    private Map<String, IpRangeAllocationIndex> ipRangeAllocationIndexes = new ConcurrentHashMap<>();
 
     private static final Set<Class> allowedMessageAfterSoftDeletion = new HashSet<Class>();
 
@@ -612,6 +617,7 @@ public class L3NetworkManagerImpl extends AbstractService implements L3NetworkMa
             vo.setGateway(ipRange.getGateway());
             vo.setIpVersion(IPv6Constants.IPv4);
             vo = dbf.persistAndRefresh(vo);
+            markIpUsedInAllocationIndex(ipRange.getUuid(), vo.getUuid(), vo.getIpInLong());
             return UsedIpInventory.valueOf(vo);
         } catch (PersistenceException e) {
             if (ExceptionDSL.isCausedBy(e, SQLIntegrityConstraintViolationException.class)) {
@@ -645,6 +651,13 @@ public class L3NetworkManagerImpl extends AbstractService implements L3NetworkMa
 
     @Override
     public boolean isIpRangeFull(IpRangeVO vo) {
+        if (isIpAllocationIndexEnabled(vo)) {
+            Boolean full = isIpRangeFullInIndex(vo);
+            if (full != null) {
+                return full;
+            }
+        }
+
         List<BigInteger> used = getUsedIpInRange(vo);
 
         if (vo.getIpVersion() == IPv6Constants.IPv4) {
@@ -660,6 +673,122 @@ public class L3NetworkManagerImpl extends AbstractService implements L3NetworkMa
         return IpRangeHelper.getUsedIpInRange(vo.getUuid(), vo.getIpVersion());
     }
 
+    @Override
+    public boolean isIpAllocationIndexEnabled(IpRangeVO vo) {
+        return NetworkGlobalProperty.IP_ALLOCATION_INDEX_ENABLE && vo.getIpVersion() == IPv6Constants.IPv4
+                && IpRangeAllocationIndex.isIndexable(NetworkUtils.ipv4StringToLong(vo.getStartIp()), NetworkUtils.ipv4StringToLong(vo.getEndIp()));
+    }
+
+    private IpRangeAllocationIndex buildIpRangeAllocationIndex(String ipRangeUuid) {
+        IpRangeVO range = dbf.findByUuid(ipRangeUuid, IpRangeVO.class);
+        if (range == null) {
+            ipRangeAllocationIndexes.remove(ipRangeUuid);
+            return null;
+        }
+
+        long start = NetworkUtils.ipv4StringToLong(range.getStartIp());
+        long end = NetworkUtils.ipv4StringToLong(range.getEndIp());
+        if (!IpRangeAllocationIndex.isIndexable(start, end)) {
+            return null;
+        }
+
+        Map<String, Long> used = new HashMap<>();
+        Q q = Q.New(UsedIpVO.class).select(UsedIpVO_.uuid, UsedIpVO_.ipInLong).eq(UsedIpVO_.ipRangeUuid, ipRangeUuid);
+        if (!IpRangeType.AddressPool.toString().equals(IpRangeHelper.getIpRangeType(ipRangeUuid))) {
+            // the same as getUsedIpInRange(), the gateway is not counted
+            q.notEq(UsedIpVO_.ip, range.getGateway());
+        }
+        for (Tuple t : q.listTuple()) {
+            used.put(t.get(0, String.class), t.get(1, Long.class));
+        }
+        IpRangeAllocationIndex index = new IpRangeAllocationIndex(ipRangeUuid, start, end, used);
+        ipRangeAllocationIndexes.put(ipRangeUuid, index);
+        return index;
+    }
+
+    private IpRangeAllocationIndex getCachedIpRangeAllocationIndex(String ipRangeUuid) {
+        IpRangeAllocationIndex index = ipRangeAllocationIndexes.get(ipRangeUuid);
+        if (index == null || index.isExpired(TimeUnit.SECONDS.toMillis(NetworkGlobalProperty.IP_ALLOCATION_INDEX_TTL))) {
+            return null;
+        }
+
+        return index;
+    }
+
+    /**
+     * runs the query on the cached index first, a negative answer from a cached index may come from
+     * addresses released behind the index, so it's double checked on a rebuilt index
+     */
+    private <T> T queryIpRangeAllocationIndex(String ipRangeUuid, Function<IpRangeAllocationIndex, T> query, Function<T, Boolean> isNegative) {
+        IpRangeAllocationIndex index = getCachedIpRangeAllocationIndex(ipRangeUuid);
+        if (index != null) {
+            T ret = query.apply(index);
+            if (!isNegative.apply(ret)) {
+                return ret;
+            }
+        }
+
+        index = buildIpRangeAllocationIndex(ipRangeUuid);
+        return index == null ? null : query.apply(index);
+    }
+
+    private Boolean isIpRangeFullInIndex(IpRangeVO vo) {
+        long start = NetworkUtils.ipv4StringToLong(vo.getStartIp());
+        long end = NetworkUtils.ipv4StringToLong(vo.getEndIp());
+        return queryIpRangeAllocationIndex(vo.getUuid(), index -> index.isFull(start, end), full -> full);
+    }
+
+    private String queryIpFromIndex(IpRangeVO vo, String excludeIp, boolean random, boolean markUsed) {
+        long start = NetworkUtils.ipv4StringToLong(vo.getStartIp());
+        long end = NetworkUtils.ipv4StringToLong(vo.getEndIp());
+        Long ex = excludeIp == null ? null : NetworkUtils.ipv4StringToLong(excludeIp);
+        Long ip = queryIpRangeAllocationIndex(vo.getUuid(),
+                index -> markUsed ? index.allocate(start, end, ex, random) : index.find(start, end, ex, random),
+                Objects::isNull);
+        return ip == null ? null : NetworkUtils.longToIpv4String(ip);
+    }
+
+    @Override
+    public String allocateIpFromIndex(IpRangeVO vo, String excludeIp, boolean random) {
+        return queryIpFromIndex(vo, excludeIp, random, true);
+    }
+
+    @Override
+    public String findIpFromIndex(IpRangeVO vo, String excludeIp) {
+        return queryIpFromIndex(vo, excludeIp, false, false);
+    }
+
+    private void markIpUsedInAllocationIndex(String ipRangeUuid, String usedIpUuid, long ip) {
+        IpRangeAllocationIndex index = ipRangeAllocationIndexes.get(ipRangeUuid);
+        if (index != null) {
+            index.markUsed(usedIpUuid, ip);
+        }
+    }
+
+    @Override
+    public void releaseIpInAllocationIndex(String usedIpUuid) {
+        // the address is freed in the index of its own range only
+        for (IpRangeAllocationIndex index : ipRangeAllocationIndexes.values()) {
+            if (index.release(usedIpUuid)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public List<Class> getEntityClassForHardDeleteEntityExtension() {
+        return Arrays.asList(UsedIpVO.class, IpRangeVO.class, NormalIpRangeVO.class, AddressPoolVO.class);
+    }
+
+    @Override
+    public void postHardDelete(Collection entityIds, Class entityClass) {
+        if (UsedIpVO.class.isAssignableFrom(entityClass)) {
+            entityIds.forEach(id -> releaseIpInAllocationIndex((String) id));
+        } else {
+            entityIds.forEach(ipRangeAllocationIndexes::remove);
+        }
+    }
+
     @Override
     public void updateIpAllocationMsg(AllocateIpMsg msg, String mac) {
         if (msg.getRequiredIp() != null) {
@@ -15,4 +15,10 @@ public class NetworkGlobalProperty {
 
     @GlobalProperty(name = "bridge.disable.iptables", defaultValue = "false")
     public static boolean BRIDGE_DISABLE_IPTABLES;
+
+    @GlobalProperty(name = "ipAllocationIndex.enable", defaultValue = "false")
+    public static boolean IP_ALLOCATION_INDEX_ENABLE;
+
+    @GlobalProperty(name = "ipAllocationIndex.ttl", defaultValue = "60")
+    public static long IP_ALLOCATION_INDEX_TTL;
 }
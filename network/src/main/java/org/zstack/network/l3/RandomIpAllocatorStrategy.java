@@ -106,7 +106,11 @@ public class RandomIpAllocatorStrategy extends AbstractIpAllocatorStrategy {
         return null;
     }
 
-    private String allocateIp(IpRangeAO vo, String excludeIp) {
+    private String allocateIp(IpRangeVO vo, String excludeIp) {
+        if (l3NwMgr.isIpAllocationIndexEnabled(vo)) {
+            return l3NwMgr.allocateIpFromIndex(vo, excludeIp, true);
+        }
+
         int total = vo.size();
         long s = random.nextInt(total) + NetworkUtils.ipv4StringToLong(vo.getStartIp());
         long e = NetworkUtils.ipv4StringToLong(vo.getEndIp());
@@ -34,4 +34,14 @@ public class CephGlobalProperty {
     public static String GET_XSKY_LICENSE_PORT;
     @GlobalProperty(name="MN.network.", defaultValue = "")
     public static List<String> MN_NETWORKS;
+    @GlobalProperty(name="Ceph.monHealth.ewmaWeight", defaultValue = "0.2")
+    public static double MON_HEALTH_EWMA_WEIGHT;
+    @GlobalProperty(name="Ceph.monHealth.circuitBreaker.failureThreshold", defaultValue = "3")
+    public static int MON_CIRCUIT_BREAKER_FAILURE_THRESHOLD;
+    @GlobalProperty(name="Ceph.monHealth.circuitBreaker.openTimeInSeconds", defaultValue = "30")
+    public static int MON_CIRCUIT_BREAKER_OPEN_TIME;
+    @GlobalProperty(name="Ceph.monHealth.hedge.enable", defaultValue = "true")
+    public static boolean MON_HEDGE_ENABLE;
+    @GlobalProperty(name="Ceph.monHealth.hedge.minDelayInMillis", defaultValue = "1000")
+    public static long MON_HEDGE_MIN_DELAY;
 }
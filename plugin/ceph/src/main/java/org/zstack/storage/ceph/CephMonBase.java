@@ -42,6 +42,8 @@ public abstract class CephMonBase {
 
     protected abstract String makeHttpPath(String ip, String path);
 
+    protected abstract String getStorageUuid();
+
     public CephMonBase(CephMonAO self) {
         this.self = self;
     }
@@ -81,15 +83,28 @@ public abstract class CephMonBase {
         httpCall(path, cmd, retClass, completion, null, 0);
     }
 
+    /**
+     * records a sample of health of the monitor for a call or ping started at the given time
+     */
+    protected void recordHealth(long startTime, boolean healthy) {
+        CephMonHealthRegistry.record(getStorageUuid(), self.getUuid(), self.getHostname(),
+                System.currentTimeMillis() - startTime, healthy);
+    }
+
     public <T extends AgentResponse> void httpCall(final String path, final Object cmd, final Class<T> retClass, final ReturnValueCompletion<T> completion, TimeUnit unit, long timeout) {
+        long startTime = System.currentTimeMillis();
         JsonAsyncRESTCallback<T> callback = new JsonAsyncRESTCallback<T>(completion) {
             @Override
             public void fail(ErrorCode err) {
+                recordHealth(startTime, false);
                 completion.fail(err);
             }
 
             @Override
             public void success(T ret) {
+                // the monitor answers, even with an error
+                recordHealth(startTime, true);
+
                 ErrorCode errorCode = ret.buildErrorCode();
                 if (errorCode != null) {
                     completion.fail(errorCode);
@@ -0,0 +1,207 @@
+package org.zstack.storage.ceph;
+
+import org.springframework.beans.factory.annotation.Autowire;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Configurable;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.core.thread.ThreadFacadeImpl;
+import org.zstack.header.core.ReturnValueCompletion;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * sends an agent command to mons of a ceph storage one by one until a mon executes it.
+ *
+ * With CephGlobalProperty.MON_HEDGE_ENABLE, a hedgeable call is sent to the next mon too if the first
+ * mon doesn't answer in its usual time. The first result of the calls completes the call, and a failed
+ * call leaves the call to the other one still running.
+ */
+@Configurable(preConstruction = true, autowire = Autowire.BY_TYPE)
+public abstract class CephMonCaller<M extends CephMonBase, C, T extends CephMonBase.AgentResponse> {
+    private static final CLogger logger = Utils.getLogger(CephMonCaller.class);
+
+    @Autowired
+    private ThreadFacade thdf;
+
+    protected final String path;
+    protected final C cmd;
+    protected final Class<T> retClass;
+    protected final ReturnValueCompletion<T> callback;
+    protected final TimeUnit unit;
+    protected final long timeout;
+
+    protected boolean tryNext = false;
+
+    private Iterator<M> it;
+    // calls running on mons, more than one if a hedged call has been sent
+    private int running = 0;
+    private boolean hedged = false;
+    private ThreadFacadeImpl.TimeoutTaskReceipt hedgeTask;
+    // error failing the call once no call is running
+    private ErrorCode failure;
+    private final AtomicBoolean completed = new AtomicBoolean(false);
+
+    protected CephMonCaller(String path, C cmd, Class<T> retClass, ReturnValueCompletion<T> callback, TimeUnit unit, long timeout) {
+        this.path = path;
+        this.cmd = cmd;
+        this.retClass = retClass;
+        this.callback = callback;
+        this.unit = unit;
+        this.timeout = timeout;
+    }
+
+    protected abstract String getStorageUuid();
+
+    /**
+     * @return mons to call in order, throws OperationFailureException if no mon can be called
+     */
+    protected abstract List<M> prepareMons();
+
+    protected abstract void prepareCmd();
+
+    protected void beforeCall(M mon) {
+    }
+
+    protected abstract boolean isHedgeable();
+
+    /**
+     * @return true if the error is caused by the mon and the command can be sent to the next mon
+     */
+    protected abstract boolean isMonFailure(ErrorCode errorCode);
+
+    protected abstract void recordMonFailure(M mon, ErrorCode errorCode);
+
+    protected abstract ErrorCode allMonsFailed();
+
+    protected abstract void succeed(M mon, T ret);
+
+    public void call() {
+        it = prepareMons().iterator();
+        prepareCmd();
+        doCall();
+    }
+
+    private void doCall() {
+        M mon;
+        synchronized (this) {
+            if (!it.hasNext()) {
+                // the hedged call still running completes the call
+                if (running == 0 && complete()) {
+                    callback.fail(allMonsFailed());
+                }
+
+                return;
+            }
+
+            mon = it.next();
+            beforeCall(mon);
+            running++;
+        }
+
+        ReturnValueCompletion<T> completion = new ReturnValueCompletion<T>(callback) {
+            @Override
+            public void success(T ret) {
+                synchronized (CephMonCaller.this) {
+                    running--;
+                }
+
+                if (complete()) {
+                    succeed(mon, ret);
+                }
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                if (completed.get()) {
+                    synchronized (CephMonCaller.this) {
+                        running--;
+                    }
+                    return;
+                }
+
+                boolean monFailure = isMonFailure(errorCode);
+                ErrorCode err;
+                synchronized (CephMonCaller.this) {
+                    running--;
+                    if (monFailure) {
+                        recordMonFailure(mon, errorCode);
+                    }
+                    // the call sent next replaces the hedged one
+                    cancelHedgeTask();
+                    if (!monFailure && !tryNext && failure == null) {
+                        failure = errorCode;
+                    }
+
+                    if (running > 0) {
+                        return;
+                    }
+
+                    err = failure;
+                }
+
+                if (err == null) {
+                    doCall();
+                } else if (complete()) {
+                    callback.fail(err);
+                }
+            }
+        };
+
+        mon.httpCall(path, cmd, retClass, completion, unit, timeout);
+        hedgeIfNeeded(mon);
+    }
+
+    // only the first result of calls to mons completes the call
+    private boolean complete() {
+        if (!completed.compareAndSet(false, true)) {
+            return false;
+        }
+
+        synchronized (this) {
+            cancelHedgeTask();
+        }
+
+        return true;
+    }
+
+    private void cancelHedgeTask() {
+        if (hedgeTask != null) {
+            hedgeTask.cancel();
+            hedgeTask = null;
+        }
+    }
+
+    private void hedgeIfNeeded(M mon) {
+        if (!CephGlobalProperty.MON_HEDGE_ENABLE || !isHedgeable()) {
+            return;
+        }
+
+        synchronized (this) {
+            if (hedged || completed.get() || !it.hasNext()) {
+                return;
+            }
+
+            hedged = true;
+            long delay = CephMonHealthRegistry.hedgeDelay(getStorageUuid(), mon.getSelf().getUuid());
+            hedgeTask = thdf.submitTimeoutTask(() -> {
+                synchronized (CephMonCaller.this) {
+                    // cancelled by a result of the call
+                    if (hedgeTask == null) {
+                        return;
+                    }
+                    hedgeTask = null;
+                }
+
+                logger.debug(String.format("mon[%s] doesn't answer http call[%s] in %sms, send a hedged call to another mon",
+                        mon.getSelf().getHostname(), path, delay));
+                doCall();
+            }, TimeUnit.MILLISECONDS, delay);
+        }
+    }
+}
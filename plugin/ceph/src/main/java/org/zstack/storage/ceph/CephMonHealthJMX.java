@@ -0,0 +1,30 @@
+package org.zstack.storage.ceph;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.jmx.JmxFacade;
+import org.zstack.header.Component;
+
+import javax.management.MXBean;
+import java.util.Map;
+
+@MXBean
+public class CephMonHealthJMX implements CephMonHealthMXBean, Component {
+    @Autowired
+    private JmxFacade jmxf;
+
+    @Override
+    public Map<String, CephMonHealthStatistic> getMonHealthStatistics() {
+        return CephMonHealthRegistry.getStatistics();
+    }
+
+    @Override
+    public boolean start() {
+        jmxf.registerBean("CephMonHealth", this);
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        return true;
+    }
+}
@@ -0,0 +1,7 @@
+package org.zstack.storage.ceph;
+
+import java.util.Map;
+
+public interface CephMonHealthMXBean {
+    Map<String, CephMonHealthStatistic> getMonHealthStatistics();
+}
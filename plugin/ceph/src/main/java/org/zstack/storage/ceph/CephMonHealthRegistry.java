@@ -0,0 +1,206 @@
+package org.zstack.storage.ceph;
+
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * health of ceph monitors seen by the management node, so calls to a ceph storage go to the monitor
+ * answering fastest and skip monitors that keep failing.
+ *
+ * Every http call and ping to a monitor is a sample of its latency and of whether it answered, both
+ * weighted by ewma. A monitor failing a number of times in a row has its circuit opened, it's tried
+ * only after other monitors until the circuit closes after a while, or it answers again. Errors the
+ * agent answers with, like a volume in use, are answers of a healthy monitor. It's node-local and
+ * starts empty, monitors without samples are preferred so they get probed.
+ */
+public class CephMonHealthRegistry {
+    private static final CLogger logger = Utils.getLogger(CephMonHealthRegistry.class);
+
+    // a failure weights latency of a monitor by the times of the error rate
+    private static final double ERROR_PENALTY = 10;
+    // monitors scoring no more than the best one by the ratio and slack are taken equally
+    private static final double NEAR_BEST_RATIO = 1.5;
+    private static final double NEAR_BEST_SLACK = 5;
+    // a hedged call is sent when a call takes the times of usual latency of the monitor
+    private static final double HEDGE_LATENCY_MULTIPLE = 3;
+
+    // health by monitor uuid, by storage uuid
+    private static final Map<String, Map<String, Health>> storages = new ConcurrentHashMap<>();
+
+    private static class Health {
+        final String hostname;
+        // in milliseconds, negative before the first sample
+        double latency = -1;
+        double errorRate;
+        int consecutiveFailures;
+        long circuitOpenUntil;
+        long samples;
+        long failures;
+
+        Health(String hostname) {
+            this.hostname = hostname;
+        }
+
+        boolean isCircuitOpen(long now) {
+            return circuitOpenUntil > now;
+        }
+
+        double score() {
+            return samples == 0 ? 0 : latency * (1 + ERROR_PENALTY * errorRate);
+        }
+    }
+
+    private static Map<String, Health> healthsOf(String storageUuid) {
+        return storages.computeIfAbsent(storageUuid, k -> new ConcurrentHashMap<>());
+    }
+
+    public static void record(String storageUuid, String monUuid, String hostname, long latency, boolean healthy) {
+        if (storageUuid == null) {
+            return;
+        }
+
+        Map<String, Health> healths = healthsOf(storageUuid);
+        synchronized (healths) {
+            Health h = healths.get(monUuid);
+            if (h == null || !h.hostname.equals(hostname)) {
+                h = new Health(hostname);
+                healths.put(monUuid, h);
+            }
+
+            double w = CephGlobalProperty.MON_HEALTH_EWMA_WEIGHT;
+            h.latency = h.latency < 0 ? latency : w * latency + (1 - w) * h.latency;
+            h.errorRate = w * (healthy ? 0 : 1) + (1 - w) * h.errorRate;
+            h.samples++;
+
+            if (healthy) {
+                if (h.circuitOpenUntil != 0) {
+                    logger.info(String.format("ceph mon[uuid:%s, hostname:%s] answers again, close its circuit", monUuid, hostname));
+                }
+                h.consecutiveFailures = 0;
+                h.circuitOpenUntil = 0;
+                return;
+            }
+
+            h.failures++;
+            h.consecutiveFailures++;
+            if (h.consecutiveFailures >= CephGlobalProperty.MON_CIRCUIT_BREAKER_FAILURE_THRESHOLD) {
+                long now = System.currentTimeMillis();
+                if (!h.isCircuitOpen(now)) {
+                    logger.warn(String.format("ceph mon[uuid:%s, hostname:%s] failed %s times in a row, open its circuit for %s seconds",
+                            monUuid, hostname, h.consecutiveFailures, CephGlobalProperty.MON_CIRCUIT_BREAKER_OPEN_TIME));
+                }
+                h.circuitOpenUntil = now + CephGlobalProperty.MON_CIRCUIT_BREAKER_OPEN_TIME * 1000L;
+            }
+        }
+    }
+
+    /**
+     * orders monitors of the storage to call, monitors near the best score keep their given order so
+     * calls still spread over them, monitors with open circuits go last
+     *
+     * @param keepOrder only moves monitors with open circuits if true, for calls that have to go to
+     *                  the same monitor every time
+     */
+    public static <T extends CephMonBase> void rank(String storageUuid, List<T> mons, boolean keepOrder) {
+        Set<String> monUuids = new HashSet<>();
+        mons.forEach(mon -> monUuids.add(mon.self.getUuid()));
+
+        Map<String, Health> healths = healthsOf(storageUuid);
+        Map<T, Double> scores = new HashMap<>();
+        List<T> closed = new ArrayList<>();
+        List<T> open = new ArrayList<>();
+        Map<T, Long> openUntil = new HashMap<>();
+
+        long now = System.currentTimeMillis();
+        synchronized (healths) {
+            // monitors removed from the storage
+            healths.keySet().retainAll(monUuids);
+
+            for (T mon : mons) {
+                Health h = healths.get(mon.self.getUuid());
+                if (h != null && h.isCircuitOpen(now)) {
+                    open.add(mon);
+                    openUntil.put(mon, h.circuitOpenUntil);
+                } else {
+                    closed.add(mon);
+                    scores.put(mon, h == null ? 0 : h.score());
+                }
+            }
+        }
+
+        List<T> ret = new ArrayList<>();
+        if (keepOrder) {
+            ret.addAll(closed);
+        } else {
+            double best = closed.stream().mapToDouble(scores::get).min().orElse(0);
+            List<T> others = new ArrayList<>();
+            for (T mon : closed) {
+                if (scores.get(mon) <= best * NEAR_BEST_RATIO + NEAR_BEST_SLACK) {
+                    ret.add(mon);
+                } else {
+                    others.add(mon);
+                }
+            }
+
+            others.sort(Comparator.comparing(scores::get));
+            ret.addAll(others);
+        }
+
+        open.sort(Comparator.comparing(openUntil::get));
+        ret.addAll(open);
+
+        mons.clear();
+        mons.addAll(ret);
+    }
+
+    /**
+     * @return milliseconds to wait for a call to the monitor before sending a hedged call to another one
+     */
+    public static long hedgeDelay(String storageUuid, String monUuid) {
+        long delay = CephGlobalProperty.MON_HEDGE_MIN_DELAY;
+        Map<String, Health> healths = storages.get(storageUuid);
+        if (healths == null) {
+            return delay;
+        }
+
+        synchronized (healths) {
+            Health h = healths.get(monUuid);
+            if (h == null || h.samples == 0) {
+                return delay;
+            }
+
+            return Math.max(delay, (long) (h.latency * HEDGE_LATENCY_MULTIPLE));
+        }
+    }
+
+    public static void forgetStorage(String storageUuid) {
+        storages.remove(storageUuid);
+    }
+
+    public static Map<String, CephMonHealthStatistic> getStatistics() {
+        Map<String, CephMonHealthStatistic> ret = new HashMap<>();
+        long now = System.currentTimeMillis();
+        storages.forEach((storageUuid, healths) -> {
+            synchronized (healths) {
+                healths.forEach((monUuid, h) -> {
+                    CephMonHealthStatistic s = new CephMonHealthStatistic();
+                    s.setStorageUuid(storageUuid);
+                    s.setMonUuid(monUuid);
+                    s.setHostname(h.hostname);
+                    s.setLatency((long) Math.max(h.latency, 0));
+                    s.setErrorRate(h.errorRate);
+                    s.setScore(h.score());
+                    s.setConsecutiveFailures(h.consecutiveFailures);
+                    s.setCircuitOpen(h.isCircuitOpen(now));
+                    s.setSamples(h.samples);
+                    s.setFailures(h.failures);
+                    ret.put(monUuid, s);
+                });
+            }
+        });
+        return ret;
+    }
+}
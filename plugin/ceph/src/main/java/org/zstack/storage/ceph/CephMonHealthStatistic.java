@@ -0,0 +1,95 @@
+package org.zstack.storage.ceph;
+
+public class CephMonHealthStatistic {
+    private String storageUuid;
+    private String monUuid;
+    private String hostname;
+    // ewma of latency in milliseconds
+    private long latency;
+    private double errorRate;
+    private double score;
+    private int consecutiveFailures;
+    private boolean circuitOpen;
+    private long samples;
+    private long failures;
+
+    public String getStorageUuid() {
+        return storageUuid;
+    }
+
+    public void setStorageUuid(String storageUuid) {
+        this.storageUuid = storageUuid;
+    }
+
+    public String getMonUuid() {
+        return monUuid;
+    }
+
+    public void setMonUuid(String monUuid) {
+        this.monUuid = monUuid;
+    }
+
+    public String getHostname() {
+        return hostname;
+    }
+
+    public void setHostname(String hostname) {
+        this.hostname = hostname;
+    }
+
+    public long getLatency() {
+        return latency;
+    }
+
+    public void setLatency(long latency) {
+        this.latency = latency;
+    }
+
+    public double getErrorRate() {
+        return errorRate;
+    }
+
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    public double getScore() {
+        return score;
+    }
+
+    public void setScore(double score) {
+        this.score = score;
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    public void setConsecutiveFailures(int consecutiveFailures) {
+        this.consecutiveFailures = consecutiveFailures;
+    }
+
+    public boolean isCircuitOpen() {
+        return circuitOpen;
+    }
+
+    public void setCircuitOpen(boolean circuitOpen) {
+        this.circuitOpen = circuitOpen;
+    }
+
+    public long getSamples() {
+        return samples;
+    }
+
+    public void setSamples(long samples) {
+        this.samples = samples;
+    }
+
+    public long getFailures() {
+        return failures;
+    }
+
+    public void setFailures(long failures) {
+        this.failures = failures;
+    }
+}
@@ -682,6 +682,14 @@ public class CephBackupStorageBase extends BackupStorageBase {
     public static final String GET_LOCAL_FILE_SIZE = "/ceph/backupstorage/getlocalfilesize";
     public static final String CEPH_TO_CEPH_MIGRATE_IMAGE_PATH = "/ceph/backupstorage/image/migrate";
 
+    // calls only reading from ceph, safe to be sent to another mon while the first is still running
+    private static final Set<String> HEDGED_PATHS = new HashSet<>(Arrays.asList(
+            GET_IMAGE_SIZE_PATH,
+            CHECK_IMAGE_METADATA_FILE_EXIST,
+            GET_IMAGES_METADATA,
+            GET_LOCAL_FILE_SIZE
+    ));
+
     protected String makeImageInstallPath(String imageUuid) {
         return String.format("ceph://%s/%s", getSelf().getPoolName(), imageUuid);
     }
@@ -694,37 +702,17 @@ public class CephBackupStorageBase extends BackupStorageBase {
         new HttpCaller<>(path, cmd, retClass, callback, unit, timeout).call();
     }
 
-    protected class HttpCaller<T extends AgentResponse> {
-        private Iterator<CephBackupStorageMonBase> it;
+    protected class HttpCaller<T extends AgentResponse> extends CephMonCaller<CephBackupStorageMonBase, AgentCommand, T> {
         private List<ErrorCode> errorCodes = new ArrayList<ErrorCode>();
 
-        private final String path;
-        private final AgentCommand cmd;
-        private final Class<T> retClass;
-        private final ReturnValueCompletion<T> callback;
-        private final TimeUnit unit;
-        private final long timeout;
-
         private String randomFactor = null;
-        private boolean tryNext = false;
 
         HttpCaller(String path, AgentCommand cmd, Class<T> retClass, ReturnValueCompletion<T> callback) {
             this(path, cmd, retClass, callback, null, 0);
         }
 
         HttpCaller(String path, AgentCommand cmd, Class<T> retClass, ReturnValueCompletion<T> callback, TimeUnit unit, long timeout) {
-            this.path = path;
-            this.cmd = cmd;
-            this.retClass = retClass;
-            this.callback = callback;
-            this.unit = unit;
-            this.timeout = timeout;
-        }
-
-        void call() {
-            it = prepareMons().iterator();
-            prepareCmd();
-            doCall();
+            super(path, cmd, retClass, callback, unit, timeout);
         }
 
         HttpCaller<T> specifyOrder(String randomFactor) {
@@ -737,12 +725,19 @@ public class CephBackupStorageBase extends BackupStorageBase {
             return this;
         }
 
-        private void prepareCmd() {
+        @Override
+        protected String getStorageUuid() {
+            return self.getUuid();
+        }
+
+        @Override
+        protected void prepareCmd() {
             cmd.uuid = self.getUuid();
             cmd.fsid = getSelf().getFsid();
         }
 
-        private List<CephBackupStorageMonBase> prepareMons() {
+        @Override
+        protected List<CephBackupStorageMonBase> prepareMons() {
             final List<CephBackupStorageMonBase> mons = new ArrayList<CephBackupStorageMonBase>();
             for (CephBackupStorageMonVO monvo : getSelf().getMons()) {
                 mons.add(new CephBackupStorageMonBase(monvo));
@@ -753,6 +748,7 @@ public class CephBackupStorageBase extends BackupStorageBase {
             } else {
                 Collections.shuffle(mons);
             }
+            CephMonHealthRegistry.rank(self.getUuid(), mons, randomFactor != null);
 
             mons.removeIf(it -> it.getSelf().getStatus() != MonStatus.Connected);
             if (mons.isEmpty()) {
@@ -763,49 +759,36 @@ public class CephBackupStorageBase extends BackupStorageBase {
             return mons;
         }
 
-        private void doCall() {
-            if (!it.hasNext()) {
-                callback.fail(operr("all monitors cannot execute http call[%s]", path));
-
-                return;
-            }
-
-            CephBackupStorageMonBase base = it.next();
-
-            ReturnValueCompletion<T> completion = new ReturnValueCompletion<T>(callback) {
-                @Override
-                public void success(T ret) {
-                    if (!(cmd instanceof InitCmd)) {
-                        updateCapacityIfNeeded(ret);
-                    }
+        @Override
+        protected boolean isHedgeable() {
+            return HEDGED_PATHS.contains(path);
+        }
 
-                    ret.handleMon = CephBackupStorageMonInventory.valueOf(base.getSelf());
-                    callback.success(ret);
-                }
+        @Override
+        protected boolean isMonFailure(ErrorCode errorCode) {
+            return !errorCode.isError(SysErrors.OPERATION_ERROR);
+        }
 
-                @Override
-                public void fail(ErrorCode errorCode) {
-                    if (!errorCode.isError(SysErrors.OPERATION_ERROR)) {
-                        String details = String.format("[mon:%s], %s", base.getSelf().getHostname(), errorCode.getDetails());
-                        errorCode.setDetails(details);
-                        errorCodes.add(errorCode);
-                        doCall();
-                        return;
-                    }
+        @Override
+        protected void recordMonFailure(CephBackupStorageMonBase base, ErrorCode errorCode) {
+            String details = String.format("[mon:%s], %s", base.getSelf().getHostname(), errorCode.getDetails());
+            errorCode.setDetails(details);
+            errorCodes.add(errorCode);
+        }
 
-                    if (tryNext) {
-                        doCall();
-                    } else {
-                        callback.fail(errorCode);
-                    }
-                }
-                };
+        @Override
+        protected ErrorCode allMonsFailed() {
+            return operr("all monitors cannot execute http call[%s]", path);
+        }
 
-            if (unit == null) {
-                base.httpCall(path, cmd, retClass, completion);
-            } else {
-                base.httpCall(path, cmd, retClass, completion, unit, timeout);
+        @Override
+        protected void succeed(CephBackupStorageMonBase base, T ret) {
+            if (!(cmd instanceof InitCmd)) {
+                updateCapacityIfNeeded(ret);
             }
+
+            ret.handleMon = CephBackupStorageMonInventory.valueOf(base.getSelf());
+            callback.success(ret);
         }
     }
 
@@ -2031,6 +2014,7 @@ public class CephBackupStorageBase extends BackupStorageBase {
             }
         }.execute();
         dbf.removeCollection(getSelf().getMons(), CephBackupStorageMonVO.class);
+        CephMonHealthRegistry.forgetStorage(self.getUuid());
 
     }
 
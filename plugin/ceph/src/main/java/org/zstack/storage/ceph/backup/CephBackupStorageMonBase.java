@@ -403,6 +403,11 @@ public class CephBackupStorageMonBase extends CephMonBase {
         return CephAgentUrl.backupStorageUrl(ip, path);
     }
 
+    @Override
+    protected String getStorageUuid() {
+        return getSelf().getBackupStorageUuid();
+    }
+
     private void pingMon(final ReturnValueCompletion<PingResult> completion) {
         final Integer MAX_PING_CNT = BackupStorageGlobalConfig.MAXIMUM_PING_FAILURE.value(Integer.class);
         final List<Integer> stepCount = new ArrayList<>();
@@ -470,15 +475,18 @@ public class CephBackupStorageMonBase extends CephMonBase {
         cmd.monUuid = getSelf().getUuid();
         cmd.backupStorageUuid = getSelf().getBackupStorageUuid();
 
+        long startTime = System.currentTimeMillis();
         restf.asyncJsonPost(CephAgentUrl.backupStorageUrl(self.getHostname(), PING_PATH),
                 cmd, new JsonAsyncRESTCallback<CephBackupStorageMonBase.PingRsp>(completion) {
                     @Override
                     public void fail(ErrorCode err) {
+                        recordHealth(startTime, false);
                         completion.fail(err);
                     }
 
                     @Override
                     public void success(CephBackupStorageMonBase.PingRsp rsp) {
+                        recordHealth(startTime, rsp.isSuccess());
                         PingResult res = new PingResult();
                         res.success = rsp.isSuccess();
                         res.error = rsp.getError();
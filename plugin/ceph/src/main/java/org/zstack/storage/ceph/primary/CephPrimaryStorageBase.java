@@ -1270,6 +1270,17 @@ public class CephPrimaryStorageBase extends PrimaryStorageBase {
     public static final String GET_BACKING_CHAIN_PATH = "/ceph/primarystorage/volume/getbackingchain";
     public static final String DELETE_VOLUME_CHAIN_PATH = "/ceph/primarystorage/volume/deletechain";
 
+    // calls only reading from ceph, safe to be sent to another mon while the first is still running
+    private static final Set<String> HEDGED_PATHS = new HashSet<>(Arrays.asList(
+            GET_VOLUME_SIZE_PATH,
+            BATCH_GET_VOLUME_SIZE_PATH,
+            GET_VOLUME_SNAPSHOT_SIZE_PATH,
+            CHECK_BITS_PATH,
+            GET_VOLUME_SNAPINFOS_PATH,
+            GET_IMAGE_WATCHERS_PATH,
+            GET_BACKING_CHAIN_PATH
+    ));
+
 
     private final Map<String, BackupStorageMediator> backupStorageMediators = new HashMap<String, BackupStorageMediator>();
     List<PrimaryStorageLicenseInfoFactory> licenseExts;
@@ -3176,19 +3187,10 @@ public class CephPrimaryStorageBase extends PrimaryStorageBase {
         new HttpCaller<>(path, cmd, retClass, callback, unit, timeout).call();
     }
 
-    public class HttpCaller<T extends AgentResponse> {
-        private Iterator<CephPrimaryStorageMonBase> it;
+    public class HttpCaller<T extends AgentResponse> extends CephMonCaller<CephPrimaryStorageMonBase, AgentCommand, T> {
         private final ErrorCodeList errorCodes = new ErrorCodeList();
 
-        private final String path;
-        private final AgentCommand cmd;
-        private final Class<T> retClass;
-        private final ReturnValueCompletion<T> callback;
-        private final TimeUnit unit;
-        private final long timeout;
-
         private String randomFactor = null;
-        private boolean tryNext = false;
         private List<String> avoidMonUuids = null;
 
         public HttpCaller(String path, AgentCommand cmd, Class<T> retClass, ReturnValueCompletion<T> callback) {
@@ -3196,18 +3198,7 @@ public class CephPrimaryStorageBase extends PrimaryStorageBase {
         }
 
         public HttpCaller(String path, AgentCommand cmd, Class<T> retClass, ReturnValueCompletion<T> callback, TimeUnit unit, long timeout) {
-            this.path = path;
-            this.cmd = cmd;
-            this.retClass = retClass;
-            this.callback = callback;
-            this.unit = unit;
-            this.timeout = timeout;
-        }
-
-        public void call() {
-            it = prepareMons().iterator();
-            prepareCmd();
-            doCall();
+            super(path, cmd, retClass, callback, unit, timeout);
         }
 
         // specify mons order by randomFactor to ensure that the same mon receive cmd every time.
@@ -3226,7 +3217,13 @@ public class CephPrimaryStorageBase extends PrimaryStorageBase {
             return this;
         }
 
-        private void prepareCmd() {
+        @Override
+        protected String getStorageUuid() {
+            return self.getUuid();
+        }
+
+        @Override
+        protected void prepareCmd() {
             cmd.setUuid(self.getUuid());
             cmd.setFsId(getSelf().getFsid());
             if (CephSystemTags.THIRDPARTY_PLATFORM.hasTag(self.getUuid())) {
@@ -3236,7 +3233,8 @@ public class CephPrimaryStorageBase extends PrimaryStorageBase {
             }
         }
 
-        private List<CephPrimaryStorageMonBase> prepareMons() {
+        @Override
+        protected List<CephPrimaryStorageMonBase> prepareMons() {
             final List<CephPrimaryStorageMonBase> mons = new ArrayList<CephPrimaryStorageMonBase>();
             for (CephPrimaryStorageMonVO monvo : getSelf().getMons()) {
                 mons.add(new CephPrimaryStorageMonBase(monvo));
@@ -3247,6 +3245,7 @@ public class CephPrimaryStorageBase extends PrimaryStorageBase {
             } else {
                 Collections.shuffle(mons);
             }
+            CephMonHealthRegistry.rank(self.getUuid(), mons, randomFactor != null);
 
             mons.removeIf(it -> it.getSelf().getStatus() != MonStatus.Connected);
             if (mons.isEmpty()) {
@@ -3262,52 +3261,42 @@ public class CephPrimaryStorageBase extends PrimaryStorageBase {
             return mons;
         }
 
-        private void doCall() {
-            if (!it.hasNext()) {
-                callback.fail(operr(errorCodes, "all monitors cannot execute http call[%s]", path)
-                );
-
-                return;
-            }
-
-            CephPrimaryStorageMonBase base = it.next();
+        @Override
+        protected void beforeCall(CephPrimaryStorageMonBase base) {
             cmd.monUuid = base.getSelf().getUuid();
             cmd.monIp = base.getSelf().getHostname();
+        }
 
-            ReturnValueCompletion<T> completion = new ReturnValueCompletion<T>(callback) {
-                @Override
-                public void success(T ret) {
-                    if (!(cmd instanceof InitCmd)) {
-                        updateCapacityIfNeeded(ret);
-                    }
+        @Override
+        protected boolean isHedgeable() {
+            return HEDGED_PATHS.contains(path);
+        }
 
-                    callback.success(ret);
-                }
+        @Override
+        protected boolean isMonFailure(ErrorCode errorCode) {
+            return !errorCode.isError(SysErrors.OPERATION_ERROR) && !errorCode.isError(VolumeErrors.VOLUME_IN_USE)
+                    && !errorCode.isError(SysErrors.TIMEOUT);
+        }
 
-                @Override
-                public void fail(ErrorCode errorCode) {
-                    if (!errorCode.isError(SysErrors.OPERATION_ERROR) && !errorCode.isError(VolumeErrors.VOLUME_IN_USE)
-                            && !errorCode.isError(SysErrors.TIMEOUT)) {
-                        logger.warn(String.format("mon[%s] failed to execute http call[%s], error is: %s",
-                                base.getSelf().getHostname(), path, JSONObjectUtil.toJsonString(errorCode)));
-                        errorCodes.getCauses().add(errorCode);
-                        doCall();
-                        return;
-                    }
+        @Override
+        protected void recordMonFailure(CephPrimaryStorageMonBase base, ErrorCode errorCode) {
+            logger.warn(String.format("mon[%s] failed to execute http call[%s], error is: %s",
+                    base.getSelf().getHostname(), path, JSONObjectUtil.toJsonString(errorCode)));
+            errorCodes.getCauses().add(errorCode);
+        }
 
-                    if (tryNext) {
-                        doCall();
-                    } else {
-                        callback.fail(errorCode);
-                    }
-                }
-            };
+        @Override
+        protected ErrorCode allMonsFailed() {
+            return operr(errorCodes, "all monitors cannot execute http call[%s]", path);
+        }
 
-            if (unit == null) {
-                base.httpCall(path, cmd, retClass, completion);
-            } else {
-                base.httpCall(path, cmd, retClass, completion, unit, timeout);
+        @Override
+        protected void succeed(CephPrimaryStorageMonBase base, T ret) {
+            if (!(cmd instanceof InitCmd)) {
+                updateCapacityIfNeeded(ret);
             }
+
+            callback.success(ret);
         }
 
         private void updateCapacityIfNeeded(AgentResponse rsp) {
@@ -5327,6 +5316,7 @@ public class CephPrimaryStorageBase extends PrimaryStorageBase {
             }
         }.execute();
         dbf.removeCollection(getSelf().getMons(), CephPrimaryStorageMonVO.class);
+        CephMonHealthRegistry.forgetStorage(self.getUuid());
     }
 
     private void handle(CreateEmptyVolumeMsg msg) {
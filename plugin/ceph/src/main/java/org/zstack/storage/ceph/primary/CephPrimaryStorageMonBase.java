@@ -405,6 +405,11 @@ public class CephPrimaryStorageMonBase extends CephMonBase {
         return CephAgentUrl.primaryStorageUrl(ip, path);
     }
 
+    @Override
+    protected String getStorageUuid() {
+        return getSelf().getPrimaryStorageUuid();
+    }
+
     private void pingMon(final ReturnValueCompletion<PingResult> completion) {
         final Integer MAX_PING_CNT = CephGlobalConfig.PRIMARY_STORAGE_MON_MAXIMUM_PING_FAILURE.value(Integer.class);
         final List<Integer> stepCount = new ArrayList<>();
@@ -478,15 +483,18 @@ public class CephPrimaryStorageMonBase extends CephMonBase {
         cmd.primaryStorageUuid = getSelf().getPrimaryStorageUuid();
         cmd.monAddr = String.format("%s:%s", getSelf().getMonAddr(), getSelf().getMonPort());
 
+        long startTime = System.currentTimeMillis();
         restf.asyncJsonPost(CephAgentUrl.primaryStorageUrl(self.getHostname(), PING_PATH),
                 cmd, new JsonAsyncRESTCallback<PingRsp>(completion) {
                     @Override
                     public void fail(ErrorCode err) {
+                        recordHealth(startTime, false);
                         completion.fail(err);
                     }
 
                     @Override
                     public void success(PingRsp rsp) {
+                        recordHealth(startTime, rsp.isSuccess());
                         PingResult res = new PingResult();
                         res.success = rsp.isSuccess();
                         res.error = rsp.getError();
@@ -12,6 +12,7 @@ import org.zstack.header.vm.VmBootDevice;
 import org.zstack.header.vm.VmPriorityConfigVO;
 import org.zstack.header.vm.devices.DeviceAddress;
 import org.zstack.header.vm.devices.VirtualDeviceInfo;
+import org.zstack.network.securitygroup.SecurityGroupMembersDeltaTO;
 import org.zstack.network.securitygroup.SecurityGroupMembersTO;
 import org.zstack.network.securitygroup.SecurityGroupRuleTO;
 
@@ -3022,6 +3023,17 @@ public class KVMAgentCommands {
     }
 
     public static class VmSyncCmd extends AgentCommand {
+        // the last sequence acknowledged by the management node, the agent reports
+        // only VMs whose states changed after it. null asks for a full sync
+        private Long lastSequence;
+
+        public Long getLastSequence() {
+            return lastSequence;
+        }
+
+        public void setLastSequence(Long lastSequence) {
+            this.lastSequence = lastSequence;
+        }
     }
 
     public static class VmSyncResponse extends AgentResponse {
@@ -3029,6 +3041,39 @@ public class KVMAgentCommands {
 
         private List<String> vmInShutdowns;
 
+        // null if the agent doesn't support incremental sync
+        private Long sequence;
+
+        // when incremental is true, states only contains VMs changed after baseSequence,
+        // VMs disappeared from the host are reported as Shutdown
+        private boolean incremental;
+
+        private Long baseSequence;
+
+        public Long getSequence() {
+            return sequence;
+        }
+
+        public void setSequence(Long sequence) {
+            this.sequence = sequence;
+        }
+
+        public boolean isIncremental() {
+            return incremental;
+        }
+
+        public void setIncremental(boolean incremental) {
+            this.incremental = incremental;
+        }
+
+        public Long getBaseSequence() {
+            return baseSequence;
+        }
+
+        public void setBaseSequence(Long baseSequence) {
+            this.baseSequence = baseSequence;
+        }
+
         public HashMap<String, String> getStates() {
             return states;
         }
@@ -3093,6 +3138,21 @@ public class KVMAgentCommands {
     public static class UpdateGroupMemberResponse extends AgentResponse {
     }
 
+    public static class UpdateGroupMemberDeltaCmd extends AgentCommand {
+        private List<SecurityGroupMembersDeltaTO> updateGroupDeltaTOs;
+
+        public void setUpdateGroupDeltaTOs(List<SecurityGroupMembersDeltaTO> updateGroupDeltaTOs) {
+            this.updateGroupDeltaTOs = updateGroupDeltaTOs;
+        }
+
+        public List<SecurityGroupMembersDeltaTO> getUpdateGroupDeltaTOs() {
+            return updateGroupDeltaTOs;
+        }
+    }
+
+    public static class UpdateGroupMemberDeltaResponse extends AgentResponse {
+    }
+
     public static class CleanupUnusedRulesOnHostCmd extends AgentCommand {
         Boolean skipIpv6;
     }
@@ -51,6 +51,8 @@ public class KVMGlobalConfig {
     @GlobalConfigValidation
     public static GlobalConfig VM_SYNC_ON_HOST_PING = new GlobalConfig(CATEGORY, "vmSyncOnHostPing");
     @GlobalConfigValidation
+    public static GlobalConfig VM_SYNC_INCREMENTAL = new GlobalConfig(CATEGORY, "vmSyncIncremental");
+    @GlobalConfigValidation
     public static GlobalConfig CHECK_HOST_CPU_MODEL_NAME = new GlobalConfig(CATEGORY, "checkHostCpuModelName");
     @GlobalConfigValidation
     @BindResourceConfig({ClusterVO.class})
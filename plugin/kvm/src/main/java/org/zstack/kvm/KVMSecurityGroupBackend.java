@@ -37,6 +37,7 @@ public class KVMSecurityGroupBackend implements SecurityGroupHypervisorBackend,
     public static final String SECURITY_GROUP_CHECK_DEFAULT_RULES_ON_HOST_PATH = "/securitygroup/checkdefaultrulesonhost";
     public static final String SECURITY_GROUP_CLEANUP_UNUSED_RULE_ON_HOST_PATH = "/securitygroup/cleanupunusedrules";
     public static final String SECURITY_GROUP_UPDATE_GROUP_MEMBER = "/securitygroup/updategroupmember";
+    public static final String SECURITY_GROUP_UPDATE_GROUP_MEMBER_DELTA = "/securitygroup/updategroupmemberdelta";
 
     @Autowired
     private CloudBus bus;
@@ -193,6 +194,36 @@ public class KVMSecurityGroupBackend implements SecurityGroupHypervisorBackend,
         });
     }
 
+    @Override
+    public void updateGroupMembersByDelta(SecurityGroupMembersDeltaTO dto, String hostUuid, Completion completion) {
+        KVMAgentCommands.UpdateGroupMemberDeltaCmd cmd = new KVMAgentCommands.UpdateGroupMemberDeltaCmd();
+        cmd.setUpdateGroupDeltaTOs(asList(dto));
+
+        KVMHostAsyncHttpCallMsg msg = new KVMHostAsyncHttpCallMsg();
+        msg.setHostUuid(hostUuid);
+        msg.setCommand(cmd);
+        msg.setPath(SECURITY_GROUP_UPDATE_GROUP_MEMBER_DELTA);
+        bus.makeTargetServiceIdByResourceUuid(msg, HostConstant.SERVICE_ID, hostUuid);
+        bus.send(msg, new CloudBusCallBack(completion) {
+            @Override
+            public void run(MessageReply reply) {
+                if (!reply.isSuccess()) {
+                    completion.fail(reply.getError());
+                    return;
+                }
+
+                KVMHostAsyncHttpCallReply hreply = reply.castReply();
+                KVMAgentCommands.UpdateGroupMemberDeltaResponse rsp = hreply.toResponse(KVMAgentCommands.UpdateGroupMemberDeltaResponse.class);
+                if (!rsp.isSuccess()) {
+                    completion.fail(operr("operation error, because:%s", rsp.getError()));
+                    return;
+                }
+
+                completion.success();
+            }
+        });
+    }
+
     @Override
     public void cleanUpUnusedRuleOnHost(String hostUuid, final Completion completion) {
         KVMAgentCommands.CleanupUnusedRulesOnHostCmd cmd = new KVMAgentCommands.CleanupUnusedRulesOnHostCmd();
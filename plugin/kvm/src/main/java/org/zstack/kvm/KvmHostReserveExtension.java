@@ -16,6 +16,10 @@ import org.zstack.header.host.RecalculateHostCapacityMsg;
 import org.zstack.header.zone.ZoneVO;
 import org.zstack.utils.SizeUtils;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  */
 public class KvmHostReserveExtension implements HostReservedCapacityExtensionPoint, Component {
@@ -40,6 +44,18 @@ public class KvmHostReserveExtension implements HostReservedCapacityExtensionPoi
         return hc;
     }
 
+    @Override
+    public Map<String, ReservedHostCapacity> getReservedHostCapacities(Collection<String> hostUuids) {
+        Map<String, ReservedHostCapacity> ret = new HashMap<>();
+        rcf.getResourceConfigValues(KVMGlobalConfig.RESERVED_MEMORY_CAPACITY, hostUuids, String.class).forEach((huuid, reserveMem) -> {
+            ReservedHostCapacity hc = new ReservedHostCapacity();
+            hc.setReservedCpuCapacity(reserve.getReservedCpuCapacity());
+            hc.setReservedMemoryCapacity(SizeUtils.sizeStringToBytes(reserveMem));
+            ret.put(huuid, hc);
+        });
+        return ret;
+    }
+
     @Override
     public boolean start() {
         long cpu = SizeUtils.sizeStringToBytes(KVMGlobalConfig.RESERVED_CPU_CAPACITY.value());
@@ -7,5 +7,9 @@ import java.util.Map;
 import java.util.Set;
 
 public interface KvmVmSyncExtensionPoint {
+    /**
+     * @param states states of VMs reported by the host, in an incremental sync(see KVMGlobalConfig.VM_SYNC_INCREMENTAL)
+     *               it only contains VMs whose states changed since the last sync
+     */
     void afterVmSync(HostInventory host, Map<String, VmInstanceState> states, Set<String> vmsToSkipSetHostSide);
 }
@@ -45,7 +45,7 @@ import static org.zstack.core.Platform.operr;
 
 public class KvmVmSyncPingTask extends VmTracer implements KVMPingAgentNoFailureExtensionPoint, KVMHostConnectExtensionPoint,
         MarshalReplyMessageExtensionPoint, HostConnectionReestablishExtensionPoint, HostAfterConnectedExtensionPoint, Component,
-        ManagementNodeChangeListener {
+        ManagementNodeChangeListener, HostDeleteExtensionPoint {
     private static final CLogger logger = Utils.getLogger(KvmVmSyncPingTask.class);
 
     @Autowired
@@ -67,6 +67,8 @@ public class KvmVmSyncPingTask extends VmTracer implements KVMPingAgentNoFailure
     private List<Class<? extends Message>> skipVmTracerMessages = new ArrayList<>();
     private List<Class> skipVmTracerReplies = new ArrayList<>();
     private Map<String, Integer> vmInShutdownMap = new ConcurrentHashMap<>();
+    // A map from host uuid to the state of the last vm sync, used by incremental syncs
+    private Map<String, HostVmSyncState> hostVmSyncStates = new ConcurrentHashMap<>();
 
     {
         getReflections().getTypesAnnotatedWith(SkipVmTracer.class).forEach(clz -> {
@@ -191,23 +193,60 @@ public class KvmVmSyncPingTask extends VmTracer implements KVMPingAgentNoFailure
         }
     }
 
+    private static class HostVmSyncState {
+        final long sequence;
+        // the latest VM states on the host, maintained by merging incremental syncs
+        final Map<String, String> states;
+        // VMs skipped by the tracer in the last sync, they are traced again in the next incremental sync
+        final Set<String> vmsToRetrace = ConcurrentHashMap.newKeySet();
+
+        HostVmSyncState(long sequence, Map<String, String> states) {
+            this.sequence = sequence;
+            this.states = states;
+        }
+
+        HostVmSyncState merge(long newSequence, Map<String, String> changedStates) {
+            Map<String, String> merged = new HashMap<>(states);
+            changedStates.forEach((vmUuid, state) -> {
+                if (KvmVmState.Shutdown.toString().equals(state)) {
+                    merged.remove(vmUuid);
+                } else {
+                    merged.put(vmUuid, state);
+                }
+            });
+
+            return new HostVmSyncState(newSequence, merged);
+        }
+    }
+
     private void syncVm(final HostInventory host, final Completion completion) {
+        hostVmSyncStates.remove(host.getUuid());
+        syncVm(host, true, completion);
+    }
+
+    private void syncVm(final HostInventory host, final boolean fullSync, final Completion completion) {
         // Get vms to skip before send command to host to confirm the vm will be skipped after sync command finished.
         // The problem is if one vm-sync skipped operation is started and finished during vm sync command's handling
         // vm state would still be sync to mn
         Set<String> vmsToSkipSetHostSide = new HashSet<>();
         vmsToSkip.values().forEach(vmsToSkipSetHostSide::addAll);
 
+        final HostVmSyncState lastSyncState = fullSync || !KVMGlobalConfig.VM_SYNC_INCREMENTAL.value(Boolean.class) ?
+                null : hostVmSyncStates.get(host.getUuid());
+
         // if the vm is not running on host when sync command executing but started as soon as possible
         // before response handling of vm sync, mgmtSideStates will including the running vm but not result in
         // vm sync response the vm would be changed to Stopped which is not expected.
         // but if the vm is running on host but stopped on management node side in same pattern, the result is
         // wrong but it will be fixed in next vm sync and different from creation, normally vm operations skip
         // vm sync during processing
-        Map<String, VmInstanceState> mgmtSideStates = buildManagementServerSideVmStates(host.getUuid());
+        // an incremental sync only queries states of changed VMs after the response returns
+        final Map<String, VmInstanceState> fullMgmtSideStates = lastSyncState == null ?
+                buildManagementServerSideVmStates(host.getUuid()) : null;
 
         KVMHostAsyncHttpCallMsg msg = new KVMHostAsyncHttpCallMsg();
         VmSyncCmd cmd = new VmSyncCmd();
+        cmd.setLastSequence(lastSyncState == null ? null : lastSyncState.sequence);
         msg.setCommand(cmd);
         msg.setNoStatusCheck(true);
         msg.setHostUuid(host.getUuid());
@@ -223,14 +262,62 @@ public class KvmVmSyncPingTask extends VmTracer implements KVMPingAgentNoFailure
                 KVMHostAsyncHttpCallReply r = reply.castReply();
                 VmSyncResponse ret = r.toResponse(VmSyncResponse.class);
                 if (ret.isSuccess()) {
-                    Map<String, VmInstanceState> states = new HashMap<>(ret.getStates().size());
+                    Map<String, String> reportedStates = ret.getStates();
+                    Map<String, VmInstanceState> mgmtSideStates = fullMgmtSideStates;
+                    HostVmSyncState syncState = null;
+
+                    if (ret.isIncremental() && ret.getSequence() != null) {
+                        if (lastSyncState == null) {
+                            completion.fail(operr("host[uuid:%s, ip:%s] replied an incremental vm sync for a full vm sync request",
+                                    host.getUuid(), host.getManagementIp()));
+                            return;
+                        }
+
+                        if (ret.getBaseSequence() == null || lastSyncState.sequence != ret.getBaseSequence()) {
+                            logger.debug(String.format("vm sync sequence gap detected on host[uuid:%s], expected base sequence %s but got %s," +
+                                    " do a full vm sync", host.getUuid(), lastSyncState.sequence, ret.getBaseSequence()));
+                            syncVm(host, completion);
+                            return;
+                        }
+
+                        syncState = lastSyncState.merge(ret.getSequence(), ret.getStates());
+                        reportedStates = new HashMap<>(ret.getStates());
+                        for (String vmUuid : lastSyncState.vmsToRetrace) {
+                            reportedStates.putIfAbsent(vmUuid, syncState.states.getOrDefault(vmUuid, KvmVmState.Shutdown.toString()));
+                        }
+                        // keep counting VMs stuck in shutdown even if their states don't change
+                        for (String vmUuid : ret.getVmInShutdowns()) {
+                            if (syncState.states.containsKey(vmUuid)) {
+                                reportedStates.putIfAbsent(vmUuid, syncState.states.get(vmUuid));
+                            }
+                        }
+
+                        if (reportedStates.isEmpty()) {
+                            hostVmSyncStates.put(host.getUuid(), syncState);
+                            completion.success();
+                            return;
+                        }
+
+                        mgmtSideStates = buildManagementServerSideVmStates(host.getUuid(), reportedStates.keySet());
+                    } else {
+                        if (ret.getSequence() != null) {
+                            syncState = new HostVmSyncState(ret.getSequence(), new HashMap<>(ret.getStates()));
+                        }
+
+                        if (mgmtSideStates == null) {
+                            // the agent doesn't support incremental sync or chose to reply a full sync
+                            mgmtSideStates = buildManagementServerSideVmStates(host.getUuid());
+                        }
+                    }
+
+                    Map<String, VmInstanceState> states = new HashMap<>(reportedStates.size());
 
                     // Get vms to skip after sync result returned.
                     vmsToSkip.values().forEach(vmsToSkipSetHostSide::addAll);
 
-                    Collection<String> vmUuidsInDeleteVmGC = DeleteVmGC.queryVmInGC(host.getUuid(), ret.getStates().keySet());
+                    Collection<String> vmUuidsInDeleteVmGC = DeleteVmGC.queryVmInGC(host.getUuid(), reportedStates.keySet());
 
-                    for (Map.Entry<String, String> e : ret.getStates().entrySet()) {
+                    for (Map.Entry<String, String> e : reportedStates.entrySet()) {
                         if (logger.isTraceEnabled()) {
                             logger.trace(String.format("state from vmsync vm %s state %s", e.getKey(), e.getValue()));
                         }
@@ -251,6 +338,13 @@ public class KvmVmSyncPingTask extends VmTracer implements KVMPingAgentNoFailure
                         ext.afterVmSync(host, states, vmsToSkipSetHostSide);
                     }
 
+                    if (syncState != null) {
+                        reportedStates.keySet().stream().filter(vmsToSkipSetHostSide::contains).forEach(syncState.vmsToRetrace::add);
+                        hostVmSyncStates.put(host.getUuid(), syncState);
+                    } else {
+                        hostVmSyncStates.remove(host.getUuid());
+                    }
+
                     checkVmInShutdown(ret.getVmInShutdowns(), states);
                     reportVmState(host.getUuid(), states, vmsToSkipSetHostSide, mgmtSideStates);
                     completion.success();
@@ -408,7 +502,7 @@ public class KvmVmSyncPingTask extends VmTracer implements KVMPingAgentNoFailure
 
             @Override
             public void run(SyncTaskChain chain) {
-                syncVm(host, new Completion(chain) {
+                syncVm(host, false, new Completion(chain) {
                     @Override
                     public void success() {
                         chain.next();
@@ -431,6 +525,19 @@ public class KvmVmSyncPingTask extends VmTracer implements KVMPingAgentNoFailure
         completion.done();
     }
 
+    @Override
+    public void preDeleteHost(HostInventory inventory) throws HostException {
+    }
+
+    @Override
+    public void beforeDeleteHost(HostInventory inventory) {
+    }
+
+    @Override
+    public void afterDeleteHost(HostInventory inventory) {
+        hostVmSyncStates.remove(inventory.getUuid());
+    }
+
     @Override
     public void nodeJoin(ManagementNodeInventory inv) {
         vmApis.putIfAbsent(inv.getUuid(), new ConcurrentHashMap<>());
@@ -4,7 +4,10 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.zstack.core.Platform;
+import org.zstack.core.cloudbus.EventFacade;
 import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.EntityEvent;
+import org.zstack.core.db.EntityLifeCycleCallback;
 import org.zstack.core.db.Q;
 import org.zstack.core.db.SimpleQuery;
 import org.zstack.core.db.SimpleQuery.Op;
@@ -27,6 +30,7 @@ import org.zstack.header.volume.VolumeVO_;
 import org.zstack.storage.primary.PrimaryStorageCapacityChecker;
 import org.zstack.storage.primary.PrimaryStorageGlobalConfig;
 import org.zstack.storage.primary.PrimaryStoragePhysicalCapacityManager;
+import org.zstack.storage.primary.local.LocalStorageHostCapacityCache.HostCapacity;
 import org.zstack.storage.snapshot.SnapshotDeletionExtensionPoint;
 import org.zstack.tag.PatternedSystemTag;
 import org.zstack.utils.CollectionUtils;
@@ -58,6 +62,8 @@ public class LocalStorageAllocatorFactory implements PrimaryStorageAllocatorStra
     @Autowired
     private ErrorFacade errf;
     @Autowired
+    private EventFacade evtf;
+    @Autowired
     private PrimaryStorageOverProvisioningManager ratioMgr;
     @Autowired
     protected PrimaryStoragePhysicalCapacityManager physicalCapacityMgr;
@@ -95,9 +101,20 @@ public class LocalStorageAllocatorFactory implements PrimaryStorageAllocatorStra
     public boolean start() {
         builder.setFlowClassNames(allocatorFlowNames).construct();
         strategy = new LocalStorageAllocatorStrategy(builder);
+        installHostCapacityCacheInvalidation();
         return true;
     }
 
+    private void installHostCapacityCacheInvalidation() {
+        EntityLifeCycleCallback refChanged = (evt, o) -> LocalStorageHostCapacityCache.invalidate(
+                Collections.singletonList(((LocalStorageHostRefVO) o).getHostUuid()));
+        dbf.installEntityLifeCycleCallback(LocalStorageHostRefVO.class, EntityEvent.POST_PERSIST, refChanged);
+        dbf.installEntityLifeCycleCallback(LocalStorageHostRefVO.class, EntityEvent.POST_UPDATE, refChanged);
+        dbf.installEntityLifeCycleCallback(LocalStorageHostRefVO.class, EntityEvent.POST_REMOVE, refChanged);
+
+        LocalStorageHostCapacityCache.install(evtf);
+    }
+
     @Override
     public boolean stop() {
         return true;
@@ -113,16 +130,11 @@ public class LocalStorageAllocatorFactory implements PrimaryStorageAllocatorStra
                 return candidates;
             }
 
-            SimpleQuery<LocalStorageHostRefVO> q = dbf.createQuery(LocalStorageHostRefVO.class);
-            q.add(LocalStorageHostRefVO_.hostUuid, Op.IN, huuids);
-            if (!spec.getRequiredPrimaryStorageUuids().isEmpty()) {
-                q.add(LocalStorageHostRefVO_.primaryStorageUuid, Op.IN, spec.getRequiredPrimaryStorageUuids());
-            }
-            List<LocalStorageHostRefVO> refs = q.list();
+            List<HostCapacity> refs = getHostCapacities(huuids, spec.getRequiredPrimaryStorageUuids());
 
             final Set<String> toRemoveHuuids = new HashSet<>();
             final Set<String> toAddHuuids = new HashSet<>();
-            for (LocalStorageHostRefVO ref : refs) {
+            for (HostCapacity ref : refs) {
                 String huuid = ref.getHostUuid();
                 String psUuid = ref.getPrimaryStorageUuid();
                 // check primary storage capacity and host physical capacity
@@ -177,6 +189,19 @@ public class LocalStorageAllocatorFactory implements PrimaryStorageAllocatorStra
         return candidates;
     }
 
+    private List<HostCapacity> getHostCapacities(List<String> huuids, Collection<String> psUuids) {
+        if (LocalStorageHostCapacityCache.isUsable()) {
+            return LocalStorageHostCapacityCache.getCapacities(huuids, psUuids);
+        }
+
+        SimpleQuery<LocalStorageHostRefVO> q = dbf.createQuery(LocalStorageHostRefVO.class);
+        q.add(LocalStorageHostRefVO_.hostUuid, Op.IN, huuids);
+        if (!psUuids.isEmpty()) {
+            q.add(LocalStorageHostRefVO_.primaryStorageUuid, Op.IN, psUuids);
+        }
+        return q.list().stream().map(HostCapacity::valueOf).collect(Collectors.toList());
+    }
+
     private void checkLocalStorageForVmStart(VmInstanceInventory vm, List<HostVO> candidates) {
         final List<String> localPS = Q.New(PrimaryStorageVO.class)
                 .select(PrimaryStorageVO_.uuid)
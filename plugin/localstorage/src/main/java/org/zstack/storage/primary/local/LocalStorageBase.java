@@ -42,6 +42,7 @@ import org.zstack.header.volume.*;
 import org.zstack.storage.primary.*;
 import org.zstack.storage.primary.local.APIGetLocalStorageHostDiskCapacityReply.HostDiskCapacity;
 import org.zstack.storage.primary.local.MigrateBitsStruct.ResourceInfo;
+import org.zstack.storage.snapshot.VolumeSnapshotTreeCache;
 import org.zstack.storage.snapshot.reference.VolumeSnapshotReferenceUtils;
 import org.zstack.storage.volume.VolumeSystemTags;
 import org.zstack.tag.SystemTagCreator;
@@ -555,6 +556,14 @@ public class LocalStorageBase extends PrimaryStorageBase {
         FlowChain chain = FlowChainBuilder.newShareFlowChain();
         chain.setName(String.format("migrate-volume-%s-local-storage-%s-to-host-%s",
                 msg.getVolumeUuid(), msg.getPrimaryStorageUuid(), msg.getDestHostUuid()));
+        // a node taking over the chain of a left node rolls back or completes it by LocalStorageMigrateVolumeRecovery
+        ((SimpleFlowChain) chain).journal(LocalStorageMigrateVolumeRecovery.JOURNAL_NAME);
+        chain.getData().put(LocalStorageMigrateVolumeRecovery.VOLUME_UUID, msg.getVolumeUuid());
+        chain.getData().put(LocalStorageMigrateVolumeRecovery.PRIMARY_STORAGE_UUID, self.getUuid());
+        chain.getData().put(LocalStorageMigrateVolumeRecovery.SRC_HOST_UUID, ref.getHostUuid());
+        chain.getData().put(LocalStorageMigrateVolumeRecovery.DEST_HOST_UUID, msg.getDestHostUuid());
+        chain.getData().put(LocalStorageMigrateVolumeRecovery.ORIGIN_VOLUME_STATUS,
+                Q.New(VolumeVO.class).select(VolumeVO_.status).eq(VolumeVO_.uuid, msg.getVolumeUuid()).findValue());
         chain.then(new ShareFlow() {
             LocalStorageResourceRefVO volumeRefVO;
             List<LocalStorageResourceRefVO> snapshotRefVOS;
@@ -636,6 +645,7 @@ public class LocalStorageBase extends PrimaryStorageBase {
 
                     @Override
                     public void run(FlowTrigger trigger, Map data) {
+                        data.put(LocalStorageMigrateVolumeRecovery.REQUIRED_SIZE, requiredSize);
                         reserveCapacityOnHost(msg.getDestHostUuid(), requiredSize, self.getUuid());
                         success = true;
                         trigger.next();
@@ -1699,6 +1709,7 @@ public class LocalStorageBase extends PrimaryStorageBase {
 
                     sql("delete from VolumeSnapshotVO sp where sp.uuid in (:uuids)")
                             .param("uuids", snapshotUuids).execute();
+                    VolumeSnapshotTreeCache.invalidate(snapshotUuids);
 
                     logger.debug(String.format("delete volume snapshots%s because the host[uuid:%s] is removed from" +
                             " the local storage[name:%s, uuid:%s]", snapshotUuids, hostUuid, self.getName(), self.getUuid()));
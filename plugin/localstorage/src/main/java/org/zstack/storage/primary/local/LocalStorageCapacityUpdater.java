@@ -14,6 +14,8 @@ import org.zstack.storage.primary.local.LocalStorageKvmBackend.AgentResponse;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
+import java.util.Collections;
+
 /**
  * Created by frank on 11/10/2015.
  */
@@ -40,6 +42,8 @@ public class LocalStorageCapacityUpdater {
                 .set(LocalStorageHostRefVO_.totalPhysicalCapacity, rsp.getTotalCapacity())
                 .set(LocalStorageHostRefVO_.availablePhysicalCapacity, rsp.getAvailableCapacity())
                 .update();
+        // the update by SQL doesn't fire entity events
+        LocalStorageHostCapacityCache.invalidate(Collections.singletonList(ref.getHostUuid()));
 
         if (logger.isTraceEnabled()) {
             logger.trace(String.format("[Local Storage Capacity] changed the physical capacity of the host[uuid:%s] of " +
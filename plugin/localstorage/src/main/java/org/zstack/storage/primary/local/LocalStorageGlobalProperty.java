@@ -12,4 +12,10 @@ public class LocalStorageGlobalProperty {
     public static int KVM_SftpDownloadBitsCmd_TIMEOUT;
     @GlobalProperty(name="LocalStorage.kvm.SftpUploadBitsCmd.timeout", defaultValue = "3600")
     public static int KVM_SftpUploadBitsCmd_TIMEOUT;
+    @GlobalProperty(name="LocalStorage.hostCapacityCache.enable", defaultValue = "true")
+    public static boolean HOST_CAPACITY_CACHE_ENABLE;
+    @GlobalProperty(name="LocalStorage.hostCapacityCache.size", defaultValue = "10000")
+    public static long HOST_CAPACITY_CACHE_SIZE;
+    @GlobalProperty(name="LocalStorage.hostCapacityCache.ttlInSeconds", defaultValue = "300")
+    public static long HOST_CAPACITY_CACHE_TTL;
 }
@@ -0,0 +1,163 @@
+package org.zstack.storage.primary.local;
+
+import com.google.common.collect.Lists;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.zstack.core.cache.DistributedEvictingCache;
+import org.zstack.core.cloudbus.EventFacade;
+import org.zstack.core.db.Q;
+
+import javax.persistence.Tuple;
+import java.util.*;
+
+/**
+ * node-local host capacities of local primary storages by host uuid, serving host filtering
+ * of LocalStorageAllocatorFactory out of transactions.
+ *
+ * Capacities of candidate hosts missing from the cache are loaded in batched queries, so
+ * filtering candidates is a lookup per host rather than a query per allocation. Hosts whose
+ * references are written through the entity manager, or updated by LocalStorageCapacityUpdater,
+ * are evicted through DistributedEvictingCache, again when the transaction completes and then
+ * on other management nodes, and hosts expire after LocalStorage.hostCapacityCache.ttlInSeconds
+ * in case of changes made by SQL not reporting to invalidate().
+ */
+public class LocalStorageHostCapacityCache {
+    private static final int LOAD_BATCH_SIZE = 500;
+
+    // capacities of a host on all local primary storages it's attached to, empty if none
+    private static final DistributedEvictingCache<List<HostCapacity>> hosts = new DistributedEvictingCache<>(
+            LocalStorageGlobalProperty.HOST_CAPACITY_CACHE_SIZE, LocalStorageGlobalProperty.HOST_CAPACITY_CACHE_TTL);
+
+    public static class HostCapacity {
+        private final String hostUuid;
+        private final String primaryStorageUuid;
+        private final long totalCapacity;
+        private final long availableCapacity;
+        private final long totalPhysicalCapacity;
+        private final long availablePhysicalCapacity;
+
+        HostCapacity(String hostUuid, String primaryStorageUuid, long totalCapacity, long availableCapacity,
+                     long totalPhysicalCapacity, long availablePhysicalCapacity) {
+            this.hostUuid = hostUuid;
+            this.primaryStorageUuid = primaryStorageUuid;
+            this.totalCapacity = totalCapacity;
+            this.availableCapacity = availableCapacity;
+            this.totalPhysicalCapacity = totalPhysicalCapacity;
+            this.availablePhysicalCapacity = availablePhysicalCapacity;
+        }
+
+        public static HostCapacity valueOf(LocalStorageHostRefVO vo) {
+            return new HostCapacity(vo.getHostUuid(), vo.getPrimaryStorageUuid(), vo.getTotalCapacity(), vo.getAvailableCapacity(),
+                    vo.getTotalPhysicalCapacity(), vo.getAvailablePhysicalCapacity());
+        }
+
+        public String getHostUuid() {
+            return hostUuid;
+        }
+
+        public String getPrimaryStorageUuid() {
+            return primaryStorageUuid;
+        }
+
+        public long getTotalCapacity() {
+            return totalCapacity;
+        }
+
+        public long getAvailableCapacity() {
+            return availableCapacity;
+        }
+
+        public long getTotalPhysicalCapacity() {
+            return totalPhysicalCapacity;
+        }
+
+        public long getAvailablePhysicalCapacity() {
+            return availablePhysicalCapacity;
+        }
+    }
+
+    /**
+     * the table can't see changes of the current transaction, lookups in a transaction go to database
+     */
+    public static boolean isUsable() {
+        return LocalStorageGlobalProperty.HOST_CAPACITY_CACHE_ENABLE && !TransactionSynchronizationManager.isActualTransactionActive();
+    }
+
+    /**
+     * @param hostUuids hosts to look up
+     * @param primaryStorageUuids empty to look up all local primary storages
+     * @return capacities of the hosts on the primary storages, hosts not attached to any of
+     * the primary storages are not in the result
+     */
+    public static List<HostCapacity> getCapacities(Collection<String> hostUuids, Collection<String> primaryStorageUuids) {
+        Set<String> psUuids = primaryStorageUuids == null ? Collections.emptySet() : new HashSet<>(primaryStorageUuids);
+        Map<String, List<HostCapacity>> caps = getHostCapacities(new LinkedHashSet<>(hostUuids));
+
+        List<HostCapacity> ret = new ArrayList<>();
+        caps.values().forEach(cs -> cs.stream()
+                .filter(cap -> psUuids.isEmpty() || psUuids.contains(cap.primaryStorageUuid))
+                .forEach(ret::add));
+        return ret;
+    }
+
+    private static Map<String, List<HostCapacity>> getHostCapacities(Set<String> hostUuids) {
+        Map<String, List<HostCapacity>> ret = new LinkedHashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String hostUuid : hostUuids) {
+            List<HostCapacity> caps = hosts.get(hostUuid);
+            if (caps == null) {
+                missing.add(hostUuid);
+            } else {
+                ret.put(hostUuid, caps);
+            }
+        }
+
+        if (missing.isEmpty()) {
+            return ret;
+        }
+
+        // a host evicted while loading may be loaded stale, it's not cached then
+        long gen = hosts.getGeneration();
+        Map<String, List<HostCapacity>> loaded = new HashMap<>();
+        missing.forEach(hostUuid -> loaded.put(hostUuid, new ArrayList<>()));
+        for (List<String> batch : Lists.partition(missing, LOAD_BATCH_SIZE)) {
+            load(batch).forEach(cap -> loaded.get(cap.hostUuid).add(cap));
+        }
+
+        hosts.putAll(loaded, gen);
+        ret.putAll(loaded);
+        return ret;
+    }
+
+    private static List<HostCapacity> load(List<String> hostUuids) {
+        List<HostCapacity> ret = new ArrayList<>();
+        List<Tuple> ts = Q.New(LocalStorageHostRefVO.class)
+                .select(LocalStorageHostRefVO_.hostUuid, LocalStorageHostRefVO_.primaryStorageUuid,
+                        LocalStorageHostRefVO_.totalCapacity, LocalStorageHostRefVO_.availableCapacity,
+                        LocalStorageHostRefVO_.totalPhysicalCapacity, LocalStorageHostRefVO_.availablePhysicalCapacity)
+                .in(LocalStorageHostRefVO_.hostUuid, hostUuids)
+                .listTuple();
+        for (Tuple t : ts) {
+            ret.add(new HostCapacity(t.get(0, String.class), t.get(1, String.class), t.get(2, Long.class),
+                    t.get(3, Long.class), t.get(4, Long.class), t.get(5, Long.class)));
+        }
+        return ret;
+    }
+
+    static void install(EventFacade evtf) {
+        hosts.install("localStorageHostCapacities", evtf);
+    }
+
+    /**
+     * evicts hosts on this node right now, again when the current transaction completes,
+     * and on other management nodes after that
+     *
+     * @param hostUuids null to evict all hosts
+     */
+    public static void invalidate(Collection<String> hostUuids) {
+        hosts.evict(hostUuids);
+    }
+
+    static long size() {
+        return hosts.size();
+    }
+}
@@ -0,0 +1,115 @@
+package org.zstack.storage.primary.local;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.Q;
+import org.zstack.core.db.SQL;
+import org.zstack.core.workflow.FlowChainJournal;
+import org.zstack.core.workflow.FlowChainJournalRecord;
+import org.zstack.core.workflow.FlowChainRecoveryExtensionPoint;
+import org.zstack.header.host.HostVO;
+import org.zstack.header.host.HostVO_;
+import org.zstack.header.storage.primary.PrimaryStorageVO;
+import org.zstack.header.volume.VolumeStatus;
+import org.zstack.header.volume.VolumeType;
+import org.zstack.header.volume.VolumeVO;
+import org.zstack.header.volume.VolumeVO_;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * recovers the volume migration of LocalStorageBase interrupted by its management node leaving.
+ *
+ * Another node cannot resume copying the bits, so the migration is rolled back unless the volume
+ * reference has been changed to the destination host, in which case the migration is completed.
+ * Either way the volume gets its status before the migration back; bits left on the host not
+ * owning the volume are not deleted.
+ */
+public class LocalStorageMigrateVolumeRecovery implements FlowChainRecoveryExtensionPoint {
+    private static final CLogger logger = Utils.getLogger(LocalStorageMigrateVolumeRecovery.class);
+
+    public static final String JOURNAL_NAME = "local-storage-migrate-volume";
+
+    // chain data
+    public static final String VOLUME_UUID = "migrateVolume.volumeUuid";
+    public static final String PRIMARY_STORAGE_UUID = "migrateVolume.primaryStorageUuid";
+    public static final String SRC_HOST_UUID = "migrateVolume.srcHostUuid";
+    public static final String DEST_HOST_UUID = "migrateVolume.destHostUuid";
+    public static final String ORIGIN_VOLUME_STATUS = "migrateVolume.originVolumeStatus";
+    public static final String REQUIRED_SIZE = "migrateVolume.requiredSize";
+
+    // flows of the chain
+    static final String RESERVE_CAPACITY_FLOW = "reserve-capacity-on-dest-host";
+    static final String CHANGE_REFERENCE_FLOW = "change-reference-to-dst-host";
+    static final String RETURN_CAPACITY_FLOW = "return-capacity-to-src-host";
+
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private FlowChainJournal journal;
+
+    @Override
+    public String getFlowChainNameForRecovery() {
+        return JOURNAL_NAME;
+    }
+
+    @Override
+    public void recoverFlowChain(FlowChainJournalRecord record) {
+        Map<String, Object> data = record.getData();
+        String volumeUuid = (String) data.get(VOLUME_UUID);
+        if (volumeUuid == null) {
+            logger.warn(String.format("the volume migration[chain:%s] was interrupted before its first flow, nothing to recover",
+                    record.getChainUuid()));
+            journal.recoveryCompleted(record.getChainUuid());
+            return;
+        }
+
+        String psUuid = (String) data.get(PRIMARY_STORAGE_UUID);
+        String srcHostUuid = (String) data.get(SRC_HOST_UUID);
+        String destHostUuid = (String) data.get(DEST_HOST_UUID);
+        Number requiredSize = (Number) data.get(REQUIRED_SIZE);
+        PrimaryStorageVO ps = dbf.findByUuid(psUuid, PrimaryStorageVO.class);
+        List<String> completed = record.getCompletedFlows();
+
+        if (completed.contains(CHANGE_REFERENCE_FLOW)) {
+            logger.debug(String.format("the volume[uuid:%s] has been migrated to the host[uuid:%s], complete the migration",
+                    volumeUuid, destHostUuid));
+            if (!completed.contains(RETURN_CAPACITY_FLOW) && ps != null && requiredSize != null) {
+                new LocalStorageUtils().returnStorageCapacityToHost(srcHostUuid, requiredSize.longValue(), ps);
+            }
+
+            if (Q.New(VolumeVO.class).eq(VolumeVO_.uuid, volumeUuid).eq(VolumeVO_.type, VolumeType.Root).isExists()) {
+                String clusterUuid = Q.New(HostVO.class).select(HostVO_.clusterUuid).eq(HostVO_.uuid, destHostUuid).findValue();
+                SQL.New("update VmInstanceEO set clusterUuid = :clusterUuid where rootVolumeUuid = :volumeUuid")
+                        .param("clusterUuid", clusterUuid)
+                        .param("volumeUuid", volumeUuid)
+                        .execute();
+            }
+
+            logger.warn(String.format("bits of the volume[uuid:%s] may be left on the source host[uuid:%s] of the local storage[uuid:%s]",
+                    volumeUuid, srcHostUuid, psUuid));
+        } else {
+            logger.debug(String.format("the volume[uuid:%s] has not been migrated to the host[uuid:%s], roll back the migration",
+                    volumeUuid, destHostUuid));
+            if (completed.contains(RESERVE_CAPACITY_FLOW) && ps != null && requiredSize != null) {
+                new LocalStorageUtils().returnStorageCapacityToHost(destHostUuid, requiredSize.longValue(), ps);
+            }
+
+            logger.warn(String.format("bits of the volume[uuid:%s] may be left on the destination host[uuid:%s] of the local storage[uuid:%s]",
+                    volumeUuid, destHostUuid, psUuid));
+        }
+
+        Object originStatus = data.get(ORIGIN_VOLUME_STATUS);
+        if (originStatus != null) {
+            SQL.New(VolumeVO.class).eq(VolumeVO_.uuid, volumeUuid)
+                    .eq(VolumeVO_.status, VolumeStatus.Migrating)
+                    .set(VolumeVO_.status, VolumeStatus.valueOf(originStatus.toString()))
+                    .update();
+        }
+
+        journal.recoveryCompleted(record.getChainUuid());
+    }
+}
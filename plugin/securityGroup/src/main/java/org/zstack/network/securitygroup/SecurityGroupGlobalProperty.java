@@ -0,0 +1,11 @@
+package org.zstack.network.securitygroup;
+
+import org.zstack.core.GlobalProperty;
+import org.zstack.core.GlobalPropertyDefinition;
+
+@GlobalPropertyDefinition
+public class SecurityGroupGlobalProperty {
+    /* requires agents supporting deltas of group members, others are updated in full */
+    @GlobalProperty(name="SecurityGroup.memberDelta.enable", defaultValue = "false")
+    public static boolean MEMBER_DELTA_ENABLE;
+}
@@ -3,6 +3,8 @@ package org.zstack.network.securitygroup;
 import org.zstack.header.core.Completion;
 import org.zstack.header.host.HypervisorType;
 
+import static org.zstack.core.Platform.operr;
+
 public interface SecurityGroupHypervisorBackend {
     void applyRules(HostRuleTO hto, Completion complete);
 
@@ -10,6 +12,15 @@ public interface SecurityGroupHypervisorBackend {
 
     void updateGroupMembers(SecurityGroupMembersTO gto, String hostUuid, Completion completion);
 
+    /**
+     * fails if the host doesn't have members of the group at the base generation of the delta,
+     * members of the group are updated in full then
+     */
+    default void updateGroupMembersByDelta(SecurityGroupMembersDeltaTO dto, String hostUuid, Completion completion) {
+        completion.fail(operr("security group backend[hypervisorType:%s] doesn't support deltas of group members",
+                getSecurityGroupBackendHypervisorType()));
+    }
+
     void cleanUpUnusedRuleOnHost(String hostUuid, Completion completion);
     
     HypervisorType getSecurityGroupBackendHypervisorType();
@@ -1,6 +1,7 @@
 package org.zstack.network.securitygroup;
 
 import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
 import org.zstack.core.Platform;
@@ -71,6 +72,7 @@ import static org.zstack.utils.CollectionDSL.list;
 public class SecurityGroupManagerImpl extends AbstractService implements SecurityGroupManager, ManagementNodeReadyExtensionPoint,
         VmInstanceMigrateExtensionPoint, AddExpandedQueryExtensionPoint, ReportQuotaExtensionPoint, ValidateL3SecurityGroupExtensionPoint {
     private static CLogger logger = Utils.getLogger(SecurityGroupManagerImpl.class);
+    private static final int NIC_BATCH_SIZE = 1000;
 
     @Autowired
     private CloudBus bus;
@@ -138,7 +140,17 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
         private List<VmInstanceState> vmStates;
         private List<SecurityGroupState> sgStates;
 
+        // rules and member ips of groups compiled once in a calculation, by "sgUuid-ipVersion"
+        private final Map<String, List<RuleTO>> rulesBySecurityGroup = new HashMap<>();
+        private final Map<String, List<RuleTO>> baseRulesBySecurityGroup = new HashMap<>();
+        private final Map<String, List<String>> vmIpsBySecurityGroup = new HashMap<>();
+
         List<HostRuleTO> calculate() {
+            // groups may have changed since the last calculation
+            rulesBySecurityGroup.clear();
+            baseRulesBySecurityGroup.clear();
+            vmIpsBySecurityGroup.clear();
+
             if (sgStates == null) {
                 sgStates = new ArrayList<SecurityGroupState>();
                 sgStates.add(SecurityGroupState.Enabled);
@@ -275,33 +287,7 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
             List<RuleTO> ret = new ArrayList<>();
 
             for (String sgUuid : sgUuids) {
-                if (!Q.New(SecurityGroupVO.class).eq(SecurityGroupVO_.uuid, sgUuid).in(SecurityGroupVO_.state, sgStates).isExists()) {
-                    continue;
-                }
-                List<SecurityGroupRuleVO> rules = Q.New(SecurityGroupRuleVO.class).eq(SecurityGroupRuleVO_.securityGroupUuid, sgUuid)
-                        .eq(SecurityGroupRuleVO_.ipVersion, ipVersion)
-                        .isNull(SecurityGroupRuleVO_.remoteSecurityGroupUuid).list();
-                if (rules.isEmpty()) {
-                    continue;
-                }
-
-                for (SecurityGroupRuleVO r : rules) {
-                    if ( r.getRemoteSecurityGroupUuid() != null) {
-                        SecurityGroupVO remoteSg = Q.New(SecurityGroupVO.class).eq(SecurityGroupVO_.uuid, r.getRemoteSecurityGroupUuid()).in(SecurityGroupVO_.state, sgStates).find();
-                        if (remoteSg == null) {
-                            continue;
-                        }
-                    }
-                    RuleTO rto = new RuleTO();
-                    rto.setIpVersion(r.getIpVersion());
-                    rto.setAllowedCidr(r.getAllowedCidr());
-                    rto.setEndPort(r.getEndPort());
-                    rto.setProtocol(r.getProtocol().toString());
-                    rto.setStartPort(r.getStartPort());
-                    rto.setType(r.getType().toString());
-                    rto.setSecurityGroupUuid(r.getSecurityGroupUuid());
-                    ret.add(rto);
-                }
+                ret.addAll(rulesBySecurityGroup.computeIfAbsent(sgUuid + "-" + ipVersion, k -> compileRuleTOs(sgUuid, ipVersion)));
             }
 
             if (logger.isTraceEnabled()) {
@@ -316,35 +302,65 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
             return ret;
         }
 
+        private List<RuleTO> compileRuleTOs(String sgUuid, int ipVersion) {
+            List<RuleTO> ret = new ArrayList<>();
+            if (!Q.New(SecurityGroupVO.class).eq(SecurityGroupVO_.uuid, sgUuid).in(SecurityGroupVO_.state, sgStates).isExists()) {
+                return ret;
+            }
+
+            List<SecurityGroupRuleVO> rules = Q.New(SecurityGroupRuleVO.class).eq(SecurityGroupRuleVO_.securityGroupUuid, sgUuid)
+                    .eq(SecurityGroupRuleVO_.ipVersion, ipVersion)
+                    .isNull(SecurityGroupRuleVO_.remoteSecurityGroupUuid).list();
+            for (SecurityGroupRuleVO r : rules) {
+                RuleTO rto = new RuleTO();
+                rto.setIpVersion(r.getIpVersion());
+                rto.setAllowedCidr(r.getAllowedCidr());
+                rto.setEndPort(r.getEndPort());
+                rto.setProtocol(r.getProtocol().toString());
+                rto.setStartPort(r.getStartPort());
+                rto.setType(r.getType().toString());
+                rto.setSecurityGroupUuid(r.getSecurityGroupUuid());
+                ret.add(rto);
+            }
+
+            return ret;
+        }
+
         /* base rule is the rule with remote security group */
         private List<RuleTO> calculateSecurityGroupBaseRule(List<String> sgUuids, List<String> l3Uuids, int ipVersion){
             List<RuleTO> rules = new ArrayList<>();
-            for(String sgUuid : sgUuids){
-                String sql = "select r from SecurityGroupRuleVO r,SecurityGroupVO sg  where r.securityGroupUuid = :sgUuid and r.ipVersion = :ipVersion" +
-                        " and r.remoteSecurityGroupUuid is not null and r.remoteSecurityGroupUuid = sg.uuid and sg.state in (:sgStates)";
-                TypedQuery<SecurityGroupRuleVO> q = dbf.getEntityManager().createQuery(sql, SecurityGroupRuleVO.class);
-                q.setParameter("sgUuid", sgUuid);
-                q.setParameter("sgStates", sgStates);
-                q.setParameter("ipVersion", ipVersion);
-                List<SecurityGroupRuleVO> remoteRules = q.getResultList();
-
-                for(SecurityGroupRuleVO r : remoteRules){
-                    RuleTO rule = new RuleTO();
-                    rule.setIpVersion(r.getIpVersion());
-                    rule.setStartPort(r.getStartPort());
-                    rule.setEndPort(r.getEndPort());
-                    rule.setProtocol(r.getProtocol().toString());
-                    rule.setType(r.getType().toString());
-                    rule.setAllowedCidr(r.getAllowedCidr());
-                    rule.setSecurityGroupUuid(sgUuid);
-                    rule.setRemoteGroupUuid(r.getRemoteSecurityGroupUuid());
-                    // TODO: the same group only transport once
-                    rule.setRemoteGroupVmIps(getVmIpsBySecurityGroup(r.getRemoteSecurityGroupUuid(), r.getIpVersion()));
-                    rules.add(rule);
-                }
+            for (String sgUuid : sgUuids) {
+                rules.addAll(baseRulesBySecurityGroup.computeIfAbsent(sgUuid + "-" + ipVersion, k -> compileBaseRuleTOs(sgUuid, ipVersion)));
             }
             return rules;
+        }
 
+        private List<RuleTO> compileBaseRuleTOs(String sgUuid, int ipVersion) {
+            List<RuleTO> rules = new ArrayList<>();
+            String sql = "select r from SecurityGroupRuleVO r,SecurityGroupVO sg  where r.securityGroupUuid = :sgUuid and r.ipVersion = :ipVersion" +
+                    " and r.remoteSecurityGroupUuid is not null and r.remoteSecurityGroupUuid = sg.uuid and sg.state in (:sgStates)";
+            TypedQuery<SecurityGroupRuleVO> q = dbf.getEntityManager().createQuery(sql, SecurityGroupRuleVO.class);
+            q.setParameter("sgUuid", sgUuid);
+            q.setParameter("sgStates", sgStates);
+            q.setParameter("ipVersion", ipVersion);
+            List<SecurityGroupRuleVO> remoteRules = q.getResultList();
+
+            for(SecurityGroupRuleVO r : remoteRules){
+                RuleTO rule = new RuleTO();
+                rule.setIpVersion(r.getIpVersion());
+                rule.setStartPort(r.getStartPort());
+                rule.setEndPort(r.getEndPort());
+                rule.setProtocol(r.getProtocol().toString());
+                rule.setType(r.getType().toString());
+                rule.setAllowedCidr(r.getAllowedCidr());
+                rule.setSecurityGroupUuid(sgUuid);
+                rule.setRemoteGroupUuid(r.getRemoteSecurityGroupUuid());
+                // member ips of a group are loaded once in a calculation, and shared by its rules
+                rule.setRemoteGroupVmIps(vmIpsBySecurityGroup.computeIfAbsent(r.getRemoteSecurityGroupUuid() + "-" + r.getIpVersion(),
+                        k -> getVmIpsBySecurityGroup(r.getRemoteSecurityGroupUuid(), r.getIpVersion())));
+                rules.add(rule);
+            }
+            return rules;
         }
 
         private List<String> getVmIpsBySecurityGroup(String sgUuid, int ipVersion){
@@ -476,30 +492,39 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
             Map<String, HostRuleTO> hostRuleMap = new HashMap<String, HostRuleTO>();
             List<HostRuleTO> htos = new ArrayList<HostRuleTO>();
 
-            for (String nicUuid : vmNicUuids) {
+            // nics are loaded in batches instead of one by one
+            Map<String, List<Tuple>> tuplesByNic = new HashMap<>();
+            for (List<String> nicUuids : Lists.partition(vmNicUuids.stream().distinct().collect(Collectors.toList()), NIC_BATCH_SIZE)) {
                 List<Tuple> tuples;
                 if (vmStates != null && !vmStates.isEmpty()) {
-                    String sql = "select ref.securityGroupUuid, vm.hostUuid, vm.hypervisorType, nic.internalName, ip.l3NetworkUuid, nic.mac, ip.ip, ip.ipVersion" +
+                    String sql = "select ref.securityGroupUuid, vm.hostUuid, vm.hypervisorType, nic.internalName, ip.l3NetworkUuid, nic.mac, ip.ip, ip.ipVersion, nic.uuid" +
                                      " from VmNicSecurityGroupRefVO ref, VmInstanceVO vm, VmNicVO nic, SecurityGroupVO sg, UsedIpVO ip" +
-                                     " where ref.vmNicUuid = nic.uuid and nic.vmInstanceUuid = vm.uuid and ref.vmNicUuid = :nicUuid " +
+                                     " where ref.vmNicUuid = nic.uuid and nic.vmInstanceUuid = vm.uuid and ref.vmNicUuid in (:nicUuids) " +
                                      " and vm.state in (:vmStates) and ref.securityGroupUuid = sg.uuid and sg.state in (:sgStates) " +
                                      " and nic.uuid = ip.vmNicUuid";
                     TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql, Tuple.class);
-                    q.setParameter("nicUuid", nicUuid);
+                    q.setParameter("nicUuids", nicUuids);
                     q.setParameter("vmStates", vmStates);
                     q.setParameter("sgStates", sgStates);
                     tuples = q.getResultList();
                 } else {
-                    String sql = "select ref.securityGroupUuid, vm.hostUuid, vm.hypervisorType, nic.internalName, ip.l3NetworkUuid, nic.mac, ip.ip, ip.ipVersion" +
+                    String sql = "select ref.securityGroupUuid, vm.hostUuid, vm.hypervisorType, nic.internalName, ip.l3NetworkUuid, nic.mac, ip.ip, ip.ipVersion, nic.uuid" +
                             " from VmNicSecurityGroupRefVO ref, VmInstanceVO vm, VmNicVO nic, SecurityGroupVO sg, UsedIpVO ip" +
-                            " where ref.vmNicUuid = nic.uuid and nic.vmInstanceUuid = vm.uuid and ref.vmNicUuid = :nicUuid " +
+                            " where ref.vmNicUuid = nic.uuid and nic.vmInstanceUuid = vm.uuid and ref.vmNicUuid in (:nicUuids) " +
                             " and ref.securityGroupUuid = sg.uuid and sg.state in (:sgStates) and nic.uuid = ip.vmNicUuid";
                     TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql, Tuple.class);
-                    q.setParameter("nicUuid", nicUuid);
+                    q.setParameter("nicUuids", nicUuids);
                     q.setParameter("sgStates", sgStates);
                     tuples = q.getResultList();
                 }
 
+                for (Tuple t : tuples) {
+                    tuplesByNic.computeIfAbsent(t.get(8, String.class), k -> new ArrayList<>()).add(t);
+                }
+            }
+
+            for (String nicUuid : vmNicUuids) {
+                List<Tuple> tuples = tuplesByNic.getOrDefault(nicUuid, Collections.emptyList());
                 if (tuples.isEmpty()) {
                     // vm is not in vmStates or not in security group
                     continue;
@@ -649,6 +674,7 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
     private void handle(SecurityGroupDeletionMsg msg) {
         SecurityGroupDeletionReply reply = new SecurityGroupDeletionReply();
         dbf.removeByPrimaryKey(msg.getUuid(), SecurityGroupVO.class);
+        SecurityGroupMembersTracker.forgetGroup(msg.getUuid());
         bus.reply(msg, reply);
     }
 
@@ -700,10 +726,10 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
             Q.New(SecurityGroupVO.class)
                 .select(SecurityGroupVO_.uuid).in(SecurityGroupVO_.uuid, msg.getSgUuids())
                 .eq(SecurityGroupVO_.state, SecurityGroupState.Enabled).listValues().forEach(sgUuid -> {
+                    // members of the group on the host may have been cleaned up with the vm
+                    SecurityGroupMembersTracker.forget(msg.getHostUuid(), (String) sgUuid);
                     HostSecurityGroupMembersTO groupMemberTO = cal.returnHostSecurityGroupMember((String) sgUuid);
-                    if (!groupMemberTO.getHostUuids().isEmpty()) {
-                        updateGroupMembers(groupMemberTO);
-                    }
+                    updateGroupMembers(groupMemberTO);
                 });
         }
 
@@ -717,12 +743,17 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
     }
 
     private void createFailureHostTask(String huuid) {
+        // the host will be refreshed in full
+        SecurityGroupMembersTracker.forgetHost(huuid);
+
         SecurityGroupFailureHostVO fvo = new SecurityGroupFailureHostVO();
         fvo.setHostUuid(huuid);
         dbf.persist(fvo);
     }
 
     private void handle(RefreshSecurityGroupRulesOnHostMsg msg) {
+        SecurityGroupMembersTracker.forgetHost(msg.getHostUuid());
+
         RuleCalculator cal = new RuleCalculator();
         cal.hostUuids = asList(msg.getHostUuid());
         // refreshing may happen when host is reconnecting; at that time VMs' states are Unknown
@@ -908,9 +939,7 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
 
             applyRules(htos);
             HostSecurityGroupMembersTO groupMemberTO = cal.returnHostSecurityGroupMember(msg.getUuid());
-            if (!groupMemberTO.getHostUuids().isEmpty()) {
-                updateGroupMembers(groupMemberTO);
-            }
+            updateGroupMembers(groupMemberTO);
         } else {
             List<SecurityGroupRuleVO> rvos = Q.New(SecurityGroupRuleVO.class).eq(SecurityGroupRuleVO_.securityGroupUuid, msg.getUuid()).list();
             for (SecurityGroupRuleVO rvo : rvos) {
@@ -993,9 +1022,7 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
 
         // update security group member
         HostSecurityGroupMembersTO groupMemberTO = cal.returnHostSecurityGroupMember(sgUuid);
-        if(!groupMemberTO.getHostUuids().isEmpty()){
-            updateGroupMembers(groupMemberTO);
-        }
+        updateGroupMembers(groupMemberTO);
     }
 
     private void handle(APIDeleteVmNicFromSecurityGroupMsg msg) {
@@ -1053,6 +1080,7 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
             applyRules(rhtos);
         }
 
+        SecurityGroupMembersTracker.forgetGroup(uuid);
         HostSecurityGroupMembersTO groupMemberTO = cal.returnHostSecurityGroupMember(uuid);
         if(!groupMemberTO.getHostUuids().isEmpty()){
             groupMemberTO.getGroupMembersTO().setActionCode(ACTION_CODE_DELETE_GROUP);
@@ -1071,6 +1099,7 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
         HostSecurityGroupMembersTO groupMemberTO = cal.returnHostSecurityGroupMember(msg.getUuid());
 
         dbf.removeByPrimaryKey(msg.getUuid(), SecurityGroupVO.class);
+        SecurityGroupMembersTracker.forgetGroup(msg.getUuid());
 
         if (!vmNicUuids.isEmpty()) {
             cal.vmNicUuids = vmNicUuids;
@@ -1205,9 +1234,7 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
             }
 
             HostSecurityGroupMembersTO groupMemberTO = cal.returnHostSecurityGroupMember(msg.getSecurityGroupUuid());
-            if (!groupMemberTO.getHostUuids().isEmpty()) {
-                updateGroupMembers(groupMemberTO);
-            }
+            updateGroupMembers(groupMemberTO);
         }
 
         logger.debug(String.format("successfully added vm nics%s to security group[uuid:%s]", msg.getVmNicUuids(), msg.getSecurityGroupUuid()));
@@ -1277,24 +1304,89 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
     }
 
     private void updateGroupMembers(HostSecurityGroupMembersTO gto){
+        SecurityGroupMembersTO mto = gto.getGroupMembersTO();
+        if (ACTION_CODE_DELETE_GROUP.equals(mto.getActionCode())) {
+            SecurityGroupMembersTracker.forgetGroup(mto.getSecurityGroupUuid());
+        } else {
+            // hosts no longer having nics in the group may clean up its members
+            SecurityGroupMembersTracker.retainHosts(mto.getSecurityGroupUuid(), gto.getHostUuids());
+        }
+
         for(String hostUuid : gto.getHostUuids()){
             SecurityGroupHypervisorBackend bkend = hypervisorBackends.get(gto.getHypervisorType());
-            bkend.updateGroupMembers(gto.getGroupMembersTO(), hostUuid, new Completion(null) {
-                @Override
-                public void success() {
-                    logger.debug(String.format("successfully update security group[uuid:%s] member on host[uuid:%s]",
-                            gto.getGroupMembersTO().getSecurityGroupUuid(),  hostUuid));
-                }
+            if (!SecurityGroupGlobalProperty.MEMBER_DELTA_ENABLE || ACTION_CODE_DELETE_GROUP.equals(mto.getActionCode())) {
+                updateGroupMembersInFull(bkend, mto, hostUuid);
+                continue;
+            }
 
-                @Override
-                public void fail(ErrorCode errorCode) {
-                    logger.warn(String.format("fail to update security group[uuid:%s] member on host[uuid:%s]",
-                            gto.getGroupMembersTO().getSecurityGroupUuid(),  hostUuid));
-                }
-            });
+            SecurityGroupMembersTracker.Change change = SecurityGroupMembersTracker.change(hostUuid,
+                    mto.getSecurityGroupUuid(), mto.getSecurityGroupVmIps(), mto.getSecurityGroupVmIp6s());
+            if (change == null) {
+                logger.debug(String.format("members of security group[uuid:%s] on host[uuid:%s] are up to date",
+                        mto.getSecurityGroupUuid(), hostUuid));
+            } else if (change.isFull()) {
+                updateGroupMembersInFull(bkend, membersTOAt(mto, change.next.generation), hostUuid);
+            } else {
+                updateGroupMembersByDelta(bkend, mto, change, hostUuid);
+            }
         }
     }
 
+    private SecurityGroupMembersTO membersTOAt(SecurityGroupMembersTO mto, long generation) {
+        SecurityGroupMembersTO ret = new SecurityGroupMembersTO();
+        ret.setSecurityGroupUuid(mto.getSecurityGroupUuid());
+        ret.setSecurityGroupVmIps(mto.getSecurityGroupVmIps());
+        ret.setSecurityGroupVmIp6s(mto.getSecurityGroupVmIp6s());
+        ret.setActionCode(mto.getActionCode());
+        ret.setGeneration(generation);
+        return ret;
+    }
+
+    private void updateGroupMembersInFull(SecurityGroupHypervisorBackend bkend, SecurityGroupMembersTO mto, String hostUuid) {
+        bkend.updateGroupMembers(mto, hostUuid, new Completion(null) {
+            @Override
+            public void success() {
+                logger.debug(String.format("successfully update security group[uuid:%s] member on host[uuid:%s]",
+                        mto.getSecurityGroupUuid(),  hostUuid));
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                logger.warn(String.format("fail to update security group[uuid:%s] member on host[uuid:%s]",
+                        mto.getSecurityGroupUuid(),  hostUuid));
+                SecurityGroupMembersTracker.forget(hostUuid, mto.getSecurityGroupUuid(), mto.getGeneration());
+            }
+        });
+    }
+
+    private void updateGroupMembersByDelta(SecurityGroupHypervisorBackend bkend, SecurityGroupMembersTO mto,
+                                           SecurityGroupMembersTracker.Change change, String hostUuid) {
+        SecurityGroupMembersDeltaTO dto = change.toDeltaTO(mto.getSecurityGroupUuid());
+        bkend.updateGroupMembersByDelta(dto, hostUuid, new Completion(null) {
+            @Override
+            public void success() {
+                logger.debug(String.format("successfully update security group[uuid:%s] member on host[uuid:%s] by delta," +
+                                " added %s ips, removed %s ips", mto.getSecurityGroupUuid(), hostUuid,
+                        dto.getAddedVmIps().size() + dto.getAddedVmIp6s().size(),
+                        dto.getRemovedVmIps().size() + dto.getRemovedVmIp6s().size()));
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                if (!SecurityGroupMembersTracker.isCurrent(hostUuid, mto.getSecurityGroupUuid(), change.next.generation)) {
+                    // a later change has been sent, which falls back to a full update by itself if needed
+                    logger.debug(String.format("failed to update security group[uuid:%s] member on host[uuid:%s] by delta," +
+                            " skip it as it's replaced by a later change, because %s", mto.getSecurityGroupUuid(), hostUuid, errorCode));
+                    return;
+                }
+
+                logger.debug(String.format("failed to update security group[uuid:%s] member on host[uuid:%s] by delta," +
+                        " update it in full, because %s", mto.getSecurityGroupUuid(), hostUuid, errorCode));
+                updateGroupMembersInFull(bkend, membersTOAt(mto, change.next.generation), hostUuid);
+            }
+        });
+    }
+
     private void handle(APIAddSecurityGroupRuleMsg msg) {
         APIAddSecurityGroupRuleEvent evt = new APIAddSecurityGroupRuleEvent(msg.getId());
         SecurityGroupVO securityGroupVO = addRuleToSecurityGroup(msg);
@@ -1655,6 +1747,8 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
             }
 
             for (final SecurityGroupFailureHostVO vo : vos) {
+                SecurityGroupMembersTracker.forgetHost(vo.getHostUuid());
+
                 RuleCalculator cal = new RuleCalculator();
                 cal.hostUuids = asList(vo.getHostUuid());
                 cal.vmStates = asList(VmInstanceState.Running);
@@ -0,0 +1,73 @@
+package org.zstack.network.securitygroup;
+
+import java.util.List;
+
+/**
+ * member ips added to and removed from a security group since the generation of the group on a host
+ */
+public class SecurityGroupMembersDeltaTO {
+    private String securityGroupUuid;
+    private List<String> addedVmIps;
+    private List<String> removedVmIps;
+    private List<String> addedVmIp6s;
+    private List<String> removedVmIp6s;
+    // the host applies the delta only if its members of the group are at this generation
+    private long baseGeneration;
+    private long generation;
+
+    public String getSecurityGroupUuid() {
+        return securityGroupUuid;
+    }
+
+    public void setSecurityGroupUuid(String securityGroupUuid) {
+        this.securityGroupUuid = securityGroupUuid;
+    }
+
+    public List<String> getAddedVmIps() {
+        return addedVmIps;
+    }
+
+    public void setAddedVmIps(List<String> addedVmIps) {
+        this.addedVmIps = addedVmIps;
+    }
+
+    public List<String> getRemovedVmIps() {
+        return removedVmIps;
+    }
+
+    public void setRemovedVmIps(List<String> removedVmIps) {
+        this.removedVmIps = removedVmIps;
+    }
+
+    public List<String> getAddedVmIp6s() {
+        return addedVmIp6s;
+    }
+
+    public void setAddedVmIp6s(List<String> addedVmIp6s) {
+        this.addedVmIp6s = addedVmIp6s;
+    }
+
+    public List<String> getRemovedVmIp6s() {
+        return removedVmIp6s;
+    }
+
+    public void setRemovedVmIp6s(List<String> removedVmIp6s) {
+        this.removedVmIp6s = removedVmIp6s;
+    }
+
+    public long getBaseGeneration() {
+        return baseGeneration;
+    }
+
+    public void setBaseGeneration(long baseGeneration) {
+        this.baseGeneration = baseGeneration;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public void setGeneration(long generation) {
+        this.generation = generation;
+    }
+}
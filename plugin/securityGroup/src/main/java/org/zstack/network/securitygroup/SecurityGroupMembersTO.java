@@ -13,6 +13,8 @@ public class SecurityGroupMembersTO {
     private List<String> securityGroupVmIps;
     private List<String> securityGroupVmIp6s;
     private String actionCode = ACTION_CODE_UPDATE_GROUP_MEMBER;
+    // 0 if members of the group on hosts are not tracked
+    private long generation;
 
     public void setSecurityGroupUuid(String securityGroupUuid) {
         this.securityGroupUuid = securityGroupUuid;
@@ -45,4 +47,12 @@ public class SecurityGroupMembersTO {
     public void setSecurityGroupVmIp6s(List<String> securityGroupVmIp6s) {
         this.securityGroupVmIp6s = securityGroupVmIp6s;
     }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public void setGeneration(long generation) {
+        this.generation = generation;
+    }
 }
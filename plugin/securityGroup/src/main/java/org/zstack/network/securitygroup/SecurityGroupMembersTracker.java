@@ -0,0 +1,128 @@
+package org.zstack.network.securitygroup;
+
+import org.zstack.core.agent.HostGenerationTracker;
+
+import java.util.*;
+
+/**
+ * members of security groups the management node believes hosts have, so updating members of a
+ * group sends hosts only the ips added and removed since the last update.
+ *
+ * Members of a group on a host are forgotten, and sent in full next time, when an update fails,
+ * rules on the host fail to apply, rules of the host or of a vm on the host are refreshed, or the
+ * host has no nics in the group. See HostGenerationTracker for generations.
+ */
+class SecurityGroupMembersTracker {
+    // members by security group uuid, by host uuid
+    private static final HostGenerationTracker<Members> hosts = new HostGenerationTracker<>();
+
+    static class Members implements HostGenerationTracker.Generational {
+        final long generation;
+        final Set<String> ips;
+        final Set<String> ip6s;
+
+        Members(long generation, Set<String> ips, Set<String> ip6s) {
+            this.generation = generation;
+            this.ips = ips;
+            this.ip6s = ip6s;
+        }
+
+        @Override
+        public long getGeneration() {
+            return generation;
+        }
+
+        boolean sameAs(Set<String> ips, Set<String> ip6s) {
+            return this.ips.equals(ips) && this.ip6s.equals(ip6s);
+        }
+
+        static List<String> minus(Set<String> a, Set<String> b) {
+            List<String> ret = new ArrayList<>(a);
+            ret.removeAll(b);
+            return ret;
+        }
+    }
+
+    static class Change {
+        // null if members of the group on the host are unknown
+        final Members previous;
+        final Members next;
+
+        Change(Members previous, Members next) {
+            this.previous = previous;
+            this.next = next;
+        }
+
+        boolean isFull() {
+            return previous == null;
+        }
+
+        SecurityGroupMembersDeltaTO toDeltaTO(String sgUuid) {
+            SecurityGroupMembersDeltaTO dto = new SecurityGroupMembersDeltaTO();
+            dto.setSecurityGroupUuid(sgUuid);
+            dto.setAddedVmIps(Members.minus(next.ips, previous.ips));
+            dto.setRemovedVmIps(Members.minus(previous.ips, next.ips));
+            dto.setAddedVmIp6s(Members.minus(next.ip6s, previous.ip6s));
+            dto.setRemovedVmIp6s(Members.minus(previous.ip6s, next.ip6s));
+            dto.setBaseGeneration(previous.generation);
+            dto.setGeneration(next.generation);
+            return dto;
+        }
+    }
+
+    /**
+     * records the members a host is going to have
+     *
+     * @return null if the host has had the members
+     */
+    static Change change(String hostUuid, String sgUuid, Collection<String> ips, Collection<String> ip6s) {
+        Set<String> ipSet = ips == null ? Collections.emptySet() : new HashSet<>(ips);
+        Set<String> ip6Set = ip6s == null ? Collections.emptySet() : new HashSet<>(ip6s);
+
+        return hosts.withHost(hostUuid, groups -> {
+            Members previous = groups.get(sgUuid);
+            if (previous != null && previous.sameAs(ipSet, ip6Set)) {
+                return null;
+            }
+
+            Members next = new Members(hosts.nextGeneration(), ipSet, ip6Set);
+            groups.put(sgUuid, next);
+            return new Change(previous, next);
+        });
+    }
+
+    /**
+     * forgets members of the group on the host if they're still the given generation, a later
+     * change has replaced them otherwise
+     */
+    static void forget(String hostUuid, String sgUuid, long generation) {
+        hosts.forget(hostUuid, sgUuid, generation);
+    }
+
+    static void forget(String hostUuid, String sgUuid) {
+        hosts.forget(hostUuid, sgUuid);
+    }
+
+    /**
+     * forgets members of the group on hosts other than the given ones
+     */
+    static void retainHosts(String sgUuid, Collection<String> hostUuids) {
+        hosts.retainHosts(sgUuid, hostUuids);
+    }
+
+    static void forgetHost(String hostUuid) {
+        hosts.forgetHost(hostUuid);
+    }
+
+    static void forgetGroup(String sgUuid) {
+        hosts.forgetKey(sgUuid);
+    }
+
+    static boolean isCurrent(String hostUuid, String sgUuid, long generation) {
+        return hosts.isCurrent(hostUuid, sgUuid, generation);
+    }
+
+    static Members get(String hostUuid, String sgUuid) {
+        return hosts.get(hostUuid, sgUuid);
+    }
+}
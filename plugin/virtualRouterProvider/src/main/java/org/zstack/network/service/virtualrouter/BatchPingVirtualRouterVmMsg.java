@@ -0,0 +1,20 @@
+package org.zstack.network.service.virtualrouter;
+
+import org.zstack.header.message.NeedReplyMessage;
+
+import java.util.List;
+
+/**
+ * ping a batch of virtual router vms managed by the same management node
+ */
+public class BatchPingVirtualRouterVmMsg extends NeedReplyMessage {
+    private List<String> virtualRouterVmUuids;
+
+    public List<String> getVirtualRouterVmUuids() {
+        return virtualRouterVmUuids;
+    }
+
+    public void setVirtualRouterVmUuids(List<String> virtualRouterVmUuids) {
+        this.virtualRouterVmUuids = virtualRouterVmUuids;
+    }
+}
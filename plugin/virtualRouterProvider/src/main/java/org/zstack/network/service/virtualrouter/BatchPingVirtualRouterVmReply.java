@@ -0,0 +1,21 @@
+package org.zstack.network.service.virtualrouter;
+
+import org.zstack.header.message.MessageReply;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * ping results keyed by virtual router vm uuid, a failed ping is a reply with error set
+ */
+public class BatchPingVirtualRouterVmReply extends MessageReply {
+    private Map<String, PingVirtualRouterVmReply> replies = new HashMap<>();
+
+    public Map<String, PingVirtualRouterVmReply> getReplies() {
+        return replies;
+    }
+
+    public void setReplies(Map<String, PingVirtualRouterVmReply> replies) {
+        this.replies = replies;
+    }
+}
@@ -13,8 +13,6 @@ import org.zstack.core.db.Q;
 import org.zstack.core.db.SQL;
 import org.zstack.core.db.SimpleQuery;
 import org.zstack.core.db.SimpleQuery.Op;
-import org.zstack.core.retry.Retry;
-import org.zstack.core.retry.RetryCondition;
 import org.zstack.core.thread.ChainTask;
 import org.zstack.core.thread.SyncTaskChain;
 import org.zstack.core.workflow.FlowChainBuilder;
@@ -42,8 +40,6 @@ import org.zstack.header.rest.RESTFacade;
 import org.zstack.header.vm.*;
 import org.zstack.network.service.MtuGetter;
 import org.zstack.network.service.vip.*;
-import org.zstack.network.service.virtualrouter.VirtualRouterCommands.PingCmd;
-import org.zstack.network.service.virtualrouter.VirtualRouterCommands.PingRsp;
 import org.zstack.network.service.virtualrouter.VirtualRouterConstant.Param;
 import org.zstack.network.service.virtualrouter.ha.VirtualRouterHaBackend;
 import org.zstack.network.service.virtualrouter.lifecycle.TrackVirtualRouterVmFlow;
@@ -181,56 +177,6 @@ public class VirtualRouter extends ApplianceVmBase {
         }
     }
 
-    void doPing(String vrUuid, ReturnValueCompletion<PingVirtualRouterVmReply> completion) {
-        PingCmd cmd = new PingCmd();
-        cmd.setUuid(vrUuid);
-        restf.asyncJsonPost(buildUrl(vr.getManagementNic().getIp(), VirtualRouterConstant.VR_PING), cmd, new JsonAsyncRESTCallback<PingRsp>(completion) {
-            @Override
-            public void fail(ErrorCode err) {
-                completion.fail(err);
-            }
-
-            @Override
-            public void success(PingRsp ret) {
-                PingVirtualRouterVmReply reply = new PingVirtualRouterVmReply(self.getUuid());
-
-                refreshVO();
-                if (getSelf().getStatus() == ApplianceVmStatus.Connecting
-                        || getSelf().getState() == VmInstanceState.Rebooting) {
-                    reply.setDoReconnect(false);
-                } else {
-                    reply.setDoReconnect(true);
-                }
-
-                if (!ret.isSuccess()) {
-                    logger.warn(String.format("failed to ping the virtual router vm[uuid:%s], %s. We will reconnect it soon", self.getUuid(), ret.getError()));
-                    reply.setConnected(false);
-                } else {
-                    boolean connected = self.getUuid().equals(ret.getUuid());
-                    if (!connected) {
-                        logger.warn(String.format("a signature lost on the virtual router vm[uuid:%s] changed, it's probably caused by the agent restart. We will issue a reconnect soon", self.getUuid()));
-                    } else {
-                        connected = ApplianceVmStatus.Connected == getSelf().getStatus();
-                    }
-                    reply.setConnected(connected);
-                    reply.setHaStatus(ret.getHaStatus());
-                    if ((ret.getHealthy() != null) && (!ret.getHealthy()) && (ret.getHealthDetail() != null)) {
-                        fireServiceUnhealthyCanonicalEvent(inerr("virtual router %s unhealthy, detail %s", getSelf().getUuid(), ret.getHealthDetail()));
-                    } else {
-                        fireServicehealthyCanonicalEvent();
-                    }
-                    reply.setServiceHealthList(ret.getServiceHealthList());
-                }
-                completion.success(reply);
-            }
-
-            @Override
-            public Class<PingRsp> getReturnClass() {
-                return PingRsp.class;
-            }
-        }, TimeUnit.SECONDS, (long)ApplianceVmGlobalConfig.CONNECT_TIMEOUT.value(Integer.class));
-    }
-
     private void handle(final VirtualRouterOverlayInnerMsg msg) {
         NeedReplyMessage originMsg =  msg.getMessage();
 
@@ -391,65 +337,23 @@ public class VirtualRouter extends ApplianceVmBase {
         thdf.chainSubmit(new ChainTask(msg) {
             @Override
             public String getSyncSignature() {
-                return String.format("ping-virtualrouter-%s", self.getUuid());
+                return VirtualRouterPinger.getSyncSignature(self.getUuid());
             }
 
             @Override
             public void run(final SyncTaskChain chain) {
-                final PingVirtualRouterVmReply reply = new PingVirtualRouterVmReply(self.getUuid());
-                if ((VmInstanceState.Running != self.getState() && VmInstanceState.Unknown != self.getState())
-                        || ApplianceVmStatus.Connecting == getSelf().getStatus()) {
-                    reply.setDoReconnect(false);
-                    bus.reply(msg, reply);
-                    chain.next();
-                    return;
-                }
+                new VirtualRouterPinger(self.getUuid()).ping(new ReturnValueCompletion<PingVirtualRouterVmReply>(msg, chain) {
+                    @Override
+                    public void success(PingVirtualRouterVmReply reply) {
+                        bus.reply(msg, reply);
+                        chain.next();
+                    }
 
-                /* retry 3 times */
-                List<Integer> steps = new ArrayList<>();
-                for (int i = 0; i < 3; i++) {
-                    steps.add(i);
-                }
-                List<PingVirtualRouterVmReply> replies = new ArrayList<>();
-                new While<>(steps).each((s, wcompl) -> {
-                    doPing(self.getUuid(), new ReturnValueCompletion<PingVirtualRouterVmReply>(wcompl) {
-                        @Override
-                        public void success(PingVirtualRouterVmReply returnValue) {
-                            replies.clear();
-                            replies.add(returnValue);
-                            wcompl.allDone();
-                        }
-
-                        @Override
-                        public void fail(ErrorCode errorCode) {
-                            logger.warn(String.format("failed to ping the virtual router vm[uuid:%s], %s. We will try again", self.getUuid(), reply.getError()));
-                            PingVirtualRouterVmReply reply1 = new PingVirtualRouterVmReply(self.getUuid());
-
-                            reply1.setDoReconnect(true);
-                            reply1.setConnected(false);
-                            reply1.setError(errorCode);
-                            replies.add(reply1);
-                            /* wait 1 second and try again */
-                            new Retry<Boolean>() {
-                                @Override
-                                @RetryCondition(times = 1, interval = 1)
-                                protected Boolean call() {
-                                    return false;
-                                }
-                            }.run();
-                            wcompl.done();
-                        }
-                    });
-                }).run(new WhileDoneCompletion(chain) {
                     @Override
-                    public void done(ErrorCodeList errorCodeList) {
-                        if (replies.isEmpty()) {
-                            /* this happen in UT case */
-                            PingVirtualRouterVmReply reply1 = new PingVirtualRouterVmReply(self.getUuid());
-                            reply1.setConnected(true);
-                            replies.add(reply1);
-                        }
-                        bus.reply(msg, replies.get(0));
+                    public void fail(ErrorCode errorCode) {
+                        PingVirtualRouterVmReply reply = new PingVirtualRouterVmReply(self.getUuid());
+                        reply.setError(errorCode);
+                        bus.reply(msg, reply);
                         chain.next();
                     }
                 });
@@ -460,8 +364,6 @@ public class VirtualRouter extends ApplianceVmBase {
                 return "ping-virtual-router";
             }
         });
-
-
     }
 
     private void provisionConfig(Message msg, final Completion completion) {
@@ -22,6 +22,8 @@ public class VirtualRouterGlobalConfig {
     public static GlobalConfig PING_INTERVAL = new GlobalConfig(CATEGORY, "ping.interval");
     @GlobalConfigValidation
     public static GlobalConfig PING_PARALLELISM_DEGREE = new GlobalConfig(CATEGORY, "ping.parallelismDegree");
+    @GlobalConfigValidation(numberGreaterThan = -1)
+    public static GlobalConfig PING_BATCH_SIZE = new GlobalConfig(CATEGORY, "ping.batchSize");
     @GlobalConfigValidation
     public static GlobalConfig SSH_USERNAME = new GlobalConfig(CATEGORY, "ssh.username");
     @GlobalConfigValidation
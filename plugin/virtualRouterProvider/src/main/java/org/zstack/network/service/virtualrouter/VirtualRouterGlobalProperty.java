@@ -23,4 +23,6 @@ public class VirtualRouterGlobalProperty {
     public static List<String> UDP_PORTS_ON_MGMT_NIC;
     @GlobalProperty(name="VirtualRouter.enableMultiSnat", defaultValue = "true")
     public static boolean ENABLE_MULTI_SNAT;
+    @GlobalProperty(name="VirtualRouter.lbConfigDiff.enable", defaultValue = "false")
+    public static boolean LB_CONFIG_DIFF_ENABLE;
 }
@@ -196,11 +196,56 @@ public class VirtualRouterManagerImpl extends AbstractService implements Virtual
             handle((CreateVirtualRouterVmMsg) msg);
         } else if (msg instanceof CheckVirtualRouterVmVersionMsg) {
             handle((CheckVirtualRouterVmVersionMsg) msg);
+        } else if (msg instanceof BatchPingVirtualRouterVmMsg) {
+            handle((BatchPingVirtualRouterVmMsg) msg);
         } else {
             bus.dealWithUnknownMessage(msg);
         }
     }
 
+    private void handle(final BatchPingVirtualRouterVmMsg msg) {
+        BatchPingVirtualRouterVmReply reply = new BatchPingVirtualRouterVmReply();
+
+        // ping in the chains the vms use for PingVirtualRouterVmMsg, without a message per vm
+        new While<>(msg.getVirtualRouterVmUuids()).step((vrUuid, wcompl) -> thdf.chainSubmit(new ChainTask(wcompl) {
+            @Override
+            public String getSyncSignature() {
+                return VirtualRouterPinger.getSyncSignature(vrUuid);
+            }
+
+            @Override
+            public void run(SyncTaskChain chain) {
+                new VirtualRouterPinger(vrUuid).ping(new ReturnValueCompletion<PingVirtualRouterVmReply>(wcompl, chain) {
+                    @Override
+                    public void success(PingVirtualRouterVmReply r) {
+                        synchronized (reply) {
+                            reply.getReplies().put(vrUuid, r);
+                        }
+                        wcompl.done();
+                        chain.next();
+                    }
+
+                    @Override
+                    public void fail(ErrorCode errorCode) {
+                        PingVirtualRouterVmReply r = new PingVirtualRouterVmReply(vrUuid);
+                        r.setError(errorCode);
+                        success(r);
+                    }
+                });
+            }
+
+            @Override
+            public String getName() {
+                return "ping-virtual-router";
+            }
+        }), VirtualRouterGlobalConfig.PING_PARALLELISM_DEGREE.value(Integer.class)).run(new WhileDoneCompletion(msg) {
+            @Override
+            public void done(ErrorCodeList errorCodeList) {
+                bus.reply(msg, reply);
+            }
+        });
+    }
+
     private void handle(final CreateVirtualRouterVmMsg msg) {
         thdf.chainSubmit(new ChainTask(msg) {
             @Override
@@ -738,6 +783,8 @@ public class VirtualRouterManagerImpl extends AbstractService implements Virtual
                         .collect(Collectors.toList());
 
                 SQL.New(SystemTagVO.class).in(SystemTagVO_.tag, tags).delete();
+                // tags of any resource may be referring to the offerings
+                tagMgr.evictSystemTagIndex(null);
             }
         }
 
@@ -23,7 +23,10 @@ import org.zstack.utils.Utils;
 import org.zstack.utils.function.Function;
 import org.zstack.utils.logging.CLogger;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Created by frank on 6/29/2015.
@@ -50,6 +53,33 @@ public class VirtualRouterPingTracker extends PingTracker implements ManagementN
         return msg;
     }
 
+    @Override
+    protected boolean isBatchPing() {
+        return VirtualRouterGlobalConfig.PING_BATCH_SIZE.value(Integer.class) > 0;
+    }
+
+    @Override
+    protected int getBatchPingSize() {
+        return VirtualRouterGlobalConfig.PING_BATCH_SIZE.value(Integer.class);
+    }
+
+    @Override
+    protected NeedReplyMessage getBatchPingMessage(List<String> resUuids) {
+        BatchPingVirtualRouterVmMsg msg = new BatchPingVirtualRouterVmMsg();
+        msg.setVirtualRouterVmUuids(new ArrayList<>(resUuids));
+        bus.makeLocalServiceId(msg, VirtualRouterConstant.SERVICE_ID);
+        return msg;
+    }
+
+    @Override
+    protected Map<String, MessageReply> splitBatchPingReply(List<String> resUuids, MessageReply reply) {
+        if (!reply.isSuccess()) {
+            return super.splitBatchPingReply(resUuids, reply);
+        }
+
+        return new HashMap<>(((BatchPingVirtualRouterVmReply) reply).getReplies());
+    }
+
     @Override
     public int getPingInterval() {
         return VirtualRouterGlobalConfig.PING_INTERVAL.value(Integer.class);
@@ -0,0 +1,193 @@
+package org.zstack.network.service.virtualrouter;
+
+import org.springframework.beans.factory.annotation.Autowire;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Configurable;
+import org.zstack.appliancevm.ApplianceVmCanonicalEvents;
+import org.zstack.appliancevm.ApplianceVmGlobalConfig;
+import org.zstack.appliancevm.ApplianceVmStatus;
+import org.zstack.core.asyncbatch.While;
+import org.zstack.core.cloudbus.EventFacade;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.retry.Retry;
+import org.zstack.core.retry.RetryCondition;
+import org.zstack.header.core.ReturnValueCompletion;
+import org.zstack.header.core.WhileDoneCompletion;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.header.errorcode.ErrorCodeList;
+import org.zstack.header.rest.JsonAsyncRESTCallback;
+import org.zstack.header.rest.RESTFacade;
+import org.zstack.header.vm.VmInstanceState;
+import org.zstack.network.service.virtualrouter.VirtualRouterCommands.PingCmd;
+import org.zstack.network.service.virtualrouter.VirtualRouterCommands.PingRsp;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.zstack.core.Platform.inerr;
+import static org.zstack.core.Platform.operr;
+
+/**
+ * pings the agent of a virtual router vm, used by the vm for PingVirtualRouterVmMsg and by
+ * the manager for every vm of a BatchPingVirtualRouterVmMsg. Callers run it in the chain
+ * of getSyncSignature(), the completion always succeeds with a reply carrying the result
+ */
+@Configurable(preConstruction = true, autowire = Autowire.BY_TYPE)
+public class VirtualRouterPinger {
+    private static final CLogger logger = Utils.getLogger(VirtualRouterPinger.class);
+
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private RESTFacade restf;
+    @Autowired
+    private EventFacade evtf;
+    @Autowired
+    private VirtualRouterManager vrMgr;
+
+    private final String vrUuid;
+
+    public VirtualRouterPinger(String vrUuid) {
+        this.vrUuid = vrUuid;
+    }
+
+    public static String getSyncSignature(String vrUuid) {
+        return String.format("ping-virtualrouter-%s", vrUuid);
+    }
+
+    public void ping(ReturnValueCompletion<PingVirtualRouterVmReply> completion) {
+        VirtualRouterVmVO vo = dbf.findByUuid(vrUuid, VirtualRouterVmVO.class);
+        if (vo == null) {
+            PingVirtualRouterVmReply reply = new PingVirtualRouterVmReply(vrUuid);
+            reply.setError(operr("virtual router vm[uuid:%s] not found", vrUuid));
+            completion.success(reply);
+            return;
+        }
+
+        if ((VmInstanceState.Running != vo.getState() && VmInstanceState.Unknown != vo.getState())
+                || ApplianceVmStatus.Connecting == vo.getStatus()) {
+            PingVirtualRouterVmReply reply = new PingVirtualRouterVmReply(vrUuid);
+            reply.setDoReconnect(false);
+            completion.success(reply);
+            return;
+        }
+
+        String mgmtIp = new VirtualRouterVmInventory(vo).getManagementNic().getIp();
+
+        /* retry 3 times */
+        List<Integer> steps = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            steps.add(i);
+        }
+        List<PingVirtualRouterVmReply> replies = new ArrayList<>();
+        new While<>(steps).each((s, wcompl) -> {
+            doPing(mgmtIp, new ReturnValueCompletion<PingVirtualRouterVmReply>(wcompl) {
+                @Override
+                public void success(PingVirtualRouterVmReply returnValue) {
+                    replies.clear();
+                    replies.add(returnValue);
+                    wcompl.allDone();
+                }
+
+                @Override
+                public void fail(ErrorCode errorCode) {
+                    logger.warn(String.format("failed to ping the virtual router vm[uuid:%s], %s. We will try again", vrUuid, errorCode));
+                    PingVirtualRouterVmReply reply1 = new PingVirtualRouterVmReply(vrUuid);
+
+                    reply1.setDoReconnect(true);
+                    reply1.setConnected(false);
+                    reply1.setError(errorCode);
+                    replies.add(reply1);
+                    /* wait 1 second and try again */
+                    new Retry<Boolean>() {
+                        @Override
+                        @RetryCondition(times = 1, interval = 1)
+                        protected Boolean call() {
+                            return false;
+                        }
+                    }.run();
+                    wcompl.done();
+                }
+            });
+        }).run(new WhileDoneCompletion(completion) {
+            @Override
+            public void done(ErrorCodeList errorCodeList) {
+                if (replies.isEmpty()) {
+                    /* this happen in UT case */
+                    PingVirtualRouterVmReply reply1 = new PingVirtualRouterVmReply(vrUuid);
+                    reply1.setConnected(true);
+                    replies.add(reply1);
+                }
+                completion.success(replies.get(0));
+            }
+        });
+    }
+
+    private void doPing(String mgmtIp, ReturnValueCompletion<PingVirtualRouterVmReply> completion) {
+        PingCmd cmd = new PingCmd();
+        cmd.setUuid(vrUuid);
+        restf.asyncJsonPost(vrMgr.buildUrl(mgmtIp, VirtualRouterConstant.VR_PING), cmd, new JsonAsyncRESTCallback<PingRsp>(completion) {
+            @Override
+            public void fail(ErrorCode err) {
+                completion.fail(err);
+            }
+
+            @Override
+            public void success(PingRsp ret) {
+                PingVirtualRouterVmReply reply = new PingVirtualRouterVmReply(vrUuid);
+
+                VirtualRouterVmVO vo = dbf.findByUuid(vrUuid, VirtualRouterVmVO.class);
+                if (vo == null) {
+                    completion.fail(operr("virtual router vm[uuid:%s] has been deleted", vrUuid));
+                    return;
+                }
+
+                if (vo.getStatus() == ApplianceVmStatus.Connecting
+                        || vo.getState() == VmInstanceState.Rebooting) {
+                    reply.setDoReconnect(false);
+                } else {
+                    reply.setDoReconnect(true);
+                }
+
+                if (!ret.isSuccess()) {
+                    logger.warn(String.format("failed to ping the virtual router vm[uuid:%s], %s. We will reconnect it soon", vrUuid, ret.getError()));
+                    reply.setConnected(false);
+                } else {
+                    boolean connected = vrUuid.equals(ret.getUuid());
+                    if (!connected) {
+                        logger.warn(String.format("a signature lost on the virtual router vm[uuid:%s] changed, it's probably caused by the agent restart. We will issue a reconnect soon", vrUuid));
+                    } else {
+                        connected = ApplianceVmStatus.Connected == vo.getStatus();
+                    }
+                    reply.setConnected(connected);
+                    reply.setHaStatus(ret.getHaStatus());
+                    if ((ret.getHealthy() != null) && (!ret.getHealthy()) && (ret.getHealthDetail() != null)) {
+                        fireServiceHealthCanonicalEvent(vo, inerr("virtual router %s unhealthy, detail %s", vrUuid, ret.getHealthDetail()));
+                    } else {
+                        fireServiceHealthCanonicalEvent(vo, null);
+                    }
+                    reply.setServiceHealthList(ret.getServiceHealthList());
+                }
+                completion.success(reply);
+            }
+
+            @Override
+            public Class<PingRsp> getReturnClass() {
+                return PingRsp.class;
+            }
+        }, TimeUnit.SECONDS, (long) ApplianceVmGlobalConfig.CONNECT_TIMEOUT.value(Integer.class));
+    }
+
+    private void fireServiceHealthCanonicalEvent(VirtualRouterVmVO vo, ErrorCode err) {
+        ApplianceVmCanonicalEvents.ServiceHealthData data = new ApplianceVmCanonicalEvents.ServiceHealthData();
+        data.setApplianceVmType(vo.getApplianceVmType());
+        data.setApplianceVmUuid(vo.getUuid());
+        data.setHealthy(err == null);
+        data.setReason(err);
+
+        evtf.fire(err == null ? ApplianceVmCanonicalEvents.SERVICE_HEALTHY_PATH : ApplianceVmCanonicalEvents.SERVICE_UNHEALTHY_PATH, data);
+    }
+}
@@ -0,0 +1,177 @@
+package org.zstack.network.service.virtualrouter.lb;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.zstack.core.agent.HostGenerationTracker;
+import org.zstack.network.service.virtualrouter.lb.VirtualRouterLoadBalancerBackend.LbTO;
+import org.zstack.utils.gson.JSONObjectUtil;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * load balancer configs the management node believes virtual routers have, so refreshing a load
+ * balancer sends a virtual router only the listeners and certificates changed since the last refresh,
+ * and deletes listeners removed since then.
+ *
+ * Listeners of a failed refresh are forgotten if they're still that version. Configs of a virtual
+ * router are forgotten, and sent in full next time, when the virtual router starts, reboots or
+ * reconnects. See HostGenerationTracker for versions.
+ *
+ * Load balancers may be refreshed by nodes other than the one owning the virtual router, so the owner
+ * broadcasts FORGET_ROUTER_EVENT_PATH when it forgets the virtual router, and every node forgets all
+ * configs when a node joins or leaves as load balancers move to other nodes then.
+ */
+class VirtualRouterLbConfigTracker {
+    static final String FORGET_ROUTER_EVENT_PATH = "/virtualRouter/loadBalancer/forgetRouter/{vrUuid}/{nodeUuid}";
+
+    // listeners by listener uuid, by virtual router uuid
+    private static final HostGenerationTracker<Listener> routers = new HostGenerationTracker<>();
+
+    // digests of certificates by certificate uuid, by virtual router uuid
+    private static final Map<String, Map<String, String>> certificates = new ConcurrentHashMap<>();
+
+    static class Listener implements HostGenerationTracker.Generational {
+        final String lbUuid;
+        final long version;
+        final String digest;
+        // the listener last sent to the virtual router
+        final LbTO to;
+
+        Listener(String lbUuid, long version, String digest, LbTO to) {
+            this.lbUuid = lbUuid;
+            this.version = version;
+            this.digest = digest;
+            this.to = to;
+        }
+
+        @Override
+        public long getGeneration() {
+            return version;
+        }
+    }
+
+    static class Change {
+        final long version;
+        // listeners changed, or unknown, since the last change
+        final List<LbTO> listeners;
+        // listeners of the load balancer the virtual router has but no longer in it, by listener uuid
+        final Map<String, Listener> removed;
+
+        Change(long version, List<LbTO> listeners, Map<String, Listener> removed) {
+            this.version = version;
+            this.listeners = listeners;
+            this.removed = removed;
+        }
+
+        boolean isEmpty() {
+            return listeners.isEmpty() && removed.isEmpty();
+        }
+
+        List<String> getListenerUuids() {
+            List<String> ret = new ArrayList<>();
+            listeners.forEach(to -> ret.add(to.getListenerUuid()));
+            return ret;
+        }
+
+        List<LbTO> getRemovedListeners() {
+            List<LbTO> ret = new ArrayList<>();
+            removed.values().forEach(l -> ret.add(l.to));
+            return ret;
+        }
+    }
+
+    private static String digest(LbTO to, Boolean enableHaproxyLog) {
+        return DigestUtils.md5Hex(JSONObjectUtil.toJsonString(to) + enableHaproxyLog);
+    }
+
+    /**
+     * records listeners of the load balancer the virtual router is going to have, listeners of the
+     * load balancer not in the given ones are dropped and returned as removed
+     *
+     * @return listeners to send and to delete, empty if the virtual router has had all of them
+     */
+    static Change change(String vrUuid, String lbUuid, List<LbTO> tos, Boolean enableHaproxyLog) {
+        long version = routers.nextGeneration();
+        List<LbTO> changed = new ArrayList<>();
+        Map<String, Listener> removed = new HashMap<>();
+        Set<String> listenerUuids = new HashSet<>();
+
+        routers.withHost(vrUuid, listeners -> {
+            for (LbTO to : tos) {
+                listenerUuids.add(to.getListenerUuid());
+
+                String digest = digest(to, enableHaproxyLog);
+                Listener previous = listeners.get(to.getListenerUuid());
+                if (previous != null && previous.digest.equals(digest)) {
+                    continue;
+                }
+
+                listeners.put(to.getListenerUuid(), new Listener(lbUuid, version, digest, to));
+                changed.add(to);
+            }
+
+            listeners.forEach((uuid, l) -> {
+                if (l.lbUuid.equals(lbUuid) && !listenerUuids.contains(uuid)) {
+                    removed.put(uuid, l);
+                }
+            });
+            listeners.keySet().removeAll(removed.keySet());
+            return null;
+        });
+
+        return new Change(version, changed, removed);
+    }
+
+    /**
+     * records again listeners a failed delete didn't remove from the virtual router, unless a later
+     * change has recorded them
+     */
+    static void restore(String vrUuid, Map<String, Listener> removed) {
+        routers.withHost(vrUuid, listeners -> {
+            removed.forEach(listeners::putIfAbsent);
+            return null;
+        });
+    }
+
+    /**
+     * forgets listeners on the virtual router if they're still the given version, a later change has
+     * replaced them otherwise
+     */
+    static void forget(String vrUuid, Collection<String> listenerUuids, long version) {
+        listenerUuids.forEach(listenerUuid -> routers.forget(vrUuid, listenerUuid, version));
+    }
+
+    static void forgetLoadBalancer(String vrUuid, String lbUuid) {
+        routers.withHost(vrUuid, listeners -> listeners.values().removeIf(l -> l.lbUuid.equals(lbUuid)));
+    }
+
+    static void forgetRouter(String vrUuid) {
+        routers.forgetHost(vrUuid);
+        certificates.remove(vrUuid);
+    }
+
+    static void forgetAll() {
+        routers.forgetAll();
+        certificates.clear();
+    }
+
+    static boolean hasCertificate(String vrUuid, String certificateUuid, String digest) {
+        Map<String, String> digests = certificates.get(vrUuid);
+        return digests != null && digest.equals(digests.get(certificateUuid));
+    }
+
+    static void recordCertificate(String vrUuid, String certificateUuid, String digest) {
+        certificates.computeIfAbsent(vrUuid, k -> new ConcurrentHashMap<>()).put(certificateUuid, digest);
+    }
+
+    static void forgetCertificates(String vrUuid, Collection<String> certificateUuids) {
+        Map<String, String> digests = certificates.get(vrUuid);
+        if (digests != null) {
+            digests.keySet().removeAll(certificateUuids);
+        }
+    }
+
+    static Listener get(String vrUuid, String listenerUuid) {
+        return routers.get(vrUuid, listenerUuid);
+    }
+}
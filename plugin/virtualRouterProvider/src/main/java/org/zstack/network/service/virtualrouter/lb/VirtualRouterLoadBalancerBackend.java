@@ -5,9 +5,12 @@ import org.apache.commons.lang.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.transaction.annotation.Transactional;
+import org.zstack.core.Platform;
 import org.zstack.core.asyncbatch.While;
 import org.zstack.core.cloudbus.CloudBus;
 import org.zstack.core.cloudbus.CloudBusCallBack;
+import org.zstack.core.cloudbus.EventCallback;
+import org.zstack.core.cloudbus.EventFacade;
 import org.zstack.core.componentloader.PluginRegistry;
 import org.zstack.core.db.DatabaseFacade;
 import org.zstack.core.db.Q;
@@ -16,6 +19,7 @@ import org.zstack.core.db.SimpleQuery;
 import org.zstack.core.db.SimpleQuery.Op;
 import org.zstack.core.workflow.FlowChainBuilder;
 import org.zstack.core.workflow.ShareFlow;
+import org.zstack.header.Component;
 import org.zstack.header.acl.AccessControlListEntryVO;
 import org.zstack.header.acl.AccessControlListEntryVO_;
 import org.zstack.header.apimediator.ApiMessageInterceptionException;
@@ -30,6 +34,8 @@ import org.zstack.header.errorcode.ErrorCode;
 import org.zstack.header.errorcode.ErrorCodeList;
 import org.zstack.header.errorcode.OperationFailureException;
 import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.header.managementnode.ManagementNodeChangeListener;
+import org.zstack.header.managementnode.ManagementNodeInventory;
 import org.zstack.header.message.APIMessage;
 import org.zstack.header.message.MessageReply;
 import org.zstack.header.network.l3.L3NetworkInventory;
@@ -65,14 +71,18 @@ import java.util.stream.Collectors;
 import static java.util.Arrays.asList;
 import static org.zstack.core.Platform.argerr;
 import static org.zstack.core.Platform.operr;
+import static org.zstack.utils.CollectionDSL.e;
 import static org.zstack.utils.CollectionDSL.list;
+import static org.zstack.utils.CollectionDSL.map;
+import static org.zstack.utils.StringDSL.s;
 
 /**
  * Created by frank on 8/9/2015.
  */
 public class VirtualRouterLoadBalancerBackend extends AbstractVirtualRouterBackend
         implements LoadBalancerBackend, GlobalApiMessageInterceptor, ApiMessageInterceptor, VirtualRouterHaGetCallbackExtensionPoint,
-        VirtualRouterAfterAttachNicExtensionPoint, VirtualRouterBeforeDetachNicExtensionPoint {
+        VirtualRouterAfterAttachNicExtensionPoint, VirtualRouterBeforeDetachNicExtensionPoint, Component,
+        ManagementNodeChangeListener {
     private static final CLogger logger = Utils.getLogger(VirtualRouterLoadBalancerBackend.class);
 
     @Autowired
@@ -96,12 +106,65 @@ public class VirtualRouterLoadBalancerBackend extends AbstractVirtualRouterBacke
     private VipConfigProxy vipProxy;
     @Autowired
     private ResourceConfigFacade rcf;
+    @Autowired
+    private EventFacade evtf;
 
     private static final String REFRESH_CERTIFICATE_TASK = "refreshCertificate";
     private static final String DELETE_CERTIFICATE_TASK = "deleteCertificate";
     private static final String REFRESH_LB_TASK = "refreshLb";
     private static final String DESTROY_LB_TASK = "destroyLb";
 
+    @Override
+    public boolean start() {
+        evtf.on(VirtualRouterLbConfigTracker.FORGET_ROUTER_EVENT_PATH, new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                if (Platform.getManagementServerId().equals(tokens.get("nodeUuid"))) {
+                    return;
+                }
+
+                VirtualRouterLbConfigTracker.forgetRouter((String) tokens.get("vrUuid"));
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        return true;
+    }
+
+    @Override
+    public void nodeJoin(ManagementNodeInventory inv) {
+        // load balancers moving to the new node may be refreshed by this node again later
+        VirtualRouterLbConfigTracker.forgetAll();
+    }
+
+    @Override
+    public void nodeLeft(ManagementNodeInventory inv) {
+        VirtualRouterLbConfigTracker.forgetAll();
+    }
+
+    @Override
+    public void iAmDead(ManagementNodeInventory inv) {
+    }
+
+    @Override
+    public void iJoin(ManagementNodeInventory inv) {
+    }
+
+    /**
+     * forgets load balancer configs of the virtual router on all management nodes, as load balancers
+     * on it may be refreshed by nodes other than the one owning it
+     */
+    void forgetLbConfigsOfRouter(String vrUuid) {
+        VirtualRouterLbConfigTracker.forgetRouter(vrUuid);
+        evtf.fire(s(VirtualRouterLbConfigTracker.FORGET_ROUTER_EVENT_PATH).formatByMap(map(
+                e("vrUuid", vrUuid),
+                e("nodeUuid", Platform.getManagementServerId())
+        )), null);
+    }
+
     @Override
     public List<Class> getMessageClassToIntercept() {
         return asList(APIAddVmNicToLoadBalancerMsg.class);
@@ -905,13 +968,19 @@ public class VirtualRouterLoadBalancerBackend extends AbstractVirtualRouterBacke
 
         List<ErrorCode> errors = new ArrayList<>();
         new While<>(certificateUuids).each((uuid, wcmpl) -> {
+            CertificateVO vo = dbf.findByUuid(uuid, CertificateVO.class);
+            String digest = DigestUtils.md5Hex(vo.getCertificate());
+            if (VirtualRouterGlobalProperty.LB_CONFIG_DIFF_ENABLE && VirtualRouterLbConfigTracker.hasCertificate(vr.getUuid(), uuid, digest)) {
+                wcmpl.done();
+                return;
+            }
+
             VirtualRouterAsyncHttpCallMsg msg = new VirtualRouterAsyncHttpCallMsg();
             msg.setVmInstanceUuid(vr.getUuid());
             msg.setPath(CREATE_CERTIFICATE_PATH);
             msg.setCheckStatus(checkVrState);
 
             CertificateCmd cmd = new CertificateCmd();
-            CertificateVO vo = dbf.findByUuid(uuid, CertificateVO.class);
             cmd.setUuid(uuid);
             cmd.setCertificate(vo.getCertificate());
 
@@ -923,6 +992,9 @@ public class VirtualRouterLoadBalancerBackend extends AbstractVirtualRouterBacke
                     if (reply.isSuccess()) {
                         CertificateRsp rsp = ((VirtualRouterAsyncHttpCallReply) reply).toResponse(CertificateRsp.class);
                         if (rsp.isSuccess()) {
+                            if (VirtualRouterGlobalProperty.LB_CONFIG_DIFF_ENABLE) {
+                                VirtualRouterLbConfigTracker.recordCertificate(vr.getUuid(), uuid, digest);
+                            }
                             wcmpl.done();
                         } else {
                             errors.add(operr("operation error, because:%s", rsp.getError()));
@@ -948,6 +1020,7 @@ public class VirtualRouterLoadBalancerBackend extends AbstractVirtualRouterBacke
 
     private void rollbackCertificate(VirtualRouterVmInventory vr, boolean checkVrState, List<LoadBalancerStruct> struct, final NoErrorCompletion completion){
         List<String> certificateUuids = getCertificates(struct);
+        VirtualRouterLbConfigTracker.forgetCertificates(vr.getUuid(), certificateUuids);
 
         new While<>(certificateUuids).each((uuid, wcmpl) -> {
             VirtualRouterAsyncHttpCallMsg msg = new VirtualRouterAsyncHttpCallMsg();
@@ -975,35 +1048,119 @@ public class VirtualRouterLoadBalancerBackend extends AbstractVirtualRouterBacke
     }
 
     private void refreshLbToVirtualRouter(VirtualRouterVmInventory vr, LoadBalancerStruct struct, Completion completion) {
-        VirtualRouterAsyncHttpCallMsg msg = new VirtualRouterAsyncHttpCallMsg();
-        msg.setVmInstanceUuid(vr.getUuid());
-        msg.setPath(REFRESH_LB_PATH);
-        msg.setCheckStatus(true);
-
         RefreshLbCmd cmd = new RefreshLbCmd();
         cmd.lbs = makeLbTOs(struct, vr);
-        if (cmd.lbs.isEmpty()) {
+        cmd.enableHaproxyLog = rcf.getResourceConfigValue(VyosGlobalConfig.ENABLE_HAPROXY_LOG, vr.getUuid(), Boolean.class);
+
+        if (!VirtualRouterGlobalProperty.LB_CONFIG_DIFF_ENABLE) {
+            VirtualRouterLbConfigTracker.forgetRouter(vr.getUuid());
+            if (cmd.lbs.isEmpty()) {
+                completion.success();
+                return;
+            }
+
+            sendRefreshLbCmd(vr, cmd, null, completion);
+            return;
+        }
+
+        // the agent applies listeners of a refresh one by one, and keeps listeners not in it,
+        // so listeners removed since the last refresh are deleted before refreshing changed ones
+        VirtualRouterLbConfigTracker.Change change = VirtualRouterLbConfigTracker.change(vr.getUuid(), struct.getLb().getUuid(), cmd.lbs, cmd.enableHaproxyLog);
+        if (change.isEmpty()) {
+            logger.debug(String.format("listeners of load balancer[uuid:%s] on virtual router[uuid:%s] don't change, skip refreshing",
+                    struct.getLb().getUuid(), vr.getUuid()));
             completion.success();
             return;
         }
-        cmd.enableHaproxyLog = rcf.getResourceConfigValue(VyosGlobalConfig.ENABLE_HAPROXY_LOG, vr.getUuid(), Boolean.class);
 
+        logger.debug(String.format("refresh %s of %s listeners and delete %s listeners of load balancer[uuid:%s] on virtual router[uuid:%s], version %s",
+                change.listeners.size(), cmd.lbs.size(), change.removed.size(), struct.getLb().getUuid(), vr.getUuid(), change.version));
+        deleteRemovedListeners(vr, change, new Completion(completion) {
+            @Override
+            public void success() {
+                if (change.listeners.isEmpty()) {
+                    completion.success();
+                    return;
+                }
+
+                cmd.lbs = change.listeners;
+                sendRefreshLbCmd(vr, cmd, change, completion);
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                VirtualRouterLbConfigTracker.forget(vr.getUuid(), change.getListenerUuids(), change.version);
+                completion.fail(errorCode);
+            }
+        });
+    }
+
+    private void deleteRemovedListeners(VirtualRouterVmInventory vr, VirtualRouterLbConfigTracker.Change change, Completion completion) {
+        if (change.removed.isEmpty()) {
+            completion.success();
+            return;
+        }
+
+        DeleteLbCmd cmd = new DeleteLbCmd();
+        cmd.setLbs(change.getRemovedListeners());
+
+        VirtualRouterAsyncHttpCallMsg msg = new VirtualRouterAsyncHttpCallMsg();
+        msg.setVmInstanceUuid(vr.getUuid());
+        msg.setPath(DELETE_LB_PATH);
+        msg.setCheckStatus(true);
         msg.setCommand(cmd);
         bus.makeTargetServiceIdByResourceUuid(msg, VmInstanceConstant.SERVICE_ID, vr.getUuid());
         bus.send(msg, new CloudBusCallBack(completion) {
             @Override
             public void run(MessageReply reply) {
+                ErrorCode err;
+                if (reply.isSuccess()) {
+                    DeleteLbRsp rsp = ((VirtualRouterAsyncHttpCallReply) reply).toResponse(DeleteLbRsp.class);
+                    if (rsp.isSuccess()) {
+                        completion.success();
+                        return;
+                    }
+
+                    err = operr("operation error, because:%s", rsp.getError());
+                } else {
+                    err = reply.getError();
+                }
+
+                // the virtual router may still have them, delete them again next time
+                VirtualRouterLbConfigTracker.restore(vr.getUuid(), change.removed);
+                completion.fail(err);
+            }
+        });
+    }
+
+    private void sendRefreshLbCmd(VirtualRouterVmInventory vr, RefreshLbCmd cmd, VirtualRouterLbConfigTracker.Change change, Completion completion) {
+        VirtualRouterAsyncHttpCallMsg msg = new VirtualRouterAsyncHttpCallMsg();
+        msg.setVmInstanceUuid(vr.getUuid());
+        msg.setPath(REFRESH_LB_PATH);
+        msg.setCheckStatus(true);
+        msg.setCommand(cmd);
+        bus.makeTargetServiceIdByResourceUuid(msg, VmInstanceConstant.SERVICE_ID, vr.getUuid());
+        bus.send(msg, new CloudBusCallBack(completion) {
+            @Override
+            public void run(MessageReply reply) {
+                ErrorCode err;
                 if (reply.isSuccess()) {
                     RefreshLbRsp rsp = ((VirtualRouterAsyncHttpCallReply) reply).toResponse(RefreshLbRsp.class);
                     if (rsp.isSuccess()) {
                         new VirtualRouterRoleManager().makeLoadBalancerRole(vr.getUuid());
                         completion.success();
-                    } else {
-                        completion.fail(operr("operation error, because:%s", rsp.getError()));
+                        return;
                     }
+
+                    err = operr("operation error, because:%s", rsp.getError());
                 } else {
-                    completion.fail(reply.getError());
+                    err = reply.getError();
                 }
+
+                if (change != null) {
+                    VirtualRouterLbConfigTracker.forget(vr.getUuid(), change.getListenerUuids(), change.version);
+                }
+                completion.fail(err);
             }
         });
     }
@@ -2028,14 +2185,22 @@ public class VirtualRouterLoadBalancerBackend extends AbstractVirtualRouterBacke
 
                     @Override
                     public void run(FlowTrigger trigger, Map data) {
+                        Boolean enableHaproxyLog = rcf.getResourceConfigValue(VyosGlobalConfig.ENABLE_HAPROXY_LOG, vr.getUuid(), Boolean.class);
                         List<LbTO> tos = new ArrayList<LbTO>();
                         for (LoadBalancerStruct s : structs) {
-                            tos.addAll(makeLbTOs(s, vr));
+                            List<LbTO> lbTOs = makeLbTOs(s, vr);
+                            tos.addAll(lbTOs);
+
+                            // listeners are sent in full, and recorded as what the virtual router has
+                            VirtualRouterLbConfigTracker.forgetLoadBalancer(vr.getUuid(), s.getLb().getUuid());
+                            if (VirtualRouterGlobalProperty.LB_CONFIG_DIFF_ENABLE) {
+                                VirtualRouterLbConfigTracker.change(vr.getUuid(), s.getLb().getUuid(), lbTOs, enableHaproxyLog);
+                            }
                         }
 
                         RefreshLbCmd cmd = new RefreshLbCmd();
                         cmd.lbs = tos;
-                        cmd.enableHaproxyLog = rcf.getResourceConfigValue(VyosGlobalConfig.ENABLE_HAPROXY_LOG, vr.getUuid(), Boolean.class);
+                        cmd.enableHaproxyLog = enableHaproxyLog;
 
                         VirtualRouterAsyncHttpCallMsg msg = new VirtualRouterAsyncHttpCallMsg();
                         msg.setCommand(cmd);
@@ -2052,13 +2217,20 @@ public class VirtualRouterLoadBalancerBackend extends AbstractVirtualRouterBacke
                                     RefreshLbRsp rsp = kr.toResponse(RefreshLbRsp.class);
                                     if (rsp.isSuccess()) {
                                         trigger.next();
-                                    } else {
-                                        trigger.fail(operr("operation error, because:%s", rsp.getError()));
+                                        return;
                                     }
+
+                                    forgetLoadBalancers();
+                                    trigger.fail(operr("operation error, because:%s", rsp.getError()));
                                 } else {
+                                    forgetLoadBalancers();
                                     trigger.fail(reply.getError());
                                 }
                             }
+
+                            private void forgetLoadBalancers() {
+                                structs.forEach(s -> VirtualRouterLbConfigTracker.forgetLoadBalancer(vr.getUuid(), s.getLb().getUuid()));
+                            }
                         });
                     }
                 });
@@ -2096,6 +2268,8 @@ public class VirtualRouterLoadBalancerBackend extends AbstractVirtualRouterBacke
     }
 
     public void destroyLoadBalancerOnVirtualRouter(VirtualRouterVmInventory vr, LoadBalancerStruct struct, Completion completion) {
+        VirtualRouterLbConfigTracker.forgetLoadBalancer(vr.getUuid(), struct.getLb().getUuid());
+
         DeleteLbCmd cmd = new DeleteLbCmd();
         cmd.setLbs(makeLbTOs(struct, vr));
         if (cmd.lbs.isEmpty()) {
@@ -56,6 +56,9 @@ public class VirtualRouterSyncLbOnStartFlow implements Flow {
     @Override
     public void run(final FlowTrigger outterTrigger, final Map data) {
         final VirtualRouterVmInventory vr = (VirtualRouterVmInventory) data.get(VirtualRouterConstant.Param.VR.toString());
+        // load balancer configs on a started, rebooted or reconnected virtual router are unknown
+        bkd.forgetLbConfigsOfRouter(vr.getUuid());
+
         final List<VmNicInventory> guestNics = vr.getGuestNics();
         if (guestNics == null || guestNics.isEmpty()) {
             outterTrigger.next();
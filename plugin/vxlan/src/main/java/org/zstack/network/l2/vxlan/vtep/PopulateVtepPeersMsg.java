@@ -13,6 +13,16 @@ import java.util.List;
 public class PopulateVtepPeersMsg extends NeedReplyMessage implements L2NetworkMessage {
     private String poolUuid;
     private List<HostInventory> hosts = new ArrayList<>();
+    // hosts whose FDB may have been lost, e.g. reconnected hosts, they are sent all peers
+    private List<String> fullSyncHostUuids = new ArrayList<>();
+
+    public List<String> getFullSyncHostUuids() {
+        return fullSyncHostUuids;
+    }
+
+    public void setFullSyncHostUuids(List<String> fullSyncHostUuids) {
+        this.fullSyncHostUuids = fullSyncHostUuids;
+    }
 
     public String getPoolUuid() {
         return poolUuid;
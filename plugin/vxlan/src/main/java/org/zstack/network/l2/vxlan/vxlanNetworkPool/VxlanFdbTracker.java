@@ -0,0 +1,116 @@
+package org.zstack.network.l2.vxlan.vxlanNetworkPool;
+
+import org.zstack.core.agent.HostGenerationTracker;
+
+import java.util.*;
+
+/**
+ * FDB of vxlan network pools the management node believes hosts have, so populating peers
+ * sends hosts only the peers added and removed since the last populating.
+ *
+ * FDB of a host is forgotten, and sent in full next time, when a command to the host fails,
+ * the host replies a different generation, or the host is prepared again; FDB of hosts are also
+ * sent in full after a node takes over a pool. See HostGenerationTracker for generations.
+ */
+class VxlanFdbTracker {
+    // FDB by pool uuid, by host uuid
+    private static final HostGenerationTracker<HostFdb> hosts = new HostGenerationTracker<>();
+
+    static class HostFdb implements HostGenerationTracker.Generational {
+        final long generation;
+        final Set<String> vtepIps;
+        final Set<String> networkUuids;
+        final Set<String> peers;
+
+        HostFdb(long generation, Set<String> vtepIps, Set<String> networkUuids, Set<String> peers) {
+            this.generation = generation;
+            this.vtepIps = vtepIps;
+            this.networkUuids = networkUuids;
+            this.peers = peers;
+        }
+
+        @Override
+        public long getGeneration() {
+            return generation;
+        }
+
+        boolean sameAs(Set<String> vtepIps, Set<String> networkUuids, Set<String> peers) {
+            return this.vtepIps.equals(vtepIps) && this.networkUuids.equals(networkUuids) && this.peers.equals(peers);
+        }
+
+        /**
+         * a delta only changes peers, a host with new vtep ips or networks is sent in full
+         */
+        boolean canDeltaTo(HostFdb next) {
+            return vtepIps.equals(next.vtepIps) && networkUuids.equals(next.networkUuids);
+        }
+
+        List<String> peersAddedIn(HostFdb next) {
+            List<String> ret = new ArrayList<>(next.peers);
+            ret.removeAll(peers);
+            return ret;
+        }
+
+        List<String> peersRemovedIn(HostFdb next) {
+            List<String> ret = new ArrayList<>(peers);
+            ret.removeAll(next.peers);
+            return ret;
+        }
+    }
+
+    static class Change {
+        // null if FDB of the host is unknown
+        final HostFdb previous;
+        final HostFdb next;
+
+        Change(HostFdb previous, HostFdb next) {
+            this.previous = previous;
+            this.next = next;
+        }
+
+        boolean isFull() {
+            return previous == null || !previous.canDeltaTo(next);
+        }
+    }
+
+    /**
+     * records the FDB a host is going to have
+     *
+     * @return null if the host has had the FDB
+     */
+    static Change change(String poolUuid, String hostUuid, Set<String> vtepIps, Set<String> networkUuids, Set<String> peers) {
+        return hosts.withHost(hostUuid, pools -> {
+            HostFdb previous = pools.get(poolUuid);
+            if (previous != null && previous.sameAs(vtepIps, networkUuids, peers)) {
+                return null;
+            }
+
+            HostFdb next = new HostFdb(hosts.nextGeneration(), vtepIps, networkUuids, peers);
+            pools.put(poolUuid, next);
+            return new Change(previous, next);
+        });
+    }
+
+    /**
+     * forgets FDB of the host if it's still the given generation, a later change has replaced it otherwise
+     */
+    static void forget(String poolUuid, String hostUuid, long generation) {
+        hosts.forget(hostUuid, poolUuid, generation);
+    }
+
+    static void forget(String poolUuid, Collection<String> hostUuids) {
+        hostUuids.forEach(hostUuid -> hosts.forget(hostUuid, poolUuid));
+    }
+
+    static void forgetPool(String poolUuid) {
+        hosts.forgetKey(poolUuid);
+    }
+
+    static boolean isCurrent(String poolUuid, String hostUuid, long generation) {
+        return hosts.isCurrent(hostUuid, poolUuid, generation);
+    }
+
+    static HostFdb get(String poolUuid, String hostUuid) {
+        return hosts.get(hostUuid, poolUuid);
+    }
+}
@@ -213,6 +213,25 @@ public class VxlanKvmAgentCommands {
     public static class PopulateVxlanNetworksFdbCmd extends AgentCommand {
         private List<String> networkUuids;
         private List<String> peers;
+        private String poolUuid;
+        // the FDB generation of the pool on the host after the command, 0 if not tracked
+        private long generation;
+
+        public String getPoolUuid() {
+            return poolUuid;
+        }
+
+        public void setPoolUuid(String poolUuid) {
+            this.poolUuid = poolUuid;
+        }
+
+        public long getGeneration() {
+            return generation;
+        }
+
+        public void setGeneration(long generation) {
+            this.generation = generation;
+        }
 
         public List<String> getNetworkUuids() {
             return networkUuids;
@@ -234,6 +253,79 @@ public class VxlanKvmAgentCommands {
     public static class PopulateVxlanNetworksFdbResponse extends AgentResponse {
     }
 
+    /**
+     * adds and removes peers of FDB of networks of a pool, applied only if the FDB generation of
+     * the pool on the host is baseGeneration, the host replies its generation after the command
+     */
+    public static class UpdateVxlanNetworksFdbCmd extends AgentCommand {
+        private String poolUuid;
+        private List<String> networkUuids;
+        private List<String> addedPeers;
+        private List<String> removedPeers;
+        private long baseGeneration;
+        private long generation;
+
+        public String getPoolUuid() {
+            return poolUuid;
+        }
+
+        public void setPoolUuid(String poolUuid) {
+            this.poolUuid = poolUuid;
+        }
+
+        public List<String> getNetworkUuids() {
+            return networkUuids;
+        }
+
+        public void setNetworkUuids(List<String> networkUuids) {
+            this.networkUuids = networkUuids;
+        }
+
+        public List<String> getAddedPeers() {
+            return addedPeers;
+        }
+
+        public void setAddedPeers(List<String> addedPeers) {
+            this.addedPeers = addedPeers;
+        }
+
+        public List<String> getRemovedPeers() {
+            return removedPeers;
+        }
+
+        public void setRemovedPeers(List<String> removedPeers) {
+            this.removedPeers = removedPeers;
+        }
+
+        public long getBaseGeneration() {
+            return baseGeneration;
+        }
+
+        public void setBaseGeneration(long baseGeneration) {
+            this.baseGeneration = baseGeneration;
+        }
+
+        public long getGeneration() {
+            return generation;
+        }
+
+        public void setGeneration(long generation) {
+            this.generation = generation;
+        }
+    }
+
+    public static class UpdateVxlanNetworksFdbResponse extends AgentResponse {
+        private long generation;
+
+        public long getGeneration() {
+            return generation;
+        }
+
+        public void setGeneration(long generation) {
+            this.generation = generation;
+        }
+    }
+
     public static class CheckVxlanCidrCmd extends AgentCommand {
         private String cidr;
         private String vtepip;
@@ -0,0 +1,11 @@
+package org.zstack.network.l2.vxlan.vxlanNetworkPool;
+
+import org.zstack.core.GlobalProperty;
+import org.zstack.core.GlobalPropertyDefinition;
+
+@GlobalPropertyDefinition
+public class VxlanNetworkGlobalProperty {
+    /* requires agents supporting VXLAN_KVM_UPDATE_FDB_L2VXLAN_NETWORKS_PATH, others are resynced in full */
+    @GlobalProperty(name="VxlanNetworkPool.fdbDelta.enable", defaultValue = "false")
+    public static boolean FDB_DELTA_ENABLE;
+}
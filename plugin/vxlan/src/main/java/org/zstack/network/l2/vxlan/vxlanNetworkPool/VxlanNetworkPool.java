@@ -32,6 +32,7 @@ import org.zstack.header.message.Message;
 import org.zstack.header.message.MessageReply;
 import org.zstack.header.network.l2.*;
 import org.zstack.kvm.KVMHostAsyncHttpCallMsg;
+import org.zstack.kvm.KVMHostAsyncHttpCallReply;
 import org.zstack.network.l2.L2NetworkExtensionPointEmitter;
 import org.zstack.network.l2.L2NetworkManager;
 import org.zstack.network.l2.L2NoVlanNetwork;
@@ -49,6 +50,7 @@ import java.util.*;
 import java.util.stream.Collectors;
 
 import static org.zstack.network.l2.vxlan.vxlanNetworkPool.VxlanNetworkPoolConstant.VXLAN_KVM_POPULATE_FDB_L2VXLAN_NETWORKS_PATH;
+import static org.zstack.network.l2.vxlan.vxlanNetworkPool.VxlanNetworkPoolConstant.VXLAN_KVM_UPDATE_FDB_L2VXLAN_NETWORKS_PATH;
 import static org.zstack.utils.CollectionDSL.e;
 import static org.zstack.utils.CollectionDSL.map;
 import static org.zstack.core.Platform.err;
@@ -164,35 +166,42 @@ public class VxlanNetworkPool extends L2NoVlanNetwork implements L2VxlanNetworkP
             return;
         }
 
+        // peers of a host are vtep ips of other hosts, all loaded in the query above
+        Map<String, Set<String>> vtepIpsByHost = new HashMap<>();
+        Map<String, Set<String>> hostsByVtepIp = new HashMap<>();
+        for (VtepVO vtep : vteps) {
+            vtepIpsByHost.computeIfAbsent(vtep.getHostUuid(), k -> new HashSet<>()).add(vtep.getVtepIp());
+            hostsByVtepIp.computeIfAbsent(vtep.getVtepIp(), k -> new HashSet<>()).add(vtep.getHostUuid());
+        }
+
+        boolean delta = VxlanNetworkGlobalProperty.FDB_DELTA_ENABLE;
+        if (delta && !msg.getFullSyncHostUuids().isEmpty()) {
+            VxlanFdbTracker.forget(msg.getPoolUuid(), msg.getFullSyncHostUuids());
+        }
+
         new While<>(targets).all((host, completion1) -> {
-            List<VtepVO> peerVteps = Q.New(VtepVO.class).eq(VtepVO_.poolUuid, msg.getPoolUuid())
-                    .notEq(VtepVO_.hostUuid, host.getUuid()).list();
-            Set<String> peers = peerVteps.stream()
-                    .map(v -> v.getVtepIp())
-                    .collect(Collectors.toSet());
-
-            logger.info(String.format("populate fdb to host[ip:%s] for vxlan network pool %s with vxlan network[uuids:%s] to host[uuid:%s]",
-                    host.getManagementIp(), msg.getPoolUuid(), vxlanNetworkUuids, host.getUuid()));
-
-            VxlanKvmAgentCommands.PopulateVxlanNetworksFdbCmd cmd = new VxlanKvmAgentCommands.PopulateVxlanNetworksFdbCmd();
-            cmd.setPeers(new ArrayList<>(peers));
-            cmd.setNetworkUuids(vxlanNetworkUuids);
-
-            KVMHostAsyncHttpCallMsg kmsg = new KVMHostAsyncHttpCallMsg();
-            kmsg.setHostUuid(host.getUuid());
-            kmsg.setCommand(cmd);
-            kmsg.setPath(VXLAN_KVM_POPULATE_FDB_L2VXLAN_NETWORKS_PATH);
-            kmsg.setNoStatusCheck(true);
-            bus.makeTargetServiceIdByResourceUuid(kmsg, HostConstant.SERVICE_ID, host.getUuid());
-            bus.send(kmsg, new CloudBusCallBack(completion1) {
-                @Override
-                public void run(MessageReply reply) {
-                    if (!reply.isSuccess()) {
-                        logger.warn(reply.getError().toString());
-                    }
-                    completion1.done();
+            Set<String> peers = new HashSet<>();
+            hostsByVtepIp.forEach((ip, hostUuids) -> {
+                if (hostUuids.size() > 1 || !hostUuids.contains(host.getUuid())) {
+                    peers.add(ip);
                 }
             });
+
+            if (!delta) {
+                populateFdb(msg.getPoolUuid(), host, vxlanNetworkUuids, peers, 0, completion1);
+                return;
+            }
+
+            VxlanFdbTracker.Change change = VxlanFdbTracker.change(msg.getPoolUuid(), host.getUuid(),
+                    vtepIpsByHost.getOrDefault(host.getUuid(), Collections.emptySet()), new HashSet<>(vxlanNetworkUuids), peers);
+            if (change == null) {
+                logger.debug(String.format("fdb of vxlan network pool %s on host[uuid:%s] is up to date", msg.getPoolUuid(), host.getUuid()));
+                completion1.done();
+            } else if (change.isFull()) {
+                populateFdb(msg.getPoolUuid(), host, vxlanNetworkUuids, peers, change.next.generation, completion1);
+            } else {
+                updateFdb(msg.getPoolUuid(), host, vxlanNetworkUuids, change, completion1);
+            }
         }).run(new WhileDoneCompletion(msg) {
             @Override
             public void done(ErrorCodeList errorCodeList) {
@@ -201,6 +210,100 @@ public class VxlanNetworkPool extends L2NoVlanNetwork implements L2VxlanNetworkP
         });
     }
 
+    /**
+     * sends all peers to the host
+     *
+     * @param generation the FDB generation tracked, 0 if not tracked
+     */
+    private void populateFdb(String poolUuid, HostInventory host, List<String> vxlanNetworkUuids, Set<String> peers, long generation, NoErrorCompletion completion) {
+        logger.info(String.format("populate fdb to host[ip:%s] for vxlan network pool %s with vxlan network[uuids:%s] to host[uuid:%s]",
+                host.getManagementIp(), poolUuid, vxlanNetworkUuids, host.getUuid()));
+
+        VxlanKvmAgentCommands.PopulateVxlanNetworksFdbCmd cmd = new VxlanKvmAgentCommands.PopulateVxlanNetworksFdbCmd();
+        cmd.setPeers(new ArrayList<>(peers));
+        cmd.setNetworkUuids(vxlanNetworkUuids);
+        cmd.setPoolUuid(poolUuid);
+        cmd.setGeneration(generation);
+
+        KVMHostAsyncHttpCallMsg kmsg = new KVMHostAsyncHttpCallMsg();
+        kmsg.setHostUuid(host.getUuid());
+        kmsg.setCommand(cmd);
+        kmsg.setPath(VXLAN_KVM_POPULATE_FDB_L2VXLAN_NETWORKS_PATH);
+        kmsg.setNoStatusCheck(true);
+        bus.makeTargetServiceIdByResourceUuid(kmsg, HostConstant.SERVICE_ID, host.getUuid());
+        bus.send(kmsg, new CloudBusCallBack(completion) {
+            @Override
+            public void run(MessageReply reply) {
+                if (!reply.isSuccess()) {
+                    logger.warn(reply.getError().toString());
+                    if (generation != 0) {
+                        VxlanFdbTracker.forget(poolUuid, host.getUuid(), generation);
+                    }
+                }
+                completion.done();
+            }
+        });
+    }
+
+    /**
+     * sends peers added and removed to the host, all peers are sent if the host isn't at the
+     * generation the change is based on
+     */
+    private void updateFdb(String poolUuid, HostInventory host, List<String> vxlanNetworkUuids, VxlanFdbTracker.Change change, NoErrorCompletion completion) {
+        VxlanKvmAgentCommands.UpdateVxlanNetworksFdbCmd cmd = new VxlanKvmAgentCommands.UpdateVxlanNetworksFdbCmd();
+        cmd.setPoolUuid(poolUuid);
+        cmd.setNetworkUuids(vxlanNetworkUuids);
+        cmd.setAddedPeers(change.previous.peersAddedIn(change.next));
+        cmd.setRemovedPeers(change.previous.peersRemovedIn(change.next));
+        cmd.setBaseGeneration(change.previous.generation);
+        cmd.setGeneration(change.next.generation);
+
+        logger.debug(String.format("update fdb of vxlan network pool %s on host[uuid:%s] from generation %s to %s, added peers%s, removed peers%s",
+                poolUuid, host.getUuid(), cmd.getBaseGeneration(), cmd.getGeneration(), cmd.getAddedPeers(), cmd.getRemovedPeers()));
+
+        KVMHostAsyncHttpCallMsg kmsg = new KVMHostAsyncHttpCallMsg();
+        kmsg.setHostUuid(host.getUuid());
+        kmsg.setCommand(cmd);
+        kmsg.setPath(VXLAN_KVM_UPDATE_FDB_L2VXLAN_NETWORKS_PATH);
+        kmsg.setNoStatusCheck(true);
+        bus.makeTargetServiceIdByResourceUuid(kmsg, HostConstant.SERVICE_ID, host.getUuid());
+        bus.send(kmsg, new CloudBusCallBack(completion) {
+            @Override
+            public void run(MessageReply reply) {
+                String error = null;
+                if (!reply.isSuccess()) {
+                    error = reply.getError().toString();
+                } else {
+                    KVMHostAsyncHttpCallReply hreply = reply.castReply();
+                    VxlanKvmAgentCommands.UpdateVxlanNetworksFdbResponse rsp = hreply.toResponse(VxlanKvmAgentCommands.UpdateVxlanNetworksFdbResponse.class);
+                    if (!rsp.isSuccess()) {
+                        error = rsp.getError();
+                    } else if (rsp.getGeneration() != cmd.getGeneration()) {
+                        error = String.format("the fdb is at generation %s on the host, but the delta is based on generation %s",
+                                rsp.getGeneration(), cmd.getBaseGeneration());
+                    }
+                }
+
+                if (error == null) {
+                    completion.done();
+                    return;
+                }
+
+                if (!VxlanFdbTracker.isCurrent(poolUuid, host.getUuid(), change.next.generation)) {
+                    // a later change has been sent, which falls back to sending all peers by itself if needed
+                    logger.warn(String.format("failed to update fdb of vxlan network pool %s on host[uuid:%s], skip it as" +
+                            " it's replaced by a later change, %s", poolUuid, host.getUuid(), error));
+                    completion.done();
+                    return;
+                }
+
+                logger.warn(String.format("failed to update fdb of vxlan network pool %s on host[uuid:%s], resync all peers, %s",
+                        poolUuid, host.getUuid(), error));
+                populateFdb(poolUuid, host, vxlanNetworkUuids, change.next.peers, change.next.generation, completion);
+            }
+        });
+    }
+
     private void handle(final PrepareL2NetworkOnHostMsg msg) {
         final PrepareL2NetworkOnHostReply reply = new PrepareL2NetworkOnHostReply();
         prepareL2NetworkOnHosts(msg.getL2NetworkUuid(), Arrays.asList(msg.getHost()), new Completion(msg) {
@@ -243,6 +346,7 @@ public class VxlanNetworkPool extends L2NoVlanNetwork implements L2VxlanNetworkP
                     @Override
                     public void success() {
                         dbf.removeByPrimaryKey(msg.getL2NetworkUuid(), L2NetworkVO.class);
+                        VxlanFdbTracker.forgetPool(msg.getL2NetworkUuid());
                         extpEmitter.afterDelete(inv);
                         bus.reply(msg, reply);
                     }
@@ -250,6 +354,7 @@ public class VxlanNetworkPool extends L2NoVlanNetwork implements L2VxlanNetworkP
                     @Override
                     public void fail(ErrorCode errorCode) {
                         dbf.removeByPrimaryKey(msg.getL2NetworkUuid(), L2NetworkVO.class);
+                        VxlanFdbTracker.forgetPool(msg.getL2NetworkUuid());
                         extpEmitter.afterDelete(inv);
                         reply.setError(errorCode);
                         bus.reply(msg, reply);
@@ -317,6 +422,9 @@ public class VxlanNetworkPool extends L2NoVlanNetwork implements L2VxlanNetworkP
         DeleteVtepReply reply = new DeleteVtepReply();
         VtepVO vo = dbf.findByUuid(msg.getVtepUuid(), VtepVO.class);
         dbf.remove(vo);
+        if (vo != null) {
+            VxlanFdbTracker.forget(vo.getPoolUuid(), Collections.singletonList(vo.getHostUuid()));
+        }
         bus.reply(msg, reply);
     }
 
@@ -704,6 +812,8 @@ public class VxlanNetworkPool extends L2NoVlanNetwork implements L2VxlanNetworkP
                     /* if some vtepip of some host changed, new vtep ip address need to be update to all host */
                     pmsg.setHosts(hosts);
                 }
+                // hosts prepared may have been restarted and lost their fdb
+                pmsg.setFullSyncHostUuids(hosts.stream().map(HostInventory::getUuid).collect(Collectors.toList()));
                 pmsg.setPoolUuid(l2NetworkUuid);
                 bus.makeTargetServiceIdByResourceUuid(pmsg, L2NetworkConstant.SERVICE_ID, l2NetworkUuid);
                 bus.send(pmsg, new CloudBusCallBack(pmsg){
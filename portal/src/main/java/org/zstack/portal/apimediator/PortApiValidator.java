@@ -14,19 +14,20 @@ import org.zstack.header.message.APIEvent;
 import org.zstack.header.message.APIMessage;
 import org.zstack.header.message.APIParam;
 import org.zstack.header.message.ApiMessageValidator;
+import org.zstack.header.message.CompiledApiParam;
 import org.zstack.header.rest.RestRequest;
 import org.zstack.utils.DebugUtils;
 
 import javax.persistence.TypedQuery;
 import java.lang.reflect.Field;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
+import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import static org.zstack.core.Platform.err;
 
 public class PortApiValidator implements ApiMessageValidator, Ordered {
+    private static final Pattern UUID_PATTERN = Pattern.compile("[0-9a-f]{8}[0-9a-f]{4}[1-5][0-9a-f]{3}[89ab][0-9a-f]{3}[0-9a-f]{12}");
+
     @Autowired
     private CloudBus bus;
     @Autowired
@@ -34,76 +35,113 @@ public class PortApiValidator implements ApiMessageValidator, Ordered {
     @Autowired
     private ErrorFacade errf;
 
+    /**
+     * resources of all params of a type are checked in one query
+     */
     @Override
-    public void validate(APIMessage msg, Field f, Object value, APIParam at) {
-        if (value != null && at.resourceType() != Object.class) {
+    public void validate(APIMessage msg, List<APIMessage.FieldParam> params, Object[] values) {
+        Map<Class, Set<String>> uuidsByType = new HashMap<>();
+        for (int i = 0; i < values.length; i++) {
+            CompiledApiParam p = params.get(i).getCompiled();
+            Object value = values[i];
+            if (value == null || p.resourceType == null) {
+                continue;
+            }
+
             if (value instanceof Collection) {
-                final Collection col = (Collection) value;
-                if (!col.isEmpty()) {
-                    List<String> uuids = new SQLBatchWithReturn<List<String>>() {
-                        @Override
-                        protected List<String> scripts() {
-                            String sql = String.format("select e.uuid from %s e where e.uuid in (:uuids)", at.resourceType().getSimpleName());
-                            TypedQuery<String> q = databaseFacade.getEntityManager().createQuery(sql, String.class);
-                            q.setParameter("uuids", col);
-                            return q.getResultList();
-                        }
-                    }.execute();
-
-                    if (uuids.size() != col.size()) {
-                        List<String> invalids = new ArrayList<>();
-                        for (Object o : col) {
-                            String uuid = (String) o;
-                            if (!uuids.contains(uuid)) {
-                                invalids.add(uuid);
-                            }
-                        }
-
-                        if (!invalids.isEmpty()) {
-                            throw new ApiMessageInterceptionException(err(SysErrors.RESOURCE_NOT_FOUND,
-                                    "invalid field[%s], resource[uuids:%s, type:%s] not found", f.getName(), invalids, at.resourceType().getSimpleName()
-                            ));
-                        }
-                    }
+                for (Object o : (Collection) value) {
+                    uuidsByType.computeIfAbsent(p.resourceType, k -> new HashSet<>()).add((String) o);
                 }
-
             } else {
-                DebugUtils.Assert(String.class.isAssignableFrom(f.getType()), String.format("field[%s] of message[%s] has APIParam.resourceType specified, then the field must be uuid which is a String, but actual is %s",
-                        f.getName(), msg.getClass().getName(), f.getType()));
-
-                if (!dbf.isExist(value, at.resourceType())) {
-                    if (at.successIfResourceNotExisting()) {
-                        RestRequest rat = msg.getClass().getAnnotation(RestRequest.class);
-                        if (rat == null) {
-                            throw new CloudRuntimeException(String.format("the API class[%s] does not have @RestRequest but it uses a successIfResourceNotExisting helper", msg.getClass()));
-                        }
-
-                        Pattern p = Pattern.compile("[0-9a-f]{8}[0-9a-f]{4}[1-5][0-9a-f]{3}[89ab][0-9a-f]{3}[0-9a-f]{12}");
-                        Matcher mt = p.matcher(value.toString());
-                        if (!mt.matches()){
-                            throw new ApiMessageInterceptionException(err(SysErrors.RESOURCE_NOT_FOUND,
-                                    "invalid value[%s] of field [%s]", value, f.getName()));
-                        }
-
-                        APIEvent evt;
-                        try {
-                            evt = (APIEvent) rat.responseClass().getConstructor(String.class).newInstance(msg.getId());
-                        } catch (Exception e) {
-                            throw new CloudRuntimeException(e);
-                        }
-
-                        bus.publish(evt);
-                        throw new StopRoutingException();
-                    } else {
-                        throw new ApiMessageInterceptionException(err(SysErrors.RESOURCE_NOT_FOUND,
-                                "invalid field[%s], resource[uuid:%s, type:%s] not found", f.getName(), value, at.resourceType().getSimpleName()
-                        ));
+                DebugUtils.Assert(String.class.isAssignableFrom(p.type), String.format("field[%s] of message[%s] has APIParam.resourceType specified, then the field must be uuid which is a String, but actual is %s",
+                        p.name, msg.getClass().getName(), p.type));
+                uuidsByType.computeIfAbsent(p.resourceType, k -> new HashSet<>()).add((String) value);
+            }
+        }
+
+        if (uuidsByType.isEmpty()) {
+            return;
+        }
+
+        Map<Class, Set<String>> existing = new SQLBatchWithReturn<Map<Class, Set<String>>>() {
+            @Override
+            protected Map<Class, Set<String>> scripts() {
+                Map<Class, Set<String>> ret = new HashMap<>();
+                uuidsByType.forEach((type, uuids) -> {
+                    String sql = String.format("select e.uuid from %s e where e.uuid in (:uuids)", type.getSimpleName());
+                    TypedQuery<String> q = databaseFacade.getEntityManager().createQuery(sql, String.class);
+                    q.setParameter("uuids", uuids);
+                    // uuids are matched case-insensitively by the database
+                    Set<String> existing = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+                    existing.addAll(q.getResultList());
+                    ret.put(type, existing);
+                });
+                return ret;
+            }
+        }.execute();
+
+        // report in the order of params as checking them one by one
+        for (int i = 0; i < values.length; i++) {
+            CompiledApiParam p = params.get(i).getCompiled();
+            Object value = values[i];
+            if (value == null || p.resourceType == null) {
+                continue;
+            }
+
+            Set<String> uuids = existing.get(p.resourceType);
+            if (value instanceof Collection) {
+                List<String> invalids = new ArrayList<>();
+                for (Object o : (Collection) value) {
+                    if (!uuids.contains(o)) {
+                        invalids.add((String) o);
                     }
                 }
+
+                if (!invalids.isEmpty()) {
+                    throw new ApiMessageInterceptionException(err(SysErrors.RESOURCE_NOT_FOUND,
+                            "invalid field[%s], resource[uuids:%s, type:%s] not found", p.name, invalids, p.resourceType.getSimpleName()
+                    ));
+                }
+            } else if (!uuids.contains(value)) {
+                if (p.successIfResourceNotExisting) {
+                    stopRoutingIfResourceNotExisting(msg, p.name, value);
+                } else {
+                    throw new ApiMessageInterceptionException(err(SysErrors.RESOURCE_NOT_FOUND,
+                            "invalid field[%s], resource[uuid:%s, type:%s] not found", p.name, value, p.resourceType.getSimpleName()
+                    ));
+                }
             }
         }
     }
-    
+
+    private void stopRoutingIfResourceNotExisting(APIMessage msg, String fieldName, Object value) {
+        RestRequest rat = msg.getClass().getAnnotation(RestRequest.class);
+        if (rat == null) {
+            throw new CloudRuntimeException(String.format("the API class[%s] does not have @RestRequest but it uses a successIfResourceNotExisting helper", msg.getClass()));
+        }
+
+        Matcher mt = UUID_PATTERN.matcher(value.toString());
+        if (!mt.matches()){
+            throw new ApiMessageInterceptionException(err(SysErrors.RESOURCE_NOT_FOUND,
+                    "invalid value[%s] of field [%s]", value, fieldName));
+        }
+
+        APIEvent evt;
+        try {
+            evt = (APIEvent) rat.responseClass().getConstructor(String.class).newInstance(msg.getId());
+        } catch (Exception e) {
+            throw new CloudRuntimeException(e);
+        }
+
+        bus.publish(evt);
+        throw new StopRoutingException();
+    }
+
+    @Override
+    public void validate(APIMessage msg, Field f, Object value, APIParam at) {
+        validate(msg, Collections.singletonList(APIMessage.FieldParam.valueOf(f, at)), new Object[]{value});
+    }
+
     @Override
     public int getOrder() {
         return -1;
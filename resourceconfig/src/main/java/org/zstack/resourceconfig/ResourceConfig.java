@@ -1,10 +1,12 @@
 package org.zstack.resourceconfig;
 
+import com.google.common.collect.Lists;
 import org.springframework.beans.factory.annotation.Autowire;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Configurable;
 import org.springframework.transaction.annotation.Transactional;
 import org.zstack.core.Platform;
+import org.zstack.core.cache.DistributedEvictingCache;
 import org.zstack.core.cloudbus.EventCallback;
 import org.zstack.core.cloudbus.EventFacade;
 import org.zstack.core.config.*;
@@ -16,7 +18,9 @@ import org.zstack.utils.TypeUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
+import javax.persistence.Tuple;
 import java.util.*;
+import java.util.stream.Collectors;
 
 import static org.zstack.core.Platform.operr;
 import static org.zstack.utils.CollectionDSL.e;
@@ -31,6 +35,7 @@ import static org.zstack.resourceconfig.ResourceConfigCanonicalEvents.*;
 @Configurable(preConstruction = true, autowire = Autowire.BY_TYPE)
 public class ResourceConfig {
     private static final CLogger logger = Utils.getLogger(ResourceConfig.class);
+    private static final int BULK_QUERY_SIZE = 1000;
 
     @Autowired
     private DatabaseFacade dbf;
@@ -47,6 +52,17 @@ public class ResourceConfig {
     private List<ResourceConfigDeleteExtensionPoint> deleteExtensions = new ArrayList<>();
     private List<ResourceConfigValidatorExtensionPoint> validatorExtensions = new ArrayList<>();
 
+    /**
+     * resolved values keyed by resource uuid, an empty value means no value is bound to the
+     * resource and its parents so the global config applies. A value bound to a resource is
+     * inherited by its children, so any update or deletion drops all cached values; the TTL
+     * covers resources moving to other parents, e.g. VM migration. Other management nodes
+     * drop theirs by UPDATE_EVENT_PATH and DELETE_EVENT_PATH. Off unless
+     * resourceConfig.valueCacheSize is set
+     */
+    private DistributedEvictingCache<Optional<String>> valueCache = new DistributedEvictingCache<>(
+            ResourceConfigGlobalProperty.VALUE_CACHE_SIZE, ResourceConfigGlobalProperty.VALUE_CACHE_TTL);
+
     public static ResourceConfig valueOf(GlobalConfig globalConfig, BindResourceConfig bindInfo) {
         ResourceConfig result = new ResourceConfig();
         result.globalConfig = globalConfig;
@@ -99,6 +115,18 @@ public class ResourceConfig {
         return TypeUtils.stringToValue(value, clz);
     }
 
+    /**
+     * resolves the config for many resources with a few queries per bound resource type,
+     * instead of several queries per resource
+     *
+     * @return resource uuid to config value, resources not found get the global config value
+     */
+    public <T> Map<String, T> getResourceConfigValues(Collection<String> resourceUuids, Class<T> clz) {
+        Map<String, T> ret = new HashMap<>();
+        getResourceConfigValues(resourceUuids).forEach((uuid, value) -> ret.put(uuid, TypeUtils.stringToValue(value, clz)));
+        return ret;
+    }
+
     void init() {
         installEventTrigger();
         initResourceConfigNodes();
@@ -168,6 +196,10 @@ public class ResourceConfig {
                     it.validateGlobalConfig(globalConfig.getCategory(), globalConfig.getName(), oldValue, newValue));
             validatorExtensions.forEach(it -> it.validateResourceConfig(resourceUuid, oldValue, newValue));
             updateValueInDb(resourceUuid, resourceType, newValue);
+        }
+
+        invalidateValueCache();
+        if (localUpdate) {
             localUpdateExtensions.forEach(it -> it.updateResourceConfig(this, resourceUuid, resourceType, oldValue, newValue));
         }
 
@@ -190,6 +222,10 @@ public class ResourceConfig {
 
         if (localDelete) {
             deleteInDb(resourceUuid);
+        }
+
+        invalidateValueCache();
+        if (localDelete) {
             localDeleteExtensions.forEach(it -> it.deleteResourceConfig(this, resourceUuid, resourceType, originValue));
         }
 
@@ -208,8 +244,27 @@ public class ResourceConfig {
     }
 
 
-    @Transactional(readOnly = true)
+    private void invalidateValueCache() {
+        valueCache.evict(null);
+    }
+
+    private void cacheValue(String resourceUuid, String value, long generation) {
+        // skips values resolved before an update or deletion, they may be stale
+        valueCache.put(resourceUuid, Optional.ofNullable(value), generation);
+    }
+
     protected String getResourceConfigValue(String resourceUuid) {
+        Optional<String> cached = valueCache.get(resourceUuid);
+        if (cached != null) {
+            return cached.orElse(globalConfig.value());
+        }
+
+        return loadResourceConfigValue(resourceUuid);
+    }
+
+    @Transactional(readOnly = true)
+    protected String loadResourceConfigValue(String resourceUuid) {
+        long generation = valueCache.getGeneration();
         String resourceType = Q.New(ResourceVO.class).select(ResourceVO_.resourceType).eq(ResourceVO_.uuid, resourceUuid).findValue();
         if (resourceType == null) {
             logger.warn(String.format("no resource[uuid:%s] found, cannot get it's resource config," +
@@ -221,10 +276,57 @@ public class ResourceConfig {
         if (getter == null) {
             logger.warn(String.format("resource[uuid:%s, type:%s] is not bound to global config[category:%s, name:%s]," +
                     " use global config instead", resourceUuid, resourceType, globalConfig.getCategory(), globalConfig.getName()));
+            cacheValue(resourceUuid, null, generation);
             return globalConfig.value();
         }
 
-        return getter.getResourceConfigValue(resourceUuid);
+        String value = getter.getResourceConfigValue(resourceUuid);
+        cacheValue(resourceUuid, value, generation);
+        return value == null ? globalConfig.value() : value;
+    }
+
+    @Transactional(readOnly = true)
+    protected Map<String, String> getResourceConfigValues(Collection<String> resourceUuids) {
+        Map<String, String> ret = new HashMap<>();
+        List<String> missed = new ArrayList<>();
+        for (String uuid : new HashSet<>(resourceUuids)) {
+            Optional<String> cached = valueCache.get(uuid);
+            if (cached != null) {
+                ret.put(uuid, cached.orElse(globalConfig.value()));
+            } else {
+                missed.add(uuid);
+            }
+        }
+
+        if (missed.isEmpty()) {
+            return ret;
+        }
+
+        long generation = valueCache.getGeneration();
+        Map<String, List<String>> uuidsByType = new HashMap<>();
+        for (List<String> uuids : Lists.partition(missed, BULK_QUERY_SIZE)) {
+            List<Tuple> tuples = Q.New(ResourceVO.class).select(ResourceVO_.uuid, ResourceVO_.resourceType)
+                    .in(ResourceVO_.uuid, uuids).listTuple();
+            tuples.forEach(t -> uuidsByType.computeIfAbsent(t.get(1, String.class), k -> new ArrayList<>()).add(t.get(0, String.class)));
+        }
+
+        uuidsByType.forEach((resourceType, uuids) -> {
+            ResourceConfigGetter getter = configGetter.get(resourceType);
+            Map<String, String> values = getter == null ? Collections.<String, String>emptyMap() : getter.getResourceConfigValues(uuids);
+            uuids.forEach(uuid -> {
+                String value = values.get(uuid);
+                cacheValue(uuid, value, generation);
+                ret.put(uuid, value == null ? globalConfig.value() : value);
+            });
+        });
+
+        missed.stream().filter(uuid -> !ret.containsKey(uuid)).forEach(uuid -> {
+            logger.warn(String.format("no resource[uuid:%s] found, cannot get it's resource config," +
+                    " use global config instead", uuid));
+            ret.put(uuid, globalConfig.value());
+        });
+
+        return ret;
     }
 
     List<ResourceConfigInventory> getEffectiveResourceConfigs(String resourceUuid) {
@@ -248,6 +350,7 @@ public class ResourceConfig {
     private class ResourceConfigGetter {
         String resourceType;
         List<String> parentTypeSql = new ArrayList<>();
+        List<String> parentTypeBulkSql = new ArrayList<>();
 
         private String getResourceConfigValue(String resourceUuid) {
             String v = loadConfigValue(resourceUuid);
@@ -267,7 +370,35 @@ public class ResourceConfig {
                 }
             }
 
-            return globalConfig.value();
+            return null;
+        }
+
+        private Map<String, String> getResourceConfigValues(List<String> resourceUuids) {
+            Map<String, String> ret = loadConfigValues(resourceUuids);
+            List<String> unresolved = resourceUuids.stream().filter(it -> !ret.containsKey(it)).collect(Collectors.toList());
+            for (String sql : parentTypeBulkSql) {
+                if (unresolved.isEmpty()) {
+                    break;
+                }
+
+                Map<String, String> parents = new HashMap<>();
+                for (List<String> uuids : Lists.partition(unresolved, BULK_QUERY_SIZE)) {
+                    List<Tuple> tuples = SQL.New(sql, Tuple.class).param("uuids", uuids).list();
+                    tuples.stream().filter(t -> t.get(1) != null)
+                            .forEach(t -> parents.putIfAbsent(t.get(0, String.class), t.get(1, String.class)));
+                }
+
+                Map<String, String> parentValues = loadConfigValues(new ArrayList<>(new HashSet<>(parents.values())));
+                unresolved.removeIf(uuid -> {
+                    String v = parentValues.get(parents.get(uuid));
+                    if (v != null) {
+                        ret.put(uuid, v);
+                    }
+                    return v != null;
+                });
+            }
+
+            return ret;
         }
 
         private List<ResourceConfigInventory> getConnectedResourceConfigs(String resourceUuid) {
@@ -290,8 +421,10 @@ public class ResourceConfig {
             ResourceConfigGetter getter = new ResourceConfigGetter();
             Class resourceClass = connectedClasses.get(0);
             for (Class parentClass : connectedClasses.subList(1, connectedClasses.size())) {
-                Optional.ofNullable(DBGraph.findVerticesWithSmallestWeight(resourceClass, parentClass)).ifPresent(vertex ->
-                        parentTypeSql.add(vertex.toSQL("uuid", SimpleQuery.Op.EQ, "'%s'")));
+                Optional.ofNullable(DBGraph.findVerticesWithSmallestWeight(resourceClass, parentClass)).ifPresent(vertex -> {
+                    parentTypeSql.add(vertex.toSQL("uuid", SimpleQuery.Op.EQ, "'%s'"));
+                    parentTypeBulkSql.add(vertex.toSQLWithSourceField("uuid", SimpleQuery.Op.IN, "(:uuids)"));
+                });
             }
 
             getter.resourceType = resourceClass.getSimpleName();
@@ -347,7 +480,7 @@ public class ResourceConfig {
     }
 
     private String makeDeleteEventPath() {
-        return s(ResourceConfigCanonicalEvents.UPDATE_EVENT_PATH).formatByMap(map(
+        return s(ResourceConfigCanonicalEvents.DELETE_EVENT_PATH).formatByMap(map(
                 e("nodeUuid", Platform.getManagementServerId()),
                 e("category", globalConfig.getCategory()),
                 e("name", globalConfig.getName())
@@ -378,6 +511,19 @@ public class ResourceConfig {
                 .findValue();
     }
 
+    private Map<String, String> loadConfigValues(List<String> resourceUuids) {
+        Map<String, String> ret = new HashMap<>();
+        for (List<String> uuids : Lists.partition(resourceUuids, BULK_QUERY_SIZE)) {
+            List<Tuple> tuples = Q.New(ResourceConfigVO.class).select(ResourceConfigVO_.resourceUuid, ResourceConfigVO_.value)
+                    .eq(ResourceConfigVO_.name, globalConfig.getName())
+                    .eq(ResourceConfigVO_.category, globalConfig.getCategory())
+                    .in(ResourceConfigVO_.resourceUuid, uuids)
+                    .listTuple();
+            tuples.forEach(t -> ret.put(t.get(0, String.class), t.get(1, String.class)));
+        }
+        return ret;
+    }
+
 
     List<Class> getResourceClasses() {
         return resourceClasses;
@@ -2,10 +2,15 @@ package org.zstack.resourceconfig;
 
 import org.zstack.core.config.GlobalConfig;
 
+import java.util.Collection;
+import java.util.Map;
+
 public interface ResourceConfigFacade {
     String SERVICE_ID = ResourceConfigConstant.SERVICE_ID;
 
     ResourceConfig getResourceConfig(String identity);
 
     <T> T getResourceConfigValue(GlobalConfig gc, String resourceUuid, Class<T> clz);
+
+    <T> Map<String, T> getResourceConfigValues(GlobalConfig gc, Collection<String> resourceUuids, Class<T> clz);
 }
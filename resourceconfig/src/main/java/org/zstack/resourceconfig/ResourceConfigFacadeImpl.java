@@ -158,6 +158,20 @@ public class ResourceConfigFacadeImpl extends AbstractService implements Resourc
         return rc.getResourceConfigValue(resourceUuid, clz);
     }
 
+    @Override
+    public <T> Map<String, T> getResourceConfigValues(GlobalConfig gc, Collection<String> resourceUuids, Class<T> clz) {
+        ResourceConfig rc = resourceConfigs.get(gc.getIdentity());
+        if (rc == null) {
+            logger.debug(String.format("resources are not bound to global config[category:%s, name:%s], use global config instead", gc.getCategory(), gc.getName()));
+            T value = gc.value(clz);
+            Map<String, T> ret = new HashMap<>();
+            resourceUuids.forEach(it -> ret.put(it, value));
+            return ret;
+        }
+
+        return rc.getResourceConfigValues(resourceUuids, clz);
+    }
+
     protected void buildResourceConfig(Field field) throws Exception {
         BindResourceConfig at = field.getAnnotation(BindResourceConfig.class);
         GlobalConfig gc = (GlobalConfig) field.get(null);
@@ -0,0 +1,14 @@
+package org.zstack.resourceconfig;
+
+import org.zstack.core.GlobalProperty;
+import org.zstack.core.GlobalPropertyDefinition;
+
+@GlobalPropertyDefinition
+public class ResourceConfigGlobalProperty {
+    // 0 turns the cache off, a cached value may be stale for up to the TTL after the resource
+    // moves to another parent
+    @GlobalProperty(name = "resourceConfig.valueCacheSize", defaultValue = "0")
+    public static int VALUE_CACHE_SIZE;
+    @GlobalProperty(name = "resourceConfig.valueCacheTTL", defaultValue = "60")
+    public static int VALUE_CACHE_TTL;
+}
@@ -0,0 +1,192 @@
+package org.zstack.rest;
+
+import org.springframework.http.HttpStatus;
+import org.zstack.header.errorcode.OperationFailureException;
+import org.zstack.header.query.QueryCondition;
+import org.zstack.header.query.QueryOp;
+import org.zstack.header.rest.RestException;
+import org.zstack.utils.FieldUtils;
+import org.zstack.utils.gson.JSONObjectUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * keyset pagination of query APIs, inventories are walked by the primary key uuid, or by
+ * createDate with uuid breaking ties.
+ *
+ * The query framework sorts by one field only, so a createDate cursor walks in two phases:
+ * inventories after the cursor date are fetched sorted by createDate, and those sharing the
+ * last date of a full page are not returned but walked by uuid with the date fixed, then the
+ * cursor moves past the date. Every page is a plain query with conditions on indexed columns,
+ * the cost doesn't grow with the position like start/limit does.
+ */
+class QueryCursor {
+    static final String UUID = "uuid";
+    static final String CREATE_DATE = "createDate";
+
+    interface PageFetcher {
+        /**
+         * @throws OperationFailureException if the query fails
+         */
+        List fetch(List<QueryCondition> conditions, String sortBy, String sortDirection, int limit);
+    }
+
+    // field names are short, the cursor is sent back and forth in URLs
+    private static class State {
+        String f;
+        boolean d;
+        // the date walked, or the last date returned
+        String t;
+        // the last uuid returned
+        String u;
+        // walking inventories of date t by uuid
+        boolean e;
+        boolean done;
+    }
+
+    private State state = new State();
+
+    private QueryCursor() {
+    }
+
+    static QueryCursor newCursor(Class inventoryClass, String sortBy, String sortDirection) throws RestException {
+        String field = sortBy == null ? UUID : sortBy;
+        if (!UUID.equals(field) && !CREATE_DATE.equals(field)) {
+            throw new RestException(HttpStatus.BAD_REQUEST.value(), String.format("Invalid query parameter. Inventories can only be" +
+                    " paginated by cursor sorting by %s or %s, but got %s", UUID, CREATE_DATE, field));
+        }
+
+        for (String f : new String[]{UUID, field}) {
+            if (!FieldUtils.hasField(f, inventoryClass)) {
+                throw new RestException(HttpStatus.BAD_REQUEST.value(), String.format("Invalid query parameter. %s has no" +
+                        " field[%s], it can't be paginated by cursor", inventoryClass.getSimpleName(), f));
+            }
+        }
+
+        QueryCursor cursor = new QueryCursor();
+        cursor.state.f = field;
+        cursor.state.d = "desc".equals(sortDirection);
+        return cursor;
+    }
+
+    static QueryCursor decode(Class inventoryClass, String s) throws RestException {
+        State st;
+        try {
+            st = JSONObjectUtil.toObject(new String(Base64.getUrlDecoder().decode(s), StandardCharsets.UTF_8), State.class);
+        } catch (Exception e) {
+            throw new RestException(HttpStatus.BAD_REQUEST.value(), String.format("Invalid query parameter. Malformed cursor[%s]", s));
+        }
+
+        if (st == null || st.f == null) {
+            throw new RestException(HttpStatus.BAD_REQUEST.value(), String.format("Invalid query parameter. Malformed cursor[%s]", s));
+        }
+
+        QueryCursor cursor = newCursor(inventoryClass, st.f, st.d ? "desc" : "asc");
+        cursor.state = st;
+        return cursor;
+    }
+
+    String encode() {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(JSONObjectUtil.toJsonString(state).getBytes(StandardCharsets.UTF_8));
+    }
+
+    String getSortBy() {
+        return state.f;
+    }
+
+    boolean isDone() {
+        return state.done;
+    }
+
+    private static QueryCondition condition(String name, QueryOp op, String value) {
+        QueryCondition qc = new QueryCondition();
+        qc.setName(name);
+        qc.setOp(op.toString());
+        qc.setValue(value);
+        return qc;
+    }
+
+    private static String uuidOf(Object inv) {
+        return FieldUtils.getFieldValue(UUID, inv);
+    }
+
+    private static String dateOf(Object inv) {
+        Object date = FieldUtils.getFieldValue(CREATE_DATE, inv);
+        return date == null ? null : date.toString();
+    }
+
+    private QueryOp after() {
+        return state.d ? QueryOp.LT : QueryOp.GT;
+    }
+
+    private String direction() {
+        return state.d ? "desc" : "asc";
+    }
+
+    /**
+     * @return inventories following the cursor, at most limit, fewer than limit doesn't mean
+     * there is no more, check isDone()
+     */
+    List next(PageFetcher fetcher, int limit) {
+        List ret = new ArrayList();
+        while (!state.done && ret.isEmpty()) {
+            if (UUID.equals(state.f)) {
+                List<QueryCondition> conds = new ArrayList<>();
+                if (state.u != null) {
+                    conds.add(condition(UUID, after(), state.u));
+                }
+
+                List invs = fetcher.fetch(conds, UUID, direction(), limit);
+                if (!invs.isEmpty()) {
+                    state.u = uuidOf(invs.get(invs.size() - 1));
+                }
+                state.done = invs.size() < limit;
+                ret.addAll(invs);
+            } else if (state.e) {
+                List<QueryCondition> conds = new ArrayList<>();
+                conds.add(condition(CREATE_DATE, QueryOp.EQ, state.t));
+                if (state.u != null) {
+                    conds.add(condition(UUID, after(), state.u));
+                }
+
+                List invs = fetcher.fetch(conds, UUID, direction(), limit);
+                if (invs.size() < limit) {
+                    // the date is done, move past it
+                    state.e = false;
+                    state.u = null;
+                } else {
+                    state.u = uuidOf(invs.get(invs.size() - 1));
+                }
+                ret.addAll(invs);
+            } else {
+                List<QueryCondition> conds = new ArrayList<>();
+                if (state.t != null) {
+                    conds.add(condition(CREATE_DATE, after(), state.t));
+                }
+
+                List invs = fetcher.fetch(conds, CREATE_DATE, direction(), limit);
+                String last = invs.isEmpty() ? null : dateOf(invs.get(invs.size() - 1));
+                if (invs.size() < limit || last == null) {
+                    state.done = true;
+                    ret.addAll(invs);
+                    continue;
+                }
+
+                // inventories of the last date may continue in the next page, walk them by uuid
+                for (Object inv : invs) {
+                    if (!last.equals(dateOf(inv))) {
+                        ret.add(inv);
+                    }
+                }
+                state.t = last;
+                state.e = true;
+                state.u = null;
+            }
+        }
+
+        return ret;
+    }
+}
@@ -19,6 +19,14 @@ public interface RestConstants {
     String HEADER_DATE = "Date";
     String HEADER_CONTENT_MD5 = "Content-MD5";
     String HEADER_CONTENT_TYPE = "Content-Type";
+
+    /* query parameters paging a query API by cursor, an empty cursor starts from the beginning */
+    String QUERY_CURSOR = "cursor";
+    String QUERY_NEXT_CURSOR = "nextCursor";
+    /* streams a query API as one inventory per line, also by the Accept header of MEDIA_TYPE_NDJSON */
+    String QUERY_STREAM = "stream";
+    String QUERY_STREAM_INVENTORY = "inventory";
+    String MEDIA_TYPE_NDJSON = "application/x-ndjson";
     /* request must be received in 15 minutes */
     int REQUEST_DURATION_MINUTES = 15;
 
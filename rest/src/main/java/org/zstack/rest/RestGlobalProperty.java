@@ -10,4 +10,6 @@ import org.zstack.core.GlobalPropertyDefinition;
 public class RestGlobalProperty {
     @GlobalProperty(name="RestServer.maxCachedApiResults", defaultValue = "2000")
     public static int MAX_CACHED_API_RESULTS;
+    @GlobalProperty(name="RestServer.queryStream.pageSize", defaultValue = "1000")
+    public static int QUERY_STREAM_PAGE_SIZE;
 }
@@ -28,6 +28,7 @@ import org.zstack.header.Component;
 import org.zstack.header.Constants;
 import org.zstack.header.MapField;
 import org.zstack.header.apimediator.ApiMediatorConstant;
+import org.zstack.header.errorcode.OperationFailureException;
 import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.identity.IdentityByPassCheck;
 import org.zstack.header.identity.SessionInventory;
@@ -35,6 +36,7 @@ import org.zstack.header.identity.SuppressCredentialCheck;
 import org.zstack.header.message.*;
 import org.zstack.header.query.APIQueryMessage;
 import org.zstack.header.query.APIQueryReply;
+import org.zstack.header.query.AutoQuery;
 import org.zstack.header.query.QueryCondition;
 import org.zstack.header.query.QueryOp;
 import org.zstack.header.rest.*;
@@ -53,6 +55,7 @@ import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
@@ -322,6 +325,8 @@ public class RestServer implements Component, CloudBusEventListener {
         String actionName;
 
         Map<String, Field> allApiClassFields = new HashMap<>();
+        // getDeclaredFields() copies the array on every call
+        Field[] declaredFields;
 
         @Override
         public String toString() {
@@ -332,6 +337,7 @@ public class RestServer implements Component, CloudBusEventListener {
             apiClass = clz;
             requestAnnotation = at;
             apiResponseClass = at.responseClass();
+            declaredFields = clz.getDeclaredFields();
             path = String.format("%s%s", RestConstants.API_VERSION, at.path());
 
             if (at.mappingFields().length > 0) {
@@ -853,7 +859,7 @@ public class RestServer implements Component, CloudBusEventListener {
         if (parameter == null) {
             msg = (APIMessage) api.apiClass.newInstance();
         } else {
-            for (Field f : api.apiClass.getDeclaredFields()) {
+            for (Field f : api.declaredFields) {
                 String fieldName = f.getName();
                 Object object = ((Map) parameter).get(fieldName);
                 if (object == null) {
@@ -1005,11 +1011,17 @@ public class RestServer implements Component, CloudBusEventListener {
         }
 
         // a query with conditions
+        String cursor = null;
+        boolean stream = isQueryStreamRequested(req);
         for (Map.Entry<String, String[]> e : vars.entrySet()) {
             String varname = e.getKey().trim();
             String varvalue = e.getValue()[0].trim();
 
-            if ("limit".equals(varname)) {
+            if (RestConstants.QUERY_CURSOR.equals(varname)) {
+                cursor = varvalue;
+            } else if (RestConstants.QUERY_STREAM.equals(varname)) {
+                stream = Boolean.parseBoolean(varvalue);
+            } else if ("limit".equals(varname)) {
                 try {
                     msg.setLimit(Integer.valueOf(varvalue));
                 } catch (NumberFormatException ex) {
@@ -1101,9 +1113,146 @@ public class RestServer implements Component, CloudBusEventListener {
             msg.setConditions(new ArrayList<>());
         }
 
+        if (stream || cursor != null) {
+            handleQueryApiByCursor(api, msg, vars.containsKey("limit") ? msg.getLimit() : null, cursor, stream, rsp);
+            return;
+        }
+
         sendMessage(msg, api, rsp);
     }
 
+    private boolean isQueryStreamRequested(HttpServletRequest req) {
+        String accept = req.getHeader(HttpHeaders.ACCEPT);
+        return accept != null && accept.contains(RestConstants.MEDIA_TYPE_NDJSON);
+    }
+
+    /**
+     * pages a query by a cursor rather than start/limit. Every page is sent as a separate query
+     * message, so pages go through the API interceptors and the query filters like others, and
+     * a stream holds no more than a page in heap
+     */
+    private void handleQueryApiByCursor(Api api, APIQueryMessage msg, Integer limit, String cursorString, boolean stream, HttpServletResponse rsp) throws RestException, IOException {
+        if (msg.isCount() || msg.isReplyWithCount() || msg.getGroupBy() != null || msg.getStart() != null) {
+            throw new RestException(HttpStatus.BAD_REQUEST.value(), "Invalid query parameter. 'count', 'replyWithCount'," +
+                    " 'groupBy' and 'start' can't be used with a cursor or a stream");
+        }
+
+        AutoQuery at = (AutoQuery) api.apiClass.getAnnotation(AutoQuery.class);
+        if (at == null) {
+            throw new RestException(HttpStatus.BAD_REQUEST.value(), String.format("%s can't be paginated by cursor", api.apiClass.getSimpleName()));
+        }
+
+        QueryCursor cursor = cursorString == null || cursorString.isEmpty()
+                ? QueryCursor.newCursor(at.inventoryClass(), msg.getSortBy(), msg.getSortDirection())
+                : QueryCursor.decode(at.inventoryClass(), cursorString);
+
+        if (msg.getFields() != null) {
+            // fields of the cursor are needed to find the next page
+            msg.addField(QueryCursor.UUID);
+            msg.addField(cursor.getSortBy());
+        }
+
+        RestResponseWrapper w = responseAnnotationByClass.get(api.apiResponseClass);
+        QueryCursor.PageFetcher fetcher = (conds, sortBy, sortDirection, size) -> fetchQueryPage(api, w, msg, conds, sortBy, sortDirection, size);
+
+        int pageSize = stream ? RestGlobalProperty.QUERY_STREAM_PAGE_SIZE : (limit == null ? msg.getLimit() : limit);
+        if (limit != null && stream) {
+            pageSize = Math.min(pageSize, limit);
+        }
+
+        // nothing is written before the first page, a failed query is replied as other APIs
+        List invs;
+        try {
+            invs = cursor.next(fetcher, pageSize);
+        } catch (OperationFailureException e) {
+            ApiResponse response = new ApiResponse();
+            response.setError(e.getErrorCode());
+            sendResponse(HttpStatus.SERVICE_UNAVAILABLE.value(), JSONObjectUtil.toJsonString(response), rsp);
+            return;
+        }
+
+        if (!stream) {
+            ApiResponse response = new ApiResponse();
+            response.put(w.annotation.allTo(), invs);
+            if (!cursor.isDone()) {
+                response.put(RestConstants.QUERY_NEXT_CURSOR, cursor.encode());
+            }
+            response.setSchema(new JsonSchemaBuilder(response).build());
+            sendResponse(HttpStatus.OK.value(), response, rsp);
+            return;
+        }
+
+        RequestInfo info = requestInfo.get();
+        extensions.forEach(ext -> ext.beforeRestResponse(info.method, HttpStatus.OK.value()));
+        rsp.setStatus(HttpStatus.OK.value());
+        rsp.setContentType(RestConstants.MEDIA_TYPE_NDJSON);
+
+        boolean withSchema = info.headers.containsKey(RestConstants.HEADER_JSON_SCHEMA);
+        PrintWriter out = rsp.getWriter();
+        long written = 0;
+        try {
+            while (true) {
+                for (Object inv : invs) {
+                    ApiResponse line = new ApiResponse();
+                    line.put(RestConstants.QUERY_STREAM_INVENTORY, inv);
+                    if (withSchema) {
+                        line.setSchema(new JsonSchemaBuilder(line).build());
+                    }
+                    out.write(CloudBusGson.toJsonForHttpResponse(line));
+                    out.write('\n');
+                }
+                written += invs.size();
+                // sent to the client as a chunk
+                out.flush();
+
+                if (cursor.isDone() || (limit != null && written >= limit)) {
+                    break;
+                }
+
+                invs = cursor.next(fetcher, limit == null ? pageSize : (int) Math.min(pageSize, limit - written));
+            }
+        } catch (OperationFailureException e) {
+            // the status has been sent, the error ends the stream
+            ApiResponse line = new ApiResponse();
+            line.setError(e.getErrorCode());
+            out.write(CloudBusGson.toJsonForHttpResponse(line));
+            out.write('\n');
+        }
+
+        out.flush();
+    }
+
+    private List fetchQueryPage(Api api, RestResponseWrapper w, APIQueryMessage template, List<QueryCondition> conds,
+                                String sortBy, String sortDirection, int limit) {
+        try {
+            APIQueryMessage msg = (APIQueryMessage) api.apiClass.newInstance();
+            template.getHeaders().forEach(msg::putHeaderEntry);
+            msg.setSession(template.getSession());
+            msg.setServiceId(template.getServiceId());
+            msg.setFilterName(template.getFilterName());
+            msg.setFields(template.getFields());
+            List<QueryCondition> conditions = new ArrayList<>(template.getConditions());
+            conditions.addAll(conds);
+            msg.setConditions(conditions);
+            msg.setSortBy(sortBy);
+            msg.setSortDirection(sortDirection);
+            msg.setLimit(limit);
+
+            MessageReply reply = bus.call(msg);
+            if (!reply.isSuccess()) {
+                throw new OperationFailureException(reply.getError());
+            }
+
+            Object replyOrEvent = CoreGlobalProperty.MASK_SENSITIVE_INFO ? LogSafeGson.desensitize(reply) : reply;
+            List invs = (List) PropertyUtils.getProperty(replyOrEvent, w.annotation.allTo());
+            return invs == null ? new ArrayList() : invs;
+        } catch (OperationFailureException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CloudRuntimeException(e);
+        }
+    }
+
     private void handleUniqueApi(Api api, HttpEntity<String> entity, HttpServletRequest req, HttpServletResponse rsp) throws RestException, IllegalAccessException, InstantiationException, InvocationTargetException, NoSuchMethodException, IOException {
         handleApi(api, JSONObjectUtil.toObject(entity.getBody(), LinkedHashMap.class),
                api.requestAnnotation.isAction() ? api.actionName : api.requestAnnotation.parameterName(), entity, req, rsp);
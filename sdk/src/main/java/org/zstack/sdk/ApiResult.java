@@ -1,5 +1,8 @@
 package org.zstack.sdk;
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import org.apache.commons.beanutils.PropertyUtils;
 
 import java.lang.reflect.InvocationTargetException;
@@ -84,21 +87,39 @@ public class ApiResult {
         }
     }
 
+    // walks the json tree along a schema path like "inventories[0].vmNics[1]"
+    private static JsonElement jsonAt(JsonElement tree, String path) {
+        Pattern re = Pattern.compile("(.*)\\[(\\d+)]");
+        JsonElement e = tree;
+        for (String name : path.split("\\.")) {
+            Matcher m = re.matcher(name);
+            if (m.matches()) {
+                e = e.getAsJsonObject().get(m.group(1)).getAsJsonArray().get(Integer.parseInt(m.group(2)));
+            } else {
+                e = e.getAsJsonObject().get(name);
+            }
+        }
+
+        return e;
+    }
+
     public  <T> T getResult(Class<T> clz) {
         if (resultString == null || resultString.isEmpty()) {
             return null;
         }
 
-        Map m = ZSClient.gson.fromJson(resultString, LinkedHashMap.class);
-        T ret = ZSClient.gson.fromJson(resultString, clz);
-        if (!m.containsKey("schema")) {
+        // the body is parsed only once, objects of subclasses are bound from the same tree
+        JsonObject tree = JsonParser.parseString(resultString).getAsJsonObject();
+        T ret = ZSClient.gson.fromJson(tree, clz);
+        if (!tree.has("schema") || !tree.get("schema").isJsonObject()) {
             return ret;
         }
 
-        Map<String, String> schema = (Map) m.get("schema");
+        JsonObject schema = tree.getAsJsonObject("schema");
         try {
-            for (String path : schema.keySet()) {
-                String src = schema.get(path);
+            for (Map.Entry<String, JsonElement> e : schema.entrySet()) {
+                String path = e.getKey();
+                String src = e.getValue().getAsString();
                 String dst = org.zstack.sdk.SourceClassMap.srcToDstMapping.get(src);
 
                 if (dst == null) {
@@ -113,8 +134,7 @@ public class ApiResult {
                 }
 
                 Class dstClz = Class.forName(dst);
-                Object source = getProperty(m, path);
-                Object dstBean = ZSClient.gson.fromJson(ZSClient.gson.toJson(source), dstClz);
+                Object dstBean = ZSClient.gson.fromJson(jsonAt(tree, path), dstClz);
                 setProperty(ret, path, dstBean);
             }
 
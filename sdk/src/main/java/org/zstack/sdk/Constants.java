@@ -26,6 +26,9 @@ interface Constants {
     String HEADER_REQUEST_IP = "X-Request-Ip";
     String HEADER_DATE = "date";
     String HEADER_CONTENT_TYPE = "Content-Type";
+    String HEADER_ACCEPT = "Accept";
+
+    String MEDIA_TYPE_NDJSON = "application/x-ndjson";
 
     String ACCESS_KEY_ALGORITHM = "HmacSHA1";
     String ACCESS_KEY_OAUTH = "ZStack";
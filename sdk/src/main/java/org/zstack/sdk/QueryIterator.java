@@ -0,0 +1,114 @@
+package org.zstack.sdk;
+
+import okhttp3.Response;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * iterates inventories of a query streamed by the server, one inventory per line, the
+ * response is read as the iteration goes and closed when all inventories are read.
+ * Close it if the iteration stops early.
+ */
+public class QueryIterator<T> implements Iterator<T>, Closeable {
+    private final Response response;
+    private final BufferedReader reader;
+    private final Class<T> inventoryClass;
+    private T next;
+    private boolean finished;
+
+    public static class Line {
+        public ErrorCode error;
+        public Object inventory;
+
+        public ErrorCode getError() {
+            return error;
+        }
+
+        public void setError(ErrorCode error) {
+            this.error = error;
+        }
+
+        public Object getInventory() {
+            return inventory;
+        }
+
+        public void setInventory(Object inventory) {
+            this.inventory = inventory;
+        }
+    }
+
+    QueryIterator(Response response, Class<T> inventoryClass) {
+        this.response = response;
+        this.reader = new BufferedReader(response.body().charStream());
+        this.inventoryClass = inventoryClass;
+    }
+
+    private T toInventory(String s) {
+        ApiResult res = new ApiResult();
+        res.setResultString(s);
+        Line line = res.getResult(Line.class);
+
+        if (line.error != null) {
+            close();
+            throw new ApiException(
+                    String.format("error[code: %s, description: %s, details: %s]", line.error.code, line.error.description, line.error.details)
+            );
+        }
+
+        if (inventoryClass.isInstance(line.inventory)) {
+            return inventoryClass.cast(line.inventory);
+        }
+
+        return ZSClient.gson.fromJson(ZSClient.gson.toJson(line.inventory), inventoryClass);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+
+        if (finished) {
+            return false;
+        }
+
+        try {
+            String s;
+            do {
+                s = reader.readLine();
+            } while (s != null && s.trim().isEmpty());
+
+            if (s == null) {
+                close();
+                return false;
+            }
+
+            next = toInventory(s);
+            return true;
+        } catch (IOException e) {
+            close();
+            throw new ApiException(e);
+        }
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        T ret = next;
+        next = null;
+        return ret;
+    }
+
+    @Override
+    public void close() {
+        finished = true;
+        response.close();
+    }
+}
@@ -0,0 +1,115 @@
+package org.zstack.sdk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * batches ZQL queries of many callers into one ZQLQueryAction, the statements are sent as
+ * a multi-statement ZQL and each caller gets the result of its own statement. A batch is
+ * sent when it has maxBatchSize statements or lingerMillis after its first statement.
+ *
+ * a failed batch is resent statement by statement, so a failed statement only fails the
+ * future of its own caller.
+ */
+public class ZQLBatcher {
+    private final String sessionId;
+    private final int maxBatchSize;
+    private final long lingerMillis;
+
+    private List<Query> queries = new ArrayList<>();
+    private ScheduledFuture<?> lingerTask;
+
+    private static class Query {
+        String zql;
+        CompletableFuture<ZQLQueryReturn> future = new CompletableFuture<>();
+    }
+
+    public ZQLBatcher(String sessionId, int maxBatchSize, long lingerMillis) {
+        if (maxBatchSize < 1) {
+            throw new ApiException(String.format("maxBatchSize must be greater than 0, but got %s", maxBatchSize));
+        }
+
+        this.sessionId = sessionId;
+        this.maxBatchSize = maxBatchSize;
+        this.lingerMillis = lingerMillis;
+    }
+
+    public CompletableFuture<ZQLQueryReturn> query(String zql) {
+        Query q = new Query();
+        // statements are joined by ';'
+        q.zql = zql.trim().replaceAll(";+$", "");
+
+        boolean full;
+        synchronized (this) {
+            queries.add(q);
+            full = queries.size() >= maxBatchSize;
+            if (!full && lingerTask == null) {
+                lingerTask = ZSClient.scheduler.schedule(this::flush, lingerMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        if (full) {
+            flush();
+        }
+
+        return q.future;
+    }
+
+    public void flush() {
+        List<Query> batch;
+        synchronized (this) {
+            if (lingerTask != null) {
+                lingerTask.cancel(false);
+                lingerTask = null;
+            }
+
+            if (queries.isEmpty()) {
+                return;
+            }
+
+            batch = queries;
+            queries = new ArrayList<>();
+        }
+
+        send(batch);
+    }
+
+    private void send(List<Query> batch) {
+        ZQLQueryAction action = new ZQLQueryAction();
+        action.sessionId = sessionId;
+        action.zql = batch.stream().map(q -> q.zql).collect(Collectors.joining(";"));
+
+        ZSClient.callAsync(action, ZQLQueryResult.class).whenComplete((res, t) -> {
+            if (t == null && (res == null || res.results == null || res.results.size() != batch.size())) {
+                t = new ApiException(String.format("the batch of %s ZQL statements gets %s results", batch.size(),
+                        res == null || res.results == null ? 0 : res.results.size()));
+            }
+
+            if (t != null && batch.size() > 1) {
+                // find out the failed statements
+                batch.forEach(q -> send(Collections.singletonList(q)));
+                return;
+            }
+
+            for (int i = 0; i < batch.size(); i++) {
+                Query q = batch.get(i);
+                if (t != null) {
+                    q.future.completeExceptionally(t);
+                    continue;
+                }
+
+                try {
+                    Object ret = res.results.get(i);
+                    q.future.complete(ZSClient.gson.fromJson(ZSClient.gson.toJsonTree(ret), ZQLQueryReturn.class));
+                } catch (Throwable e) {
+                    q.future.completeExceptionally(e);
+                }
+            }
+        });
+    }
+}
@@ -16,8 +16,12 @@ import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeFormatterBuilder;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -35,6 +39,11 @@ public class ZSClient {
 
     private static final long ACTION_DEFAULT_TIMEOUT = -1;
     private static final long ACTION_DEFAULT_POLLINGINTERVAL = -1;
+    // polling starts at this interval and doubles up to the polling interval of the action
+    private static final long MIN_POLLING_INTERVAL = 25;
+
+    // timers of calls sent without blocking, no thread waits for a call
+    static final ScheduledThreadPoolExecutor scheduler;
 
     static {
         gson = new GsonBuilder().create();
@@ -43,6 +52,13 @@ public class ZSClient {
                 .parseCaseInsensitive()
                 .appendPattern("EEE, dd MMM yyyy HH:mm:ss VV")
                 .toFormatter(Locale.ENGLISH);
+
+        scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "zstack-sdk-scheduler");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
     }
 
     private static ZSConfig config;
@@ -54,18 +70,24 @@ public class ZSClient {
     public static void configure(ZSConfig c) {
         config = c;
 
-        if (c.readTimeout != null || c.writeTimeout != null) {
-            OkHttpClient.Builder b = new OkHttpClient.Builder();
-
-            if (c.readTimeout != null) {
-                b.readTimeout(c.readTimeout, TimeUnit.MILLISECONDS);
-            }
-            if (c.writeTimeout != null) {
-                b.writeTimeout(c.writeTimeout, TimeUnit.MILLISECONDS);
-            }
+        OkHttpClient.Builder b = new OkHttpClient.Builder();
 
-            http = b.build();
+        if (c.readTimeout != null) {
+            b.readTimeout(c.readTimeout, TimeUnit.MILLISECONDS);
         }
+        if (c.writeTimeout != null) {
+            b.writeTimeout(c.writeTimeout, TimeUnit.MILLISECONDS);
+        }
+        if (c.maxIdleConnections != null) {
+            b.connectionPool(new ConnectionPool(c.maxIdleConnections, c.keepAliveDuration, TimeUnit.MILLISECONDS));
+        }
+
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(c.maxRequests);
+        dispatcher.setMaxRequestsPerHost(c.maxRequestsPerHost);
+        b.dispatcher(dispatcher);
+
+        http = b.build();
     }
 
     public static void webHookCallback(HttpServletRequest req, HttpServletResponse rsp) {
@@ -141,6 +163,10 @@ public class ZSClient {
 
         private ApiResult resultFromWebHook;
 
+        // only the first result completes a call sent without blocking, a web hook may race with its timeout
+        private final AtomicBoolean completed = new AtomicBoolean(false);
+        private volatile ScheduledFuture<?> timeoutTask;
+
         Api(AbstractAction action) {
             this.action = action;
             info = action.getRestInfo();
@@ -151,20 +177,33 @@ public class ZSClient {
 
         void wakeUpFromWebHook(ApiResult res) {
             if (completion == null) {
-                resultFromWebHook = res;
                 synchronized (this) {
+                    resultFromWebHook = res;
                     this.notifyAll();
                 }
             } else {
-                try {
-                    completion.complete(res);
-                } catch (Throwable t) {
-                    res = new ApiResult();
-                    res.error = new ErrorCode();
-                    res.error.code = Constants.INTERNAL_ERROR;
-                    res.error.details = t.getMessage();
-                    completion.complete(res);
-                }
+                complete(res);
+            }
+        }
+
+        private void complete(ApiResult res) {
+            if (!completed.compareAndSet(false, true)) {
+                return;
+            }
+
+            waittingApis.remove(jobUuid);
+            if (timeoutTask != null) {
+                timeoutTask.cancel(false);
+            }
+
+            try {
+                completion.complete(res);
+            } catch (Throwable t) {
+                res = new ApiResult();
+                res.error = new ErrorCode();
+                res.error.code = Constants.INTERNAL_ERROR;
+                res.error.details = t.getMessage();
+                completion.complete(res);
             }
         }
 
@@ -201,10 +240,64 @@ public class ZSClient {
 
         void call(InternalCompletion completion) {
             this.completion = completion;
-            doCall();
+
+            Request request = buildRequest();
+            if (config.webHook != null) {
+                waittingApis.put(jobUuid, this);
+            }
+
+            http.newCall(request).enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    complete(internalError(e));
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    try (Response rsp = response) {
+                        if (!rsp.isSuccessful()) {
+                            complete(httpError(rsp.code(), rsp.body().string()));
+                        } else if (rsp.code() == 200 || rsp.code() == 204) {
+                            complete(writeApiResult(rsp));
+                        } else if (rsp.code() == 202) {
+                            if (config.webHook != null) {
+                                scheduleTimeout("timeout of polling webhook result");
+                            } else {
+                                asyncPollResult(getPollingUrl(rsp));
+                            }
+                        } else {
+                            complete(internalError(new ApiException(String.format("[Internal Error] the server returns an unknown status code[%s]", rsp.code()))));
+                        }
+                    } catch (Throwable t) {
+                        complete(internalError(t));
+                    }
+                }
+            });
         }
 
-        ApiResult doCall() {
+        private void scheduleTimeout(String description) {
+            long timeout = getTimeout();
+            timeoutTask = scheduler.schedule(() -> {
+                complete(pollTimeout(description, timeout));
+            }, timeout, TimeUnit.MILLISECONDS);
+
+            // the web hook has come before the timer
+            if (completed.get()) {
+                timeoutTask.cancel(false);
+            }
+        }
+
+        private ApiResult internalError(Throwable t) {
+            ApiResult res = new ApiResult();
+            res.error = errorCode(
+                    Constants.INTERNAL_ERROR,
+                    "an internal error happened",
+                    t.getMessage()
+            );
+            return res;
+        }
+
+        private Request buildRequest() {
             action.checkParameters();
 
             Request.Builder reqBuilder = new Request.Builder()
@@ -229,7 +322,11 @@ public class ZSClient {
                 throw new ApiException(e);
             }
 
-            Request request = reqBuilder.build();
+            return reqBuilder.build();
+        }
+
+        ApiResult doCall() {
+            Request request = buildRequest();
 
             try {
                 if (config.webHook != null) {
@@ -246,9 +343,9 @@ public class ZSClient {
                     } else if (response.code() == 202) {
 
                         if (config.webHook != null) {
-                            return webHookResult();
+                            return syncWebHookResult();
                         } else {
-                            return pollResult(response);
+                            return syncPollResult(getPollingUrl(response));
                         }
                     } else {
                         throw new ApiException(String.format("[Internal Error] the server returns an unknown status code[%s]", response.code()));
@@ -256,27 +353,30 @@ public class ZSClient {
                 }
             } catch (IOException e) {
                 throw new ApiException(e);
+            } finally {
+                waittingApis.remove(jobUuid);
             }
         }
 
         private ApiResult syncWebHookResult() {
             synchronized (this) {
                 long timeout = this.getTimeout();
+                long expiredTime = System.currentTimeMillis() + timeout;
 
                 try {
-                    this.wait(timeout);
+                    // the web hook may have come before the call returns
+                    long left = timeout;
+                    while (resultFromWebHook == null && left > 0) {
+                        this.wait(left);
+                        left = expiredTime - System.currentTimeMillis();
+                    }
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
                     throw new ApiException(e);
                 }
 
                 if (resultFromWebHook == null) {
-                    resultFromWebHook = new ApiResult();
-                    resultFromWebHook.error = errorCode(
-                            Constants.POLLING_TIMEOUT_ERROR,
-                            "timeout of polling webhook result",
-                            String.format("polling result of api[%s] timeout after %s ms", action.getClass().getSimpleName(), timeout)
-                    );
+                    resultFromWebHook = pollTimeout("timeout of polling webhook result", timeout);
                 }
 
                 waittingApis.remove(jobUuid);
@@ -285,14 +385,6 @@ public class ZSClient {
             }
         }
 
-        private ApiResult webHookResult() {
-            if (completion == null) {
-                return syncWebHookResult();
-            } else {
-                return null;
-            }
-        }
-
         private void calculateAccessKeySignature(Request.Builder reqBuilder, String accessKeyId, String accessKeySecret, String path) throws Exception {
             ZonedDateTime date = ZonedDateTime.now();
             String dateStr = date.format(formatter);
@@ -488,7 +580,7 @@ public class ZSClient {
             }
         }
 
-        private ApiResult pollResult(Response response) throws IOException {
+        private String getPollingUrl(Response response) throws IOException {
             if (!info.needPoll) {
                 throw new ApiException(String.format("[Internal Error] the api[%s] is not an async API but" +
                         " the server returns 201 status code", action.getClass().getSimpleName()));
@@ -507,91 +599,82 @@ public class ZSClient {
                 pollingUrl = String.format("http://%s%s%s", configHost, splitRegex ,pollingUrl.split(splitRegex)[1]);
             }
 
-            if (completion == null) {
-                // sync polling
-                return syncPollResult(pollingUrl);
-            } else {
-                // async polling
-                asyncPollResult(pollingUrl);
-                return null;
-            }
+            return pollingUrl;
         }
 
-        private void asyncPollResult(final String url) {
-            final long current = System.currentTimeMillis();
-            final long timeout = this.getTimeout();
-            final long expiredTime = current + timeout;
-            final long i = this.getInterval();
-
-            final Object sessionId = action.getParameterValue(Constants.SESSION_ID);
-            final Object requestIp = action.getParameterValue(Constants.REQUEST_IP);
-            final Timer timer = new Timer();
+        private Request pollRequest(String url) {
+            Object sessionId = action.getParameterValue(Constants.SESSION_ID);
+            Object requestIp = action.getParameterValue(Constants.REQUEST_IP);
 
-            timer.schedule(new TimerTask() {
-                long count = current;
-                long interval = i;
+            Request.Builder builder = new Request.Builder()
+                    .url(url)
+                    .addHeader(Constants.HEADER_AUTHORIZATION, String.format("%s %s", Constants.OAUTH, sessionId))
+                    .addHeader(Constants.HEADER_JSON_SCHEMA, Boolean.TRUE.toString())
+                    .get();
 
-                private void done(ApiResult res) {
-                    completion.complete(res);
-                    timer.cancel();
-                }
+            if (requestIp != null) {
+                builder.addHeader(Constants.HEADER_REQUEST_IP, String.valueOf(requestIp));
+            }
 
-                @Override
-                public void run() {
-                    Request.Builder builder = new Request.Builder()
-                            .url(url)
-                            .addHeader(Constants.HEADER_AUTHORIZATION, String.format("%s %s", Constants.OAUTH, sessionId))
-                            .addHeader(Constants.HEADER_JSON_SCHEMA, Boolean.TRUE.toString())
-                            .get();
-
-                    if (requestIp != null) {
-                        builder.addHeader(Constants.HEADER_REQUEST_IP, String.valueOf(requestIp));
-                    }
+            return builder.build();
+        }
 
-                    Request req = builder.build();
+        // short jobs are answered after a few tens of milliseconds rather than a whole polling interval
+        private long nextPollDelay(long delay) {
+            long interval = getInterval();
+            return delay == 0 ? Math.min(MIN_POLLING_INTERVAL, interval) : Math.min(delay * 2, interval);
+        }
 
-                    try {
-                        try (Response response = http.newCall(req).execute()) {
-                            if (response.code() != 200 && response.code() != 503 && response.code() != 202) {
-                                done(httpError(response.code(), response.body().string()));
-                                return;
-                            }
+        private ApiResult pollTimeout(String description, long timeout) {
+            ApiResult res = new ApiResult();
+            res.error = errorCode(
+                    Constants.POLLING_TIMEOUT_ERROR,
+                    description,
+                    String.format("polling result of api[%s] timeout after %s ms", action.getClass().getSimpleName(), timeout)
+            );
+            return res;
+        }
 
-                            // 200 means the task has been completed successfully,
-                            // or a 505 indicates a failure,
-                            // otherwise a 202 returned means it is still
-                            // in processing
-                            if (response.code() == 200 || response.code() == 503) {
-                                done(writeApiResult(response));
-                                return;
-                            }
+        private void asyncPollResult(final String url) {
+            final long timeout = this.getTimeout();
+            asyncPollResult(url, System.currentTimeMillis() + timeout, timeout, nextPollDelay(0));
+        }
 
-                            count += interval;
-                            if (count >= expiredTime) {
-                                ApiResult res = new ApiResult();
-                                res.error = errorCode(
-                                        Constants.POLLING_TIMEOUT_ERROR,
-                                        "timeout of async polling API result",
-                                        String.format("polling result of api[%s] timeout after %s ms", action.getClass().getSimpleName(), timeout)
-                                );
+        private void asyncPollResult(final String url, final long expiredTime, final long timeout, final long delay) {
+            scheduler.schedule(() -> http.newCall(pollRequest(url)).enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    complete(internalError(e));
+                }
 
-                                done(res);
-                            }
+                @Override
+                public void onResponse(Call call, Response response) {
+                    try (Response rsp = response) {
+                        if (rsp.code() != 200 && rsp.code() != 503 && rsp.code() != 202) {
+                            complete(httpError(rsp.code(), rsp.body().string()));
+                            return;
                         }
-                    } catch (Throwable e) {
-                        //TODO: logging
 
-                        ApiResult res = new ApiResult();
-                        res.error = errorCode(
-                                Constants.INTERNAL_ERROR,
-                                "an internal error happened",
-                                e.getMessage()
-                        );
+                        // 200 means the task has been completed successfully,
+                        // or a 503 indicates a failure,
+                        // otherwise a 202 returned means it is still
+                        // in processing
+                        if (rsp.code() == 200 || rsp.code() == 503) {
+                            complete(writeApiResult(rsp));
+                            return;
+                        }
 
-                        done(res);
+                        long next = nextPollDelay(delay);
+                        if (System.currentTimeMillis() + next >= expiredTime) {
+                            complete(pollTimeout("timeout of async polling API result", timeout));
+                        } else {
+                            asyncPollResult(url, expiredTime, timeout, next);
+                        }
+                    } catch (Throwable t) {
+                        complete(internalError(t));
                     }
                 }
-            }, 0, i);
+            }), delay, TimeUnit.MILLISECONDS);
         }
 
         private ErrorCode errorCode(String id, String s, String d) {
@@ -603,28 +686,16 @@ public class ZSClient {
         }
 
         private ApiResult syncPollResult(String url) {
-            long current = System.currentTimeMillis();
             long timeout = this.getTimeout();
-            long expiredTime = current + timeout;
-            long interval = this.getInterval();
-
-            Object sessionId = action.getParameterValue(Constants.SESSION_ID);
-            Object requestIp = action.getParameterValue(Constants.REQUEST_IP);
+            long expiredTime = System.currentTimeMillis() + timeout;
+            long delay = nextPollDelay(0);
 
-            while (current < expiredTime) {
-                Request.Builder builder = new Request.Builder()
-                        .url(url)
-                        .addHeader(Constants.HEADER_AUTHORIZATION, String.format("%s %s", Constants.OAUTH, sessionId))
-                        .addHeader(Constants.HEADER_JSON_SCHEMA, Boolean.TRUE.toString())
-                        .get();
-
-                if (requestIp != null) {
-                    builder.addHeader(Constants.HEADER_REQUEST_IP, String.valueOf(requestIp));
-                }
-
-                Request req = builder.build();
+            Request req = pollRequest(url);
 
+            while (System.currentTimeMillis() + delay < expiredTime) {
                 try {
+                    TimeUnit.MILLISECONDS.sleep(delay);
+
                     try (Response response = http.newCall(req).execute()) {
                         if (response.code() != 200 && response.code() != 503 && response.code() != 202) {
                             return httpError(response.code(), response.body().string());
@@ -636,26 +707,18 @@ public class ZSClient {
                         if (response.code() == 200 || response.code() == 503) {
                             return writeApiResult(response);
                         }
-
-                        TimeUnit.MILLISECONDS.sleep(interval);
-                        current += interval;
                     }
                 } catch (InterruptedException e) {
-                    //ignore
-                } catch (IOException e) {
                     Thread.currentThread().interrupt();
                     throw new ApiException(e);
+                } catch (IOException e) {
+                    throw new ApiException(e);
                 }
-            }
 
-            ApiResult res = new ApiResult();
-            res.error = errorCode(
-                    Constants.POLLING_TIMEOUT_ERROR,
-                    "timeout of sync polling API result",
-                    String.format("polling result of api[%s] timeout after %s ms", action.getClass().getSimpleName(), timeout)
-            );
+                delay = nextPollDelay(delay);
+            }
 
-            return res;
+            return pollTimeout("timeout of sync polling API result", timeout);
         }
 
         private ApiResult writeApiResult(Response response) throws IOException {
@@ -685,6 +748,45 @@ public class ZSClient {
             return doCall();
         }
 
+        <T> QueryIterator<T> stream(Class<T> inventoryClass) {
+            action.checkParameters();
+
+            Request.Builder reqBuilder = new Request.Builder()
+                    .addHeader(Constants.HEADER_JOB_UUID, jobUuid)
+                    .addHeader(Constants.HEADER_JSON_SCHEMA, Boolean.TRUE.toString())
+                    .addHeader(Constants.HEADER_ACCEPT, Constants.MEDIA_TYPE_NDJSON);
+
+            if (action.apiTimeout != null) {
+                reqBuilder.addHeader(Constants.HEADER_API_TIMEOUT, action.apiTimeout.toString());
+            }
+
+            try {
+                fillQueryApiRequestBuilder(reqBuilder);
+            } catch (Exception e) {
+                throw new ApiException(e);
+            }
+
+            Response response;
+            try {
+                response = http.newCall(reqBuilder.build()).execute();
+            } catch (IOException e) {
+                throw new ApiException(e);
+            }
+
+            if (response.code() == 200) {
+                return new QueryIterator<>(response, inventoryClass);
+            }
+
+            try (Response rsp = response) {
+                ApiResult res = rsp.code() == 503 ? writeApiResult(rsp) : httpError(rsp.code(), rsp.body().string());
+                ErrorCode err = res.error;
+                throw new ApiException(err == null ? String.format("unknown status code: %s", rsp.code()) :
+                        String.format("error[code: %s, description: %s, details: %s]", err.code, err.description, err.details));
+            } catch (IOException e) {
+                throw new ApiException(e);
+            }
+        }
+
         private long getTimeout(){
             Long timeout = (Long)action.getNonAPIParameterValue("timeout", false);
             return timeout == ACTION_DEFAULT_TIMEOUT ? config.defaultPollingTimeout : timeout;
@@ -711,4 +813,47 @@ public class ZSClient {
         errorIfNotConfigured();
         return new Api(action).call();
     }
+
+    /**
+     * sends the action without blocking the caller, no thread waits for the result whether
+     * it is pushed by the web hook or polled. The future completes with the raw result,
+     * errors of the API are in ApiResult.error.
+     */
+    public static CompletableFuture<ApiResult> callAsync(AbstractAction action) {
+        CompletableFuture<ApiResult> future = new CompletableFuture<>();
+
+        try {
+            errorIfNotConfigured();
+            new Api(action).call(future::complete);
+        } catch (Throwable t) {
+            future.completeExceptionally(t);
+        }
+
+        return future;
+    }
+
+    /**
+     * sends the action like callAsync(action), the future completes with the result of the
+     * API as the class, or completes exceptionally with an ApiException if the API fails.
+     */
+    public static <T> CompletableFuture<T> callAsync(AbstractAction action, Class<T> resultClass) {
+        return callAsync(action).thenApply(res -> {
+            ErrorCode err = res.error;
+            if (err != null) {
+                throw new ApiException(String.format("error[code: %s, description: %s, details: %s]", err.code, err.description, err.details));
+            }
+
+            return res.getResult(resultClass);
+        });
+    }
+
+    /**
+     * streams inventories of the query page by page rather than in one response, limit of the
+     * action caps the total, start, count and groupBy are not supported. The query is sent
+     * when this is called, close the iterator if it's not iterated to the end.
+     */
+    public static <T> QueryIterator<T> iterate(QueryAction action, Class<T> inventoryClass) {
+        errorIfNotConfigured();
+        return new Api(action).stream(inventoryClass);
+    }
 }
\ No newline at end of file
@@ -14,6 +14,11 @@ public class ZSConfig {
     Long readTimeout;
     Long writeTimeout;
     String contextPath;
+    // calls sent without blocking share these, okhttp allows only 5 calls in flight to a host by default
+    int maxRequests = 256;
+    int maxRequestsPerHost = 128;
+    Integer maxIdleConnections;
+    Long keepAliveDuration;
 
     public String getHostname() {
         return hostname;
@@ -74,6 +79,22 @@ public class ZSConfig {
             return this;
         }
 
+        public Builder setMaxRequests(int maxRequests) {
+            config.maxRequests = maxRequests;
+            return this;
+        }
+
+        public Builder setMaxRequestsPerHost(int maxRequestsPerHost) {
+            config.maxRequestsPerHost = maxRequestsPerHost;
+            return this;
+        }
+
+        public Builder setConnectionPool(int maxIdleConnections, long keepAliveDuration, TimeUnit unit) {
+            config.maxIdleConnections = maxIdleConnections;
+            config.keepAliveDuration = unit.toMillis(keepAliveDuration);
+            return this;
+        }
+
 
         public ZSConfig build() {
             return config;
@@ -1,5 +1,8 @@
 package org.zstack.zql;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
 import com.google.common.collect.Sets;
 import org.antlr.v4.runtime.*;
 import org.antlr.v4.runtime.misc.ParseCancellationException;
@@ -30,7 +33,6 @@ import org.zstack.header.vo.ToInventory;
 import org.zstack.header.zql.*;
 import org.zstack.query.QueryGlobalConfig;
 import org.zstack.search.SearchErrors;
-import org.zstack.utils.BeanUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 import org.zstack.zql.antlr4.ZQLLexer;
@@ -90,6 +92,55 @@ public class ZQL {
         }
     }
 
+    /**
+     * caches parse trees of ZQL texts, dashboards send the same few hundred ZQL texts again
+     * and again. The generated SQL is not cached, it depends on the session and extensions
+     * marshaling the AST, and parse trees are only read by the AST visitors so they can be
+     * shared by threads
+     */
+    private static class PlanCache {
+        static final Cache<String, List<ZQLParser.ZqlContext>> plans = CacheBuilder.newBuilder()
+                .maximumSize(ZQLGlobalProperty.PLAN_CACHE_SIZE)
+                .removalListener((RemovalListener<String, List<ZQLParser.ZqlContext>>) n -> {
+                    if (n.wasEvicted()) {
+                        statistic.planCacheEvicted();
+                    }
+                })
+                .build();
+    }
+
+    private static List<ZQLParser.ZqlContext> doParse(String text) {
+        ZQLLexer l = new ZQLLexer(CharStreams.fromString(text));
+        ZQLParser p = new ZQLParser(new CommonTokenStream(l));
+
+        l.addErrorListener(new ThrowingErrorListener(text));
+        p.addErrorListener(new ThrowingErrorListener(text));
+
+        return p.zqls().zql();
+    }
+
+    private List<ZQLParser.ZqlContext> parse() {
+        if (ZQLGlobalProperty.PLAN_CACHE_SIZE <= 0) {
+            return doParse(text);
+        }
+
+        List<ZQLParser.ZqlContext> plan = PlanCache.plans.getIfPresent(text);
+        if (plan != null) {
+            statistic.planCacheHit();
+            return plan;
+        }
+
+        statistic.planCacheMiss();
+        plan = doParse(text);
+        PlanCache.plans.put(text, plan);
+        return plan;
+    }
+
+    @ExceptionSafe
+    public static void cleanPlanCache() {
+        PlanCache.plans.invalidateAll();
+    }
+
     public static String queryTargetNameFromInventoryClass(Class invClass) {
         String name = invClass.getSimpleName().toLowerCase();
         return StringUtils.removeEnd(name, "inventory");
@@ -121,20 +172,22 @@ public class ZQL {
     private Object entityVOtoInventory(Object vo) {
         try {
             ZQLMetadata.InventoryMetadata inventoryMetadata = astResult.inventoryMetadata;
-            Object inv = inventoryMetadata.selfInventoryClass.getConstructor().newInstance();
+            Object inv = inventoryMetadata.newInventory();
             if (vo instanceof Object[]) {
                 Object[] fieldValues = (Object[]) vo;
                 for (int i = 0; i < astResult.targetFieldNames.size(); i++) {
                     String fieldName = astResult.targetFieldNames.get(i);
-                    BeanUtils.setProperty(inv, fieldName, inventoryMetadata.toInventoryFieldObject(fieldName, fieldValues[i]));
+                    inventoryMetadata.setInventoryField(inv, fieldName, inventoryMetadata.toInventoryFieldObject(fieldName, fieldValues[i]));
                 }
             } else {
                 String fieldName =  astResult.targetFieldNames.get(0);
-                BeanUtils.setProperty(inv, fieldName, astResult.inventoryMetadata.toInventoryFieldObject(fieldName, vo));
+                inventoryMetadata.setInventoryField(inv, fieldName, inventoryMetadata.toInventoryFieldObject(fieldName, vo));
             }
             return inv;
-        } catch (Exception e) {
-            throw new CloudRuntimeException(e);
+        } catch (CloudRuntimeException e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new CloudRuntimeException(t);
         }
     }
 
@@ -233,14 +286,8 @@ public class ZQL {
 
         List<ZQLQueryReturn> rs = new ArrayList<>();
 
-        ZQLLexer l = new ZQLLexer(CharStreams.fromString(text));
-        ZQLParser p = new ZQLParser(new CommonTokenStream(l));
-        
-        l.addErrorListener(new ThrowingErrorListener(text));
-        p.addErrorListener(new ThrowingErrorListener(text));
-
         Map currentContext = ZQLContext.get();
-        p.zqls().zql().forEach(ctx -> {
+        parse().forEach(ctx -> {
             ZQLContext.set(currentContext);
 
             ZQLQueryReturn qr = new ZQLQueryReturn();
@@ -444,6 +491,7 @@ public class ZQL {
     public static void cleanStatisticData() {
         statistic.getSlowZQLStatistics().clear();
         statistic.resetCount();
+        statistic.resetPlanCacheCount();
     }
 
     @ExceptionSafe
@@ -7,4 +7,6 @@ import org.zstack.core.GlobalPropertyDefinition;
 public class ZQLGlobalProperty {
     @GlobalProperty(name = "zql.errorIfNoDBGraphRelation", defaultValue = "false")
     public static boolean ERROR_IF_NO_DB_GRAPH_RELATION;
+    @GlobalProperty(name = "zql.planCacheSize", defaultValue = "1000")
+    public static int PLAN_CACHE_SIZE;
 }
@@ -8,6 +8,9 @@ import java.util.concurrent.atomic.AtomicLong;
 public class ZQLStatistic {
     private List<SlowZQLStatistic> slowZQLStatistics = Collections.synchronizedList(new ArrayList<>());
     private AtomicLong executedZqlCount = new AtomicLong(0);
+    private AtomicLong planCacheHitCount = new AtomicLong(0);
+    private AtomicLong planCacheMissCount = new AtomicLong(0);
+    private AtomicLong planCacheEvictionCount = new AtomicLong(0);
 
     public List<SlowZQLStatistic> getSlowZQLStatistics() {
         return slowZQLStatistics;
@@ -25,6 +28,48 @@ public class ZQLStatistic {
         this.executedZqlCount = executedZqlCount;
     }
 
+    public AtomicLong getPlanCacheHitCount() {
+        return planCacheHitCount;
+    }
+
+    public void setPlanCacheHitCount(AtomicLong planCacheHitCount) {
+        this.planCacheHitCount = planCacheHitCount;
+    }
+
+    public AtomicLong getPlanCacheMissCount() {
+        return planCacheMissCount;
+    }
+
+    public void setPlanCacheMissCount(AtomicLong planCacheMissCount) {
+        this.planCacheMissCount = planCacheMissCount;
+    }
+
+    public AtomicLong getPlanCacheEvictionCount() {
+        return planCacheEvictionCount;
+    }
+
+    public void setPlanCacheEvictionCount(AtomicLong planCacheEvictionCount) {
+        this.planCacheEvictionCount = planCacheEvictionCount;
+    }
+
+    public void planCacheHit() {
+        planCacheHitCount.incrementAndGet();
+    }
+
+    public void planCacheMiss() {
+        planCacheMissCount.incrementAndGet();
+    }
+
+    public void planCacheEvicted() {
+        planCacheEvictionCount.incrementAndGet();
+    }
+
+    public void resetPlanCacheCount() {
+        planCacheHitCount.set(0);
+        planCacheMissCount.set(0);
+        planCacheEvictionCount.set(0);
+    }
+
     public void count() {
         executedZqlCount.incrementAndGet();
     }
@@ -12,8 +12,15 @@ import org.zstack.header.search.TypeField;
 import org.zstack.utils.*;
 import org.zstack.utils.logging.CLogger;
 
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import static java.util.Arrays.asList;
@@ -58,6 +65,40 @@ public class ZQLMetadata {
 
         private Map<String, FieldTypeMapping> typeMappingMap = new HashMap<>();
 
+        // used by field queries to build inventories without reflection per row
+        private transient volatile MethodHandle inventoryConstructor;
+        private transient Map<String, MethodHandle> inventoryFieldSetters = new ConcurrentHashMap<>();
+
+        public Object newInventory() throws Throwable {
+            if (inventoryConstructor == null) {
+                inventoryConstructor = MethodHandles.lookup()
+                        .findConstructor(selfInventoryClass, MethodType.methodType(void.class))
+                        .asType(MethodType.methodType(Object.class));
+            }
+
+            return (Object) inventoryConstructor.invokeExact();
+        }
+
+        public void setInventoryField(Object inventory, String fieldName, Object value) throws Throwable {
+            MethodHandle setter = inventoryFieldSetters.computeIfAbsent(fieldName, this::findInventoryFieldSetter);
+            setter.invokeExact(inventory, value);
+        }
+
+        private MethodHandle findInventoryFieldSetter(String fieldName) {
+            try {
+                for (PropertyDescriptor pd : Introspector.getBeanInfo(selfInventoryClass).getPropertyDescriptors()) {
+                    if (pd.getName().equals(fieldName) && pd.getWriteMethod() != null) {
+                        return MethodHandles.lookup().unreflect(pd.getWriteMethod())
+                                .asType(MethodType.methodType(void.class, Object.class, Object.class));
+                    }
+                }
+            } catch (IntrospectionException | IllegalAccessException e) {
+                throw new CloudRuntimeException(e);
+            }
+
+            throw new CloudRuntimeException(String.format("inventory class[%s] has no setter for the field[%s]", selfInventoryClass, fieldName));
+        }
+
         private void constructFieldMapping() {
             Class selfVoClass = inventoryAnnotation.mappingVOClass();
             Map<String, Field> inventoryFieldMap = getAllFieldMap(selfInventoryClass);
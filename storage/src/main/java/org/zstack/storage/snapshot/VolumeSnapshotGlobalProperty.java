@@ -0,0 +1,14 @@
+package org.zstack.storage.snapshot;
+
+import org.zstack.core.GlobalProperty;
+import org.zstack.core.GlobalPropertyDefinition;
+
+@GlobalPropertyDefinition
+public class VolumeSnapshotGlobalProperty {
+    @GlobalProperty(name = "volumeSnapshot.treeCache.enable", defaultValue = "true")
+    public static boolean TREE_CACHE_ENABLE;
+    @GlobalProperty(name = "volumeSnapshot.treeCache.size", defaultValue = "2000")
+    public static long TREE_CACHE_SIZE;
+    @GlobalProperty(name = "volumeSnapshot.treeCache.ttlInSeconds", defaultValue = "600")
+    public static long TREE_CACHE_TTL;
+}
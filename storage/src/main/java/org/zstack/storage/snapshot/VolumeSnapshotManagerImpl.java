@@ -81,7 +81,7 @@ public class VolumeSnapshotManagerImpl extends AbstractService implements
         VmJustBeforeDeleteFromDbExtensionPoint,
         VolumeJustBeforeDeleteFromDbExtensionPoint,
         OverwriteVolumeExtensionPoint, FlattenVolumeExtensionPoint,
-        CleanUpVmBackupExtensionPoint {
+        CleanUpVmBackupExtensionPoint, SoftDeleteEntityExtensionPoint, HardDeleteEntityExtensionPoint {
     private static final CLogger logger = Utils.getLogger(VolumeSnapshotManagerImpl.class);
     private String syncSignature;
     @Autowired
@@ -500,10 +500,7 @@ public class VolumeSnapshotManagerImpl extends AbstractService implements
             }
 
             VolumeSnapshotTreeInventory inv = VolumeSnapshotTreeInventory.valueOf(treeVO);
-            SimpleQuery<VolumeSnapshotVO> q = dbf.createQuery(VolumeSnapshotVO.class);
-            q.add(VolumeSnapshotVO_.treeUuid, Op.EQ, msg.getTreeUuid());
-            List<VolumeSnapshotVO> vos = q.list();
-            VolumeSnapshotTree tree = VolumeSnapshotTree.fromVOs(vos);
+            VolumeSnapshotTree tree = getSnapshotTree(msg.getTreeUuid());
             inv.setTree(tree.getRoot().toLeafInventory());
             reply.setInventories(Arrays.asList(inv));
         } else if (msg.getVolumeUuid() != null) {
@@ -519,10 +516,7 @@ public class VolumeSnapshotManagerImpl extends AbstractService implements
             List<VolumeSnapshotTreeInventory> treeInventories = new ArrayList<>();
             for (VolumeSnapshotTreeVO vo : trees) {
                 VolumeSnapshotTreeInventory inv = VolumeSnapshotTreeInventory.valueOf(vo);
-                SimpleQuery<VolumeSnapshotVO> sq = dbf.createQuery(VolumeSnapshotVO.class);
-                sq.add(VolumeSnapshotVO_.treeUuid, Op.EQ, vo.getUuid());
-                List<VolumeSnapshotVO> vos = sq.list();
-                VolumeSnapshotTree tree = VolumeSnapshotTree.fromVOs(vos);
+                VolumeSnapshotTree tree = getSnapshotTree(vo.getUuid());
                 inv.setTree(tree.getRoot().toLeafInventory());
                 treeInventories.add(inv);
             }
@@ -1212,9 +1206,66 @@ public class VolumeSnapshotManagerImpl extends AbstractService implements
                 }
             }
         }, VolumeCreateSnapshotMsg.class, CreateVolumeSnapshotMsg.class);
+
+        installTreeCacheInvalidation();
         return true;
     }
 
+    @Override
+    public List<Class> getEntityClassForSoftDeleteEntityExtension() {
+        return list(VolumeSnapshotVO.class);
+    }
+
+    @Override
+    public void postSoftDelete(Collection entityIds, Class entityClass) {
+        // soft deletion doesn't fire entity life cycle events
+        VolumeSnapshotTreeCache.invalidate(entityIds);
+    }
+
+    @Override
+    public List<Class> getEntityClassForHardDeleteEntityExtension() {
+        return list(VolumeSnapshotVO.class);
+    }
+
+    @Override
+    public void postHardDelete(Collection entityIds, Class entityClass) {
+        VolumeSnapshotTreeCache.invalidate(entityIds);
+    }
+
+    private VolumeSnapshotTree getSnapshotTree(String treeUuid) {
+        VolumeSnapshotTree tree = VolumeSnapshotTreeCache.isUsable() ? VolumeSnapshotTreeCache.getTree(treeUuid) : null;
+        if (tree != null) {
+            return tree;
+        }
+
+        return VolumeSnapshotTree.fromVOs(Q.New(VolumeSnapshotVO.class).eq(VolumeSnapshotVO_.treeUuid, treeUuid).list());
+    }
+
+    private void installTreeCacheInvalidation() {
+        EntityLifeCycleCallback snapshotChanged = (evt, o) -> {
+            VolumeSnapshotVO vo = (VolumeSnapshotVO) o;
+            VolumeSnapshotTreeCache.snapshotsChanged(vo.getTreeUuid(), list(vo.getUuid()));
+        };
+        dbf.installEntityLifeCycleCallback(VolumeSnapshotVO.class, EntityEvent.POST_PERSIST, snapshotChanged);
+        dbf.installEntityLifeCycleCallback(VolumeSnapshotVO.class, EntityEvent.POST_UPDATE, snapshotChanged);
+        dbf.installEntityLifeCycleCallback(VolumeSnapshotVO.class, EntityEvent.POST_REMOVE, snapshotChanged);
+
+        // references are part of snapshot inventories
+        EntityLifeCycleCallback backupStorageRefChanged = (evt, o) -> VolumeSnapshotTreeCache.snapshotsChanged(null,
+                list(((VolumeSnapshotBackupStorageRefVO) o).getVolumeSnapshotUuid()));
+        dbf.installEntityLifeCycleCallback(VolumeSnapshotBackupStorageRefVO.class, EntityEvent.POST_PERSIST, backupStorageRefChanged);
+        dbf.installEntityLifeCycleCallback(VolumeSnapshotBackupStorageRefVO.class, EntityEvent.POST_UPDATE, backupStorageRefChanged);
+        dbf.installEntityLifeCycleCallback(VolumeSnapshotBackupStorageRefVO.class, EntityEvent.POST_REMOVE, backupStorageRefChanged);
+
+        EntityLifeCycleCallback groupRefChanged = (evt, o) -> VolumeSnapshotTreeCache.snapshotsChanged(null,
+                list(((VolumeSnapshotGroupRefVO) o).getVolumeSnapshotUuid()));
+        dbf.installEntityLifeCycleCallback(VolumeSnapshotGroupRefVO.class, EntityEvent.POST_PERSIST, groupRefChanged);
+        dbf.installEntityLifeCycleCallback(VolumeSnapshotGroupRefVO.class, EntityEvent.POST_UPDATE, groupRefChanged);
+        dbf.installEntityLifeCycleCallback(VolumeSnapshotGroupRefVO.class, EntityEvent.POST_REMOVE, groupRefChanged);
+
+        VolumeSnapshotTreeCache.install(evtf);
+    }
+
     @Override
     public boolean stop() {
         return true;
@@ -1241,10 +1292,7 @@ public class VolumeSnapshotManagerImpl extends AbstractService implements
         }
 
         for (VolumeSnapshotTreeInventory inv : reply.getInventories()) {
-            SimpleQuery<VolumeSnapshotVO> sq = dbf.createQuery(VolumeSnapshotVO.class);
-            sq.add(VolumeSnapshotVO_.treeUuid, Op.EQ, inv.getUuid());
-            List<VolumeSnapshotVO> vos = sq.list();
-            VolumeSnapshotTree tree = VolumeSnapshotTree.fromVOs(vos);
+            VolumeSnapshotTree tree = getSnapshotTree(inv.getUuid());
             inv.setTree(tree.getRoot().toLeafInventory(querySnapshotUuids(inv.getUuid(), session)));
         }
     }
@@ -1383,6 +1431,8 @@ public class VolumeSnapshotManagerImpl extends AbstractService implements
         Query q = dbf.getEntityManager().createQuery(sql);
         q.setParameter("volumeUuid", volumeUuid);
         q.executeUpdate();
+        VolumeSnapshotTreeCache.invalidateTrees(Q.New(VolumeSnapshotTreeVO.class).select(VolumeSnapshotTreeVO_.uuid)
+                .eq(VolumeSnapshotTreeVO_.volumeUuid, volumeUuid).listValues());
 
         sql = "update VolumeSnapshotTreeVO tree" +
                 " set tree.current = false" +
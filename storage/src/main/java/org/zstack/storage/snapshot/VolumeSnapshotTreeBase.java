@@ -79,6 +79,7 @@ import static org.zstack.core.Platform.err;
 import static org.zstack.core.Platform.operr;
 import static org.zstack.core.progress.ProgressReportService.reportProgress;
 import static org.zstack.utils.CollectionDSL.e;
+import static org.zstack.utils.CollectionDSL.list;
 
 /**
  */
@@ -164,6 +165,13 @@ public class VolumeSnapshotTreeBase {
         }
 
         currentRoot = vo;
+        if (VolumeSnapshotTreeCache.isUsable()) {
+            currentLeaf = VolumeSnapshotTreeCache.getLeaf(currentRoot.getTreeUuid(), currentRoot.getUuid());
+            if (currentLeaf != null) {
+                return;
+            }
+        }
+
         buildFullSnapshotTree();
         currentLeaf = fullTree.findSnapshot(new Function<Boolean, VolumeSnapshotInventory>() {
             @Override
@@ -689,8 +697,11 @@ public class VolumeSnapshotTreeBase {
                             sql("update VolumeSnapshotTreeVO tree set tree.volumeUuid = NULL where tree.volumeUuid = :volUuid")
                                     .param("volUuid", currentRoot.getVolumeUuid()).execute();
 
+                            List<String> snapshotUuids = q(VolumeSnapshotVO.class).select(VolumeSnapshotVO_.uuid)
+                                    .eq(VolumeSnapshotVO_.volumeUuid, currentRoot.getVolumeUuid()).listValues();
                             sql("update VolumeSnapshotVO s set s.volumeUuid = NULL where s.volumeUuid = :volUuid")
                                     .param("volUuid", currentRoot.getVolumeUuid()).execute();
+                            VolumeSnapshotTreeCache.invalidate(snapshotUuids);
                         }
 
 
@@ -698,6 +709,7 @@ public class VolumeSnapshotTreeBase {
                             // reset latest
                             sql(VolumeSnapshotVO.class).eq(VolumeSnapshotVO_.uuid, currentRoot.getParentUuid())
                                     .set(VolumeSnapshotVO_.latest, true).update();
+                            VolumeSnapshotTreeCache.invalidate(list(currentRoot.getParentUuid()));
                             logger.debug(String.format("reset latest snapshot of tree[uuid:%s] to snapshot[uuid:%s]",
                                     currentRoot.getTreeUuid(), currentRoot.getParentUuid()));
                         }
@@ -729,6 +741,7 @@ public class VolumeSnapshotTreeBase {
                             SQL.New(VolumeSnapshotVO.class).in(VolumeSnapshotVO_.uuid, aliveAncestors)
                                     .set(VolumeSnapshotVO_.volumeUuid, currentRoot.getVolumeUuid())
                                     .update();
+                            VolumeSnapshotTreeCache.invalidate(aliveAncestors);
                         }
                     }
 
@@ -1323,6 +1336,7 @@ public class VolumeSnapshotTreeBase {
                     SQL.New(VolumeSnapshotVO.class).eq(VolumeSnapshotVO_.uuid, msg.getUuid())
                             .set(VolumeSnapshotVO_.size, reply.getActualSize())
                             .update();
+                    VolumeSnapshotTreeCache.invalidate(list(msg.getUuid()));
                 }
 
                 event.setActualSize(reply.getActualSize());
@@ -1357,6 +1371,7 @@ public class VolumeSnapshotTreeBase {
                 List<String> uuids = snapshots.stream().map(VolumeSnapshotInventory::getUuid).collect(Collectors.toList());
                 if (!uuids.isEmpty()) {
                     sql(VolumeSnapshotVO.class).in(VolumeSnapshotVO_.uuid, uuids).hardDelete();
+                    VolumeSnapshotTreeCache.invalidate(uuids);
                 }
 
                 if (!q(VolumeSnapshotVO.class).eq(VolumeSnapshotVO_.treeUuid, currentRoot.getTreeUuid()).isExists()) {
@@ -1383,6 +1398,7 @@ public class VolumeSnapshotTreeBase {
         List<String> uuids = snapshots.stream().map(VolumeSnapshotInventory::getUuid).collect(Collectors.toList());
         SQL.New(VolumeSnapshotGroupRefVO.class).in(VolumeSnapshotGroupRefVO_.volumeSnapshotUuid, uuids)
                 .set(VolumeSnapshotGroupRefVO_.snapshotDeleted, true).update();
+        VolumeSnapshotTreeCache.invalidate(uuids);
         if (currentRoot.getVolumeType().equals(VolumeType.Root.toString())) {
             List<String> groupUuids = new ArrayList<>();
             for (VolumeSnapshotInventory snapshot : snapshots) {
@@ -2046,6 +2062,7 @@ public class VolumeSnapshotTreeBase {
                         Query q = dbf.getEntityManager().createQuery(sql);
                         q.setParameter("treeUuid", currentRoot.getTreeUuid());
                         q.executeUpdate();
+                        VolumeSnapshotTreeCache.invalidateTrees(list(currentRoot.getTreeUuid()));
 
                         currentRoot.setLatest(true);
                         dbf.getEntityManager().merge(currentRoot);
@@ -0,0 +1,378 @@
+package org.zstack.storage.snapshot;
+
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.zstack.core.cache.DistributedEvictingCache;
+import org.zstack.core.cloudbus.EventFacade;
+import org.zstack.core.db.Q;
+import org.zstack.header.storage.snapshot.VolumeSnapshotInventory;
+import org.zstack.header.storage.snapshot.VolumeSnapshotTree;
+import org.zstack.header.storage.snapshot.VolumeSnapshotTree.SnapshotLeaf;
+import org.zstack.header.storage.snapshot.VolumeSnapshotVO;
+import org.zstack.header.storage.snapshot.VolumeSnapshotVO_;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * volume snapshot trees by tree uuid, serving VolumeSnapshotTreeBase out of transactions.
+ *
+ * A tree is loaded in one query on the first lookup and then maintained incrementally:
+ * snapshots written through the entity manager, or reported to invalidate(), are marked
+ * dirty and only the dirty snapshots are reloaded at next lookup, moving, adding or removing
+ * nodes of the tree. A tree whose changes can't be applied (e.g. a removed snapshot still has
+ * children) is dropped and loaded again. Changes are reported through DistributedEvictingCache,
+ * snapshots are marked dirty again when the transaction completes and then on other management
+ * nodes, and trees expire after volumeSnapshot.treeCache.ttlInSeconds in case of changes made
+ * by SQL not reporting to invalidate().
+ *
+ * Leaves returned are copies, a leaf is materialized with its descendants and its ancestor
+ * chain only, so the cost of a lookup is O(depth + descendants) rather than O(tree).
+ */
+public class VolumeSnapshotTreeCache {
+    private static final CLogger logger = Utils.getLogger(VolumeSnapshotTreeCache.class);
+
+    private static final char TREE_KEY_SEPARATOR = '/';
+    private static final TreeCache trees = new TreeCache();
+
+    private static class Node {
+        VolumeSnapshotInventory inventory;
+        Node parent;
+        final List<Node> children = new ArrayList<>();
+
+        Node(VolumeSnapshotInventory inventory) {
+            this.inventory = inventory;
+        }
+    }
+
+    private static class CachedTree {
+        final String treeUuid;
+        // read without the lock when looking up trees of snapshots
+        final Map<String, Node> nodes = new ConcurrentHashMap<>();
+        final Set<String> dirty = new HashSet<>();
+        Node root;
+
+        CachedTree(String treeUuid) {
+            this.treeUuid = treeUuid;
+        }
+
+        private void attach(Node node, String parentUuid) {
+            if (parentUuid == null) {
+                if (root != null && root != node) {
+                    throw new IllegalStateException(String.format("tree[uuid:%s] has two roots[%s, %s]",
+                            treeUuid, root.inventory.getUuid(), node.inventory.getUuid()));
+                }
+                root = node;
+                return;
+            }
+
+            Node parent = nodes.get(parentUuid);
+            if (parent == null) {
+                throw new IllegalStateException(String.format("parent[uuid:%s] of snapshot[uuid:%s] is not in tree[uuid:%s]",
+                        parentUuid, node.inventory.getUuid(), treeUuid));
+            }
+
+            for (Node p = parent; p != null; p = p.parent) {
+                if (p == node) {
+                    throw new IllegalStateException(String.format("snapshot[uuid:%s] is an ancestor of its parent[uuid:%s]",
+                            node.inventory.getUuid(), parentUuid));
+                }
+            }
+
+            node.parent = parent;
+            parent.children.add(node);
+        }
+
+        private void detach(Node node) {
+            if (node.parent != null) {
+                node.parent.children.remove(node);
+                node.parent = null;
+            } else if (root == node) {
+                root = null;
+            }
+        }
+
+        void upsert(VolumeSnapshotInventory inv) {
+            Node node = nodes.get(inv.getUuid());
+            if (node == null) {
+                node = new Node(inv);
+                nodes.put(inv.getUuid(), node);
+                attach(node, inv.getParentUuid());
+                return;
+            }
+
+            String oldParentUuid = node.inventory.getParentUuid();
+            node.inventory = inv;
+            if (!Objects.equals(oldParentUuid, inv.getParentUuid())) {
+                detach(node);
+                attach(node, inv.getParentUuid());
+            }
+        }
+
+        void remove(String uuid) {
+            Node node = nodes.get(uuid);
+            if (node == null) {
+                return;
+            }
+
+            if (!node.children.isEmpty()) {
+                throw new IllegalStateException(String.format("removed snapshot[uuid:%s] still has %s children in tree[uuid:%s]",
+                        uuid, node.children.size(), treeUuid));
+            }
+
+            detach(node);
+            nodes.remove(uuid);
+        }
+
+        /**
+         * adds snapshots in the order of parents before children, fails if any can't be attached
+         */
+        void upsertAll(Collection<VolumeSnapshotInventory> invs) {
+            List<VolumeSnapshotInventory> pending = new ArrayList<>(invs);
+            Set<String> adding = new HashSet<>();
+            pending.forEach(inv -> adding.add(inv.getUuid()));
+
+            while (!pending.isEmpty()) {
+                int size = pending.size();
+                for (Iterator<VolumeSnapshotInventory> it = pending.iterator(); it.hasNext(); ) {
+                    VolumeSnapshotInventory inv = it.next();
+                    String parentUuid = inv.getParentUuid();
+                    if (parentUuid != null && adding.contains(parentUuid) && !nodes.containsKey(parentUuid)) {
+                        continue;
+                    }
+
+                    upsert(inv);
+                    it.remove();
+                }
+
+                if (pending.size() == size) {
+                    throw new IllegalStateException(String.format("snapshots%s of tree[uuid:%s] form a loop",
+                            adding, treeUuid));
+                }
+            }
+        }
+
+        /**
+         * reloads dirty snapshots
+         */
+        void sync() {
+            if (dirty.isEmpty()) {
+                return;
+            }
+
+            // snapshots changed while reloading wait for the lock and are reloaded at next lookup
+            List<String> uuids = new ArrayList<>(dirty);
+            dirty.clear();
+
+            List<VolumeSnapshotVO> vos = Q.New(VolumeSnapshotVO.class)
+                    .eq(VolumeSnapshotVO_.treeUuid, treeUuid)
+                    .in(VolumeSnapshotVO_.uuid, uuids)
+                    .list();
+            upsertAll(VolumeSnapshotInventory.valueOf(vos));
+
+            Set<String> found = new HashSet<>();
+            vos.forEach(vo -> found.add(vo.getUuid()));
+            // remove leaves first
+            uuids.stream().filter(uuid -> !found.contains(uuid) && nodes.containsKey(uuid))
+                    .sorted(Comparator.comparingInt(this::depth).reversed())
+                    .forEach(this::remove);
+
+            if (root == null && !nodes.isEmpty()) {
+                throw new IllegalStateException(String.format("tree[uuid:%s] has no root", treeUuid));
+            }
+        }
+
+        int depth(String uuid) {
+            int depth = 0;
+            for (Node n = nodes.get(uuid).parent; n != null; n = n.parent) {
+                depth++;
+            }
+            return depth;
+        }
+    }
+
+    /**
+     * keys evicted are snapshot uuids, a snapshot is reloaded in the trees having it. A key of
+     * treeKey(treeUuid, snapshotUuid) also adds the snapshot to the tree, and treeKey(treeUuid, null)
+     * drops the tree.
+     */
+    private static class TreeCache extends DistributedEvictingCache<CachedTree> {
+        TreeCache() {
+            super(VolumeSnapshotGlobalProperty.TREE_CACHE_SIZE, VolumeSnapshotGlobalProperty.TREE_CACHE_TTL);
+        }
+
+        @Override
+        protected void drop(Collection<String> keys) {
+            Set<String> snapshotUuids = new HashSet<>();
+            Map<String, List<String>> newToTrees = new HashMap<>();
+            Set<String> droppedTrees = new HashSet<>();
+            for (String key : keys) {
+                int i = key.indexOf(TREE_KEY_SEPARATOR);
+                if (i < 0) {
+                    snapshotUuids.add(key);
+                    continue;
+                }
+
+                String treeUuid = key.substring(0, i);
+                String snapshotUuid = key.substring(i + 1);
+                if (snapshotUuid.isEmpty()) {
+                    droppedTrees.add(treeUuid);
+                } else {
+                    snapshotUuids.add(snapshotUuid);
+                    newToTrees.computeIfAbsent(treeUuid, k -> new ArrayList<>()).add(snapshotUuid);
+                }
+            }
+
+            asMap().keySet().removeAll(droppedTrees);
+            for (CachedTree tree : asMap().values()) {
+                List<String> uuids = new ArrayList<>(newToTrees.getOrDefault(tree.treeUuid, Collections.emptyList()));
+                snapshotUuids.stream().filter(tree.nodes::containsKey).forEach(uuids::add);
+                if (uuids.isEmpty()) {
+                    continue;
+                }
+
+                synchronized (tree) {
+                    tree.dirty.addAll(uuids);
+                }
+            }
+        }
+    }
+
+    private static String treeKey(String treeUuid, String snapshotUuid) {
+        return treeUuid + TREE_KEY_SEPARATOR + (snapshotUuid == null ? "" : snapshotUuid);
+    }
+
+    public static boolean isUsable() {
+        return VolumeSnapshotGlobalProperty.TREE_CACHE_ENABLE && !TransactionSynchronizationManager.isActualTransactionActive();
+    }
+
+    private static CachedTree getCachedTree(String treeUuid) {
+        CachedTree tree = trees.get(treeUuid);
+        if (tree != null) {
+            synchronized (tree) {
+                try {
+                    tree.sync();
+                    return tree;
+                } catch (IllegalStateException e) {
+                    logger.warn(String.format("drop cached volume snapshot tree, %s", e.getMessage()));
+                    trees.invalidate(treeUuid);
+                }
+            }
+        }
+
+        long gen = trees.getGeneration();
+        tree = new CachedTree(treeUuid);
+        List<VolumeSnapshotVO> vos = Q.New(VolumeSnapshotVO.class).eq(VolumeSnapshotVO_.treeUuid, treeUuid).list();
+        try {
+            tree.upsertAll(VolumeSnapshotInventory.valueOf(vos));
+        } catch (IllegalStateException e) {
+            logger.warn(String.format("cannot cache volume snapshot tree, %s", e.getMessage()));
+            return null;
+        }
+
+        if (tree.root == null) {
+            return null;
+        }
+
+        trees.put(treeUuid, tree, gen);
+        return tree;
+    }
+
+    private static SnapshotLeaf toLeaf(Node node) {
+        SnapshotLeaf leaf = new SnapshotLeaf();
+        leaf.setInventory(new VolumeSnapshotInventory(node.inventory));
+        for (Node child : node.children) {
+            SnapshotLeaf c = toLeaf(child);
+            c.setParent(leaf);
+            leaf.getChildren().add(c);
+        }
+        return leaf;
+    }
+
+    /**
+     * @return the leaf of the snapshot with all its descendants. Its ancestors are materialized
+     * as a chain, an ancestor's children contain only the one on the path to the snapshot.
+     * Null if the snapshot is not in the tree or the tree can't be cached.
+     */
+    public static SnapshotLeaf getLeaf(String treeUuid, String snapshotUuid) {
+        CachedTree tree = getCachedTree(treeUuid);
+        if (tree == null) {
+            return null;
+        }
+
+        synchronized (tree) {
+            Node node = tree.nodes.get(snapshotUuid);
+            if (node == null) {
+                return null;
+            }
+
+            SnapshotLeaf leaf = toLeaf(node);
+            SnapshotLeaf current = leaf;
+            for (Node n = node.parent; n != null; n = n.parent) {
+                SnapshotLeaf parent = new SnapshotLeaf();
+                parent.setInventory(new VolumeSnapshotInventory(n.inventory));
+                parent.getChildren().add(current);
+                current.setParent(parent);
+                current = parent;
+            }
+
+            return leaf;
+        }
+    }
+
+    /**
+     * @return a copy of the whole tree, or null if the tree can't be cached
+     */
+    public static VolumeSnapshotTree getTree(String treeUuid) {
+        CachedTree tree = getCachedTree(treeUuid);
+        if (tree == null) {
+            return null;
+        }
+
+        synchronized (tree) {
+            VolumeSnapshotTree ret = new VolumeSnapshotTree();
+            ret.setRoot(toLeaf(tree.root));
+            ret.setVolumeUuid(tree.root.inventory.getVolumeUuid());
+            return ret;
+        }
+    }
+
+    static void install(EventFacade evtf) {
+        trees.install("volumeSnapshotTrees", evtf);
+    }
+
+    /**
+     * reports snapshots changed, called by entity life cycle callbacks of snapshots and their
+     * references. Snapshots are marked dirty again when the transaction completes, and on other
+     * management nodes after that.
+     *
+     * @param treeUuid tree of the snapshots, null if they are not new to any tree
+     */
+    static void snapshotsChanged(String treeUuid, Collection<String> snapshotUuids) {
+        trees.evict(snapshotUuids.stream().map(uuid -> treeUuid == null ? uuid : treeKey(treeUuid, uuid))
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * reports snapshots changed by bulk SQL to all management nodes, they are reloaded
+     * at next lookup
+     *
+     * @param snapshotUuids null to drop all trees
+     */
+    public static void invalidate(Collection<String> snapshotUuids) {
+        trees.evict(snapshotUuids);
+    }
+
+    /**
+     * drops trees changed by bulk SQL on all management nodes
+     */
+    public static void invalidateTrees(Collection<String> treeUuids) {
+        trees.evict(treeUuids.stream().map(uuid -> treeKey(uuid, null)).collect(Collectors.toList()));
+    }
+
+    static long size() {
+        return trees.size();
+    }
+}
@@ -16,6 +16,7 @@ import org.zstack.header.volume.VolumeInventory;
 import org.zstack.header.volume.VolumeVO;
 import org.zstack.header.volume.VolumeVO_;
 import org.zstack.storage.primary.PrimaryStorageGlobalProperty;
+import org.zstack.storage.snapshot.VolumeSnapshotTreeCache;
 import org.zstack.utils.Utils;
 import org.zstack.utils.function.Function;
 import org.zstack.utils.logging.CLogger;
@@ -115,6 +116,7 @@ public class VolumeSnapshotReferenceUtils {
         SQL.New(VolumeSnapshotVO.class).set(VolumeSnapshotVO_.state, VolumeSnapshotState.Disabled)
                 .eq(VolumeSnapshotVO_.treeUuid, hasBackingSnapshotTreeUuid)
                 .update();
+        VolumeSnapshotTreeCache.invalidateTrees(Collections.singletonList(hasBackingSnapshotTreeUuid));
         logger.warn(String.format("disable snapshot tree[volumeUuid: %s, uuid:%s] which is backing other volume[uuid:%s] " +
                 "because of volume flatten.", volume.getUuid(), hasBackingSnapshotTreeUuid, ref.getVolumeUuid()));
 
@@ -12,6 +12,8 @@ import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -84,6 +86,12 @@ public class PatternedSystemTag extends SystemTag {
     }
 
     public Map<String, String> getTokensByResourceUuid(String resourceUuid, Class resourceClass) {
+        SystemTagIndex index = index();
+        if (index != null) {
+            List<SystemTagIndex.IndexedTag> tags = index.find(resourceUuid, resourceClass.getSimpleName(), useOp(), useTagFormat());
+            return tags.isEmpty() ? null : tags.get(0).getTokens(tagFormat);
+        }
+
         String tag = getTag(resourceUuid, resourceClass);
         if (tag == null) {
             return null;
@@ -99,6 +107,13 @@ public class PatternedSystemTag extends SystemTag {
     public List<Map<String, String>> getTokensOfTagsByResourceUuid(String resourceUuid, Class resourceClass) {
         List<Map<String, String>> res = new ArrayList<>();
 
+        SystemTagIndex index = index();
+        if (index != null) {
+            index.find(resourceUuid, resourceClass.getSimpleName(), useOp(), useTagFormat())
+                    .forEach(t -> res.add(t.getTokens(tagFormat)));
+            return res;
+        }
+
         List<String> tags = getTags(resourceUuid, resourceClass);
         for (String tag : tags) {
             res.add(TagUtils.parseIfMatch(tagFormat, tag));
@@ -123,6 +138,39 @@ public class PatternedSystemTag extends SystemTag {
         return getTokenByResourceUuid(resourceUuid, resourceClass, tokenName);
     }
 
+    /**
+     * the bulk version of getTokensByResourceUuid(), resources without the tag are not in the returned map
+     */
+    public Map<String, Map<String, String>> getTokensByResourceUuids(Collection<String> resourceUuids) {
+        Map<String, Map<String, String>> ret = new HashMap<>();
+        if (resourceUuids.isEmpty()) {
+            return ret;
+        }
+
+        SystemTagIndex index = index();
+        if (index != null) {
+            index.find(resourceUuids, resourceClass.getSimpleName(), useOp(), useTagFormat())
+                    .forEach((uuid, tags) -> ret.put(uuid, tags.get(0).getTokens(tagFormat)));
+            return ret;
+        }
+
+        getTags(resourceUuids, resourceClass).forEach((uuid, tags) -> ret.put(uuid, TagUtils.parseIfMatch(tagFormat, tags.get(0))));
+        return ret;
+    }
+
+    /**
+     * the bulk version of getTokenByResourceUuid(), resources without the tag are not in the returned map
+     */
+    public Map<String, String> getTokenByResourceUuids(Collection<String> resourceUuids, String tokenName) {
+        Map<String, String> ret = new HashMap<>();
+        getTokensByResourceUuids(resourceUuids).forEach((uuid, tokens) -> {
+            if (tokens != null && tokens.get(tokenName) != null) {
+                ret.put(uuid, tokens.get(tokenName));
+            }
+        });
+        return ret;
+    }
+
     public String hideSensitiveInfo(String tag) {
         Class<? extends SensitiveTagOutputHandler> clz = this.annotation.customizeOutput();
         String result = tag;
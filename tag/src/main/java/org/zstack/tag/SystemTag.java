@@ -27,6 +27,7 @@ import javax.persistence.PersistenceException;
 import javax.persistence.Tuple;
 import javax.persistence.TypedQuery;
 import java.util.*;
+import java.util.stream.Collectors;
 
 import static java.util.Arrays.asList;
 
@@ -115,7 +116,23 @@ public class SystemTag {
         return hasTag(resourceUuid, resourceClass);
     }
 
+    /**
+     * @return the index serving lookups, or null if lookups should go to database
+     */
+    protected SystemTagIndex index() {
+        if (tagMgr == null || tagMgr.getSystemTagIndex() == null || !tagMgr.getSystemTagIndex().isUsable()) {
+            return null;
+        }
+
+        return tagMgr.getSystemTagIndex();
+    }
+
     public boolean hasTag(String resourceUuid, Class resourceClass) {
+        SystemTagIndex index = index();
+        if (index != null) {
+            return !index.find(resourceUuid, resourceClass.getSimpleName(), useOp(), useTagFormat()).isEmpty();
+        }
+
         SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
         q.add(SystemTagVO_.resourceType, Op.EQ, resourceClass.getSimpleName());
         q.add(SystemTagVO_.resourceUuid, Op.EQ, resourceUuid);
@@ -128,6 +145,14 @@ public class SystemTag {
             return new ArrayList<>();
         }
 
+        SystemTagIndex index = index();
+        if (index != null) {
+            List<String> ret = new ArrayList<>();
+            index.find(resourceUuids, resourceClass.getSimpleName(), useOp(), useTagFormat())
+                    .values().forEach(tags -> tags.forEach(t -> ret.add(t.resourceUuid)));
+            return ret;
+        }
+
         SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
         q.add(SystemTagVO_.resourceType, Op.EQ, resourceClass.getSimpleName());
         q.add(SystemTagVO_.resourceUuid, Op.IN, resourceUuids);
@@ -154,6 +179,12 @@ public class SystemTag {
     }
 
     public List<String> getTags(String resourceUuid, Class resourceClass) {
+        SystemTagIndex index = index();
+        if (index != null) {
+            return index.find(resourceUuid, resourceClass.getSimpleName(), useOp(), useTagFormat())
+                    .stream().map(t -> t.tag).collect(Collectors.toList());
+        }
+
         SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
         q.select(SystemTagVO_.tag);
         q.add(SystemTagVO_.resourceType, Op.EQ, resourceClass.getSimpleName());
@@ -179,6 +210,14 @@ public class SystemTag {
     }
 
     public Map<String, List<String>> getTags(Collection<String> resourceUuids, Class resourceClass) {
+        SystemTagIndex index = index();
+        if (index != null) {
+            Map<String, List<String>> ret = new HashMap<>();
+            index.find(resourceUuids, resourceClass.getSimpleName(), useOp(), useTagFormat()).forEach((uuid, tags) ->
+                    ret.put(uuid, tags.stream().map(t -> t.tag).collect(Collectors.toList())));
+            return ret;
+        }
+
         SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
         q.select(SystemTagVO_.tag, SystemTagVO_.resourceUuid);
         q.add(SystemTagVO_.resourceType, Op.EQ, resourceClass.getSimpleName());
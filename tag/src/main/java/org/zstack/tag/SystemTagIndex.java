@@ -0,0 +1,196 @@
+package org.zstack.tag;
+
+import com.google.common.collect.Lists;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.zstack.core.cache.DistributedEvictingCache;
+import org.zstack.core.cloudbus.EventFacade;
+import org.zstack.core.db.Q;
+import org.zstack.core.db.SimpleQuery.Op;
+import org.zstack.header.tag.SystemTagVO;
+import org.zstack.header.tag.SystemTagVO_;
+import org.zstack.utils.TagUtils;
+
+import javax.persistence.Tuple;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * a node-local index of system tags by resource uuid, serving lookups of SystemTag
+ * and PatternedSystemTag out of transactions.
+ *
+ * All system tags of a resource are loaded in one query on the first lookup, and tokens
+ * of a tag are parsed once per tag format. Resources are evicted on all management nodes
+ * when their system tags are written through the entity manager, deleted in bulk by
+ * TagManagerImpl or evicted explicitly by TagManager.evictSystemTagIndex(). Entries also
+ * expire after tag.systemTagIndex.ttlInSeconds in case of changes made by SQL not evicting
+ * the index.
+ */
+public class SystemTagIndex {
+    private static final int LOAD_BATCH_SIZE = 500;
+
+    private final DistributedEvictingCache<List<IndexedTag>> tags;
+    private final Map<String, Pattern> likePatterns = new ConcurrentHashMap<>();
+
+    static class IndexedTag {
+        final String uuid;
+        final String resourceUuid;
+        final String resourceType;
+        final String tag;
+        final boolean inherent;
+        // tokens by tag format, empty if the tag doesn't match the format
+        private final Map<String, Optional<Map<String, String>>> tokens = new ConcurrentHashMap<>();
+
+        IndexedTag(String uuid, String resourceUuid, String resourceType, String tag, boolean inherent) {
+            this.uuid = uuid;
+            this.resourceUuid = resourceUuid;
+            this.resourceType = resourceType;
+            this.tag = tag;
+            this.inherent = inherent;
+        }
+
+        /**
+         * @return a copy of the tokens, or null if the tag doesn't match the format
+         */
+        Map<String, String> getTokens(String tagFormat) {
+            Optional<Map<String, String>> ret = tokens.computeIfAbsent(tagFormat,
+                    k -> Optional.ofNullable(TagUtils.parseIfMatch(k, tag)));
+            return ret.map(HashMap::new).orElse(null);
+        }
+    }
+
+    SystemTagIndex(long size, long ttl) {
+        tags = new DistributedEvictingCache<>(size, ttl);
+    }
+
+    void install(EventFacade evtf) {
+        tags.install("systemTagIndex", evtf);
+    }
+
+    /**
+     * the index can't see changes of the current transaction, lookups in a transaction go to database
+     */
+    boolean isUsable() {
+        return TagGlobalProperty.SYSTEM_TAG_INDEX_ENABLE && !TransactionSynchronizationManager.isActualTransactionActive();
+    }
+
+    /**
+     * SystemTagVO.tag is compared by the database collation, which is case insensitive
+     */
+    boolean isMatch(String tag, Op op, String pattern) {
+        if (op == Op.EQ) {
+            return tag.equalsIgnoreCase(pattern);
+        }
+
+        if (op == Op.LIKE) {
+            return likePatterns.computeIfAbsent(pattern, SystemTagIndex::likeToRegex).matcher(tag).matches();
+        }
+
+        throw new IllegalArgumentException(String.format("unsupported operator[%s] for system tags", op));
+    }
+
+    private static Pattern likeToRegex(String like) {
+        StringBuilder sb = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (char c : like.toCharArray()) {
+            if (c != '%' && c != '_') {
+                literal.append(c);
+                continue;
+            }
+
+            if (literal.length() > 0) {
+                sb.append(Pattern.quote(literal.toString()));
+                literal.setLength(0);
+            }
+            sb.append(c == '%' ? ".*" : ".");
+        }
+
+        if (literal.length() > 0) {
+            sb.append(Pattern.quote(literal.toString()));
+        }
+
+        return Pattern.compile(sb.toString(), Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    }
+
+    List<IndexedTag> find(String resourceUuid, String resourceType, Op op, String pattern) {
+        List<IndexedTag> ret = new ArrayList<>();
+        for (IndexedTag t : getTags(Collections.singletonList(resourceUuid)).get(resourceUuid)) {
+            if (t.resourceType.equals(resourceType) && isMatch(t.tag, op, pattern)) {
+                ret.add(t);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return matched tags by resource uuid, resources without matched tags are not in the map
+     */
+    Map<String, List<IndexedTag>> find(Collection<String> resourceUuids, String resourceType, Op op, String pattern) {
+        Map<String, List<IndexedTag>> ret = new LinkedHashMap<>();
+        getTags(resourceUuids).forEach((uuid, lst) -> {
+            for (IndexedTag t : lst) {
+                if (t.resourceType.equals(resourceType) && isMatch(t.tag, op, pattern)) {
+                    ret.computeIfAbsent(uuid, k -> new ArrayList<>()).add(t);
+                }
+            }
+        });
+        return ret;
+    }
+
+    /**
+     * @return all system tags by resource uuid, tags of resources not in the index are loaded
+     * in batches
+     */
+    Map<String, List<IndexedTag>> getTags(Collection<String> resourceUuids) {
+        Map<String, List<IndexedTag>> ret = new LinkedHashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String uuid : new LinkedHashSet<>(resourceUuids)) {
+            List<IndexedTag> lst = tags.get(uuid);
+            if (lst == null) {
+                missing.add(uuid);
+            }
+            ret.put(uuid, lst);
+        }
+
+        if (missing.isEmpty()) {
+            return ret;
+        }
+
+        // a resource evicted while loading may be loaded stale, don't put it into the index then
+        long gen = tags.getGeneration();
+        Map<String, List<IndexedTag>> loaded = new HashMap<>();
+        missing.forEach(uuid -> loaded.put(uuid, new ArrayList<>()));
+        for (List<String> batch : Lists.partition(missing, LOAD_BATCH_SIZE)) {
+            List<Tuple> ts = Q.New(SystemTagVO.class)
+                    .select(SystemTagVO_.uuid, SystemTagVO_.resourceUuid, SystemTagVO_.resourceType, SystemTagVO_.tag, SystemTagVO_.inherent)
+                    .in(SystemTagVO_.resourceUuid, batch)
+                    .listTuple();
+            for (Tuple t : ts) {
+                IndexedTag it = new IndexedTag(t.get(0, String.class), t.get(1, String.class), t.get(2, String.class),
+                        t.get(3, String.class), t.get(4, Boolean.class));
+                List<IndexedTag> lst = loaded.get(it.resourceUuid);
+                if (lst != null) {
+                    lst.add(it);
+                }
+            }
+        }
+
+        tags.putAll(loaded, gen);
+        ret.putAll(loaded);
+        return ret;
+    }
+
+    /**
+     * evicts resources from the index of this node right now, and of all nodes when
+     * the current transaction completes
+     *
+     * @param resourceUuids null to evict all resources
+     */
+    void evict(Collection<String> resourceUuids) {
+        tags.evict(resourceUuids);
+    }
+
+    long size() {
+        return tags.size();
+    }
+}
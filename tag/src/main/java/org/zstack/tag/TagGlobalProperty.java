@@ -0,0 +1,14 @@
+package org.zstack.tag;
+
+import org.zstack.core.GlobalProperty;
+import org.zstack.core.GlobalPropertyDefinition;
+
+@GlobalPropertyDefinition
+public class TagGlobalProperty {
+    @GlobalProperty(name = "tag.systemTagIndex.enable", defaultValue = "true")
+    public static boolean SYSTEM_TAG_INDEX_ENABLE;
+    @GlobalProperty(name = "tag.systemTagIndex.size", defaultValue = "20000")
+    public static long SYSTEM_TAG_INDEX_SIZE;
+    @GlobalProperty(name = "tag.systemTagIndex.ttlInSeconds", defaultValue = "300")
+    public static long SYSTEM_TAG_INDEX_TTL;
+}
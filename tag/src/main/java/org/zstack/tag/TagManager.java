@@ -67,4 +67,12 @@ public interface TagManager {
     List<String> filterSystemTags(List<String> systemTags, String resourceType);
 
     boolean isCloneable(String tag, String resourceType);
+
+    /**
+     * evicts resources from SystemTagIndex of all management nodes, call it after changing
+     * system tags by bulk SQL
+     *
+     * @param resourceUuids null to evict all resources
+     */
+    void evictSystemTagIndex(Collection<String> resourceUuids);
 }
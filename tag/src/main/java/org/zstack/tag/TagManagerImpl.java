@@ -4,6 +4,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
 import org.zstack.core.Platform;
 import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.cloudbus.EventFacade;
 import org.zstack.core.cloudbus.MessageSafe;
 import org.zstack.core.componentloader.PluginRegistry;
 import org.zstack.core.config.GlobalConfigException;
@@ -58,6 +59,8 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     protected ErrorFacade errf;
     @Autowired
     private PluginRegistry pluginRgty;
+    @Autowired
+    private EventFacade evtf;
 
     private List<SystemTag> systemTags = new ArrayList<>();
     private List<SystemTag> adminOnlySystemTags = new ArrayList<>();
@@ -72,6 +75,7 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     private Map<String, List<SystemTagLifeCycleExtension>> lifeCycleExtensions = new HashMap<>();
     private List<CreateTagFromMsgExtensionPoint> createTagExtensions = new ArrayList<>();
     private List<Class> autoDeleteTagClasses;
+    private SystemTagIndex systemTagIndex;
 
 
     private void initSystemTags() throws IllegalAccessException {
@@ -137,6 +141,8 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     }
 
     void init() {
+        systemTagIndex = new SystemTagIndex(TagGlobalProperty.SYSTEM_TAG_INDEX_SIZE, TagGlobalProperty.SYSTEM_TAG_INDEX_TTL);
+
         for (EntityType<?> entity : dbf.getEntityManager().getMetamodel().getEntities()) {
             Class type = entity.getJavaType();
             String name = type.getSimpleName();
@@ -692,6 +698,8 @@ public class TagManagerImpl extends AbstractService implements TagManager,
         dbf.removeByPrimaryKey(msg.getUuid(), TagPatternVO.class);
 
         if (stag != null) {
+            // deleted in bulk, no entity life cycle event evicts the index
+            systemTagIndex.evict(list(stag.getResourceUuid()));
             fireTagDeleted(list(SystemTagInventory.valueOf(stag)));
         }
 
@@ -805,9 +813,28 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     @Override
     public boolean start() {
         populateExtensions();
+        installSystemTagIndexEviction();
         return true;
     }
 
+    SystemTagIndex getSystemTagIndex() {
+        return systemTagIndex;
+    }
+
+    private void installSystemTagIndexEviction() {
+        EntityLifeCycleCallback cb = (evt, o) -> systemTagIndex.evict(list(((SystemTagVO) o).getResourceUuid()));
+        dbf.installEntityLifeCycleCallback(SystemTagVO.class, EntityEvent.POST_PERSIST, cb);
+        dbf.installEntityLifeCycleCallback(SystemTagVO.class, EntityEvent.POST_UPDATE, cb);
+        dbf.installEntityLifeCycleCallback(SystemTagVO.class, EntityEvent.POST_REMOVE, cb);
+
+        systemTagIndex.install(evtf);
+    }
+
+    @Override
+    public void evictSystemTagIndex(Collection<String> resourceUuids) {
+        systemTagIndex.evict(resourceUuids);
+    }
+
     @Override
     public boolean stop() {
         return true;
@@ -837,6 +864,7 @@ public class TagManagerImpl extends AbstractService implements TagManager,
         q.setParameter("resourceTypes", rtypes);
         q.setParameter("resourceUuids", entityIds);
         q.executeUpdate();
+        systemTagIndex.evict(entityIds);
 
         sql = "delete from UserTagVO s" +
                 " where s.resourceType in (:resourceTypes)" +
@@ -0,0 +1,38 @@
+package org.zstack.test.integration.benchmark
+
+import org.zstack.header.message.APIMessage
+import org.zstack.header.message.ApiMessageValidator
+import org.zstack.test.integration.portal.ApiParamValidationCase
+
+/**
+ * validating API params by compiled params against reading fields and annotations, see ApiParamValidationCase
+ */
+class ApiParamValidationBenchmarkCase extends ApiParamValidationCase {
+    @Override
+    void clean() {
+    }
+
+    @Override
+    void environment() {
+    }
+
+    @Override
+    void test() {
+        int rounds = 2000
+        List<APIMessage> msgs = apiClassesToValidate(100).collect { newValidMessage(it) }
+        List<ApiMessageValidator> validators = [paramValidator]
+
+        long byReflection = Benchmark.nanos({ 3.times { msgs.each { validateByReflection(it) } } }) {
+            rounds.times { msgs.each { validateByReflection(it) } }
+        }
+
+        long compiled = Benchmark.nanos({ 3.times { msgs.each { it.validate(validators) } } }) {
+            rounds.times { msgs.each { it.validate(validators) } }
+        }
+
+        int validations = rounds * msgs.size()
+        Benchmark.report("api param validation", "%s API classes: %.2f us/message reading fields and" +
+                " annotations, %.2f us/message by compiled params", msgs.size(), byReflection / (double) validations / 1e3d,
+                compiled / (double) validations / 1e3d)
+    }
+}
@@ -0,0 +1,41 @@
+package org.zstack.test.integration.benchmark
+
+import org.zstack.core.db.DatabaseFacade
+import org.zstack.core.db.Q
+import org.zstack.header.tag.SystemTagVO
+import org.zstack.header.tag.SystemTagVO_
+import org.zstack.test.integration.core.database.BatchWriteCase
+
+/**
+ * persisting entities one by one against persisting them by a batch, see BatchWriteCase
+ */
+class BatchWriteBenchmarkCase extends BatchWriteCase {
+    @Override
+    void clean() {
+        dbf.removeCollection(Q.New(SystemTagVO.class).in(SystemTagVO_.resourceType, ["PersistOneByOne", "PersistCollection"]).list(),
+                SystemTagVO.class)
+    }
+
+    @Override
+    void test() {
+        dbf = bean(DatabaseFacade.class)
+
+        int num = 2000
+
+        def tags = newTags("PersistOneByOne", num)
+        long oneByOne = Benchmark.nanos {
+            tags.each { dbf.persist(it) }
+        }
+
+        def collection = newTags("PersistCollection", num)
+        long batched = Benchmark.nanos {
+            dbf.persistCollection(collection)
+        }
+
+        assert countTags("PersistOneByOne") == num
+        assert countTags("PersistCollection") == num
+
+        Benchmark.report("batch write", "persist one by one: %.0f rows/s, persistCollection: %.0f rows/s",
+                num * 1e9d / oneByOne, num * 1e9d / batched)
+    }
+}
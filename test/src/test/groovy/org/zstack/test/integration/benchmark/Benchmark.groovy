@@ -0,0 +1,34 @@
+package org.zstack.test.integration.benchmark
+
+import org.zstack.utils.Utils
+import org.zstack.utils.logging.CLogger
+
+class Benchmark {
+    private static final CLogger logger = Utils.getLogger(Benchmark.class)
+
+    static long nanos(Closure c) {
+        long start = System.nanoTime()
+        c()
+        return System.nanoTime() - start
+    }
+
+    /**
+     * times the closure after running warmUp untimed, so class loading, JIT compiling and
+     * filling caches in first runs aren't counted
+     */
+    static long nanos(Closure warmUp, Closure c) {
+        warmUp()
+        return nanos(c)
+    }
+
+    /**
+     * times the closure after running it once untimed
+     */
+    static long warmNanos(Closure c) {
+        return nanos(c, c)
+    }
+
+    static void report(String name, String format, Object... args) {
+        logger.info(String.format("[%s benchmark] %s", name, String.format(format, args)))
+    }
+}
@@ -0,0 +1,43 @@
+package org.zstack.test.integration.benchmark
+
+import org.zstack.testlib.SpringSpec
+import org.zstack.testlib.Test
+import org.zstack.utils.Utils
+import org.zstack.utils.logging.CLogger
+
+/**
+ * benchmarks of the optimizations covered by functional cases in other suites.
+ *
+ * Timings depend on the machine running them, so benchmark cases log their results by Benchmark.report()
+ * instead of asserting them, and the suite runs its cases only when asked:
+ * mvn test -Dtest=BenchmarkTest -Dbenchmark
+ *
+ * grep "benchmark\]" management-server.log for the results.
+ */
+class BenchmarkTest extends Test {
+    private static final CLogger logger = Utils.getLogger(BenchmarkTest.class)
+
+    static SpringSpec springSpec = makeSpring()
+
+    @Override
+    void setup() {
+        useSpring(springSpec)
+        spring {
+            include("FlowChainRecoveryForTest.xml")
+        }
+    }
+
+    @Override
+    void environment() {
+    }
+
+    @Override
+    void test() {
+        if (System.getProperty("benchmark") == null) {
+            logger.info("benchmarks are skipped, run them with -Dbenchmark")
+            return
+        }
+
+        runSubCases()
+    }
+}
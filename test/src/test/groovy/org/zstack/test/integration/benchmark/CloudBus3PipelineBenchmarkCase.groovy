@@ -0,0 +1,33 @@
+package org.zstack.test.integration.benchmark
+
+import org.zstack.core.cloudbus.CloudBusGlobalProperty
+import org.zstack.core.cloudbus.CloudBusImpl3
+import org.zstack.test.integration.core.cloudbus.CloudBus3PipelineCase
+
+/**
+ * sending messages by the json transport against the pipeline transport, see CloudBus3PipelineCase
+ */
+class CloudBus3PipelineBenchmarkCase extends CloudBus3PipelineCase {
+    @Override
+    void test() {
+        int total = 2000
+
+        registerService()
+        CloudBusGlobalProperty.HTTP_ALWAYS = true
+
+        try {
+            CloudBusGlobalProperty.HTTP_TRANSPORT = "json"
+            long json = Benchmark.nanos { sendMessages(total) }
+
+            CloudBusGlobalProperty.HTTP_TRANSPORT = CloudBusImpl3.HTTP_TRANSPORT_PIPELINE
+            long pipeline = Benchmark.nanos { sendMessages(total) }
+
+            Benchmark.report("cloudbus", "%s messages, json transport: %.2f msg/s, pipeline transport: %.2f msg/s",
+                    total, total / (json / 1e9d), total / (pipeline / 1e9d))
+        } finally {
+            CloudBusGlobalProperty.HTTP_ALWAYS = false
+            CloudBusGlobalProperty.HTTP_TRANSPORT = "json"
+            bus.unregisterService(service)
+        }
+    }
+}
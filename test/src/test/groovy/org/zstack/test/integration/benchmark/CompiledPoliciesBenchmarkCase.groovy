@@ -0,0 +1,60 @@
+package org.zstack.test.integration.benchmark
+
+import org.zstack.header.identity.PolicyInventory
+import org.zstack.header.identity.rbac.PolicyMatcher
+import org.zstack.identity.rbac.CompiledPolicies
+import org.zstack.testlib.SubCase
+
+import static org.zstack.test.integration.identity.rbac.CompiledPoliciesCase.evalByStatements
+import static org.zstack.test.integration.identity.rbac.CompiledPoliciesCase.generateApis
+import static org.zstack.test.integration.identity.rbac.CompiledPoliciesCase.generatePolicies
+import static org.zstack.test.integration.identity.rbac.CompiledPoliciesCase.userSession
+
+/**
+ * RBAC decisions by CompiledPolicies against evaluating every statement, see CompiledPoliciesCase
+ */
+class CompiledPoliciesBenchmarkCase extends SubCase {
+    @Override
+    void clean() {
+    }
+
+    @Override
+    void setup() {
+    }
+
+    @Override
+    void environment() {
+    }
+
+    @Override
+    void test() {
+        int policyNum = 50
+        int statementNum = 20
+        int apiNum = 300
+        int rounds = 20
+
+        List<String> apis = generateApis(apiNum)
+        List<PolicyInventory> policies = generatePolicies(policyNum, statementNum)
+        def session = userSession("account1", "user1")
+        def matcher = new PolicyMatcher()
+
+        long byStatements = Benchmark.nanos {
+            rounds.times { apis.each { evalByStatements(policies, matcher, it) } }
+        }
+
+        CompiledPolicies compiled = null
+        long compileAndFirstRound = Benchmark.nanos {
+            compiled = new CompiledPolicies(policies, session)
+            apis.each { compiled.isPermitted(it) }
+        }
+
+        long memoized = Benchmark.nanos {
+            rounds.times { apis.each { compiled.isPermitted(it) } }
+        }
+
+        int decisions = rounds * apiNum
+        Benchmark.report("RBAC decision", "%s policies x %s statements: %.0f ns/decision evaluating statements," +
+                " %.0f ns/decision memoized, compiling and the first round of %s APIs took %.2f ms",
+                policyNum, statementNum, byStatements / (double) decisions, memoized / (double) decisions, apiNum, compileAndFirstRound / 1e6d)
+    }
+}
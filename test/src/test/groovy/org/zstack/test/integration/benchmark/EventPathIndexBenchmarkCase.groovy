@@ -0,0 +1,54 @@
+package org.zstack.test.integration.benchmark
+
+import org.zstack.core.cloudbus.EventPathIndex
+import org.zstack.testlib.SubCase
+
+import static org.zstack.test.integration.core.cloudbus.EventPathIndexCase.eventPaths
+import static org.zstack.test.integration.core.cloudbus.EventPathIndexCase.regexesOf
+import static org.zstack.test.integration.core.cloudbus.EventPathIndexCase.subscriptionPatterns
+
+/**
+ * dispatching events by EventPathIndex against testing the regex of every subscription, see EventPathIndexCase
+ */
+class EventPathIndexBenchmarkCase extends SubCase {
+    @Override
+    void clean() {
+    }
+
+    @Override
+    void setup() {
+    }
+
+    @Override
+    void environment() {
+    }
+
+    @Override
+    void test() {
+        int subscriptions = 1000
+        int events = 10000
+
+        List<String> patterns = subscriptionPatterns(subscriptions)
+        def index = new EventPathIndex<String>()
+        patterns.each { index.add(it, it) }
+        List<String> paths = eventPaths(subscriptions, events)
+
+        int hits = 0
+        long indexed = Benchmark.nanos({ paths.each { index.match(it) } }) {
+            paths.each { hits += index.match(it).size() }
+        }
+        assert hits == events
+
+        // run the regex scan on fewer events as it's slow
+        int oldEvents = 1000
+        List<String> regexes = regexesOf(patterns)
+        hits = 0
+        long scanned = Benchmark.nanos {
+            paths.subList(0, oldEvents).each { path -> regexes.each { if (path.matches(it)) { hits++ } } }
+        }
+        assert hits == oldEvents
+
+        Benchmark.report("event dispatch", "%s subscriptions: path index %.0f events/s, regex scan %.0f events/s",
+                subscriptions, events * 1e9d / indexed, oldEvents * 1e9d / scanned)
+    }
+}
@@ -0,0 +1,57 @@
+package org.zstack.test.integration.benchmark
+
+import org.zstack.core.CoreGlobalProperty
+import org.zstack.core.db.Q
+import org.zstack.core.workflow.FlowChainJournal
+import org.zstack.core.workflow.WorkFlowChainVO
+import org.zstack.core.workflow.WorkFlowChainVO_
+import org.zstack.test.core.workflow.FlowChainRecoveryForTest
+import org.zstack.test.integration.core.workflow.FlowChainJournalCase
+
+/**
+ * running flow chains with and without FlowChainJournal, see FlowChainJournalCase
+ */
+class FlowChainJournalBenchmarkCase extends FlowChainJournalCase {
+    Closure chains(int chainNum, int flowNum, boolean journaled) {
+        return {
+            chainNum.times {
+                def chain = newChain(flowNum, null, null, null)
+                if (journaled) {
+                    chain.journal("journal-benchmark-chain")
+                }
+                chain.start()
+            }
+        }
+    }
+
+    @Override
+    void test() {
+        journalEnabled = CoreGlobalProperty.FLOW_CHAIN_JOURNAL_ENABLE
+        CoreGlobalProperty.FLOW_CHAIN_JOURNAL_ENABLE = true
+
+        journal = bean(FlowChainJournal.class)
+        recoveryForTest = bean(FlowChainRecoveryForTest.class)
+
+        int chainNum = 500
+        int flowNum = 20
+
+        long plain = Benchmark.warmNanos(chains(chainNum, flowNum, false))
+
+        Closure journaledChains = chains(chainNum, flowNum, true)
+        long flushes = 0
+        long flushTime = 0
+        long journaled = Benchmark.nanos({
+            journaledChains()
+            journal.flush()
+            flushes = journal.flushCount
+            flushTime = journal.flushTimeInNanos
+        }, journaledChains)
+        journal.flush()
+        assert !Q.New(WorkFlowChainVO.class).eq(WorkFlowChainVO_.name, "journal-benchmark-chain").isExists()
+
+        Benchmark.report("flow chain journal", "%s chains of %s flows: %.0f ns/step without journal," +
+                " %.0f ns/step with journal, %s flushes took %.2f ms in total",
+                chainNum, flowNum, plain / (double) (chainNum * flowNum), journaled / (double) (chainNum * flowNum),
+                journal.flushCount - flushes, (journal.flushTimeInNanos - flushTime) / 1e6d)
+    }
+}
@@ -0,0 +1,44 @@
+package org.zstack.test.integration.benchmark
+
+import org.zstack.compute.allocator.HostCapacityIndex
+import org.zstack.testlib.SubCase
+import org.zstack.utils.data.SizeUnit
+
+/**
+ * filtering hosts by HostCapacityIndex at different numbers of hosts, see HostCapacityIndexCase
+ */
+class HostCapacityIndexBenchmarkCase extends SubCase {
+    @Override
+    void clean() {
+    }
+
+    @Override
+    void setup() {
+    }
+
+    @Override
+    void environment() {
+    }
+
+    @Override
+    void test() {
+        long g = SizeUnit.GIGABYTE.toByte(1)
+        Random random = new Random(1)
+
+        [1000, 5000, 20000].each { int hosts ->
+            def index = new HostCapacityIndex(hosts)
+            hosts.times {
+                index.set(it, random.nextInt(64), random.nextInt(256) * g, 256 * g, 1.5, random.nextInt(4) * g)
+            }
+
+            int times = 1000
+            int hits = 0
+            long cost = Benchmark.warmNanos {
+                times.times { hits = index.filter(4, 8 * g, 0, true).length }
+            }
+
+            assert hits > 0
+            Benchmark.report("host capacity filter", "%s hosts: %.3f us/allocation, %s hosts left", hosts, cost / times / 1000d, hits)
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package org.zstack.test.integration.benchmark
+
+import org.zstack.network.l3.IpRangeAllocationIndex
+import org.zstack.testlib.SubCase
+import org.zstack.utils.network.NetworkUtils
+
+/**
+ * allocating ips by IpRangeAllocationIndex against searching the used ips, see IpAllocationIndexCase
+ */
+class IpAllocationBenchmarkCase extends SubCase {
+    @Override
+    void clean() {
+    }
+
+    @Override
+    void setup() {
+    }
+
+    @Override
+    void environment() {
+    }
+
+    @Override
+    void test() {
+        long start = NetworkUtils.ipv4StringToLong("10.0.0.1")
+        long end = NetworkUtils.ipv4StringToLong("10.0.255.254")
+
+        int times = 50000
+        def index = new IpRangeAllocationIndex("range", start, end, [:])
+        long indexed = Benchmark.nanos {
+            times.times { index.allocate(start, end, null, false) }
+        }
+        assert index.usedCount == times
+
+        int oldTimes = 5000
+        List<Long> used = []
+        long scanned = Benchmark.nanos {
+            oldTimes.times {
+                used.add(NetworkUtils.findFirstAvailableIpv4Address(start, end, used.toArray(new Long[used.size()])))
+            }
+        }
+
+        Benchmark.report("ip allocation", "allocation index: %.3f us/ip for %s ips, used ip scan: %.3f us/ip for %s ips",
+                indexed / times / 1000d, times, scanned / oldTimes / 1000d, oldTimes)
+    }
+}
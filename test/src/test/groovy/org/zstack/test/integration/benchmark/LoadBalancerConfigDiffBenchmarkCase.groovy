@@ -0,0 +1,57 @@
+package org.zstack.test.integration.benchmark
+
+import org.zstack.network.service.virtualrouter.VirtualRouterGlobalProperty
+import org.zstack.test.integration.networkservice.provider.virtualrouter.loadbalancer.LoadBalancerConfigDiffCase
+
+/**
+ * refreshing a load balancer of many listeners in full against by diffs, see LoadBalancerConfigDiffCase
+ */
+class LoadBalancerConfigDiffBenchmarkCase extends LoadBalancerConfigDiffCase {
+    @Override
+    void test() {
+        env.create {
+            VirtualRouterGlobalProperty.LB_CONFIG_DIFF_ENABLE = true
+            try {
+                prepare()
+                benchmarkRefreshOfManyListeners()
+            } finally {
+                VirtualRouterGlobalProperty.LB_CONFIG_DIFF_ENABLE = false
+            }
+        }
+    }
+
+    void benchmarkRefreshOfManyListeners() {
+        int rounds = 5
+        int listenerNum = 500
+        List<String> fakeListenerUuids = createFakeListeners(listenerNum)
+
+        Closure<Long> refreshAfterChanges = {
+            long cost = 0
+            (1..rounds).each { i ->
+                changeListener(i)
+                cost += Benchmark.nanos { refreshLb() }
+            }
+            return cost
+        }
+
+        try {
+            VirtualRouterGlobalProperty.LB_CONFIG_DIFF_ENABLE = false
+            clearRecords()
+            long fullCost = refreshAfterChanges()
+            long fullBytes = refreshedBytes
+            int fullListeners = refreshedListeners().size()
+
+            VirtualRouterGlobalProperty.LB_CONFIG_DIFF_ENABLE = true
+            refreshLb()
+            clearRecords()
+            long diffCost = refreshAfterChanges()
+
+            Benchmark.report("lb config diff", "%s listeners, %s refreshes with one listener changed: " +
+                    "%s listeners, %s bytes, %.2f ms in full; %s listeners, %s bytes, %.2f ms by diffs",
+                    listenerNum, rounds, fullListeners, fullBytes, fullCost / 1e6d,
+                    refreshedListeners().size(), refreshedBytes, diffCost / 1e6d)
+        } finally {
+            deleteFakeListeners(fakeListenerUuids)
+        }
+    }
+}
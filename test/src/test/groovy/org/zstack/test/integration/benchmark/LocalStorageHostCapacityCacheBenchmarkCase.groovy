@@ -0,0 +1,45 @@
+package org.zstack.test.integration.benchmark
+
+import org.zstack.header.host.HostVO
+import org.zstack.storage.primary.local.LocalStorageGlobalProperty
+import org.zstack.storage.primary.local.LocalStorageHostCapacityCache
+import org.zstack.test.integration.storage.primary.local.LocalStorageHostCapacityCacheCase
+
+/**
+ * filtering hosts of a local storage by LocalStorageHostCapacityCache against querying the database
+ * on concurrent allocations, see LocalStorageHostCapacityCacheCase
+ */
+class LocalStorageHostCapacityCacheBenchmarkCase extends LocalStorageHostCapacityCacheCase {
+    @Override
+    void test() {
+        env.create {
+            prepare()
+
+            int hostNum = 1000
+            int threadNum = 10
+            int rounds = 10
+
+            List<HostVO> hosts = createHosts(hostNum)
+            int allocations = threadNum * rounds
+
+            LocalStorageGlobalProperty.HOST_CAPACITY_CACHE_ENABLE = false
+            long byDatabase
+            try {
+                byDatabase = Benchmark.nanos({ allocateConcurrently(hosts, threadNum, 1) }) {
+                    allocateConcurrently(hosts, threadNum, rounds)
+                }
+            } finally {
+                LocalStorageGlobalProperty.HOST_CAPACITY_CACHE_ENABLE = true
+            }
+
+            LocalStorageHostCapacityCache.invalidate(null)
+            long loading = Benchmark.nanos { filter(hosts) }
+            long byCache = Benchmark.nanos { allocateConcurrently(hosts, threadNum, rounds) }
+
+            Benchmark.report("local storage host capacity cache", "%s hosts, %s concurrent allocations:" +
+                    " %.2f ms/allocation filtering by database, %.2f ms/allocation filtering by the cache," +
+                    " loading capacities of the hosts took %.2f ms", hostNum, threadNum, byDatabase / (double) allocations / 1e6d,
+                    byCache / (double) allocations / 1e6d, loading / 1e6d)
+        }
+    }
+}
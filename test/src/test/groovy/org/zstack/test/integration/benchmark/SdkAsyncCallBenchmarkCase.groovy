@@ -0,0 +1,24 @@
+package org.zstack.test.integration.benchmark
+
+import org.zstack.test.integration.rest.SdkAsyncCallCase
+
+/**
+ * calling APIs by the SDK without blocking against blocking calls, see SdkAsyncCallCase
+ */
+class SdkAsyncCallBenchmarkCase extends SdkAsyncCallCase {
+    @Override
+    void test() {
+        benchmarkCalls("web hook", "sdk-async-bench-hook")
+        withPolling {
+            benchmarkCalls("polling", "sdk-async-bench-poll")
+        }
+    }
+
+    void benchmarkCalls(String way, String prefix) {
+        long async = Benchmark.nanos { createZonesAsync(prefix) }
+        long sync = Benchmark.nanos { createZonesSync(prefix) }
+
+        Benchmark.report("SDK call", "%s: %.1f calls/sec without blocking, %.1f calls/sec blocking",
+                way, CALLS * 1e9d / async, CALLS * 1e9d / sync)
+    }
+}
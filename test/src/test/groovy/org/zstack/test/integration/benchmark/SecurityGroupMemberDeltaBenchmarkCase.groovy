@@ -0,0 +1,48 @@
+package org.zstack.test.integration.benchmark
+
+import org.zstack.network.securitygroup.SecurityGroupGlobalProperty
+import org.zstack.test.integration.networkservice.provider.virtualrouter.securitygroup.SecurityGroupMemberDeltaCase
+
+/**
+ * updating members of a big security group in full against by deltas, see SecurityGroupMemberDeltaCase
+ */
+class SecurityGroupMemberDeltaBenchmarkCase extends SecurityGroupMemberDeltaCase {
+    @Override
+    void test() {
+        env.create {
+            prepare()
+
+            SecurityGroupGlobalProperty.MEMBER_DELTA_ENABLE = true
+            try {
+                recordMemberUpdates()
+                createGroup()
+                assertConverged()
+                benchmarkMemberUpdates()
+            } finally {
+                SecurityGroupGlobalProperty.MEMBER_DELTA_ENABLE = false
+            }
+        }
+    }
+
+    void benchmarkMemberUpdates() {
+        int rounds = 5
+        List<String> bulkNicUuids = prepareBulkMembers(10000)
+        try {
+            SecurityGroupGlobalProperty.MEMBER_DELTA_ENABLE = false
+            long fullBytes = 0
+            long fullCost = Benchmark.nanos { fullBytes = addAndRemoveNic(rounds) }
+
+            SecurityGroupGlobalProperty.MEMBER_DELTA_ENABLE = true
+            // hosts are resynced in full once, as full updates above don't carry generations
+            addAndRemoveNic(1)
+            long deltaBytes = 0
+            long deltaCost = Benchmark.nanos { deltaBytes = addAndRemoveNic(rounds) }
+
+            Benchmark.report("security group member update", "a group of %s members, %s hosts," +
+                    " %s nics added and removed: full updates sent %s bytes in %.0f ms, deltas sent %s bytes in %.0f ms",
+                    expectedMembers().size(), hostUuids.size(), rounds, fullBytes, fullCost / 1e6d, deltaBytes, deltaCost / 1e6d)
+        } finally {
+            removeBulkMembers(bulkNicUuids)
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.zstack.test.integration.benchmark
+
+import org.zstack.core.Platform
+import org.zstack.core.db.Q
+import org.zstack.header.tag.SystemTagVO
+import org.zstack.header.tag.SystemTagVO_
+import org.zstack.header.tag.TagType
+import org.zstack.header.zone.ZoneVO
+import org.zstack.tag.TagGlobalProperty
+import org.zstack.test.integration.configuration.systemTag.SystemTagIndexCase
+
+/**
+ * looking up system tags by SystemTagIndex against querying the database, see SystemTagIndexCase
+ */
+class SystemTagIndexBenchmarkCase extends SystemTagIndexCase {
+    @Override
+    void test() {
+        prepareTag()
+
+        int resourceNum = 500
+        int tagNum = 5
+
+        List<String> resourceUuids = (1..resourceNum).collect { Platform.getUuid() }
+        List<SystemTagVO> vos = []
+        resourceUuids.each { uuid ->
+            tagNum.times { i ->
+                def vo = new SystemTagVO()
+                vo.uuid = Platform.getUuid()
+                vo.resourceUuid = uuid
+                vo.resourceType = ZoneVO.class.getSimpleName()
+                vo.tag = i == 0 ? "${TAG_PREFIX}::${uuid}::${i}".toString() : "${TAG_PREFIX}Other${i}::${uuid}".toString()
+                vo.inherent = false
+                vo.type = TagType.System
+                vos.add(vo)
+            }
+        }
+        dbf.persistCollection(vos)
+        tagMgr.evictSystemTagIndex(resourceUuids)
+        assert Q.New(SystemTagVO.class).in(SystemTagVO_.resourceUuid, resourceUuids).count() == (long) resourceNum * tagNum
+
+        Closure lookupEach = { resourceUuids.each { patternedTag.getTokensByResourceUuid(it) } }
+
+        TagGlobalProperty.SYSTEM_TAG_INDEX_ENABLE = false
+        long byDatabase
+        try {
+            byDatabase = Benchmark.warmNanos(lookupEach)
+        } finally {
+            TagGlobalProperty.SYSTEM_TAG_INDEX_ENABLE = true
+        }
+
+        long loading = Benchmark.nanos(lookupEach)
+        long byIndex = Benchmark.nanos(lookupEach)
+
+        tagMgr.evictSystemTagIndex(resourceUuids)
+        Map<String, Map<String, String>> tokens = null
+        long bulkLoading = Benchmark.nanos {
+            tokens = patternedTag.getTokensByResourceUuids(resourceUuids)
+        }
+        assert tokens.size() == resourceNum
+
+        Benchmark.report("system tag index", "%s resources with %s tags each: %.0f us/lookup from database," +
+                " %.0f us/lookup loading the index, %.0f us/lookup from the index, bulk loading took %.2f ms",
+                resourceNum, tagNum, byDatabase / (double) resourceNum / 1e3d, loading / (double) resourceNum / 1e3d,
+                byIndex / (double) resourceNum / 1e3d, bulkLoading / 1e6d)
+    }
+}
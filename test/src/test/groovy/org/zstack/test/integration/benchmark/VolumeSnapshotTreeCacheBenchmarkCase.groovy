@@ -0,0 +1,41 @@
+package org.zstack.test.integration.benchmark
+
+import org.zstack.core.db.DatabaseFacade
+import org.zstack.header.storage.snapshot.VolumeSnapshotTree.SnapshotLeaf
+import org.zstack.storage.snapshot.VolumeSnapshotTreeCache
+import org.zstack.test.integration.storage.snapshot.VolumeSnapshotTreeCacheCase
+
+/**
+ * looking up a snapshot of a long chain from VolumeSnapshotTreeCache against building the tree
+ * from database, see VolumeSnapshotTreeCacheCase
+ */
+class VolumeSnapshotTreeCacheBenchmarkCase extends VolumeSnapshotTreeCacheCase {
+    @Override
+    void test() {
+        dbf = bean(DatabaseFacade.class)
+
+        int depth = 300
+        int rounds = 20
+
+        String treeUuid = createTree()
+        List<String> chain = createChain(treeUuid, null, depth)
+        String uuid = chain[depth - 10]
+
+        long fromDatabase = Benchmark.nanos({ loadTree(treeUuid) }) {
+            rounds.times {
+                SnapshotLeaf leaf = loadTree(treeUuid).findSnapshot({ it.uuid == uuid } as org.zstack.utils.function.Function)
+                leaf.getAncestors()
+            }
+        }
+
+        long fromCache = Benchmark.nanos({ VolumeSnapshotTreeCache.getLeaf(treeUuid, uuid) }) {
+            rounds.times {
+                VolumeSnapshotTreeCache.getLeaf(treeUuid, uuid).getAncestors()
+            }
+        }
+
+        Benchmark.report("volume snapshot tree cache", "a chain of %s snapshots: %.2f ms/lookup building" +
+                " the tree from database, %.2f ms/lookup from the cache",
+                depth, fromDatabase / (double) rounds / 1e6d, fromCache / (double) rounds / 1e6d)
+    }
+}
@@ -0,0 +1,32 @@
+package org.zstack.test.integration.benchmark
+
+import org.zstack.test.integration.zql.ZQLPlanCacheCase
+import org.zstack.zql.ZQL
+import org.zstack.zql.ZQLGlobalProperty
+
+/**
+ * running ZQL queries with and without the plan cache, see ZQLPlanCacheCase
+ */
+class ZQLPlanCacheBenchmarkCase extends ZQLPlanCacheCase {
+    @Override
+    void test() {
+        env.create {
+            int times = 1000
+            String text = "query vminstance.uuid,name where name='vm' and state='Running' order by createDate desc limit 10"
+
+            int cacheSize = ZQLGlobalProperty.PLAN_CACHE_SIZE
+            ZQLGlobalProperty.PLAN_CACHE_SIZE = 0
+            long uncached
+            try {
+                uncached = Benchmark.nanos { times.times { ZQL.fromString(text).getSingleResult() } }
+            } finally {
+                ZQLGlobalProperty.PLAN_CACHE_SIZE = cacheSize
+            }
+
+            long cached = Benchmark.nanos { times.times { ZQL.fromString(text).getSingleResult() } }
+
+            Benchmark.report("zql", "%s queries, without plan cache: %.3f ms/query, with plan cache: %.3f ms/query",
+                    times, uncached / times / 1e6d, cached / times / 1e6d)
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package org.zstack.test.integration.configuration.resourceconfig
+
+import org.zstack.compute.host.HostGlobalConfig
+import org.zstack.core.Platform
+import org.zstack.core.cache.DistributedEvictingCache
+import org.zstack.resourceconfig.ResourceConfig
+import org.zstack.resourceconfig.ResourceConfigFacade
+import org.zstack.resourceconfig.ResourceConfigGlobalProperty
+import org.zstack.sdk.ClusterInventory
+import org.zstack.sdk.HostInventory
+import org.zstack.sdk.ZoneInventory
+import org.zstack.test.integration.kvm.Env
+import org.zstack.test.integration.kvm.KvmTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+
+class ResourceConfigValueCacheCase extends SubCase {
+    EnvSpec env
+    ResourceConfigFacade rcf
+    ResourceConfig config
+    ZoneInventory zone
+    ClusterInventory cluster
+    HostInventory host
+
+    @Override
+    void clean() {
+        env.delete()
+        config?.valueCache = new DistributedEvictingCache<>(ResourceConfigGlobalProperty.VALUE_CACHE_SIZE,
+                ResourceConfigGlobalProperty.VALUE_CACHE_TTL)
+    }
+
+    @Override
+    void setup() {
+        useSpring(KvmTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = Env.oneVmBasicEnv()
+    }
+
+    @Override
+    void test() {
+        env.create {
+            rcf = bean(ResourceConfigFacade.class)
+            // the cache is off by default, turn it on for the config as resourceConfig.valueCacheSize does
+            config = rcf.getResourceConfig(HostGlobalConfig.HOST_CPU_OVER_PROVISIONING_RATIO.identity)
+            config.valueCache = new DistributedEvictingCache<>(1000, ResourceConfigGlobalProperty.VALUE_CACHE_TTL)
+
+            zone = env.inventoryByName("zone") as ZoneInventory
+            cluster = env.inventoryByName("cluster") as ClusterInventory
+            host = env.inventoryByName("kvm") as HostInventory
+
+            testGlobalValue()
+            testUpdateInvalidatesResolvedValues()
+            testDeleteInvalidatesResolvedValues()
+        }
+    }
+
+    Integer getRatio(String resourceUuid) {
+        return rcf.getResourceConfigValue(HostGlobalConfig.HOST_CPU_OVER_PROVISIONING_RATIO, resourceUuid, Integer.class)
+    }
+
+    Map<String, Integer> getRatios(List<String> resourceUuids) {
+        return rcf.getResourceConfigValues(HostGlobalConfig.HOST_CPU_OVER_PROVISIONING_RATIO, resourceUuids, Integer.class)
+    }
+
+    void updateRatio(String resourceUuid, String ratio) {
+        updateResourceConfig {
+            category = HostGlobalConfig.CATEGORY
+            name = HostGlobalConfig.HOST_CPU_OVER_PROVISIONING_RATIO.name
+            value = ratio
+            delegate.resourceUuid = resourceUuid
+        }
+    }
+
+    void testGlobalValue() {
+        int global = HostGlobalConfig.HOST_CPU_OVER_PROVISIONING_RATIO.value(Integer.class)
+        String notFound = Platform.uuid
+
+        assert getRatio(host.uuid) == global
+        assert config.valueCache.get(host.uuid) == Optional.empty()
+        // resolved from the cache
+        assert getRatio(host.uuid) == global
+        assert getRatios([host.uuid, cluster.uuid, zone.uuid, notFound]) ==
+                [(host.uuid): global, (cluster.uuid): global, (zone.uuid): global, (notFound): global]
+    }
+
+    void testUpdateInvalidatesResolvedValues() {
+        updateRatio(zone.uuid, "3")
+        assert getRatio(host.uuid) == 3
+        assert getRatios([host.uuid, cluster.uuid]) == [(host.uuid): 3, (cluster.uuid): 3]
+
+        updateRatio(cluster.uuid, "5")
+        assert getRatios([host.uuid, cluster.uuid, zone.uuid]) == [(host.uuid): 5, (cluster.uuid): 5, (zone.uuid): 3]
+        assert getRatio(host.uuid) == 5
+
+        updateRatio(host.uuid, "7")
+        assert getRatio(host.uuid) == 7
+        assert getRatios([host.uuid, cluster.uuid]) == [(host.uuid): 7, (cluster.uuid): 5]
+    }
+
+    void testDeleteInvalidatesResolvedValues() {
+        deleteResourceConfig {
+            category = HostGlobalConfig.CATEGORY
+            name = HostGlobalConfig.HOST_CPU_OVER_PROVISIONING_RATIO.name
+            resourceUuid = host.uuid
+        }
+
+        assert getRatio(host.uuid) == 5
+        assert getRatios([host.uuid]) == [(host.uuid): 5]
+
+        deleteResourceConfig {
+            category = HostGlobalConfig.CATEGORY
+            name = HostGlobalConfig.HOST_CPU_OVER_PROVISIONING_RATIO.name
+            resourceUuid = cluster.uuid
+        }
+        deleteResourceConfig {
+            category = HostGlobalConfig.CATEGORY
+            name = HostGlobalConfig.HOST_CPU_OVER_PROVISIONING_RATIO.name
+            resourceUuid = zone.uuid
+        }
+
+        assert getRatio(host.uuid) == HostGlobalConfig.HOST_CPU_OVER_PROVISIONING_RATIO.value(Integer.class)
+    }
+}
@@ -0,0 +1,151 @@
+package org.zstack.test.integration.configuration.systemTag
+
+import org.zstack.core.Platform
+import org.zstack.core.db.DatabaseFacade
+import org.zstack.core.db.SQL
+import org.zstack.core.db.SimpleQuery
+import org.zstack.header.tag.SystemTagVO
+import org.zstack.header.tag.SystemTagVO_
+import org.zstack.header.tag.TagType
+import org.zstack.header.zone.ZoneVO
+import org.zstack.tag.PatternedSystemTag
+import org.zstack.tag.SystemTagIndex
+import org.zstack.tag.TagGlobalProperty
+import org.zstack.tag.TagManagerImpl
+import org.zstack.testlib.SubCase
+
+class SystemTagIndexCase extends SubCase {
+    static final String TAG_PREFIX = "systemTagIndexCase"
+
+    DatabaseFacade dbf
+    TagManagerImpl tagMgr
+    SystemTagIndex index
+    PatternedSystemTag patternedTag
+
+    @Override
+    void clean() {
+        SQL.New(SystemTagVO.class).like(SystemTagVO_.tag, "${TAG_PREFIX}%".toString()).hardDelete()
+        tagMgr.evictSystemTagIndex(null)
+    }
+
+    @Override
+    void setup() {
+    }
+
+    @Override
+    void environment() {
+    }
+
+    @Override
+    void test() {
+        prepareTag()
+
+        testLookupByIndex()
+        testEviction()
+        testDeleteByApi()
+        testBulkLookup()
+    }
+
+    void prepareTag() {
+        dbf = bean(DatabaseFacade.class)
+        tagMgr = bean(TagManagerImpl.class)
+        index = tagMgr.getSystemTagIndex()
+        patternedTag = new PatternedSystemTag("${TAG_PREFIX}::{name}::{size}".toString(), ZoneVO.class)
+        patternedTag.@tagMgr = tagMgr
+    }
+
+    SystemTagVO createTag(String resourceUuid, String tag) {
+        def vo = new SystemTagVO()
+        vo.uuid = Platform.getUuid()
+        vo.resourceUuid = resourceUuid
+        vo.resourceType = ZoneVO.class.getSimpleName()
+        vo.tag = tag
+        vo.inherent = false
+        vo.type = TagType.System
+        return dbf.persistAndRefresh(vo)
+    }
+
+    void testLookupByIndex() {
+        String resourceUuid = Platform.getUuid()
+        createTag(resourceUuid, "${TAG_PREFIX}::vm1::10".toString())
+
+        assert patternedTag.hasTag(resourceUuid)
+        assert index.size() > 0
+        assert patternedTag.getTokensByResourceUuid(resourceUuid) == [name: "vm1", size: "10"]
+        // tokens returned are copies
+        patternedTag.getTokensByResourceUuid(resourceUuid).put("name", "changed")
+        assert patternedTag.getTokenByResourceUuid(resourceUuid, "name") == "vm1"
+
+        // the same as MySQL collation
+        assert index.isMatch("${TAG_PREFIX}::VM1::10".toString(), SimpleQuery.Op.LIKE, "${TAG_PREFIX}::%::%".toString())
+        assert index.isMatch("a.b", SimpleQuery.Op.LIKE, "a_b")
+        assert !index.isMatch("a.b", SimpleQuery.Op.LIKE, "a.c%")
+        assert index.isMatch("ABC", SimpleQuery.Op.EQ, "abc")
+
+        assert !patternedTag.hasTag(resourceUuid, String.class)
+        assert !patternedTag.hasTag(Platform.getUuid())
+    }
+
+    void testEviction() {
+        String resourceUuid = Platform.getUuid()
+        assert !patternedTag.hasTag(resourceUuid)
+
+        SystemTagVO vo = createTag(resourceUuid, "${TAG_PREFIX}::vm2::20".toString())
+        assert patternedTag.getTokenByResourceUuid(resourceUuid, "size") == "20"
+
+        vo.tag = "${TAG_PREFIX}::vm2::30".toString()
+        dbf.updateAndRefresh(vo)
+        assert patternedTag.getTokenByResourceUuid(resourceUuid, "size") == "30"
+
+        dbf.remove(vo)
+        assert !patternedTag.hasTag(resourceUuid)
+
+        // changes by SQL are not seen until evicted
+        createTag(resourceUuid, "${TAG_PREFIX}::vm2::40".toString())
+        assert patternedTag.hasTag(resourceUuid)
+        SQL.New(SystemTagVO.class).eq(SystemTagVO_.resourceUuid, resourceUuid).hardDelete()
+        assert patternedTag.hasTag(resourceUuid)
+        tagMgr.evictSystemTagIndex([resourceUuid])
+        assert !patternedTag.hasTag(resourceUuid)
+    }
+
+    void testDeleteByApi() {
+        String resourceUuid = Platform.getUuid()
+        SystemTagVO vo = createTag(resourceUuid, "${TAG_PREFIX}::vm3::50".toString())
+        assert patternedTag.hasTag(resourceUuid)
+
+        // the tag is deleted by a bulk JPQL delete without entity life cycle events
+        deleteTag {
+            uuid = vo.uuid
+            sessionId = adminSession()
+        }
+        assert !patternedTag.hasTag(resourceUuid)
+    }
+
+    void testBulkLookup() {
+        List<String> resourceUuids = (1..10).collect { Platform.getUuid() }
+        resourceUuids.eachWithIndex { String uuid, int i ->
+            if (i % 2 == 0) {
+                createTag(uuid, "${TAG_PREFIX}::vm-${i}::${i}".toString())
+            }
+        }
+
+        Map<String, String> sizes = patternedTag.getTokenByResourceUuids(resourceUuids, "size")
+        assert sizes.size() == 5
+        resourceUuids.eachWithIndex { String uuid, int i ->
+            assert sizes[uuid] == (i % 2 == 0 ? i.toString() : null)
+        }
+
+        assert patternedTag.filterResourceHasTag(resourceUuids).toSet() == resourceUuids.findAll { sizes.containsKey(it) }.toSet()
+        assert patternedTag.getTags(resourceUuids).keySet() == sizes.keySet()
+
+        Map<String, Map<String, String>> tokens = patternedTag.getTokensByResourceUuids(resourceUuids)
+        TagGlobalProperty.SYSTEM_TAG_INDEX_ENABLE = false
+        try {
+            assert patternedTag.getTokensByResourceUuids(resourceUuids) == tokens
+            assert patternedTag.getTokenByResourceUuids(resourceUuids, "size") == sizes
+        } finally {
+            TagGlobalProperty.SYSTEM_TAG_INDEX_ENABLE = true
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package org.zstack.test.integration.core
+
+import org.zstack.core.CoreGlobalProperty
+import org.zstack.core.rest.EndpointCallLimiter
+import org.zstack.core.rest.RESTFacadeImpl
+import org.zstack.core.thread.HashedTimingWheel
+import org.zstack.header.errorcode.ErrorCode
+import org.zstack.header.errorcode.SysErrors
+import org.zstack.header.rest.JsonAsyncRESTCallback
+import org.zstack.header.rest.RESTFacade
+import org.zstack.testlib.SubCase
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class AgentCallTransportCase extends SubCase {
+    // accepts connections but never answers, calls to it stay in flight until timeout
+    ServerSocket silentAgent
+
+    @Override
+    void clean() {
+        silentAgent?.close()
+    }
+
+    @Override
+    void setup() {
+    }
+
+    @Override
+    void environment() {
+    }
+
+    void testTimingWheel() {
+        def wheel = new HashedTimingWheel("test", 100, 8)
+        int fired = 0
+        int cancelled = 0
+
+        wheel.submitTimeoutTask({ fired ++ }, TimeUnit.MILLISECONDS, 200)
+        // longer than a round of the wheel
+        wheel.submitTimeoutTask({ fired ++ }, TimeUnit.MILLISECONDS, 1500)
+        def receipt = wheel.submitTimeoutTask({ cancelled ++ }, TimeUnit.MILLISECONDS, 200)
+        assert receipt.cancel()
+
+        long now = System.currentTimeMillis()
+        wheel.tick(now + 100)
+        assert fired == 0
+
+        wheel.tick(now + 300)
+        assert fired == 1
+
+        wheel.tick(now + 1000)
+        assert fired == 1
+
+        wheel.tick(now + 1600)
+        assert fired == 2
+        assert cancelled == 0
+        assert !receipt.cancel()
+    }
+
+    void testEndpointCallLimiter() {
+        def limiter = new EndpointCallLimiter(2, 2)
+        String endpoint = EndpointCallLimiter.getEndpoint("http://127.0.0.1:7070/vm/start")
+        assert endpoint == "127.0.0.1:7070"
+
+        int sent = 0
+        4.times {
+            assert limiter.submit(endpoint, { sent ++ })
+        }
+
+        assert sent == 2
+        assert limiter.getInflight(endpoint) == 2
+        assert limiter.getPending(endpoint) == 2
+
+        // the pending queue is full
+        assert !limiter.submit(endpoint, { sent ++ })
+
+        limiter.release(endpoint)
+        assert sent == 3
+        assert limiter.getPending(endpoint) == 1
+
+        limiter.release(endpoint)
+        limiter.release(endpoint)
+        limiter.release(endpoint)
+        assert sent == 4
+        assert limiter.getInflight(endpoint) == 0
+        assert limiter.getPending(endpoint) == 0
+
+        // a cancelled call leaves the queue and never runs
+        2.times { limiter.submit(endpoint, { sent ++ }) }
+        Runnable cancelled = { sent ++ }
+        assert limiter.submit(endpoint, cancelled)
+        assert limiter.cancel(endpoint, cancelled)
+        assert !limiter.cancel(endpoint, cancelled)
+        assert limiter.getPending(endpoint) == 0
+
+        limiter.release(endpoint)
+        limiter.release(endpoint)
+        assert sent == 6
+    }
+
+    // posts calls to the silent agent, returns errors of failed calls, a null error means success
+    List<ErrorCode> post(RESTFacade restf, int num, long timeoutInMillis, CountDownLatch latch) {
+        String url = "http://127.0.0.1:${silentAgent.localPort}/silent".toString()
+        List<ErrorCode> errors = Collections.synchronizedList([])
+        num.times {
+            restf.asyncJsonPost(url, [:], new JsonAsyncRESTCallback<LinkedHashMap>(null) {
+                @Override
+                void fail(ErrorCode err) {
+                    errors.add(err)
+                    latch.countDown()
+                }
+
+                @Override
+                void success(LinkedHashMap ret) {
+                    errors.add(null)
+                    latch.countDown()
+                }
+
+                @Override
+                Class<LinkedHashMap> getReturnClass() {
+                    return LinkedHashMap.class
+                }
+            }, TimeUnit.MILLISECONDS, timeoutInMillis)
+        }
+
+        return errors
+    }
+
+    void testAsyncJsonPostWithLimiter() {
+        int maxInflight = 128
+        int maxPending = CoreGlobalProperty.REST_FACADE_MAX_PENDING_PER_ENDPOINT
+
+        // the limiter is off by default, turn it on as RESTFacade.maxInflightPerEndpoint does
+        RESTFacadeImpl restf = bean(RESTFacadeImpl.class)
+        restf.callLimiter = new EndpointCallLimiter(maxInflight, maxPending)
+        try {
+            postWithLimiter(restf, maxInflight, maxPending)
+        } finally {
+            restf.callLimiter = null
+        }
+    }
+
+    void postWithLimiter(RESTFacade restf, int maxInflight, int maxPending) {
+        silentAgent = new ServerSocket(0, maxInflight * 2, InetAddress.getLoopbackAddress())
+
+        // calls holding all slots of the endpoint
+        CountDownLatch inflightDone = new CountDownLatch(maxInflight)
+        List<ErrorCode> inflight = post(restf, maxInflight, TimeUnit.SECONDS.toMillis(20), inflightDone)
+
+        // calls filling the queue time out while waiting for a slot
+        CountDownLatch queuedDone = new CountDownLatch(maxPending)
+        List<ErrorCode> queued = post(restf, maxPending, 500, queuedDone)
+        assert queuedDone.await(10, TimeUnit.SECONDS)
+        assert queued.every { it != null && it.code == SysErrors.TIMEOUT.toString() }
+
+        // the timed out calls gave back their places in the queue, a full queue rejects more calls
+        CountDownLatch requeuedDone = new CountDownLatch(maxPending)
+        List<ErrorCode> requeued = post(restf, maxPending, 5000, requeuedDone)
+        CountDownLatch rejectedDone = new CountDownLatch(1)
+        List<ErrorCode> rejected = post(restf, 1, 5000, rejectedDone)
+        assert rejectedDone.await(2, TimeUnit.SECONDS)
+        assert rejected[0] != null && rejected[0].code != SysErrors.TIMEOUT.toString()
+
+        assert requeuedDone.await(20, TimeUnit.SECONDS)
+        assert requeued.every { it != null && it.code == SysErrors.TIMEOUT.toString() }
+
+        // the calls holding slots are not affected
+        assert inflight.isEmpty()
+        silentAgent.close()
+        assert inflightDone.await(1, TimeUnit.MINUTES)
+        assert inflight.every { it != null }
+    }
+
+    @Override
+    void test() {
+        testTimingWheel()
+        testEndpointCallLimiter()
+        testAsyncJsonPostWithLimiter()
+    }
+}
@@ -14,6 +14,7 @@ class CoreLibraryTest extends Test {
             include("ZoneManager.xml")
             include("webhook.xml")
             include("log.xml")
+            include("FlowChainRecoveryForTest.xml")
         }
     }
 
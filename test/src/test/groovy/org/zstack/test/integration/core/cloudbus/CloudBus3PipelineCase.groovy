@@ -0,0 +1,113 @@
+package org.zstack.test.integration.core.cloudbus
+
+import org.zstack.core.Platform
+import org.zstack.core.cloudbus.CloudBus
+import org.zstack.core.cloudbus.CloudBusCallBack
+import org.zstack.core.cloudbus.CloudBusGlobalProperty
+import org.zstack.core.cloudbus.CloudBusImpl3
+import org.zstack.header.AbstractService
+import org.zstack.header.message.Message
+import org.zstack.header.message.MessageReply
+import org.zstack.header.vm.StartVmInstanceMsg
+import org.zstack.test.integration.ZStackTest
+import org.zstack.testlib.SubCase
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class CloudBus3PipelineCase extends SubCase {
+    CloudBus bus
+    AbstractService service
+    String SERVICE_ID = "testPipeline"
+    int TOTAL = 200
+
+    @Override
+    void clean() {
+        CloudBusGlobalProperty.HTTP_ALWAYS = false
+        CloudBusGlobalProperty.HTTP_TRANSPORT = "json"
+    }
+
+    @Override
+    void setup() {
+        useSpring(ZStackTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+    }
+
+    void registerService() {
+        bus = bean(CloudBus.class)
+
+        service = new AbstractService() {
+            @Override
+            void handleMessage(Message msg) {
+                bus.reply(msg, new MessageReply())
+            }
+
+            @Override
+            String getId() {
+                return bus.makeLocalServiceId(SERVICE_ID)
+            }
+
+            @Override
+            boolean start() {
+                return true
+            }
+
+            @Override
+            boolean stop() {
+                return true
+            }
+        }
+
+        bus.registerService(service)
+    }
+
+    // send messages to the local node through HTTP and wait for all replies
+    void sendMessages(int total) {
+        AtomicInteger success = new AtomicInteger(0)
+        CountDownLatch latch = new CountDownLatch(total)
+
+        for (int i = 0; i < total; i++) {
+            StartVmInstanceMsg msg = new StartVmInstanceMsg(vmInstanceUuid: Platform.uuid)
+            bus.makeLocalServiceId(msg, SERVICE_ID)
+            bus.send(msg, new CloudBusCallBack(null) {
+                @Override
+                void run(MessageReply reply) {
+                    if (reply.isSuccess()) {
+                        success.incrementAndGet()
+                    }
+
+                    latch.countDown()
+                }
+            })
+        }
+
+        assert latch.await(120, TimeUnit.SECONDS)
+        assert success.get() == total
+    }
+
+    void testBothTransportsDeliver() {
+        registerService()
+        CloudBusGlobalProperty.HTTP_ALWAYS = true
+
+        try {
+            CloudBusGlobalProperty.HTTP_TRANSPORT = "json"
+            sendMessages(TOTAL)
+
+            CloudBusGlobalProperty.HTTP_TRANSPORT = CloudBusImpl3.HTTP_TRANSPORT_PIPELINE
+            sendMessages(TOTAL)
+        } finally {
+            CloudBusGlobalProperty.HTTP_ALWAYS = false
+            CloudBusGlobalProperty.HTTP_TRANSPORT = "json"
+            bus.unregisterService(service)
+        }
+    }
+
+    @Override
+    void test() {
+        testBothTransportsDeliver()
+    }
+}
@@ -0,0 +1,91 @@
+package org.zstack.test.integration.core.cloudbus
+
+import org.zstack.core.cloudbus.EventPathIndex
+import org.zstack.testlib.SubCase
+
+class EventPathIndexCase extends SubCase {
+    @Override
+    void clean() {
+    }
+
+    @Override
+    void setup() {
+    }
+
+    @Override
+    void environment() {
+    }
+
+    @Override
+    void test() {
+        testMatch()
+        testRemove()
+        testIndexAgreesWithRegexScan()
+    }
+
+    static Map<String, Map<String, String>> match(EventPathIndex<String> index, String path) {
+        return index.match(path).collectEntries { [(it.value): it.tokens] }
+    }
+
+    void testMatch() {
+        def index = new EventPathIndex<String>()
+        index.add("/host/status/change", "literal")
+        index.add("/globalConfig/update/kvm/{name}/{nodeUuid}", "tokens")
+        index.add("/*/event", "any-segments")
+        index.add("/?e?t/event", "regex")
+        index.add("/?e?t/*/{name}", "regex-tokens")
+
+        assert match(index, "/host/status/change") == ["literal": [:]]
+        assert match(index, "/host/status/change/more").isEmpty()
+        assert match(index, "/globalConfig/update/kvm/reservedMemory/node1") ==
+                ["tokens": ["name": "reservedMemory", "nodeUuid": "node1"]]
+        assert match(index, "/globalConfig/update/kvm/reservedMemory").isEmpty()
+        assert match(index, "/test/event") == ["any-segments": [:], "regex": [:]]
+        assert match(index, "/a/b/event") == ["any-segments": [:]]
+        assert match(index, "/test/event/xxx") == ["regex-tokens": ["name": "xxx"]]
+    }
+
+    void testRemove() {
+        def index = new EventPathIndex<String>()
+        String a = "a"
+        String b = "b"
+        index.add("/vm/{uuid}", a)
+        index.add("/vm/{uuid}", b)
+        index.add("/?m/x", a)
+
+        index.remove("/vm/{uuid}", a)
+        assert match(index, "/vm/1").keySet() == ["b"] as Set
+        index.remove("/?m/x", a)
+        assert match(index, "/vm/x").keySet() == ["b"] as Set
+    }
+
+    static List<String> subscriptionPatterns(int subscriptions) {
+        return (0..<subscriptions).collect {
+            it % 2 == 0 ? "/resource${it}/status/change".toString() : "/resource${it}/update/{uuid}/{nodeUuid}".toString()
+        }
+    }
+
+    static List<String> eventPaths(int subscriptions, int events) {
+        return (1..events).collect {
+            int i = it % subscriptions
+            return i % 2 == 0 ? "/resource${i}/status/change".toString() : "/resource${i}/update/uuid/node".toString()
+        }
+    }
+
+    // the old dispatch tests the glob regex of every subscription
+    static List<String> regexesOf(List<String> patterns) {
+        return patterns.collect { EventPathIndex.createRegexFromGlob(it.replaceAll("\\{.*\\}", ".*")) }
+    }
+
+    void testIndexAgreesWithRegexScan() {
+        List<String> patterns = subscriptionPatterns(100)
+        def index = new EventPathIndex<String>()
+        patterns.each { index.add(it, it) }
+
+        List<String> regexes = regexesOf(patterns)
+        eventPaths(100, 300).each { String path ->
+            List<String> scanned = (0..<patterns.size()).findAll { path.matches(regexes[it]) }.collect { patterns[it] }
+            assert index.match(path)*.value.toSet() == scanned.toSet()
+        }
+    }
+}
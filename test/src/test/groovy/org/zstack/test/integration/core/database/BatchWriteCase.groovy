@@ -0,0 +1,96 @@
+package org.zstack.test.integration.core.database
+
+import org.zstack.core.Platform
+import org.zstack.core.db.DatabaseFacade
+import org.zstack.core.db.JdbcBatch
+import org.zstack.core.db.Q
+import org.zstack.core.db.SQLBatch
+import org.zstack.header.tag.SystemTagVO
+import org.zstack.header.tag.SystemTagVO_
+import org.zstack.header.tag.TagPatternVO
+import org.zstack.header.tag.TagType
+import org.zstack.testlib.SubCase
+
+class BatchWriteCase extends SubCase {
+    DatabaseFacade dbf
+
+    @Override
+    void clean() {
+    }
+
+    @Override
+    void setup() {
+    }
+
+    @Override
+    void environment() {
+    }
+
+    @Override
+    void test() {
+        dbf = bean(DatabaseFacade.class)
+        testRunsKeepEntityOrder()
+        testPersistOrUpdateCollection()
+        testSQLBatchRemoveCollection()
+    }
+
+    static List<SystemTagVO> newTags(String resourceType, int num) {
+        return (1..num).collect {
+            SystemTagVO vo = new SystemTagVO()
+            vo.uuid = Platform.uuid
+            vo.resourceUuid = Platform.uuid
+            vo.resourceType = resourceType
+            vo.tag = "tag::${it}".toString()
+            vo.type = TagType.System
+            vo.inherent = false
+            return vo
+        }
+    }
+
+    long countTags(String resourceType) {
+        return Q.New(SystemTagVO.class).eq(SystemTagVO_.resourceType, resourceType).count()
+    }
+
+    void testRunsKeepEntityOrder() {
+        // entities of one class separated by another class are not merged, foreign keys keep their order
+        def tags = newTags("RunsOfClass", 3)
+        def patterns = (1..2).collect { new TagPatternVO(uuid: Platform.uuid) }
+        List<List<Object>> runs = JdbcBatch.runsOfClass([tags[0], tags[1], patterns[0], tags[2], patterns[1]])
+        assert runs == [[tags[0], tags[1]], [patterns[0]], [tags[2]], [patterns[1]]]
+        assert JdbcBatch.runsOfClass([]).isEmpty()
+    }
+
+    void testPersistOrUpdateCollection() {
+        def tags = newTags("BatchUpsert", 150)
+        dbf.persistCollection(tags.subList(0, 100))
+        assert countTags("BatchUpsert") == 100
+
+        tags.each { it.tag = "updated" }
+        dbf.persistOrUpdateCollection(tags)
+        assert countTags("BatchUpsert") == 150
+        assert Q.New(SystemTagVO.class).eq(SystemTagVO_.resourceType, "BatchUpsert")
+                .eq(SystemTagVO_.tag, "updated").count() == 150
+
+        dbf.removeCollection(tags, SystemTagVO.class)
+        assert countTags("BatchUpsert") == 0
+    }
+
+    void testSQLBatchRemoveCollection() {
+        def tags = newTags("SQLBatchRemove", 250)
+        new SQLBatch() {
+            @Override
+            protected void scripts() {
+                persistCollection(tags)
+            }
+        }.execute()
+        assert countTags("SQLBatchRemove") == 250
+
+        new SQLBatch() {
+            @Override
+            protected void scripts() {
+                removeCollection(tags)
+            }
+        }.execute()
+        assert countTags("SQLBatchRemove") == 0
+    }
+}
@@ -0,0 +1,119 @@
+package org.zstack.test.integration.core.database
+
+import org.zstack.core.Platform
+import org.zstack.core.cache.DistributedEvictingCacheCanonicalEvents
+import org.zstack.core.cloudbus.EventFacade
+import org.zstack.core.db.DatabaseFacade
+import org.zstack.core.db.EntityCache
+import org.zstack.core.db.Q
+import org.zstack.core.db.SQL
+import org.zstack.header.configuration.InstanceOfferingVO
+import org.zstack.header.configuration.InstanceOfferingVO_
+import org.zstack.header.identity.AccountConstant
+import org.zstack.testlib.SubCase
+
+class EntityCacheCase extends SubCase {
+    DatabaseFacade dbf
+    EntityCache originCache
+    EntityCache cache
+
+    @Override
+    void clean() {
+        dbf.@entityCache = originCache
+    }
+
+    @Override
+    void setup() {
+    }
+
+    @Override
+    void environment() {
+    }
+
+    @Override
+    void test() {
+        dbf = bean(DatabaseFacade.class)
+        originCache = dbf.@entityCache
+        cache = new EntityCache([InstanceOfferingVO.class], 100, 600)
+        cache.install(bean(EventFacade.class))
+        dbf.@entityCache = cache
+
+        testCacheHit()
+        testEvictOnUpdate()
+        testEvictByOtherNode()
+        testEvictOnRemove()
+    }
+
+    InstanceOfferingVO offering
+
+    long getHitCount() {
+        return cache.entityCacheStatistics.find { it.entityName == InstanceOfferingVO.simpleName }.hitCount
+    }
+
+    void testCacheHit() {
+        offering = new InstanceOfferingVO()
+        offering.uuid = Platform.uuid
+        offering.name = "offering"
+        offering.memorySize = 1024
+        offering.cpuNum = 1
+        offering.cpuSpeed = 0
+        offering.duration = "Permanent"
+        offering.state = "Enabled"
+        offering.sortKey = 0
+        offering.type = "UserVm"
+        offering.accountUuid = AccountConstant.INITIAL_SYSTEM_ADMIN_UUID
+        dbf.persist(offering)
+
+        def vo1 = dbf.findByUuid(offering.uuid, InstanceOfferingVO.class)
+        assert hitCount == 0
+        def vo2 = dbf.findByUuid(offering.uuid, InstanceOfferingVO.class)
+        assert hitCount == 1
+        assert !vo1.is(vo2)
+
+        // changes to a returned entity don't go into the cache
+        vo2.name = "changed"
+        assert dbf.findByUuid(offering.uuid, InstanceOfferingVO.class).name == "offering"
+
+        InstanceOfferingVO vo3 = Q.New(InstanceOfferingVO.class).eq(InstanceOfferingVO_.uuid, offering.uuid).find()
+        assert vo3.name == "offering"
+        assert hitCount == 3
+
+        // not a lookup by primary key
+        Q.New(InstanceOfferingVO.class).eq(InstanceOfferingVO_.name, "offering").find()
+        assert hitCount == 3
+    }
+
+    void testEvictOnUpdate() {
+        def vo = dbf.findByUuid(offering.uuid, InstanceOfferingVO.class)
+        vo.name = "updated"
+        dbf.update(vo)
+        assert dbf.findByUuid(offering.uuid, InstanceOfferingVO.class).name == "updated"
+
+        SQL.New(InstanceOfferingVO.class).eq(InstanceOfferingVO_.uuid, offering.uuid).set(InstanceOfferingVO_.name, "by-update-query").update()
+        assert dbf.findByUuid(offering.uuid, InstanceOfferingVO.class).name == "by-update-query"
+
+        SQL.New("update InstanceOfferingVO vo set vo.name = :name where vo.uuid = :uuid")
+                .param("name", "by-jpql").param("uuid", offering.uuid).execute()
+        assert dbf.findByUuid(offering.uuid, InstanceOfferingVO.class).name == "by-jpql"
+    }
+
+    void testEvictByOtherNode() {
+        dbf.findByUuid(offering.uuid, InstanceOfferingVO.class)
+        assert cache.entityCacheStatistics[0].size == 1
+
+        def evt = new DistributedEvictingCacheCanonicalEvents.EvictEvent()
+        evt.keys = [offering.uuid]
+        bean(EventFacade.class).fire(DistributedEvictingCacheCanonicalEvents.EVICT_EVENT_PATH
+                .replace("{name}", "entityCache-${InstanceOfferingVO.class.name}").replace("{nodeUuid}", Platform.uuid), evt)
+
+        retryInSecs {
+            assert cache.entityCacheStatistics[0].size == 0
+        }
+    }
+
+    void testEvictOnRemove() {
+        assert dbf.findByUuid(offering.uuid, InstanceOfferingVO.class) != null
+        dbf.removeByPrimaryKey(offering.uuid, InstanceOfferingVO.class)
+        assert dbf.findByUuid(offering.uuid, InstanceOfferingVO.class) == null
+    }
+}
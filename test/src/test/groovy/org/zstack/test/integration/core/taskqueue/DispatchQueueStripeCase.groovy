@@ -0,0 +1,153 @@
+package org.zstack.test.integration.core.taskqueue
+
+import org.zstack.core.Platform
+import org.zstack.core.thread.ChainTask
+import org.zstack.core.thread.DispatchQueue
+import org.zstack.core.thread.DispatchQueueImpl
+import org.zstack.core.thread.SyncTaskChain
+import org.zstack.core.thread.ThreadFacade
+import org.zstack.core.thread.ThreadGlobalProperty
+import org.zstack.header.core.progress.ChainInfo
+import org.zstack.testlib.SubCase
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * a dispatch queue created with ThreadFacade.dispatchQueueLockStripes set, running
+ * tasks in the pools of the ThreadFacade bean
+ */
+class DispatchQueueStripeCase extends SubCase {
+    DispatchQueue dpq
+
+    static final int SIGNATURES = 200
+    static final int TASKS_PER_SIGNATURE = 50
+    static final int SUBMITTERS = 8
+
+    @Override
+    void clean() {
+    }
+
+    @Override
+    void setup() {
+    }
+
+    @Override
+    void environment() {
+        int stripes = ThreadGlobalProperty.DISPATCH_QUEUE_LOCK_STRIPES
+        ThreadGlobalProperty.DISPATCH_QUEUE_LOCK_STRIPES = 64
+        try {
+            dpq = new DispatchQueueImpl(bean(ThreadFacade.class))
+        } finally {
+            ThreadGlobalProperty.DISPATCH_QUEUE_LOCK_STRIPES = stripes
+        }
+    }
+
+    @Override
+    void test() {
+        testChainTasksKeepOrderPerSignature()
+        testBlockedSignatureNotBlockOthers()
+    }
+
+    ChainTask chainTask(String signature, Closure c) {
+        return new ChainTask(null) {
+            @Override
+            String getSyncSignature() {
+                return signature
+            }
+
+            @Override
+            void run(SyncTaskChain chain) {
+                c(chain)
+            }
+
+            @Override
+            String getName() {
+                return signature
+            }
+        }
+    }
+
+    void testChainTasksKeepOrderPerSignature() {
+        String prefix = Platform.uuid
+        Map<String, List<Integer>> executed = new ConcurrentHashMap<>()
+        Map<String, AtomicInteger> running = new ConcurrentHashMap<>()
+        AtomicInteger overlapped = new AtomicInteger(0)
+        CountDownLatch latch = new CountDownLatch(SIGNATURES * TASKS_PER_SIGNATURE)
+
+        // each signature is submitted by one submitter, so its tasks have a known order
+        def submitters = Executors.newFixedThreadPool(SUBMITTERS)
+        SUBMITTERS.times { int submitter ->
+            submitters.submit {
+                for (int i = 0; i < TASKS_PER_SIGNATURE; i++) {
+                    for (int s = submitter; s < SIGNATURES; s += SUBMITTERS) {
+                        String signature = "${prefix}-${s}".toString()
+                        int index = i
+                        dpq.chainSubmit(chainTask(signature) { SyncTaskChain chain ->
+                            AtomicInteger r = running.computeIfAbsent(signature, { new AtomicInteger() })
+                            if (r.incrementAndGet() > 1) {
+                                overlapped.incrementAndGet()
+                            }
+
+                            executed.computeIfAbsent(signature, { Collections.synchronizedList([]) }).add(index)
+                            r.decrementAndGet()
+                            latch.countDown()
+                            chain.next()
+                        })
+                    }
+                }
+            }
+        }
+
+        assert latch.await(2, TimeUnit.MINUTES)
+        submitters.shutdown()
+
+        assert overlapped.get() == 0
+        assert executed.size() == SIGNATURES
+        executed.values().each { assert it == (0..<TASKS_PER_SIGNATURE).toList() }
+    }
+
+    void testBlockedSignatureNotBlockOthers() {
+        String blockedSignature = Platform.uuid
+        CountDownLatch blocked = new CountDownLatch(1)
+        CountDownLatch started = new CountDownLatch(1)
+        CountDownLatch others = new CountDownLatch(SIGNATURES)
+
+        dpq.chainSubmit(chainTask(blockedSignature) { SyncTaskChain chain ->
+            started.countDown()
+            blocked.await(2, TimeUnit.MINUTES)
+            chain.next()
+        })
+        dpq.chainSubmit(chainTask(blockedSignature) { SyncTaskChain chain ->
+            chain.next()
+        })
+        assert started.await(1, TimeUnit.MINUTES)
+
+        // signatures sharing a stripe with the blocked one still run
+        SIGNATURES.times {
+            dpq.chainSubmit(chainTask(Platform.uuid) { SyncTaskChain chain ->
+                others.countDown()
+                chain.next()
+            })
+        }
+
+        try {
+            assert others.await(1, TimeUnit.MINUTES)
+
+            ChainInfo info = dpq.getChainTaskInfo(blockedSignature)
+            assert info.runningTask.size() == 1
+            assert info.pendingTask.size() == 1
+        } finally {
+            blocked.countDown()
+        }
+
+        retryInSecs {
+            ChainInfo info = dpq.getChainTaskInfo(blockedSignature)
+            assert info.runningTask.isEmpty()
+            assert info.pendingTask.isEmpty()
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package org.zstack.test.integration.core.taskqueue
+
+import org.zstack.core.Platform
+import org.zstack.core.thread.ChainTask
+import org.zstack.core.thread.SyncTaskChain
+import org.zstack.core.thread.Task
+import org.zstack.core.thread.ThreadAroundHook
+import org.zstack.core.thread.ThreadFacadeImpl
+import org.zstack.core.thread.VirtualThreadExecutor
+import org.zstack.core.thread.VirtualThreadStatistic
+import org.zstack.testlib.SubCase
+
+import java.util.concurrent.Callable
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Future
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class VirtualThreadCase extends SubCase {
+    // a facade in virtual thread mode next to the ThreadFacade bean
+    static class VirtualThreadFacade extends ThreadFacadeImpl {
+        @Override
+        void init() {
+            createExecutors(true)
+        }
+    }
+
+    VirtualThreadFacade facade
+    boolean supported
+
+    @Override
+    void clean() {
+        if (facade != null) {
+            facade.stop()
+            facade.destroy()
+        }
+    }
+
+    @Override
+    void setup() {
+    }
+
+    @Override
+    void environment() {
+        VirtualThreadExecutor probe = VirtualThreadExecutor.create("probe-vthread-")
+        supported = probe != null
+        probe?.shutdown()
+
+        facade = new VirtualThreadFacade()
+        facade.init()
+    }
+
+    @Override
+    void test() {
+        testModeSwitch()
+        testSubmit()
+        testCarrierMetrics()
+        testChainTasks()
+        testShutdownRejects()
+    }
+
+    static boolean isVirtual(Thread t) {
+        return t.metaClass.respondsTo(t, "isVirtual") && t.isVirtual()
+    }
+
+    Task<Object> task(Closure c) {
+        return new Task<Object>() {
+            @Override
+            Object call() throws Exception {
+                return c()
+            }
+
+            @Override
+            String getName() {
+                return "virtual-thread-case"
+            }
+        }
+    }
+
+    void testModeSwitch() {
+        // the bean runs in the platform pools by default
+        assert bean(ThreadFacadeImpl.class).getVirtualThreadStatistic() == null
+        assert !isVirtual(bean(ThreadFacadeImpl.class).submit(task { Thread.currentThread() }).get(1, TimeUnit.MINUTES) as Thread)
+
+        // a JVM without virtual threads falls back to the platform pools
+        if (!supported) {
+            assert facade.getVirtualThreadStatistic() == null
+            assert facade.submit(task { "ok" }).get(1, TimeUnit.MINUTES) == "ok"
+            return
+        }
+
+        assert facade.getVirtualThreadStatistic() != null
+        assert isVirtual(facade.submit(task { Thread.currentThread() }).get(1, TimeUnit.MINUTES) as Thread)
+        assert isVirtual(facade.submitSyncPool(task { Thread.currentThread() }).get(1, TimeUnit.MINUTES) as Thread)
+    }
+
+    void testSubmit() {
+        if (!supported) {
+            return
+        }
+
+        VirtualThreadExecutor executor = VirtualThreadExecutor.create("case-vthread-")
+        AtomicInteger before = new AtomicInteger()
+        AtomicInteger after = new AtomicInteger()
+        executor.registerHook(new ThreadAroundHook() {
+            @Override
+            void beforeExecute(Thread t, Runnable r) {
+                before.incrementAndGet()
+            }
+
+            @Override
+            void afterExecute(Runnable r, Throwable t) {
+                after.incrementAndGet()
+            }
+        })
+
+        try {
+            List<Future<Integer>> futures = (0..<100).collect { int i -> executor.submit({ i } as Callable<Integer>) }
+            assert futures.collect { it.get(1, TimeUnit.MINUTES) } == (0..<100).toList()
+
+            Future<Integer> failed = executor.submit({ throw new RuntimeException("on purpose") } as Callable<Integer>)
+            expect(ExecutionException.class) {
+                failed.get(1, TimeUnit.MINUTES)
+            }
+
+            retryInSecs {
+                VirtualThreadStatistic statistic = executor.getStatistic()
+                assert statistic.submittedTaskNum == 101
+                assert statistic.completedTaskNum == 101
+                assert statistic.runningTaskNum == 0
+                assert before.get() == 101
+                assert after.get() == 101
+            }
+        } finally {
+            executor.shutdown()
+        }
+    }
+
+    void testCarrierMetrics() {
+        if (!supported) {
+            return
+        }
+
+        VirtualThreadExecutor executor = VirtualThreadExecutor.create("case-vthread-")
+        try {
+            executor.submit({
+                long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200)
+                while (System.nanoTime() < end) {
+                }
+                return null
+            } as Callable<Object>).get(1, TimeUnit.MINUTES)
+
+            retryInSecs {
+                assert executor.getStatistic().carrierBusyRatio > 0
+            }
+
+            // blocking in a monitor pins the carrier, it doesn't since JDK 24
+            Object lock = new Object()
+            executor.submit({
+                synchronized (lock) {
+                    TimeUnit.MILLISECONDS.sleep(100)
+                }
+                return null
+            } as Callable<Object>).get(1, TimeUnit.MINUTES)
+
+            retryInSecs {
+                VirtualThreadStatistic statistic = executor.getStatistic()
+                assert statistic.pinnedEventNum >= 0
+                assert statistic.pinnedEventNum > 0 || Runtime.version().feature() >= 24
+            }
+        } finally {
+            executor.shutdown()
+        }
+    }
+
+    void testChainTasks() {
+        String signature = Platform.uuid
+        List<Integer> executed = Collections.synchronizedList([])
+        Map<Integer, Thread> threads = new ConcurrentHashMap<>()
+        CountDownLatch latch = new CountDownLatch(20)
+
+        20.times { int i ->
+            facade.chainSubmit(new ChainTask(null) {
+                @Override
+                String getSyncSignature() {
+                    return signature
+                }
+
+                @Override
+                void run(SyncTaskChain chain) {
+                    threads[i] = Thread.currentThread()
+                    executed.add(i)
+                    latch.countDown()
+                    chain.next()
+                }
+
+                @Override
+                String getName() {
+                    return signature
+                }
+            })
+        }
+
+        assert latch.await(1, TimeUnit.MINUTES)
+        assert executed == (0..<20).toList()
+        // chain tasks of the facade run in its own pools
+        assert threads.values().every { isVirtual(it) == supported }
+    }
+
+    void testShutdownRejects() {
+        if (!supported) {
+            return
+        }
+
+        VirtualThreadExecutor executor = VirtualThreadExecutor.create("case-vthread-")
+        CountDownLatch release = new CountDownLatch(1)
+        Future<String> running = executor.submit({ release.await(1, TimeUnit.MINUTES); return "done" } as Callable<String>)
+
+        executor.shutdown()
+        assert executor.isShutdown()
+        expect(RejectedExecutionException.class) {
+            executor.submit({ "rejected" } as Callable<String>)
+        }
+
+        // tasks accepted before shutdown still complete
+        assert !executor.isTerminated()
+        release.countDown()
+        assert running.get(1, TimeUnit.MINUTES) == "done"
+        assert executor.awaitTermination(1, TimeUnit.MINUTES)
+
+        facade.stop()
+        expect(RejectedExecutionException.class) {
+            facade.submit(task { "rejected" })
+        }
+    }
+}
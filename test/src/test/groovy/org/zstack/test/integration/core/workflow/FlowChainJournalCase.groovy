@@ -0,0 +1,273 @@
+package org.zstack.test.integration.core.workflow
+
+import org.zstack.core.CoreGlobalProperty
+import org.zstack.core.Platform
+import org.zstack.core.db.DatabaseFacade
+import org.zstack.core.db.Q
+import org.zstack.core.db.SQL
+import org.zstack.core.workflow.FlowChainJournal
+import org.zstack.core.workflow.FlowChainJournalRecord
+import org.zstack.core.workflow.SimpleFlowChain
+import org.zstack.core.workflow.WorkFlowChainState
+import org.zstack.core.workflow.WorkFlowChainVO
+import org.zstack.core.workflow.WorkFlowChainVO_
+import org.zstack.core.workflow.WorkFlowState
+import org.zstack.core.workflow.WorkFlowVO
+import org.zstack.core.workflow.WorkFlowVO_
+import org.zstack.header.core.workflow.Flow
+import org.zstack.header.core.workflow.FlowChain
+import org.zstack.header.core.workflow.FlowDoneHandler
+import org.zstack.header.core.workflow.FlowErrorHandler
+import org.zstack.header.core.workflow.FlowMarshaller
+import org.zstack.header.core.workflow.FlowRollback
+import org.zstack.header.core.workflow.FlowTrigger
+import org.zstack.header.errorcode.ErrorCode
+import org.zstack.header.managementnode.ManagementNodeInventory
+import org.zstack.test.core.workflow.FlowChainRecoveryForTest
+import org.zstack.testlib.SubCase
+
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.function.Consumer
+
+class FlowChainJournalCase extends SubCase {
+    FlowChainJournal journal
+    FlowChainRecoveryForTest recoveryForTest
+    boolean journalEnabled
+
+    static class StepFlow implements Flow {
+        String __name__
+        boolean hang
+        List<String> executed
+        List<String> rolledBack
+
+        @Override
+        void run(FlowTrigger trigger, Map data) {
+            executed?.add(__name__)
+            if (!hang) {
+                trigger.next()
+            }
+        }
+
+        @Override
+        void rollback(FlowRollback trigger, Map data) {
+            rolledBack?.add(__name__)
+            trigger.rollback()
+        }
+    }
+
+    @Override
+    void clean() {
+        recoveryForTest.recovery = null
+        CoreGlobalProperty.FLOW_CHAIN_JOURNAL_ENABLE = journalEnabled
+    }
+
+    @Override
+    void setup() {
+        spring {
+            include("FlowChainRecoveryForTest.xml")
+        }
+    }
+
+    @Override
+    void environment() {
+    }
+
+    @Override
+    void test() {
+        journalEnabled = CoreGlobalProperty.FLOW_CHAIN_JOURNAL_ENABLE
+        CoreGlobalProperty.FLOW_CHAIN_JOURNAL_ENABLE = true
+
+        journal = bean(FlowChainJournal.class)
+        recoveryForTest = bean(FlowChainRecoveryForTest.class)
+
+        testCompletedChainNotWritten()
+        testResumeInterruptedChain()
+        testRollbackInterruptedChain()
+        testMarshalledFlowJournaledByDeclaredFlow()
+        testRecoverOwnChainsOnJoin()
+    }
+
+    static SimpleFlowChain newChain(int flowNum, Integer hangAt, List<String> executed, List<String> rolledBack) {
+        def chain = new SimpleFlowChain()
+        chain.setName("journal-chain-${Platform.uuid}".toString())
+        for (int i = 1; i <= flowNum; i++) {
+            chain.then(new StepFlow(__name__: "step-${i}".toString(), hang: i == hangAt, executed: executed, rolledBack: rolledBack))
+        }
+        return chain
+    }
+
+    void testCompletedChainNotWritten() {
+        long records = journal.recordCount
+        boolean done = false
+        newChain(5, null, null, null).journal("journal-completed-chain").done(new FlowDoneHandler(null) {
+            @Override
+            void handle(Map data) {
+                done = true
+            }
+        }).start()
+        assert done
+        // the chain, every flow started and done, and the chain done
+        assert journal.recordCount - records == 5 * 2 + 2
+
+        journal.flush()
+        assert !Q.New(WorkFlowChainVO.class).eq(WorkFlowChainVO_.name, "journal-completed-chain").isExists()
+    }
+
+    List<String> processingChains() {
+        return Q.New(WorkFlowChainVO.class).select(WorkFlowChainVO_.uuid)
+                .eq(WorkFlowChainVO_.name, FlowChainRecoveryForTest.JOURNAL_NAME)
+                .eq(WorkFlowChainVO_.state, WorkFlowChainState.Processing).listValues()
+    }
+
+    String runInterruptedChain(SimpleFlowChain chain) {
+        List<String> before = processingChains()
+        chain.getData().put("vmUuid", "uuid-1")
+        chain.getData().put("notJournaled", new Object())
+        chain.journal(FlowChainRecoveryForTest.JOURNAL_NAME).start()
+        journal.flush()
+
+        List<String> started = processingChains() - before
+        assert started.size() == 1
+        assert Q.New(WorkFlowVO.class).eq(WorkFlowVO_.chainUuid, started[0]).count() == 5L
+        return started[0]
+    }
+
+    // the chain is left by another node, every node gets the node left event
+    void leaveNode(String chainUuid) {
+        String deadNodeUuid = Platform.uuid
+        SQL.New(WorkFlowChainVO.class).eq(WorkFlowChainVO_.uuid, chainUuid)
+                .set(WorkFlowChainVO_.owner, deadNodeUuid).update()
+
+        def inv = new ManagementNodeInventory()
+        inv.uuid = deadNodeUuid
+        journal.nodeLeft(inv)
+    }
+
+    void testResumeInterruptedChain() {
+        String chainUuid = runInterruptedChain(newChain(5, 3, null, null))
+
+        List<String> executed = []
+        FlowChainJournalRecord recovered = null
+        Map recoveredData = null
+        recoveryForTest.recovery = { FlowChainJournalRecord record ->
+            recovered = record
+            newChain(5, null, executed, null).done(new FlowDoneHandler(null) {
+                @Override
+                void handle(Map data) {
+                    recoveredData = data
+                }
+            }).recover(record, true)
+        } as Consumer<FlowChainJournalRecord>
+        leaveNode(chainUuid)
+
+        assert recovered.chainUuid == chainUuid
+        assert recovered.completedFlows == ["step-1", "step-2"]
+        assert recovered.interruptedFlow == "step-3"
+        assert !recovered.rollingBack
+        assert executed == ["step-3", "step-4", "step-5"]
+        assert recoveredData["vmUuid"] == "uuid-1"
+        assert !recoveredData.containsKey("notJournaled")
+
+        journal.flush()
+        assert !Q.New(WorkFlowChainVO.class).eq(WorkFlowChainVO_.uuid, chainUuid).isExists()
+        assert !Q.New(WorkFlowVO.class).eq(WorkFlowVO_.chainUuid, chainUuid).isExists()
+    }
+
+    void testRollbackInterruptedChain() {
+        String chainUuid = runInterruptedChain(newChain(5, 3, null, null))
+
+        List<String> rolledBack = []
+        ErrorCode error = null
+        recoveryForTest.recovery = { FlowChainJournalRecord record ->
+            newChain(5, null, null, rolledBack).error(new FlowErrorHandler(null) {
+                @Override
+                void handle(ErrorCode errCode, Map data) {
+                    error = errCode
+                }
+            }).recover(record, false)
+        } as Consumer<FlowChainJournalRecord>
+        leaveNode(chainUuid)
+
+        assert rolledBack == ["step-3", "step-2", "step-1"]
+        assert error != null
+
+        journal.flush()
+        assert !Q.New(WorkFlowChainVO.class).eq(WorkFlowChainVO_.uuid, chainUuid).isExists()
+    }
+
+    void testMarshalledFlowJournaledByDeclaredFlow() {
+        def chain = newChain(5, 3, null, null)
+        // the second flow is replaced when running, the journal keeps the declared one
+        AtomicInteger marshalled = new AtomicInteger()
+        chain.setFlowMarshaller(new FlowMarshaller() {
+            @Override
+            Flow marshalTheNextFlow(String previousFlowClassName, String nextFlowClassName, FlowChain c, Map data) {
+                return marshalled.incrementAndGet() == 2 ? new StepFlow(__name__: "replaced") : null
+            }
+        })
+        String chainUuid = runInterruptedChain(chain)
+
+        FlowChainJournalRecord recovered = null
+        recoveryForTest.recovery = { FlowChainJournalRecord record ->
+            recovered = record
+            newChain(5, null, null, null).recover(record, true)
+        } as Consumer<FlowChainJournalRecord>
+        leaveNode(chainUuid)
+
+        assert recovered.completedFlows == ["step-1", "step-2"]
+        assert recovered.interruptedFlow == "step-3"
+
+        journal.flush()
+        assert !Q.New(WorkFlowChainVO.class).eq(WorkFlowChainVO_.uuid, chainUuid).isExists()
+    }
+
+    void testRecoverOwnChainsOnJoin() {
+        // a chain still running on this node is not taken over
+        String runningChainUuid = runInterruptedChain(newChain(5, 3, null, null))
+
+        // a chain left by the previous run of this node, which has the same node id
+        WorkFlowChainVO left = new WorkFlowChainVO()
+        left.uuid = Platform.uuid
+        left.name = FlowChainRecoveryForTest.JOURNAL_NAME
+        left.owner = Platform.getManagementServerId()
+        left.state = WorkFlowChainState.Processing
+        left.totalWorkFlows = 5
+        left.currentPosition = 0
+        left.operationDate = new Date()
+        bean(DatabaseFacade.class).persist(left)
+        [[1, "step-1", WorkFlowState.Processing], [1, "step-1", WorkFlowState.Done], [2, "step-2", WorkFlowState.Processing]].each {
+            WorkFlowVO flow = new WorkFlowVO()
+            flow.chainUuid = left.uuid
+            flow.position = it[0] as int
+            flow.name = it[1] as String
+            flow.state = it[2] as WorkFlowState
+            flow.context = FlowChainJournal.serializeData(["vmUuid": "uuid-2"])
+            flow.operationDate = new Date()
+            bean(DatabaseFacade.class).persist(flow)
+        }
+
+        List<FlowChainJournalRecord> recovered = []
+        List<String> executed = []
+        recoveryForTest.recovery = { FlowChainJournalRecord record ->
+            recovered.add(record)
+            newChain(5, null, executed, null).recover(record, true)
+        } as Consumer<FlowChainJournalRecord>
+
+        def inv = new ManagementNodeInventory()
+        inv.uuid = Platform.getManagementServerId()
+        journal.iJoin(inv)
+
+        assert recovered.size() == 1
+        assert recovered[0].chainUuid == left.uuid
+        assert recovered[0].completedFlows == ["step-1"]
+        assert recovered[0].interruptedFlow == "step-2"
+        assert recovered[0].data["vmUuid"] == "uuid-2"
+        assert executed == ["step-2", "step-3", "step-4", "step-5"]
+
+        journal.flush()
+        assert !Q.New(WorkFlowChainVO.class).eq(WorkFlowChainVO_.uuid, left.uuid).isExists()
+        assert Q.New(WorkFlowChainVO.class).eq(WorkFlowChainVO_.uuid, runningChainUuid).isExists()
+        SQL.New(WorkFlowVO.class).eq(WorkFlowVO_.chainUuid, runningChainUuid).hardDelete()
+        SQL.New(WorkFlowChainVO.class).eq(WorkFlowChainVO_.uuid, runningChainUuid).hardDelete()
+    }
+}
@@ -0,0 +1,136 @@
+package org.zstack.test.integration.identity.rbac
+
+import org.zstack.header.identity.AccountConstant
+import org.zstack.header.identity.PolicyInventory
+import org.zstack.header.identity.PolicyStatement
+import org.zstack.header.identity.SessionInventory
+import org.zstack.header.identity.StatementEffect
+import org.zstack.header.identity.rbac.PolicyMatcher
+import org.zstack.identity.rbac.CompiledPolicies
+import org.zstack.identity.rbac.CompiledPolicyCache
+import org.zstack.identity.rbac.PolicyUtils
+import org.zstack.testlib.SubCase
+
+class CompiledPoliciesCase extends SubCase {
+    @Override
+    void clean() {
+    }
+
+    @Override
+    void setup() {
+    }
+
+    @Override
+    void environment() {
+    }
+
+    @Override
+    void test() {
+        testDecisions()
+        testCacheInvalidation()
+        testDecisionsAgreeWithStatements()
+    }
+
+    static SessionInventory userSession(String accountUuid, String userUuid) {
+        def session = new SessionInventory()
+        session.accountUuid = accountUuid
+        session.userUuid = userUuid
+        return session
+    }
+
+    static PolicyInventory policy(String name, List<PolicyStatement> statements) {
+        def p = new PolicyInventory()
+        p.name = name
+        p.uuid = name
+        p.statements = statements
+        return p
+    }
+
+    static PolicyStatement statement(StatementEffect effect, List<String> actions, List<String> principals = null) {
+        return PolicyStatement.builder().name("s").effect(effect).actions(actions).principals(principals).build()
+    }
+
+    void testDecisions() {
+        def session = userSession("account1", "user1")
+        def policies = [
+                policy("deny-fields", [statement(StatementEffect.Deny, ["org.zstack.header.vm.APICreateVmInstanceMsg:hostUuid,clusterUuid"])]),
+                policy("deny-other-user", [statement(StatementEffect.Deny, ["org.zstack.header.vm.**"], ["${AccountConstant.PRINCIPAL_USER}:user2".toString()])]),
+                policy("allow-vm", [statement(StatementEffect.Allow, ["org.zstack.header.vm.**"])]),
+        ]
+
+        def compiled = new CompiledPolicies(policies, session)
+
+        def rules = compiled.getDenyRules("org.zstack.header.vm.APICreateVmInstanceMsg")
+        assert rules.size() == 1
+        assert rules[0].policy.name == "deny-fields"
+        assert rules[0].apiFields as List == ["hostUuid", "clusterUuid"]
+        assert compiled.getDenyRules("org.zstack.header.vm.APIStopVmInstanceMsg").isEmpty()
+        // memoized
+        assert compiled.getDenyRules("org.zstack.header.vm.APICreateVmInstanceMsg").is(rules)
+        assert compiled.getDenyRules(["org.zstack.header.vm.APIStopVmInstanceMsg", "org.zstack.header.vm.APICreateVmInstanceMsg"]) == rules
+
+        assert compiled.getAllowRule("org.zstack.header.vm.APIStopVmInstanceMsg").policy.name == "allow-vm"
+        assert compiled.getAllowRule("org.zstack.header.image.APIAddImageMsg") == null
+
+        // principals are not evaluated when probing permissions
+        assert !compiled.isPermitted("org.zstack.header.vm.APIStopVmInstanceMsg")
+        assert !compiled.isPermitted("org.zstack.header.image.APIAddImageMsg")
+
+        def compiled2 = new CompiledPolicies(policies, userSession("account1", "user2"))
+        assert compiled2.getDenyRules("org.zstack.header.vm.APIStopVmInstanceMsg")*.policy*.name == ["deny-other-user"]
+    }
+
+    void testCacheInvalidation() {
+        def session = userSession("account1", "account1")
+        def compiled = CompiledPolicyCache.get(session)
+        assert CompiledPolicyCache.get(session).is(compiled)
+
+        CompiledPolicyCache.invalidate()
+        assert !CompiledPolicyCache.get(session).is(compiled)
+    }
+
+    static List<String> generateApis(int apiNum) {
+        return (1..apiNum).collect { "org.zstack.header.module${it % 30}.APIOperation${it}Msg".toString() }
+    }
+
+    static List<PolicyInventory> generatePolicies(int policyNum, int statementNum) {
+        return (1..policyNum).collect { p ->
+            policy("policy-${p}".toString(), (1..statementNum).collect { s ->
+                int i = p * statementNum + s
+                statement(i % 10 == 0 ? StatementEffect.Deny : StatementEffect.Allow,
+                        ["org.zstack.header.module${i % 30}.APIOperation${i % 1000}Msg".toString(), "org.zstack.header.module${i % 30}.APIGet*".toString()])
+            })
+        }
+    }
+
+    // the decision made by evaluating every statement, as before the policies are compiled
+    static boolean evalByStatements(List<PolicyInventory> policies, PolicyMatcher matcher, String api) {
+        for (PolicyInventory p : policies) {
+            for (PolicyStatement st : p.statements) {
+                if (st.effect == StatementEffect.Deny && st.actions.any { matcher.match(PolicyUtils.apiNamePatternFromAction(it), api) }) {
+                    return false
+                }
+            }
+        }
+
+        for (PolicyInventory p : policies) {
+            for (PolicyStatement st : p.statements) {
+                if (st.effect == StatementEffect.Allow && st.actions.any { matcher.match(PolicyUtils.apiNamePatternFromAction(it), api) }) {
+                    return true
+                }
+            }
+        }
+
+        return false
+    }
+
+    void testDecisionsAgreeWithStatements() {
+        List<PolicyInventory> policies = generatePolicies(10, 20)
+        def matcher = new PolicyMatcher()
+        def compiled = new CompiledPolicies(policies, userSession("account1", "user1"))
+
+        List<String> apis = generateApis(300)
+        assert apis.any { compiled.isPermitted(it) }
+        apis.each { assert compiled.isPermitted(it) == evalByStatements(policies, matcher, it) }
+    }
+}
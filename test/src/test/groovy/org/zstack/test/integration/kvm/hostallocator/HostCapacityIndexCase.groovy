@@ -0,0 +1,44 @@
+package org.zstack.test.integration.kvm.hostallocator
+
+import org.zstack.compute.allocator.HostCapacityIndex
+import org.zstack.testlib.SubCase
+import org.zstack.utils.data.SizeUnit
+
+class HostCapacityIndexCase extends SubCase {
+    @Override
+    void clean() {
+    }
+
+    @Override
+    void setup() {
+    }
+
+    @Override
+    void environment() {
+    }
+
+    @Override
+    void test() {
+        testFilter()
+    }
+
+    void testFilter() {
+        long g = SizeUnit.GIGABYTE.toByte(1)
+        def index = new HostCapacityIndex(5)
+        // enough capacity
+        index.set(0, 8, 16 * g, 32 * g, 1, g)
+        // not enough cpu
+        index.set(1, 1, 16 * g, 32 * g, 1, g)
+        // enough only after over-provisioning memory
+        index.set(2, 8, 3 * g, 32 * g, 2, 0)
+        // not enough after subtracting reserved memory
+        index.set(3, 8, 4 * g, 32 * g, 1, 1 * g)
+        // physical memory cannot hold the VM
+        index.set(4, 8, 16 * g, 4 * g, 1, 0)
+
+        assert index.filter(2, 4 * g, 0, false) as List == [0, 2, 4]
+        assert index.filter(2, 4 * g, 0, true) as List == [0, 2]
+        assert index.filter(2, 0, 0, true) as List == [0, 2, 3, 4]
+        assert index.filter(0, 0, 0, true) as List == [0, 1, 2, 3, 4]
+    }
+}
@@ -0,0 +1,102 @@
+package org.zstack.test.integration.kvm.vm
+
+import org.springframework.http.HttpEntity
+import org.zstack.compute.host.HostGlobalConfig
+import org.zstack.header.vm.VmInstanceState
+import org.zstack.header.vm.VmInstanceVO
+import org.zstack.kvm.KVMAgentCommands
+import org.zstack.kvm.KVMConstant
+import org.zstack.kvm.KVMGlobalConfig
+import org.zstack.sdk.VmInstanceInventory
+import org.zstack.test.integration.kvm.Env
+import org.zstack.test.integration.kvm.KvmTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+
+import java.util.concurrent.CopyOnWriteArrayList
+
+class VmIncrementalSyncCase extends SubCase {
+    EnvSpec env
+    VmInstanceInventory vm
+    List<KVMAgentCommands.VmSyncCmd> cmds = new CopyOnWriteArrayList<>()
+
+    @Override
+    void clean() {
+        KVMGlobalConfig.VM_SYNC_INCREMENTAL.updateValue(false)
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(KvmTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = Env.oneVmBasicEnv()
+    }
+
+    @Override
+    void test() {
+        env.create {
+            vm = env.inventoryByName("vm") as VmInstanceInventory
+
+            env.afterSimulator(KVMConstant.KVM_VM_SYNC_PATH) { KVMAgentCommands.VmSyncResponse rsp, HttpEntity<String> e ->
+                cmds.add(json(e.body, KVMAgentCommands.VmSyncCmd.class))
+                return rsp
+            }
+
+            KVMGlobalConfig.VM_SYNC_INCREMENTAL.updateValue(true)
+            HostGlobalConfig.PING_HOST_INTERVAL.updateValue(1)
+
+            testIncrementalSyncAfterFullSync()
+            testVmStateChangedInIncrementalSync()
+            testFullSyncOnSequenceGap()
+        }
+    }
+
+    void testIncrementalSyncAfterFullSync() {
+        retryInSecs {
+            assert cmds.find { it.lastSequence != null } != null
+        }
+        assert dbFindByUuid(vm.uuid, VmInstanceVO.class).state == VmInstanceState.Running
+    }
+
+    void testVmStateChangedInIncrementalSync() {
+        // the VM is shut down on the host without the management node knowing it
+        env.afterSimulator(KVMConstant.KVM_VM_SYNC_PATH) { KVMAgentCommands.VmSyncResponse rsp, HttpEntity<String> e ->
+            cmds.add(json(e.body, KVMAgentCommands.VmSyncCmd.class))
+            if (rsp.incremental) {
+                rsp.states[(vm.uuid)] = KVMConstant.KvmVmState.Shutdown.toString()
+            }
+            return rsp
+        }
+
+        retryInSecs {
+            assert dbFindByUuid(vm.uuid, VmInstanceVO.class).state == VmInstanceState.Stopped
+        }
+    }
+
+    void testFullSyncOnSequenceGap() {
+        boolean gapped = false
+        env.afterSimulator(KVMConstant.KVM_VM_SYNC_PATH) { KVMAgentCommands.VmSyncResponse rsp, HttpEntity<String> e ->
+            cmds.add(json(e.body, KVMAgentCommands.VmSyncCmd.class))
+            if (rsp.incremental && !gapped) {
+                gapped = true
+                rsp.baseSequence = -1
+            }
+            return rsp
+        }
+
+        retryInSecs {
+            assert gapped
+        }
+
+        cmds.clear()
+        retryInSecs {
+            // a full sync follows the gap, then incremental syncs resume
+            assert cmds.find { it.lastSequence == null } != null
+            assert cmds.find { it.lastSequence != null } != null
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package org.zstack.test.integration.network.l3network
+
+import org.zstack.core.cloudbus.CloudBus
+import org.zstack.core.db.DatabaseFacade
+import org.zstack.core.db.Q
+import org.zstack.header.message.MessageReply
+import org.zstack.header.network.l3.*
+import org.zstack.network.l3.IpRangeAllocationIndex
+import org.zstack.network.l3.NetworkGlobalProperty
+import org.zstack.sdk.IpRangeInventory
+import org.zstack.sdk.L2NetworkInventory
+import org.zstack.sdk.L3NetworkInventory
+import org.zstack.test.integration.network.NetworkTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+import org.zstack.utils.network.NetworkUtils
+
+class IpAllocationIndexCase extends SubCase {
+    EnvSpec env
+    CloudBus bus
+    L3NetworkInventory l3
+    IpRangeInventory range
+    boolean indexEnabled
+
+    @Override
+    void clean() {
+        env.delete()
+        NetworkGlobalProperty.IP_ALLOCATION_INDEX_ENABLE = indexEnabled
+    }
+
+    @Override
+    void setup() {
+        useSpring(NetworkTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = env {
+            zone {
+                name = "zone"
+
+                l2NoVlanNetwork {
+                    name = "l2"
+                    physicalInterface = "eth0"
+                }
+            }
+        }
+    }
+
+    @Override
+    void test() {
+        env.create {
+            bus = bean(CloudBus.class)
+            prepare()
+            testFirstAvailableAllocation()
+            testReturnedIpIsReused()
+            testDeletedIpIsReused()
+            testIndexKeepsDuplicatedAddress()
+            testRandomAllocation()
+            testIndexAgreesWithUsedIpScan()
+        }
+    }
+
+    void prepare() {
+        indexEnabled = NetworkGlobalProperty.IP_ALLOCATION_INDEX_ENABLE
+        NetworkGlobalProperty.IP_ALLOCATION_INDEX_ENABLE = true
+
+        def l2 = env.inventoryByName("l2") as L2NetworkInventory
+        l3 = createL3Network {
+            category = "Private"
+            l2NetworkUuid = l2.uuid
+            name = "l3"
+        }
+
+        range = addIpRange {
+            name = "range"
+            l3NetworkUuid = l3.uuid
+            startIp = "192.168.0.2"
+            endIp = "192.168.0.11"
+            gateway = "192.168.0.1"
+            netmask = "255.255.255.0"
+        }
+    }
+
+    UsedIpInventory allocateIp(String strategy) {
+        AllocateIpMsg msg = new AllocateIpMsg()
+        msg.setL3NetworkUuid(l3.uuid)
+        msg.setAllocateStrategy(strategy)
+        bus.makeTargetServiceIdByResourceUuid(msg, L3NetworkConstant.SERVICE_ID, l3.uuid)
+        MessageReply reply = bus.call(msg)
+        assert reply.success
+        return (reply as AllocateIpReply).ipInventory
+    }
+
+    void returnIp(UsedIpInventory ip) {
+        ReturnIpMsg msg = new ReturnIpMsg()
+        msg.setL3NetworkUuid(l3.uuid)
+        msg.setUsedIpUuid(ip.uuid)
+        bus.makeTargetServiceIdByResourceUuid(msg, L3NetworkConstant.SERVICE_ID, l3.uuid)
+        assert bus.call(msg).success
+    }
+
+    void testFirstAvailableAllocation() {
+        def ip1 = allocateIp(L3NetworkConstant.FIRST_AVAILABLE_IP_ALLOCATOR_STRATEGY)
+        def ip2 = allocateIp(L3NetworkConstant.FIRST_AVAILABLE_IP_ALLOCATOR_STRATEGY)
+        assert ip1.ip == "192.168.0.2"
+        assert ip2.ip == "192.168.0.3"
+
+        returnIp(ip1)
+        returnIp(ip2)
+    }
+
+    void testReturnedIpIsReused() {
+        def ips = (1..3).collect { allocateIp(L3NetworkConstant.FIRST_AVAILABLE_IP_ALLOCATOR_STRATEGY) }
+        assert ips.collect { it.ip } == ["192.168.0.2", "192.168.0.3", "192.168.0.4"]
+
+        returnIp(ips[1])
+        assert allocateIp(L3NetworkConstant.FIRST_AVAILABLE_IP_ALLOCATOR_STRATEGY).ip == "192.168.0.3"
+    }
+
+    void testDeletedIpIsReused() {
+        // a UsedIpVO deleted without ReturnIpMsg frees its address too
+        def ip = allocateIp(L3NetworkConstant.FIRST_AVAILABLE_IP_ALLOCATOR_STRATEGY)
+        assert ip.ip == "192.168.0.5"
+        bean(DatabaseFacade.class).removeByPrimaryKey(ip.uuid, UsedIpVO.class)
+
+        ip = allocateIp(L3NetworkConstant.FIRST_AVAILABLE_IP_ALLOCATOR_STRATEGY)
+        assert ip.ip == "192.168.0.5"
+        returnIp(ip)
+    }
+
+    void testIndexKeepsDuplicatedAddress() {
+        long start = NetworkUtils.ipv4StringToLong("10.0.0.1")
+        def index = new IpRangeAllocationIndex("range", start, start + 1, ["ip1": start, "ip2": start])
+        assert index.usedCount == 1
+
+        // the address is still used by the other UsedIpVO
+        assert index.release("ip1")
+        assert index.allocate(start, start + 1, null, false) == start + 1
+        assert !index.release("ip1")
+
+        assert index.release("ip2")
+        assert index.allocate(start, start + 1, null, false) == start
+    }
+
+    void testRandomAllocation() {
+        // 3 addresses are used, allocate the rest 7 randomly then the range is exhausted
+        def ips = (1..7).collect { allocateIp(L3NetworkConstant.RANDOM_IP_ALLOCATOR_STRATEGY) }
+        assert ips.collect { it.ip }.toSet().size() == 7
+
+        long count = Q.New(UsedIpVO.class).eq(UsedIpVO_.ipRangeUuid, range.uuid).count()
+        assert count == 10
+
+        AllocateIpMsg msg = new AllocateIpMsg()
+        msg.setL3NetworkUuid(l3.uuid)
+        msg.setAllocateStrategy(L3NetworkConstant.RANDOM_IP_ALLOCATOR_STRATEGY)
+        bus.makeTargetServiceIdByResourceUuid(msg, L3NetworkConstant.SERVICE_ID, l3.uuid)
+        assert !bus.call(msg).success
+    }
+
+    void testIndexAgreesWithUsedIpScan() {
+        long start = NetworkUtils.ipv4StringToLong("10.0.0.1")
+        long end = NetworkUtils.ipv4StringToLong("10.0.3.254")
+
+        // the old path searches a sorted array of all used addresses per allocation
+        def index = new IpRangeAllocationIndex("range", start, end, [:])
+        List<Long> used = []
+        500.times {
+            Long ip = NetworkUtils.findFirstAvailableIpv4Address(start, end, used.toArray(new Long[used.size()]))
+            used.add(ip)
+            assert index.allocate(start, end, null, false) == ip
+        }
+        assert index.usedCount == 500
+    }
+}
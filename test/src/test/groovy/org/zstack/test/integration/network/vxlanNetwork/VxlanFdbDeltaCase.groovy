@@ -0,0 +1,265 @@
+package org.zstack.test.integration.network.vxlanNetwork
+
+import org.springframework.http.HttpEntity
+import org.zstack.core.Platform
+import org.zstack.core.cloudbus.CloudBus
+import org.zstack.core.db.DatabaseFacade
+import org.zstack.core.db.Q
+import org.zstack.header.Constants
+import org.zstack.header.network.l2.L2NetworkConstant
+import org.zstack.network.l2.vxlan.vtep.PopulateVtepPeersMsg
+import org.zstack.network.l2.vxlan.vtep.VtepVO
+import org.zstack.network.l2.vxlan.vtep.VtepVO_
+import org.zstack.network.l2.vxlan.vxlanNetworkPool.VxlanNetworkGlobalProperty
+import org.zstack.network.l2.vxlan.vxlanNetworkPool.VxlanNetworkPoolConstant
+import org.zstack.sdk.ClusterInventory
+import org.zstack.sdk.KVMHostInventory
+import org.zstack.sdk.L2VxlanNetworkInventory
+import org.zstack.sdk.L2VxlanNetworkPoolInventory
+import org.zstack.sdk.ZoneInventory
+import org.zstack.test.integration.network.NetworkTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.L2VxlanNetworkPoolSpec
+import org.zstack.testlib.SubCase
+import org.zstack.utils.data.SizeUnit
+
+import java.util.concurrent.ConcurrentHashMap
+
+class VxlanFdbDeltaCase extends SubCase {
+    EnvSpec env
+    CloudBus bus
+    DatabaseFacade dbf
+
+    L2VxlanNetworkPoolInventory pool
+    L2VxlanNetworkInventory vxlan
+    List<KVMHostInventory> hosts
+    KVMHostInventory host4
+
+    // commands received by hosts, by path
+    Map<String, List<String>> received = new ConcurrentHashMap<>()
+
+    @Override
+    void setup() {
+        useSpring(NetworkTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = env {
+            zone {
+                name = "zone"
+
+                cluster {
+                    name = "cluster1"
+                    hypervisorType = "KVM"
+
+                    (1..3).each { i ->
+                        kvm {
+                            name = "kvm${i}".toString()
+                            managementIp = "127.0.0.${i}".toString()
+                            username = "root"
+                            password = "password"
+                            totalCpu = 8
+                            totalMem = SizeUnit.GIGABYTE.toByte(20)
+                        }
+                    }
+                }
+
+                cluster {
+                    name = "cluster2"
+                    hypervisorType = "KVM"
+
+                    kvm {
+                        name = "kvm4"
+                        managementIp = "127.0.0.4"
+                        username = "root"
+                        password = "password"
+                        totalCpu = 8
+                        totalMem = SizeUnit.GIGABYTE.toByte(20)
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    void test() {
+        env.create {
+            bus = bean(CloudBus.class)
+            dbf = bean(DatabaseFacade.class)
+            hosts = (1..3).collect { env.inventoryByName("kvm${it}".toString()) as KVMHostInventory }
+            host4 = env.inventoryByName("kvm4") as KVMHostInventory
+
+            VxlanNetworkGlobalProperty.FDB_DELTA_ENABLE = true
+            try {
+                prepare()
+                testFullAtFirst()
+                testDeltaOfPeerChanges()
+                testResyncWhenGenerationsDiverge()
+                testResyncWhenDeltaFails()
+                testResyncOfPreparedHosts()
+            } finally {
+                VxlanNetworkGlobalProperty.FDB_DELTA_ENABLE = false
+            }
+        }
+    }
+
+    @Override
+    void clean() {
+        L2VxlanNetworkPoolSpec.simulatedFdbs.clear()
+        env.delete()
+    }
+
+    void prepare() {
+        def zone = env.inventoryByName("zone") as ZoneInventory
+        def cluster = env.inventoryByName("cluster1") as ClusterInventory
+
+        pool = createL2VxlanNetworkPool {
+            name = "pool"
+            zoneUuid = zone.uuid
+        } as L2VxlanNetworkPoolInventory
+
+        attachL2NetworkToCluster {
+            l2NetworkUuid = pool.uuid
+            clusterUuid = cluster.uuid
+            systemTags = ["l2NetworkUuid::${pool.uuid}::clusterUuid::${cluster.uuid}::cidr::{127.0.0.0/8}".toString()]
+        }
+
+        createVniRange {
+            startVni = 100
+            endVni = 200
+            l2NetworkUuid = pool.uuid
+            name = "range"
+        }
+
+        vxlan = createL2VxlanNetwork {
+            poolUuid = pool.uuid
+            name = "vxlan"
+            zoneUuid = zone.uuid
+        } as L2VxlanNetworkInventory
+
+        assert Q.New(VtepVO.class).eq(VtepVO_.poolUuid, pool.uuid).count() == 3
+
+        [VxlanNetworkPoolConstant.VXLAN_KVM_POPULATE_FDB_L2VXLAN_NETWORKS_PATH, VxlanNetworkPoolConstant.VXLAN_KVM_UPDATE_FDB_L2VXLAN_NETWORKS_PATH].each { path ->
+            env.afterSimulator(path) { rsp, HttpEntity<String> e ->
+                received.computeIfAbsent(path, { Collections.synchronizedList([]) }).add(e.getHeaders().getFirst(Constants.AGENT_HTTP_HEADER_RESOURCE_UUID))
+                return rsp
+            }
+        }
+    }
+
+    List<String> fullSyncedHosts() {
+        return received.getOrDefault(VxlanNetworkPoolConstant.VXLAN_KVM_POPULATE_FDB_L2VXLAN_NETWORKS_PATH, [])
+    }
+
+    List<String> deltaUpdatedHosts() {
+        return received.getOrDefault(VxlanNetworkPoolConstant.VXLAN_KVM_UPDATE_FDB_L2VXLAN_NETWORKS_PATH, [])
+    }
+
+    void populate(List<String> fullSyncHostUuids = []) {
+        received.clear()
+
+        def msg = new PopulateVtepPeersMsg()
+        msg.poolUuid = pool.uuid
+        msg.fullSyncHostUuids = fullSyncHostUuids
+        bus.makeTargetServiceIdByResourceUuid(msg, L2NetworkConstant.SERVICE_ID, pool.uuid)
+        assert bus.call(msg).success
+    }
+
+    /**
+     * peers of every host in the simulator are vtep ips of other hosts
+     */
+    void assertConverged() {
+        List<VtepVO> vteps = Q.New(VtepVO.class).eq(VtepVO_.poolUuid, pool.uuid).list()
+        vteps.each { vtep ->
+            Set<String> expected = vteps.findAll { it.hostUuid != vtep.hostUuid }*.vtepIp.toSet()
+            assert L2VxlanNetworkPoolSpec.simulatedFdb(vtep.hostUuid, pool.uuid).peers[vxlan.uuid] == expected
+        }
+    }
+
+    String addVtep(KVMHostInventory host, String ip) {
+        def vtep = new VtepVO()
+        vtep.uuid = Platform.getUuid()
+        vtep.hostUuid = host.uuid
+        vtep.clusterUuid = host.clusterUuid
+        vtep.poolUuid = pool.uuid
+        vtep.vtepIp = ip
+        vtep.port = VxlanNetworkPoolConstant.VXLAN_PORT
+        vtep.type = VxlanNetworkPoolConstant.KVM_VXLAN_TYPE
+        dbf.persist(vtep)
+        return vtep.uuid
+    }
+
+    void testFullAtFirst() {
+        populate()
+        assert fullSyncedHosts().toSet() == hosts*.uuid.toSet()
+        assert deltaUpdatedHosts().isEmpty()
+        assertConverged()
+
+        // nothing is sent when peers don't change
+        populate()
+        assert fullSyncedHosts().isEmpty()
+        assert deltaUpdatedHosts().isEmpty()
+    }
+
+    void testDeltaOfPeerChanges() {
+        // a host joins, others get a delta, the new host gets all peers
+        String vtepUuid = addVtep(host4, "127.0.0.4")
+        populate()
+        assert fullSyncedHosts() == [host4.uuid]
+        assert deltaUpdatedHosts().toSet() == hosts*.uuid.toSet()
+        assertConverged()
+
+        // the host leaves
+        dbf.removeByPrimaryKey(vtepUuid, VtepVO.class)
+        populate()
+        assert fullSyncedHosts().isEmpty()
+        assert deltaUpdatedHosts().toSet() == hosts*.uuid.toSet()
+        assertConverged()
+    }
+
+    void testResyncWhenGenerationsDiverge() {
+        // the host has lost a delta
+        L2VxlanNetworkPoolSpec.simulatedFdb(hosts[0].uuid, pool.uuid).generation = -1
+
+        String vtepUuid = addVtep(host4, "127.0.0.4")
+        populate()
+        assert deltaUpdatedHosts().toSet() == hosts*.uuid.toSet()
+        assert fullSyncedHosts().toSet() == [hosts[0].uuid, host4.uuid].toSet()
+        assertConverged()
+
+        dbf.removeByPrimaryKey(vtepUuid, VtepVO.class)
+        populate()
+        assertConverged()
+    }
+
+    void testResyncWhenDeltaFails() {
+        // agents not supporting deltas
+        env.simulator(VxlanNetworkPoolConstant.VXLAN_KVM_UPDATE_FDB_L2VXLAN_NETWORKS_PATH) { HttpEntity<String> e, EnvSpec spec ->
+            throw new Exception("unknown path")
+        }
+
+        String vtepUuid = addVtep(host4, "127.0.0.4")
+        populate()
+        assert fullSyncedHosts().toSet() == (hosts*.uuid + [host4.uuid]).toSet()
+        assertConverged()
+
+        dbf.removeByPrimaryKey(vtepUuid, VtepVO.class)
+        populate()
+        assertConverged()
+
+        env.cleanSimulatorHandlers()
+    }
+
+    void testResyncOfPreparedHosts() {
+        populate()
+        assert fullSyncedHosts().isEmpty()
+
+        // the host has been restarted
+        L2VxlanNetworkPoolSpec.simulatedFdbs.remove("${hosts[1].uuid}/${pool.uuid}".toString())
+        populate([hosts[1].uuid])
+        assert fullSyncedHosts() == [hosts[1].uuid]
+        assert deltaUpdatedHosts().isEmpty()
+        assertConverged()
+    }
+}
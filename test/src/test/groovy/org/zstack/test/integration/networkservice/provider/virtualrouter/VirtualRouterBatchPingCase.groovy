@@ -0,0 +1,133 @@
+package org.zstack.test.integration.networkservice.provider.virtualrouter
+
+import org.springframework.http.HttpEntity
+import org.zstack.appliancevm.ApplianceVmStatus
+import org.zstack.core.Platform
+import org.zstack.core.cloudbus.CloudBus
+import org.zstack.core.db.DatabaseFacade
+import org.zstack.header.message.AbstractBeforeDeliveryMessageInterceptor
+import org.zstack.header.message.Message
+import org.zstack.network.service.virtualrouter.BatchPingVirtualRouterVmMsg
+import org.zstack.network.service.virtualrouter.PingVirtualRouterVmMsg
+import org.zstack.network.service.virtualrouter.VirtualRouterCommands
+import org.zstack.network.service.virtualrouter.VirtualRouterConstant
+import org.zstack.network.service.virtualrouter.VirtualRouterGlobalConfig
+import org.zstack.network.service.virtualrouter.VirtualRouterPingTracker
+import org.zstack.network.service.virtualrouter.VirtualRouterVmVO
+import org.zstack.test.integration.networkservice.provider.NetworkServiceProviderTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+import org.zstack.utils.gson.JSONObjectUtil
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * virtual routers are pinged in batches when ping.batchSize is set, and the time wheel of
+ * the tracker spreads them across the ping interval
+ */
+class VirtualRouterBatchPingCase extends SubCase {
+    EnvSpec env
+
+    static final int INTERVAL = 5
+    static final int BATCH_SIZE = 10
+    static final int FAKE_ROUTERS = 40
+
+    @Override
+    void clean() {
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(NetworkServiceProviderTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = VirtualRouterNetworkServiceEnv.oneVmOneHostVyosOnEipEnv()
+    }
+
+    @Override
+    void test() {
+        env.create {
+            testBatchPingSpreadAcrossInterval()
+        }
+    }
+
+    void testBatchPingSpreadAcrossInterval() {
+        VirtualRouterVmVO vr = bean(DatabaseFacade.class).listAll(VirtualRouterVmVO.class).get(0)
+        VirtualRouterPingTracker tracker = bean(VirtualRouterPingTracker.class)
+        CloudBus bus = bean(CloudBus.class)
+
+        // routers without vm are pinged too and get an error reply
+        List<String> fakeUuids = (0..<FAKE_ROUTERS).collect { Platform.uuid }
+        tracker.track(fakeUuids)
+
+        boolean recording = false
+        AtomicInteger singlePings = new AtomicInteger()
+        List<List<String>> batches = Collections.synchronizedList([])
+        Map<String, List<Long>> pingedAt = new ConcurrentHashMap<>()
+        bus.installBeforeDeliveryMessageInterceptor(new AbstractBeforeDeliveryMessageInterceptor() {
+            @Override
+            void beforeDeliveryMessage(Message msg) {
+                if (!recording) {
+                    return
+                }
+
+                if (msg instanceof PingVirtualRouterVmMsg) {
+                    singlePings.incrementAndGet()
+                    return
+                }
+
+                List<String> uuids = ((BatchPingVirtualRouterVmMsg) msg).virtualRouterVmUuids
+                batches.add(uuids)
+                long now = System.currentTimeMillis()
+                uuids.each { pingedAt.computeIfAbsent(it, { Collections.synchronizedList([]) }).add(now) }
+            }
+        }, BatchPingVirtualRouterVmMsg.class, PingVirtualRouterVmMsg.class)
+
+        AtomicInteger agentPings = new AtomicInteger()
+        env.afterSimulator(VirtualRouterConstant.VR_PING) { rsp, HttpEntity<String> e ->
+            VirtualRouterCommands.PingCmd cmd = JSONObjectUtil.toObject(e.body, VirtualRouterCommands.PingCmd.class)
+            if (recording && cmd.uuid == vr.uuid) {
+                agentPings.incrementAndGet()
+            }
+            return rsp
+        }
+
+        VirtualRouterGlobalConfig.PING_BATCH_SIZE.updateValue(BATCH_SIZE)
+        VirtualRouterGlobalConfig.PING_INTERVAL.updateValue(INTERVAL)
+        // pings sent before the tracker restarts with the new interval are not recorded
+        recording = true
+
+        try {
+            List<String> all = fakeUuids + [vr.uuid]
+            retryInSecs(INTERVAL * 6) {
+                assert all.every { pingedAt.containsKey(it) && pingedAt[it].size() >= 2 }
+            }
+        } finally {
+            recording = false
+            tracker.untrack(fakeUuids)
+            VirtualRouterGlobalConfig.PING_BATCH_SIZE.resetValue()
+            VirtualRouterGlobalConfig.PING_INTERVAL.resetValue()
+        }
+
+        // one message carries many routers, none is pinged by its own message
+        assert singlePings.get() == 0
+        assert batches.every { it.size() <= BATCH_SIZE }
+        assert batches.size() < pingedAt.values().sum { it.size() }
+        // the real router is pinged by the agent call of the batch
+        assert agentPings.get() >= 2
+        assert dbFindByUuid(vr.uuid, VirtualRouterVmVO.class).status == ApplianceVmStatus.Connected
+
+        // routers are pinged in different seconds of the interval, each once per interval
+        Set<Long> seconds = pingedAt.values().collect { it[0].intdiv(1000) }.toSet()
+        assert seconds.size() > 1
+        pingedAt.values().each { List<Long> times ->
+            for (int i = 1; i < times.size(); i++) {
+                assert times[i] - times[i - 1] >= (INTERVAL - 1) * 1000
+            }
+        }
+    }
+}
@@ -0,0 +1,550 @@
+package org.zstack.test.integration.networkservice.provider.virtualrouter.loadbalancer
+
+import com.google.common.collect.Lists
+import org.springframework.http.HttpEntity
+import org.zstack.core.Platform
+import org.zstack.core.cloudbus.CloudBus
+import org.zstack.core.cloudbus.EventFacade
+import org.zstack.core.db.DatabaseFacade
+import org.zstack.core.db.Q
+import org.zstack.core.db.SQL
+import org.zstack.header.managementnode.ManagementNodeInventory
+import org.zstack.header.network.service.NetworkServiceType
+import org.zstack.network.service.eip.EipConstant
+import org.zstack.network.service.lb.*
+import org.zstack.network.service.portforwarding.PortForwardingConstant
+import org.zstack.network.service.virtualrouter.VirtualRouterGlobalProperty
+import org.zstack.network.service.virtualrouter.VirtualRouterVmVO
+import org.zstack.network.service.virtualrouter.lb.VirtualRouterLbConfigTracker
+import org.zstack.network.service.virtualrouter.lb.VirtualRouterLoadBalancerBackend
+import org.zstack.network.service.virtualrouter.vyos.VyosConstants
+import org.zstack.sdk.*
+import org.zstack.test.integration.networkservice.provider.NetworkServiceProviderTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+import org.zstack.utils.data.SizeUnit
+import org.zstack.utils.gson.JSONObjectUtil
+
+import java.util.concurrent.ConcurrentHashMap
+
+class LoadBalancerConfigDiffCase extends SubCase {
+    EnvSpec env
+    CloudBus bus
+    DatabaseFacade dbf
+
+    VmInstanceInventory vm
+    VmInstanceInventory vm2
+    LoadBalancerInventory lb
+    List<LoadBalancerListenerInventory> listeners = []
+
+    // listener uuids of every refresh command
+    List<List<String>> refreshed = Collections.synchronizedList([])
+    // listener uuids of every delete command
+    List<String> deleted = Collections.synchronizedList([])
+    List<String> certificatesSent = Collections.synchronizedList([])
+    long refreshedBytes
+    // listeners the virtual router has, as the agent applies refresh commands
+    Map<String, String> applied = new ConcurrentHashMap<>()
+
+    @Override
+    void clean() {
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(NetworkServiceProviderTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = env {
+            instanceOffering {
+                name = "instanceOffering"
+                memory = SizeUnit.GIGABYTE.toByte(8)
+                cpu = 4
+            }
+
+            sftpBackupStorage {
+                name = "sftp"
+                url = "/sftp"
+                username = "root"
+                password = "password"
+                hostname = "localhost"
+
+                image {
+                    name = "image"
+                    url = "http://zstack.org/download/test.qcow2"
+                }
+
+                image {
+                    name = "vr"
+                    url = "http://zstack.org/download/vr.qcow2"
+                }
+            }
+
+            zone {
+                name = "zone"
+
+                cluster {
+                    name = "cluster"
+                    hypervisorType = "KVM"
+
+                    kvm {
+                        name = "kvm"
+                        managementIp = "localhost"
+                        username = "root"
+                        password = "password"
+                    }
+
+                    attachPrimaryStorage("local")
+                    attachL2Network("l2")
+                }
+
+                localPrimaryStorage {
+                    name = "local"
+                    url = "/local_ps"
+                }
+
+                l2NoVlanNetwork {
+                    name = "l2"
+                    physicalInterface = "eth0"
+
+                    l3Network {
+                        name = "l3"
+
+                        service {
+                            provider = VyosConstants.VYOS_ROUTER_PROVIDER_TYPE
+                            types = [NetworkServiceType.DHCP.toString(),
+                                     NetworkServiceType.DNS.toString(),
+                                     NetworkServiceType.SNAT.toString(),
+                                     PortForwardingConstant.PORTFORWARDING_NETWORK_SERVICE_TYPE,
+                                     LoadBalancerConstants.LB_NETWORK_SERVICE_TYPE_STRING,
+                                     EipConstant.EIP_NETWORK_SERVICE_TYPE]
+                        }
+
+                        ip {
+                            startIp = "192.168.100.10"
+                            endIp = "192.168.100.100"
+                            netmask = "255.255.255.0"
+                            gateway = "192.168.100.1"
+                        }
+                    }
+
+                    l3Network {
+                        name = "pubL3"
+
+                        ip {
+                            startIp = "11.168.100.10"
+                            endIp = "11.168.100.100"
+                            netmask = "255.255.255.0"
+                            gateway = "11.168.100.1"
+                        }
+                    }
+                }
+
+                attachBackupStorage("sftp")
+
+                virtualRouterOffering {
+                    name = "vro"
+                    memory = SizeUnit.MEGABYTE.toByte(512)
+                    cpu = 2
+                    useManagementL3Network("pubL3")
+                    usePublicL3Network("pubL3")
+                    useImage("vr")
+                }
+            }
+
+            vm {
+                name = "vm"
+                useImage("image")
+                useL3Networks("l3")
+                useInstanceOffering("instanceOffering")
+            }
+
+            vm {
+                name = "vm2"
+                useImage("image")
+                useL3Networks("l3")
+                useInstanceOffering("instanceOffering")
+            }
+        }
+    }
+
+    @Override
+    void test() {
+        env.create {
+            VirtualRouterGlobalProperty.LB_CONFIG_DIFF_ENABLE = true
+            try {
+                prepare()
+                testNothingSentWithoutChanges()
+                testOnlyChangedListenersSent()
+                testCertificatesSentOnce()
+                testResyncAfterFailure()
+                testResyncOnReconnect()
+                testResyncWhenOtherNodeForgetsRouter()
+                testResyncWhenNodesChange()
+                testDeletedListenerRemoved()
+                testRefreshOfManyListeners()
+            } finally {
+                VirtualRouterGlobalProperty.LB_CONFIG_DIFF_ENABLE = false
+            }
+        }
+    }
+
+    void prepare() {
+        bus = bean(CloudBus.class)
+        dbf = bean(DatabaseFacade.class)
+        vm = env.inventoryByName("vm") as VmInstanceInventory
+        vm2 = env.inventoryByName("vm2") as VmInstanceInventory
+
+        L3NetworkInventory pubL3 = env.inventoryByName("pubL3")
+
+        VipInventory vip = createVip {
+            name = "vip"
+            l3NetworkUuid = pubL3.uuid
+        }
+
+        lb = createLoadBalancer {
+            name = "lb"
+            vipUuid = vip.uuid
+        }
+
+        (1..3).each { i ->
+            def listener = createLoadBalancerListener {
+                loadBalancerUuid = lb.uuid
+                loadBalancerPort = 40 + i
+                instancePort = 20 + i
+                name = "listener${i}".toString()
+            } as LoadBalancerListenerInventory
+
+            addVmNicToLoadBalancer {
+                vmNicUuids = [vm.vmNics[0].uuid]
+                listenerUuid = listener.uuid
+            }
+
+            listeners.add(listener)
+        }
+
+        env.afterSimulator(VirtualRouterLoadBalancerBackend.REFRESH_LB_PATH) { rsp, HttpEntity<String> e ->
+            def cmd = JSONObjectUtil.toObject(e.body, VirtualRouterLoadBalancerBackend.RefreshLbCmd.class)
+            refreshed.add(cmd.lbs*.listenerUuid)
+            refreshedBytes += e.body.length()
+            cmd.lbs.each { applied[it.listenerUuid] = JSONObjectUtil.toJsonString(it) }
+            return rsp
+        }
+
+        env.afterSimulator(VirtualRouterLoadBalancerBackend.DELETE_LB_PATH) { rsp, HttpEntity<String> e ->
+            def cmd = JSONObjectUtil.toObject(e.body, VirtualRouterLoadBalancerBackend.DeleteLbCmd.class)
+            deleted.addAll(cmd.lbs*.listenerUuid)
+            cmd.lbs.each { applied.remove(it.listenerUuid) }
+            return rsp
+        }
+
+        env.afterSimulator(VirtualRouterLoadBalancerBackend.CREATE_CERTIFICATE_PATH) { rsp, HttpEntity<String> e ->
+            def cmd = JSONObjectUtil.toObject(e.body, VirtualRouterLoadBalancerBackend.CertificateCmd.class)
+            certificatesSent.add(cmd.uuid)
+            return rsp
+        }
+
+        // listeners added before recording refresh commands
+        syncInFull()
+    }
+
+    void clearRecords() {
+        refreshed.clear()
+        deleted.clear()
+        certificatesSent.clear()
+        refreshedBytes = 0
+    }
+
+    List<String> refreshedListeners() {
+        return refreshed.flatten() as List<String>
+    }
+
+    void refreshLb() {
+        def msg = new RefreshLoadBalancerMsg()
+        msg.uuid = lb.uuid
+        bus.makeTargetServiceIdByResourceUuid(msg, LoadBalancerConstants.SERVICE_ID, lb.uuid)
+        assert bus.call(msg).success
+    }
+
+    /**
+     * refreshes the load balancer in full, and records it as what the virtual router has
+     */
+    void syncInFull() {
+        VirtualRouterGlobalProperty.LB_CONFIG_DIFF_ENABLE = false
+        refreshLb()
+        VirtualRouterGlobalProperty.LB_CONFIG_DIFF_ENABLE = true
+        refreshLb()
+        clearRecords()
+    }
+
+    /**
+     * listeners the virtual router has are the ones refreshed in full
+     */
+    void assertConverged() {
+        Map<String, String> before = new HashMap<>(applied)
+
+        clearRecords()
+        VirtualRouterGlobalProperty.LB_CONFIG_DIFF_ENABLE = false
+        refreshLb()
+        VirtualRouterGlobalProperty.LB_CONFIG_DIFF_ENABLE = true
+
+        assert refreshed.size() == 1
+        assert !refreshed[0].isEmpty()
+        refreshed[0].each { assert before[it] == applied[it] }
+
+        refreshLb()
+        clearRecords()
+    }
+
+    void testNothingSentWithoutChanges() {
+        refreshLb()
+        assert refreshed.isEmpty()
+        assertConverged()
+    }
+
+    void testOnlyChangedListenersSent() {
+        changeLoadBalancerListener {
+            uuid = listeners[0].uuid
+            connectionIdleTimeout = 100
+        }
+        assert refreshedListeners() == [listeners[0].uuid]
+
+        clearRecords()
+        addVmNicToLoadBalancer {
+            vmNicUuids = [vm2.vmNics[0].uuid]
+            listenerUuid = listeners[1].uuid
+        }
+        assert refreshedListeners() == [listeners[1].uuid]
+
+        // only the listener with the vm as a backend changes
+        clearRecords()
+        stopVmInstance {
+            uuid = vm2.uuid
+        }
+        assert refreshedListeners() == [listeners[1].uuid]
+
+        clearRecords()
+        startVmInstance {
+            uuid = vm2.uuid
+        }
+        assert refreshedListeners() == [listeners[1].uuid]
+
+        assertConverged()
+    }
+
+    void testCertificatesSentOnce() {
+        CertificateInventory cert = createCertificate {
+            name = "certificate"
+            certificate = "certificate"
+        }
+
+        def listener = createLoadBalancerListener {
+            protocol = LoadBalancerConstants.LB_PROTOCOL_HTTPS
+            loadBalancerUuid = lb.uuid
+            loadBalancerPort = 443
+            instancePort = 80
+            name = "https"
+            certificateUuid = cert.uuid
+        } as LoadBalancerListenerInventory
+        listeners.add(listener)
+
+        clearRecords()
+        addVmNicToLoadBalancer {
+            vmNicUuids = [vm.vmNics[0].uuid]
+            listenerUuid = listener.uuid
+        }
+        assert certificatesSent == [cert.uuid]
+        assert refreshedListeners() == [listener.uuid]
+
+        clearRecords()
+        changeLoadBalancerListener {
+            uuid = listeners[0].uuid
+            connectionIdleTimeout = 200
+        }
+        assert certificatesSent.isEmpty()
+        assert refreshedListeners() == [listeners[0].uuid]
+
+        assertConverged()
+    }
+
+    void testResyncAfterFailure() {
+        env.simulator(VirtualRouterLoadBalancerBackend.REFRESH_LB_PATH) {
+            throw new Exception("on purpose")
+        }
+
+        SQL.New(LoadBalancerListenerVO.class).eq(LoadBalancerListenerVO_.uuid, listeners[0].uuid)
+                .set(LoadBalancerListenerVO_.instancePort, 30).update()
+
+        def msg = new RefreshLoadBalancerMsg()
+        msg.uuid = lb.uuid
+        bus.makeTargetServiceIdByResourceUuid(msg, LoadBalancerConstants.SERVICE_ID, lb.uuid)
+        assert !bus.call(msg).success
+
+        env.cleanSimulatorHandlers()
+
+        // the listener failed to refresh is sent again though it doesn't change since
+        clearRecords()
+        refreshLb()
+        assert refreshedListeners() == [listeners[0].uuid]
+
+        assertConverged()
+    }
+
+    void testResyncOnReconnect() {
+        VirtualRouterVmVO vr = Q.New(VirtualRouterVmVO.class).find()
+
+        reconnectVirtualRouter {
+            vmInstanceUuid = vr.uuid
+        }
+        assert refreshedListeners().containsAll(listeners*.uuid)
+        assert !certificatesSent.isEmpty()
+
+        clearRecords()
+        refreshLb()
+        assert refreshed.isEmpty()
+
+        assertConverged()
+    }
+
+    void testResyncWhenOtherNodeForgetsRouter() {
+        VirtualRouterVmVO vr = Q.New(VirtualRouterVmVO.class).find()
+        assert VirtualRouterLbConfigTracker.get(vr.uuid, listeners[0].uuid) != null
+
+        // the node owning the virtual router forgets it when the virtual router reconnects there
+        bean(EventFacade.class).fire(VirtualRouterLbConfigTracker.FORGET_ROUTER_EVENT_PATH
+                .replace("{vrUuid}", vr.uuid).replace("{nodeUuid}", Platform.uuid), null)
+        retryInSecs {
+            assert VirtualRouterLbConfigTracker.get(vr.uuid, listeners[0].uuid) == null
+        }
+
+        clearRecords()
+        refreshLb()
+        assert refreshedListeners().containsAll(listeners*.uuid)
+
+        assertConverged()
+    }
+
+    void testResyncWhenNodesChange() {
+        VirtualRouterVmVO vr = Q.New(VirtualRouterVmVO.class).find()
+        assert VirtualRouterLbConfigTracker.get(vr.uuid, listeners[0].uuid) != null
+
+        def inv = new ManagementNodeInventory()
+        inv.uuid = Platform.uuid
+        bean(VirtualRouterLoadBalancerBackend.class).nodeJoin(inv)
+        assert VirtualRouterLbConfigTracker.get(vr.uuid, listeners[0].uuid) == null
+
+        clearRecords()
+        refreshLb()
+        assert refreshedListeners().containsAll(listeners*.uuid)
+
+        assertConverged()
+    }
+
+    void testDeletedListenerRemoved() {
+        def listener = createLoadBalancerListener {
+            loadBalancerUuid = lb.uuid
+            loadBalancerPort = 60
+            instancePort = 60
+            name = "to-delete"
+        } as LoadBalancerListenerInventory
+
+        addVmNicToLoadBalancer {
+            vmNicUuids = [vm.vmNics[0].uuid]
+            listenerUuid = listener.uuid
+        }
+        assert applied.containsKey(listener.uuid)
+
+        clearRecords()
+        deleteLoadBalancerListener {
+            uuid = listener.uuid
+        }
+        refreshLb()
+        assert deleted == [listener.uuid]
+        assert !applied.containsKey(listener.uuid)
+
+        // deleted once, not again at later refreshes
+        clearRecords()
+        refreshLb()
+        assert deleted.isEmpty()
+        assert refreshed.isEmpty()
+
+        assertConverged()
+    }
+
+    /**
+     * adds listeners to the load balancer in database until it has listenerNum listeners
+     */
+    List<String> createFakeListeners(int listenerNum) {
+        String serverGroupUuid = Q.New(LoadBalancerListenerServerGroupRefVO.class)
+                .select(LoadBalancerListenerServerGroupRefVO_.serverGroupUuid)
+                .eq(LoadBalancerListenerServerGroupRefVO_.listenerUuid, listeners[0].uuid)
+                .findValue()
+
+        List<LoadBalancerListenerVO> fakeListeners = []
+        List<LoadBalancerListenerServerGroupRefVO> fakeRefs = []
+        (1..(listenerNum - listeners.size())).each { i ->
+            def listener = new LoadBalancerListenerVO()
+            listener.uuid = Platform.getUuid()
+            listener.name = "fake-listener-${i}".toString()
+            listener.loadBalancerUuid = lb.uuid
+            listener.protocol = LoadBalancerConstants.LB_PROTOCOL_TCP
+            listener.loadBalancerPort = 1000 + i
+            listener.instancePort = 1000 + i
+            fakeListeners.add(listener)
+
+            def ref = new LoadBalancerListenerServerGroupRefVO()
+            ref.listenerUuid = listener.uuid
+            ref.serverGroupUuid = serverGroupUuid
+            fakeRefs.add(ref)
+        }
+        dbf.persistCollection(fakeListeners)
+        dbf.persistCollection(fakeRefs)
+        return fakeListeners*.uuid
+    }
+
+    void deleteFakeListeners(List<String> fakeListenerUuids) {
+        Lists.partition(fakeListenerUuids, 100).each { uuids ->
+            SQL.New(LoadBalancerListenerServerGroupRefVO.class).in(LoadBalancerListenerServerGroupRefVO_.listenerUuid, uuids).hardDelete()
+            SQL.New(LoadBalancerListenerVO.class).in(LoadBalancerListenerVO_.uuid, uuids).hardDelete()
+        }
+    }
+
+    void changeListener(int round) {
+        SQL.New(LoadBalancerListenerVO.class).eq(LoadBalancerListenerVO_.uuid, listeners[0].uuid)
+                .set(LoadBalancerListenerVO_.instancePort, 30 + round).update()
+    }
+
+    void testRefreshOfManyListeners() {
+        int rounds = 5
+        List<String> fakeListenerUuids = createFakeListeners(500)
+
+        Closure refreshAfterChanges = {
+            (1..rounds).each { i ->
+                changeListener(i)
+                refreshLb()
+            }
+        }
+
+        try {
+            VirtualRouterGlobalProperty.LB_CONFIG_DIFF_ENABLE = false
+            clearRecords()
+            refreshAfterChanges()
+            long fullBytes = refreshedBytes
+            assert refreshedListeners().size() == rounds * 500
+
+            VirtualRouterGlobalProperty.LB_CONFIG_DIFF_ENABLE = true
+            refreshLb()
+            clearRecords()
+            refreshAfterChanges()
+            assert refreshedListeners().size() == rounds
+            assert refreshedBytes * 100 < fullBytes
+
+            assertConverged()
+        } finally {
+            deleteFakeListeners(fakeListenerUuids)
+        }
+    }
+}
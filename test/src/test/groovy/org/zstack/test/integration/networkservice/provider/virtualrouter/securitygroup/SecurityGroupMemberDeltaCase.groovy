@@ -0,0 +1,338 @@
+package org.zstack.test.integration.networkservice.provider.virtualrouter.securitygroup
+
+import com.google.common.collect.Lists
+import org.springframework.http.HttpEntity
+import org.zstack.core.Platform
+import org.zstack.core.db.DatabaseFacade
+import org.zstack.core.db.SQL
+import org.zstack.header.Constants
+import org.zstack.header.network.l3.UsedIpVO
+import org.zstack.header.network.l3.UsedIpVO_
+import org.zstack.header.vm.VmNicVO
+import org.zstack.header.vm.VmNicVO_
+import org.zstack.kvm.KVMSecurityGroupBackend
+import org.zstack.network.securitygroup.SecurityGroupGlobalProperty
+import org.zstack.network.securitygroup.VmNicSecurityGroupRefVO
+import org.zstack.network.securitygroup.VmNicSecurityGroupRefVO_
+import org.zstack.sdk.L3NetworkInventory
+import org.zstack.sdk.SecurityGroupInventory
+import org.zstack.sdk.VmInstanceInventory
+import org.zstack.test.integration.networkservice.provider.NetworkServiceProviderTest
+import org.zstack.test.integration.networkservice.provider.virtualrouter.VirtualRouterNetworkServiceEnv
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SecurityGroupSpec
+import org.zstack.testlib.SubCase
+import org.zstack.utils.network.NetworkUtils
+
+import java.util.concurrent.ConcurrentHashMap
+
+class SecurityGroupMemberDeltaCase extends SubCase {
+    EnvSpec env
+    DatabaseFacade dbf
+
+    L3NetworkInventory l3Net
+    VmInstanceInventory vm1, vm2, vm3, vm4
+    SecurityGroupInventory sg
+    List<String> hostUuids
+
+    // member updates received by hosts, by path
+    Map<String, List<String>> received = new ConcurrentHashMap<>()
+    // bytes of member updates received
+    long receivedBytes
+
+    @Override
+    void setup() {
+        useSpring(NetworkServiceProviderTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = VirtualRouterNetworkServiceEnv.fourVmThreeHostNoEipForSecurityGroupEnv()
+    }
+
+    @Override
+    void test() {
+        env.create {
+            prepare()
+
+            SecurityGroupGlobalProperty.MEMBER_DELTA_ENABLE = true
+            try {
+                recordMemberUpdates()
+                testFullAtFirst()
+                testDeltaOfMemberChanges()
+                testResyncWhenGenerationsDiverge()
+                testResyncAfterHostReconnected()
+                testMemberUpdateBytes()
+            } finally {
+                SecurityGroupGlobalProperty.MEMBER_DELTA_ENABLE = false
+            }
+        }
+    }
+
+    @Override
+    void clean() {
+        SecurityGroupSpec.simulatedMembers.clear()
+        env.delete()
+    }
+
+    void prepare() {
+        dbf = bean(DatabaseFacade.class)
+        l3Net = env.inventoryByName("l3") as L3NetworkInventory
+        vm1 = env.inventoryByName("vm1") as VmInstanceInventory // vm1 in host1
+        vm2 = env.inventoryByName("vm2") as VmInstanceInventory // vm2 in host2
+        vm3 = env.inventoryByName("vm3") as VmInstanceInventory // vm3 in host3
+        vm4 = env.inventoryByName("vm4") as VmInstanceInventory // vm4 in host3
+        hostUuids = [vm1.hostUuid, vm2.hostUuid, vm3.hostUuid]
+    }
+
+    void recordMemberUpdates() {
+        [KVMSecurityGroupBackend.SECURITY_GROUP_UPDATE_GROUP_MEMBER, KVMSecurityGroupBackend.SECURITY_GROUP_UPDATE_GROUP_MEMBER_DELTA].each { path ->
+            env.afterSimulator(path) { rsp, HttpEntity<String> e ->
+                received.computeIfAbsent(path, { Collections.synchronizedList([]) }).add(e.getHeaders().getFirst(Constants.AGENT_HTTP_HEADER_RESOURCE_UUID))
+                synchronized (this) {
+                    receivedBytes += e.body.length()
+                }
+                return rsp
+            }
+        }
+    }
+
+    List<String> fullUpdatedHosts() {
+        return received.getOrDefault(KVMSecurityGroupBackend.SECURITY_GROUP_UPDATE_GROUP_MEMBER, [])
+    }
+
+    List<String> deltaUpdatedHosts() {
+        return received.getOrDefault(KVMSecurityGroupBackend.SECURITY_GROUP_UPDATE_GROUP_MEMBER_DELTA, [])
+    }
+
+    Set<String> expectedMembers() {
+        List<String> ips = SQL.New("select ip.ip from UsedIpVO ip, VmNicSecurityGroupRefVO ref" +
+                " where ip.vmNicUuid = ref.vmNicUuid and ref.securityGroupUuid = :sgUuid and ip.ipVersion = 4", String.class)
+                .param("sgUuid", sg.uuid).list()
+        return (ips + [l3Net.ipRanges[0].gateway]).toSet()
+    }
+
+    /**
+     * members of the group on every host in the simulator are ips of nics in the group
+     */
+    void assertConverged() {
+        Set<String> expected = expectedMembers()
+        retryInSecs {
+            hostUuids.each {
+                assert SecurityGroupSpec.simulatedMembers(it, sg.uuid).ips == expected
+            }
+        }
+    }
+
+    void addNic(VmInstanceInventory vm) {
+        addVmNicToSecurityGroup {
+            securityGroupUuid = sg.uuid
+            vmNicUuids = [vm.vmNics[0].uuid]
+        }
+    }
+
+    void removeNic(VmInstanceInventory vm) {
+        deleteVmNicFromSecurityGroup {
+            securityGroupUuid = sg.uuid
+            vmNicUuids = [vm.vmNics[0].uuid]
+        }
+    }
+
+    void createGroup() {
+        sg = createSecurityGroup {
+            name = "sg"
+        } as SecurityGroupInventory
+
+        attachSecurityGroupToL3Network {
+            securityGroupUuid = sg.uuid
+            l3NetworkUuid = l3Net.uuid
+        }
+
+        received.clear()
+        addVmNicToSecurityGroup {
+            securityGroupUuid = sg.uuid
+            vmNicUuids = [vm1.vmNics[0].uuid, vm2.vmNics[0].uuid, vm3.vmNics[0].uuid]
+        }
+    }
+
+    void testFullAtFirst() {
+        createGroup()
+
+        retryInSecs {
+            assert fullUpdatedHosts().toSet() == hostUuids.toSet()
+        }
+        assert deltaUpdatedHosts().isEmpty()
+        assertConverged()
+    }
+
+    void testDeltaOfMemberChanges() {
+        received.clear()
+        addNic(vm4)
+        retryInSecs {
+            assert deltaUpdatedHosts().toSet() == hostUuids.toSet()
+        }
+        assert fullUpdatedHosts().isEmpty()
+        assertConverged()
+
+        received.clear()
+        removeNic(vm4)
+        retryInSecs {
+            assert deltaUpdatedHosts().toSet() == hostUuids.toSet()
+        }
+        assert fullUpdatedHosts().isEmpty()
+        assertConverged()
+    }
+
+    void testResyncWhenGenerationsDiverge() {
+        // the host has lost a delta
+        SecurityGroupSpec.simulatedMembers(vm1.hostUuid, sg.uuid).generation = -1
+
+        received.clear()
+        addNic(vm4)
+        retryInSecs {
+            assert deltaUpdatedHosts().toSet() == hostUuids.toSet()
+            assert fullUpdatedHosts() == [vm1.hostUuid]
+        }
+        assertConverged()
+
+        removeNic(vm4)
+        assertConverged()
+    }
+
+    void testResyncAfterHostReconnected() {
+        boolean refreshed = false
+        env.afterSimulator(KVMSecurityGroupBackend.SECURITY_GROUP_REFRESH_RULE_ON_HOST_PATH) { rsp, HttpEntity<String> e ->
+            if (e.getHeaders().getFirst(Constants.AGENT_HTTP_HEADER_RESOURCE_UUID) == vm2.hostUuid) {
+                refreshed = true
+            }
+            return rsp
+        }
+
+        reconnectHost {
+            uuid = vm2.hostUuid
+        }
+        retryInSecs {
+            assert refreshed
+        }
+
+        // the host may have lost members, they are sent in full
+        SecurityGroupSpec.simulatedMembers.remove("${vm2.hostUuid}/${sg.uuid}".toString())
+        received.clear()
+        addNic(vm4)
+        retryInSecs {
+            assert fullUpdatedHosts() == [vm2.hostUuid]
+            assert deltaUpdatedHosts().containsAll([vm1.hostUuid, vm3.hostUuid])
+        }
+        assertConverged()
+
+        removeNic(vm4)
+        assertConverged()
+    }
+
+    /**
+     * adds nics of a stopped vm to the group, so the group has 10k members but rules of
+     * the nics are not applied to any host
+     */
+    List<String> addBulkMembers(VmInstanceInventory vm, int num) {
+        List<String> nicUuids = []
+        List<VmNicVO> nics = []
+        List<UsedIpVO> ips = []
+        List<VmNicSecurityGroupRefVO> refs = []
+        long firstIp = NetworkUtils.ipv4StringToLong("10.10.0.1")
+        for (int i = 0; i < num; i++) {
+            String ip = NetworkUtils.longToIpv4String(firstIp + i)
+
+            def nic = new VmNicVO()
+            nic.uuid = Platform.getUuid()
+            nic.vmInstanceUuid = vm.uuid
+            nic.l3NetworkUuid = l3Net.uuid
+            nic.ip = ip
+            nic.netmask = "255.0.0.0"
+            nic.ipVersion = 4
+            nic.mac = String.format("fa:%02x:%02x:%02x:%02x:%02x", 0x10, (i >> 24) & 0xff, (i >> 16) & 0xff, (i >> 8) & 0xff, i & 0xff)
+            nic.hypervisorType = vm.hypervisorType
+            nic.deviceId = i + 1
+            nic.internalName = "bench${i}".toString()
+            nic.type = "VNIC"
+            nics.add(nic)
+            nicUuids.add(nic.uuid)
+
+            def usedIp = new UsedIpVO()
+            usedIp.uuid = Platform.getUuid()
+            usedIp.ipRangeUuid = l3Net.ipRanges[0].uuid
+            usedIp.l3NetworkUuid = l3Net.uuid
+            usedIp.vmNicUuid = nic.uuid
+            usedIp.ipVersion = 4
+            usedIp.ip = ip
+            usedIp.ipInLong = firstIp + i
+            usedIp.netmask = "255.0.0.0"
+            usedIp.gateway = l3Net.ipRanges[0].gateway
+            ips.add(usedIp)
+
+            def ref = new VmNicSecurityGroupRefVO()
+            ref.uuid = Platform.getUuid()
+            ref.vmNicUuid = nic.uuid
+            ref.vmInstanceUuid = vm.uuid
+            ref.securityGroupUuid = sg.uuid
+            refs.add(ref)
+        }
+
+        Lists.partition(nics, 1000).each { dbf.persistCollection(it) }
+        Lists.partition(ips, 1000).each { dbf.persistCollection(it) }
+        Lists.partition(refs, 1000).each { dbf.persistCollection(it) }
+        return nicUuids
+    }
+
+    void removeBulkMembers(List<String> nicUuids) {
+        Lists.partition(nicUuids, 1000).each { uuids ->
+            SQL.New(VmNicSecurityGroupRefVO.class).in(VmNicSecurityGroupRefVO_.vmNicUuid, uuids).hardDelete()
+            SQL.New(UsedIpVO.class).in(UsedIpVO_.vmNicUuid, uuids).hardDelete()
+            SQL.New(VmNicVO.class).in(VmNicVO_.uuid, uuids).hardDelete()
+        }
+    }
+
+    /**
+     * stops vm2 and adds num nics of it to the group, returns uuids of the nics
+     */
+    List<String> prepareBulkMembers(int num) {
+        vm2 = stopVmInstance {
+            uuid = vm2.uuid
+        } as VmInstanceInventory
+        // vm4 shares the host with vm3, the host keeps having nics in the group
+        hostUuids = [vm1.hostUuid, vm3.hostUuid]
+
+        return addBulkMembers(vm2, num)
+    }
+
+    /**
+     * adds a nic to the group and removes it, returns bytes of member updates received by hosts
+     */
+    long addAndRemoveNic(int rounds) {
+        receivedBytes = 0
+        rounds.times {
+            addNic(vm4)
+            assertConverged()
+            removeNic(vm4)
+            assertConverged()
+        }
+        return receivedBytes
+    }
+
+    void testMemberUpdateBytes() {
+        int rounds = 5
+        List<String> bulkNicUuids = prepareBulkMembers(10000)
+        try {
+            SecurityGroupGlobalProperty.MEMBER_DELTA_ENABLE = false
+            long full = addAndRemoveNic(rounds)
+
+            SecurityGroupGlobalProperty.MEMBER_DELTA_ENABLE = true
+            // hosts are resynced in full once, as full updates above don't carry generations
+            addAndRemoveNic(1)
+            long delta = addAndRemoveNic(rounds)
+
+            assert delta * 100 < full
+        } finally {
+            removeBulkMembers(bulkNicUuids)
+        }
+    }
+}
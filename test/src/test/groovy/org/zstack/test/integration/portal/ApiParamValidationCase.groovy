@@ -0,0 +1,202 @@
+package org.zstack.test.integration.portal
+
+import org.zstack.core.Platform
+import org.zstack.header.apimediator.ApiMessageInterceptionException
+import org.zstack.header.message.APIMessage
+import org.zstack.header.message.ApiMessageParamValidator
+import org.zstack.header.message.ApiMessageValidator
+import org.zstack.header.message.CompiledApiParam
+import org.zstack.header.zone.APIUpdateZoneMsg
+import org.zstack.portal.apimediator.PortApiValidator
+import org.zstack.sdk.ZoneInventory
+import org.zstack.test.integration.ZStackTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+
+import java.lang.reflect.Modifier
+
+class ApiParamValidationCase extends SubCase {
+    EnvSpec env
+    ZoneInventory zone
+    ApiMessageParamValidator paramValidator = new ApiMessageParamValidator()
+
+    @Override
+    void clean() {
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(ZStackTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = env {
+            zone {
+                name = "zone"
+            }
+        }
+    }
+
+    @Override
+    void test() {
+        env.create {
+            zone = env.inventoryByName("zone") as ZoneInventory
+
+            testCompiledChecks()
+            testResourceChecks()
+        }
+    }
+
+    /**
+     * validates by reading fields and annotations on every message, calling validators field by field
+     * as before params are compiled
+     */
+    void validateByReflection(APIMessage msg) {
+        APIMessage.getApiParams().get(msg.getClass()).each { fp ->
+            fp.field.setAccessible(true)
+            Object value = fp.field.get(msg)
+            if (value instanceof String && !fp.param.noTrim()) {
+                value = ((String) value).trim()
+                fp.field.set(msg, value)
+            }
+            paramValidator.validate(msg, fp.field, value, fp.param)
+        }
+    }
+
+    static String errorOf(Closure c) {
+        try {
+            c()
+            return null
+        } catch (APIMessage.InvalidApiMessageException e) {
+            return String.format(e.message, e.arguments)
+        }
+    }
+
+    /**
+     * fills params with valid values, null if the message can't be filled without
+     * resources or regex values
+     */
+    static APIMessage newValidMessage(Class clz) {
+        APIMessage msg = clz.newInstance() as APIMessage
+        for (APIMessage.FieldParam fp : APIMessage.getApiParams().get(clz)) {
+            CompiledApiParam p = fp.compiled
+            if (p.resourceType != null || p.validRegex != null) {
+                return null
+            }
+
+            Object value = null
+            if (p.validValues != null) {
+                value = p.validValues.first()
+            } else if (p.type == String.class) {
+                int len = p.maxLength == Integer.MIN_VALUE ? 8 : Math.min(8, p.maxLength)
+                value = "v" * Math.max(len, Math.max(p.minLength, 1))
+            } else if ((p.type == Integer.class || p.type == Long.class) && p.numberRange.length == 2) {
+                value = p.type == Integer.class ? (int) p.numberRange[0] : p.numberRange[0]
+            } else if (p.required && !p.type.isPrimitive()) {
+                return null
+            }
+
+            if (value != null && p.type.isInstance(value)) {
+                fp.set(msg, value)
+            } else if (value != null) {
+                return null
+            }
+        }
+
+        return msg
+    }
+
+    /**
+     * API classes with most params, which can be filled with valid values
+     */
+    static List<Class> apiClassesToValidate(int num) {
+        return APIMessage.getApiParams().keySet()
+                .findAll { !Modifier.isAbstract(it.modifiers) }
+                .sort { a, b -> APIMessage.getApiParams().get(b).size() <=> APIMessage.getApiParams().get(a).size() ?: a.name <=> b.name }
+                .findAll {
+                    try {
+                        return newValidMessage(it) != null
+                    } catch (InstantiationException | IllegalAccessException ignored) {
+                        return false
+                    }
+                }
+                .take(num)
+    }
+
+    void testCompiledChecks() {
+        List<Class> classes = apiClassesToValidate(100)
+        assert !classes.isEmpty()
+
+        List<ApiMessageValidator> validators = [paramValidator]
+        classes.each { clz ->
+            assert errorOf { newValidMessage(clz).validate(validators) } == null
+            assert errorOf { validateByReflection(newValidMessage(clz)) } == null
+
+            // every param broken in turn fails the same way as before
+            APIMessage.getApiParams().get(clz).each { fp ->
+                CompiledApiParam p = fp.compiled
+                List<Object> invalids = []
+                if (p.required && !p.type.isPrimitive()) {
+                    invalids.add(null)
+                }
+                if (p.type == String.class) {
+                    invalids.add(p.validValues != null ? "invalid-value" : "")
+                    if (p.maxLength != Integer.MIN_VALUE && p.maxLength < 4096) {
+                        invalids.add("v" * (p.maxLength + 1))
+                    }
+                }
+                if ((p.type == Integer.class || p.type == Long.class) && p.numberRange.length == 2 && p.numberRange[0] > Integer.MIN_VALUE) {
+                    invalids.add(p.type == Integer.class ? (int) (p.numberRange[0] - 1) : p.numberRange[0] - 1)
+                }
+
+                invalids.each { invalid ->
+                    APIMessage m1 = newValidMessage(clz)
+                    fp.set(m1, invalid)
+                    APIMessage m2 = newValidMessage(clz)
+                    fp.set(m2, invalid)
+
+                    assert errorOf { m1.validate(validators) } == errorOf { validateByReflection(m2) }
+                }
+            }
+        }
+
+        // strings are trimmed as before
+        def msg = new APIUpdateZoneMsg()
+        msg.uuid = zone.uuid
+        msg.name = "  zone  "
+        msg.validate(validators)
+        assert msg.name == "zone"
+    }
+
+    void testResourceChecks() {
+        List<ApiMessageValidator> validators = [paramValidator, bean(PortApiValidator.class)]
+
+        def msg = new APIUpdateZoneMsg()
+        msg.uuid = zone.uuid
+        msg.validate(validators)
+
+        // found by the database regardless of case
+        msg.uuid = zone.uuid.toUpperCase()
+        msg.validate(validators)
+
+        msg.uuid = Platform.getUuid()
+        expect(ApiMessageInterceptionException.class) {
+            msg.validate(validators)
+        }
+
+        // through the API
+        expect(AssertionError.class) {
+            updateZone {
+                uuid = Platform.getUuid()
+                name = "new-name"
+            }
+        }
+
+        updateZone {
+            uuid = zone.uuid
+            name = "new-name"
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package org.zstack.test.integration.rest
+
+import org.zstack.core.Platform
+import org.zstack.core.db.DatabaseFacade
+import org.zstack.core.db.SQL
+import org.zstack.header.zone.ZoneVO
+import org.zstack.header.zone.ZoneVO_
+import org.zstack.rest.RestGlobalProperty
+import org.zstack.sdk.ApiException
+import org.zstack.sdk.QueryIterator
+import org.zstack.sdk.QueryZoneAction
+import org.zstack.sdk.ZSClient
+import org.zstack.sdk.ZoneInventory
+import org.zstack.test.integration.ZStackTest
+import org.zstack.testlib.SubCase
+
+import java.sql.Timestamp
+
+class QueryStreamCase extends SubCase {
+    DatabaseFacade dbf
+    List<String> zoneUuids = []
+
+    @Override
+    void clean() {
+        if (!zoneUuids.isEmpty()) {
+            SQL.New(ZoneVO.class).in(ZoneVO_.uuid, zoneUuids).hardDelete()
+        }
+    }
+
+    @Override
+    void setup() {
+        useSpring(ZStackTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+    }
+
+    @Override
+    void test() {
+        dbf = bean(DatabaseFacade.class)
+
+        // every 3 zones share a create date
+        List<ZoneVO> zones = []
+        long now = System.currentTimeMillis()
+        50.times { i ->
+            def zone = new ZoneVO()
+            zone.uuid = Platform.getUuid()
+            zone.name = "zone-${i}".toString()
+            zone.type = "zstack"
+            zone.createDate = new Timestamp(now - (i / 3 as int) * 1000L)
+            zones.add(zone)
+        }
+        dbf.persistCollection(zones)
+        zoneUuids.addAll(zones*.uuid)
+
+        int pageSize = RestGlobalProperty.QUERY_STREAM_PAGE_SIZE
+        RestGlobalProperty.QUERY_STREAM_PAGE_SIZE = 4
+        try {
+            testStreamByUuid()
+            testStreamByCreateDate()
+            testStreamWithLimit()
+            testUnsupportedParameters()
+        } finally {
+            RestGlobalProperty.QUERY_STREAM_PAGE_SIZE = pageSize
+        }
+    }
+
+    QueryZoneAction newAction() {
+        def a = new QueryZoneAction()
+        a.sessionId = adminSession()
+        a.conditions = ["name~=zone-%"]
+        return a
+    }
+
+    static List<ZoneInventory> iterate(QueryZoneAction a) {
+        List<ZoneInventory> ret = []
+        QueryIterator<ZoneInventory> it = ZSClient.iterate(a, ZoneInventory.class)
+        try {
+            it.each { ret.add(it) }
+        } finally {
+            it.close()
+        }
+        return ret
+    }
+
+    void testStreamByUuid() {
+        List<ZoneInventory> invs = iterate(newAction())
+        assert invs*.uuid == zoneUuids.toSorted()
+        assert invs.every { it instanceof ZoneInventory && it.name.startsWith("zone-") }
+
+        def a = newAction()
+        a.sortBy = "uuid"
+        a.sortDirection = "desc"
+        assert iterate(a)*.uuid == zoneUuids.toSorted().reverse()
+    }
+
+    void testStreamByCreateDate() {
+        def a = newAction()
+        a.sortBy = "createDate"
+        a.sortDirection = "desc"
+        List<ZoneInventory> invs = iterate(a)
+
+        // every zone is streamed once, zones sharing a create date are not lost across pages
+        assert invs.size() == zoneUuids.size()
+        assert invs*.uuid.toSet() == zoneUuids.toSet()
+        List<Long> dates = invs.collect { it.createDate.time }
+        assert dates == dates.toSorted().reverse()
+
+        a.sortDirection = "asc"
+        dates = iterate(a).collect { it.createDate.time }
+        assert dates.size() == zoneUuids.size()
+        assert dates == dates.toSorted()
+    }
+
+    void testStreamWithLimit() {
+        def a = newAction()
+        a.limit = 10
+        assert iterate(a)*.uuid == zoneUuids.toSorted().take(10)
+
+        // stop early
+        QueryIterator<ZoneInventory> it = ZSClient.iterate(newAction(), ZoneInventory.class)
+        assert it.next().uuid == zoneUuids.toSorted()[0]
+        it.close()
+        assert !it.hasNext()
+    }
+
+    void testUnsupportedParameters() {
+        def a = newAction()
+        a.start = 10
+        expect(ApiException.class) {
+            ZSClient.iterate(a, ZoneInventory.class)
+        }
+
+        a = newAction()
+        a.sortBy = "name"
+        expect(ApiException.class) {
+            ZSClient.iterate(a, ZoneInventory.class)
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package org.zstack.test.integration.rest
+
+import org.zstack.core.db.SQL
+import org.zstack.header.zone.ZoneVO
+import org.zstack.header.zone.ZoneVO_
+import org.zstack.sdk.ApiException
+import org.zstack.sdk.ApiResult
+import org.zstack.sdk.CreateZoneAction
+import org.zstack.sdk.CreateZoneResult
+import org.zstack.sdk.QueryZoneAction
+import org.zstack.sdk.QueryZoneResult
+import org.zstack.sdk.ZQLBatcher
+import org.zstack.sdk.ZQLQueryReturn
+import org.zstack.sdk.ZSClient
+import org.zstack.sdk.ZSConfig
+import org.zstack.test.integration.ZStackTest
+import org.zstack.testlib.SubCase
+import org.zstack.testlib.WebBeanConstructor
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+import java.util.concurrent.TimeUnit
+
+class SdkAsyncCallCase extends SubCase {
+    static final int CALLS = 50
+
+    @Override
+    void clean() {
+        SQL.New(ZoneVO.class).like(ZoneVO_.name, "sdk-async-%").hardDelete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(ZStackTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+    }
+
+    @Override
+    void test() {
+        testCallAsyncByWebHook()
+        testCallAsyncByPolling()
+        testErrors()
+        testZQLBatch()
+    }
+
+    CreateZoneAction createZoneAction(String name) {
+        def a = new CreateZoneAction()
+        a.name = name
+        a.sessionId = adminSession()
+        return a
+    }
+
+    void createZonesAsync(String prefix) {
+        List<CompletableFuture<CreateZoneResult>> futures = (0..<CALLS).collect { i ->
+            ZSClient.callAsync(createZoneAction("${prefix}-async-${i}".toString()), CreateZoneResult.class)
+        }
+        CompletableFuture.allOf(futures as CompletableFuture[]).get(1, TimeUnit.MINUTES)
+
+        assert futures.collect { it.get().inventory.name }.toSet() ==
+                (0..<CALLS).collect { "${prefix}-async-${it}".toString() }.toSet()
+    }
+
+    void createZonesSync(String prefix) {
+        CALLS.times { i ->
+            ApiResult res = ZSClient.call(createZoneAction("${prefix}-sync-${i}".toString()))
+            assert res.error == null
+            assert res.getResult(CreateZoneResult.class).inventory.name == "${prefix}-sync-${i}".toString()
+        }
+    }
+
+    // runs the closure with results of APIs polled rather than sent by the web hook
+    static void withPolling(Closure c) {
+        ZSConfig config = ZSClient.config
+
+        ZSClient.configure(
+                new ZSConfig.Builder()
+                        .setHostname("127.0.0.1")
+                        .setPort(WebBeanConstructor.port)
+                        .setDefaultPollingInterval(100, TimeUnit.MILLISECONDS)
+                        .setDefaultPollingTimeout(1, TimeUnit.MINUTES)
+                        .setReadTimeout(10, TimeUnit.MINUTES)
+                        .setWriteTimeout(10, TimeUnit.MINUTES)
+                        .build()
+        )
+
+        try {
+            c()
+        } finally {
+            ZSClient.configure(config)
+        }
+    }
+
+    void testCallAsyncByWebHook() {
+        createZonesAsync("sdk-async-hook")
+        createZonesSync("sdk-async-hook")
+
+        // results of APIs answered at once complete the future too
+        def q = new QueryZoneAction()
+        q.conditions = ["name~=sdk-async-hook-async-%"]
+        q.sessionId = adminSession()
+        QueryZoneResult result = ZSClient.callAsync(q, QueryZoneResult.class).get(1, TimeUnit.MINUTES)
+        assert result.inventories.size() == CALLS
+    }
+
+    void testCallAsyncByPolling() {
+        withPolling {
+            createZonesAsync("sdk-async-poll")
+            createZonesSync("sdk-async-poll")
+        }
+    }
+
+    static Throwable causeOf(CompletableFuture future) {
+        try {
+            future.join()
+        } catch (CompletionException e) {
+            return e.cause
+        }
+
+        assert false : "the future is expected to complete exceptionally"
+    }
+
+    void testErrors() {
+        // parameters checked before sending
+        def a = new CreateZoneAction()
+        a.sessionId = adminSession()
+        assert causeOf(ZSClient.callAsync(a)) instanceof ApiException
+
+        // errors of the API
+        def q = new QueryZoneAction()
+        q.conditions = ["noSuchField=1"]
+        q.sessionId = adminSession()
+        ApiResult res = ZSClient.callAsync(q).get(1, TimeUnit.MINUTES)
+        assert res.error != null
+        assert causeOf(ZSClient.callAsync(q, QueryZoneResult.class)) instanceof ApiException
+    }
+
+    void testZQLBatch() {
+        List<String> names = (0..<10).collect { "sdk-async-hook-async-${it}".toString() }
+
+        // a full batch is sent at once
+        ZQLBatcher batcher = new ZQLBatcher(adminSession(), names.size(), TimeUnit.MINUTES.toMillis(1))
+        List<CompletableFuture<ZQLQueryReturn>> futures = names.collect { batcher.query("query zone where name='${it}'".toString()) }
+        names.eachWithIndex { String name, int i ->
+            ZQLQueryReturn ret = futures[i].get(1, TimeUnit.MINUTES)
+            assert ret.inventories.size() == 1
+            assert ret.inventories[0].name == name
+        }
+
+        // a partial batch is sent after the linger
+        batcher = new ZQLBatcher(adminSession(), 100, 50)
+        CompletableFuture<ZQLQueryReturn> count = batcher.query("count zone where name like 'sdk-async-hook-async-%';")
+        CompletableFuture<ZQLQueryReturn> one = batcher.query("query zone where name='${names[0]}'".toString())
+        assert count.get(1, TimeUnit.MINUTES).total == CALLS
+        assert one.get(1, TimeUnit.MINUTES).inventories[0].name == names[0]
+
+        // a failed statement fails only its own caller
+        batcher = new ZQLBatcher(adminSession(), 3, TimeUnit.MINUTES.toMillis(1))
+        CompletableFuture<ZQLQueryReturn> good = batcher.query("query zone where name='${names[0]}'".toString())
+        CompletableFuture<ZQLQueryReturn> bad = batcher.query("query noSuchResource")
+        CompletableFuture<ZQLQueryReturn> good2 = batcher.query("query zone where name='${names[1]}'".toString())
+        assert causeOf(bad) instanceof ApiException
+        assert good.get(1, TimeUnit.MINUTES).inventories[0].name == names[0]
+        assert good2.get(1, TimeUnit.MINUTES).inventories[0].name == names[1]
+    }
+}
@@ -0,0 +1,311 @@
+package org.zstack.test.integration.storage.primary.ceph
+
+import org.springframework.http.HttpEntity
+import org.zstack.core.db.Q
+import org.zstack.sdk.PrimaryStorageInventory
+import org.zstack.sdk.VmInstanceInventory
+import org.zstack.storage.ceph.CephGlobalProperty
+import org.zstack.storage.ceph.CephMonHealthJMX
+import org.zstack.storage.ceph.CephMonHealthRegistry
+import org.zstack.storage.ceph.CephMonHealthStatistic
+import org.zstack.storage.ceph.primary.CephPrimaryStorageBase
+import org.zstack.storage.ceph.primary.CephPrimaryStorageMonVO
+import org.zstack.storage.ceph.primary.CephPrimaryStorageMonVO_
+import org.zstack.test.integration.storage.StorageTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+import org.zstack.utils.data.SizeUnit
+import org.zstack.utils.gson.JSONObjectUtil
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class CephMonHealthCase extends SubCase {
+    EnvSpec env
+    PrimaryStorageInventory ps
+    VmInstanceInventory vm
+
+    // mon uuids by hostname
+    Map<String, String> monUuids = [:]
+    // calls of getting volume size received by mons, by hostname
+    Map<String, AtomicInteger> received = new ConcurrentHashMap<>()
+
+    @Override
+    void clean() {
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(StorageTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = env {
+            instanceOffering {
+                name = "instanceOffering"
+                memory = SizeUnit.GIGABYTE.toByte(8)
+                cpu = 4
+            }
+            diskOffering {
+                name = "diskOffering"
+                diskSize = SizeUnit.GIGABYTE.toByte(20)
+            }
+            zone {
+                name = "zone"
+                cluster {
+                    name = "test-cluster"
+                    hypervisorType = "KVM"
+
+                    kvm {
+                        name = "ceph-mon"
+                        managementIp = "localhost"
+                        username = "root"
+                        password = "password"
+                        usedMem = 1000
+                        totalCpu = 10
+                    }
+                    attachPrimaryStorage("ceph-pri")
+                    attachL2Network("l2")
+                }
+                l2NoVlanNetwork {
+                    name = "l2"
+                    physicalInterface = "eth0"
+
+                    l3Network {
+                        name = "l3"
+                        ip {
+                            startIp = "192.168.100.10"
+                            endIp = "192.168.100.100"
+                            netmask = "255.255.255.0"
+                            gateway = "192.168.100.1"
+                        }
+                    }
+                }
+
+                cephPrimaryStorage {
+                    name = "ceph-pri"
+                    description = "Test"
+                    totalCapacity = SizeUnit.GIGABYTE.toByte(100)
+                    availableCapacity = SizeUnit.GIGABYTE.toByte(100)
+                    url = "ceph://pri"
+                    fsid = "7ff218d9-f525-435f-8a40-3618d1772a64"
+                    monUrls = ["root:password@localhost/?monPort=7777",
+                               "root:password@127.0.0.3/?monPort=7777",
+                               "root:password@127.0.0.4/?monPort=7777"]
+                }
+
+                attachBackupStorage("ceph-bk")
+            }
+
+            cephBackupStorage {
+                name = "ceph-bk"
+                description = "Test"
+                totalCapacity = SizeUnit.GIGABYTE.toByte(100)
+                availableCapacity = SizeUnit.GIGABYTE.toByte(100)
+                url = "/bk"
+                fsid = "7ff218d9-f525-435f-8a40-3618d1772a64"
+                monUrls = ["root:password@localhost/?monPort=7777"]
+
+                image {
+                    name = "image"
+                    url = "http://zstack.org/download/image.qcow2"
+                }
+            }
+
+            vm {
+                name = "test-vm"
+                useCluster("test-cluster")
+                useHost("ceph-mon")
+                useL3Networks("l3")
+                useInstanceOffering("instanceOffering")
+                useRootDiskOffering("diskOffering")
+                useImage("image")
+            }
+        }
+    }
+
+    @Override
+    void test() {
+        env.create {
+            ps = env.inventoryByName("ceph-pri") as PrimaryStorageInventory
+            vm = env.inventoryByName("test-vm") as VmInstanceInventory
+
+            Q.New(CephPrimaryStorageMonVO.class)
+                    .eq(CephPrimaryStorageMonVO_.primaryStorageUuid, ps.uuid)
+                    .list()
+                    .each { CephPrimaryStorageMonVO mon -> monUuids[mon.hostname] = mon.uuid }
+
+            testCallsAvoidSlowMon()
+            testCircuitBreaker()
+            testHedgedCall()
+            testHedgedCallAfterFirstMonFails()
+            testNoHedgedCallAfterFirstMonFails()
+            testStatisticsByJmx()
+        }
+    }
+
+    // the simulator answers after the delay of the mon in milliseconds, or fails if the delay is negative.
+    // mons in agentErrors answer with an error of the agent
+    void simulateMons(Map<String, Long> delays, Set<String> agentErrors = [] as Set) {
+        received.clear()
+
+        env.afterSimulator(CephPrimaryStorageBase.GET_VOLUME_SIZE_PATH) { rsp, HttpEntity<String> e ->
+            String monIp = JSONObjectUtil.toObject(e.body, LinkedHashMap.class).monIp
+            received.computeIfAbsent(monIp, { new AtomicInteger() }).incrementAndGet()
+
+            long delay = delays.getOrDefault(monIp, 0L)
+            if (delay < 0) {
+                throw new Exception("on purpose")
+            }
+
+            TimeUnit.MILLISECONDS.sleep(delay)
+            if (agentErrors.contains(monIp)) {
+                rsp.setError("on purpose")
+            }
+            return rsp
+        }
+    }
+
+    int receivedBy(String hostname) {
+        return received.getOrDefault(hostname, new AtomicInteger()).get()
+    }
+
+    void syncVolumeSizeTimes(int times) {
+        times.times {
+            syncVolumeSize {
+                uuid = vm.rootVolumeUuid
+            }
+        }
+    }
+
+    void testCallsAvoidSlowMon() {
+        CephMonHealthRegistry.forgetStorage(ps.uuid)
+        simulateMons(["127.0.0.4": 500L])
+
+        // mons without samples are probed first
+        syncVolumeSizeTimes(30)
+        assert receivedBy("127.0.0.4") > 0
+
+        received.clear()
+        syncVolumeSizeTimes(20)
+        assert receivedBy("127.0.0.4") == 0
+        // calls still spread over mons answering equally fast
+        assert receivedBy("localhost") > 0
+        assert receivedBy("127.0.0.3") > 0
+
+        env.cleanAfterSimulatorHandlers()
+    }
+
+    void testCircuitBreaker() {
+        CephMonHealthRegistry.forgetStorage(ps.uuid)
+        simulateMons(["127.0.0.3": -1L])
+
+        // calls fail over to other mons
+        syncVolumeSizeTimes(10)
+        CephMonHealthStatistic statistic = CephMonHealthRegistry.getStatistics()[monUuids["127.0.0.3"]]
+        assert (statistic?.failures ?: 0) == receivedBy("127.0.0.3")
+
+        // the mon keeps failing
+        CephGlobalProperty.MON_CIRCUIT_BREAKER_FAILURE_THRESHOLD.times {
+            CephMonHealthRegistry.record(ps.uuid, monUuids["127.0.0.3"], "127.0.0.3", 1, false)
+        }
+        assert CephMonHealthRegistry.getStatistics()[monUuids["127.0.0.3"]].circuitOpen
+
+        received.clear()
+        syncVolumeSizeTimes(10)
+        assert receivedBy("127.0.0.3") == 0
+
+        // the mon answers again
+        CephMonHealthRegistry.record(ps.uuid, monUuids["127.0.0.3"], "127.0.0.3", 1, true)
+        assert !CephMonHealthRegistry.getStatistics()[monUuids["127.0.0.3"]].circuitOpen
+
+        env.cleanAfterSimulatorHandlers()
+    }
+
+    void testHedgedCall() {
+        long minDelay = CephGlobalProperty.MON_HEDGE_MIN_DELAY
+        CephGlobalProperty.MON_HEDGE_MIN_DELAY = 200
+
+        try {
+            // localhost is the best mon but doesn't answer in its usual time this time
+            CephMonHealthRegistry.forgetStorage(ps.uuid)
+            CephMonHealthRegistry.record(ps.uuid, monUuids["localhost"], "localhost", 1, true)
+            CephMonHealthRegistry.record(ps.uuid, monUuids["127.0.0.3"], "127.0.0.3", 50, true)
+            CephMonHealthRegistry.record(ps.uuid, monUuids["127.0.0.4"], "127.0.0.4", 50, true)
+            simulateMons(["localhost": 3000L])
+
+            long start = System.currentTimeMillis()
+            syncVolumeSizeTimes(1)
+            long cost = System.currentTimeMillis() - start
+
+            assert receivedBy("localhost") == 1
+            assert receivedBy("127.0.0.3") + receivedBy("127.0.0.4") == 1
+            assert cost < 3000
+        } finally {
+            CephGlobalProperty.MON_HEDGE_MIN_DELAY = minDelay
+            env.cleanAfterSimulatorHandlers()
+        }
+    }
+
+    void rankMons() {
+        // localhost is the best mon, and the hedged call goes to another mon
+        CephMonHealthRegistry.forgetStorage(ps.uuid)
+        CephMonHealthRegistry.record(ps.uuid, monUuids["localhost"], "localhost", 1, true)
+        CephMonHealthRegistry.record(ps.uuid, monUuids["127.0.0.3"], "127.0.0.3", 50, true)
+        CephMonHealthRegistry.record(ps.uuid, monUuids["127.0.0.4"], "127.0.0.4", 50, true)
+    }
+
+    void testHedgedCallAfterFirstMonFails() {
+        long minDelay = CephGlobalProperty.MON_HEDGE_MIN_DELAY
+        CephGlobalProperty.MON_HEDGE_MIN_DELAY = 200
+
+        try {
+            // localhost fails while the hedged call is still running, which completes the call
+            rankMons()
+            simulateMons(["localhost": 400L, "127.0.0.3": 600L, "127.0.0.4": 600L], ["localhost"] as Set)
+
+            syncVolumeSizeTimes(1)
+
+            assert receivedBy("localhost") == 1
+            assert receivedBy("127.0.0.3") + receivedBy("127.0.0.4") == 1
+        } finally {
+            CephGlobalProperty.MON_HEDGE_MIN_DELAY = minDelay
+            env.cleanAfterSimulatorHandlers()
+        }
+    }
+
+    void testNoHedgedCallAfterFirstMonFails() {
+        long minDelay = CephGlobalProperty.MON_HEDGE_MIN_DELAY
+        CephGlobalProperty.MON_HEDGE_MIN_DELAY = 200
+
+        try {
+            // localhost fails before the hedge delay, the call failing over to the next mon is not hedged
+            rankMons()
+            simulateMons(["localhost": -1L, "127.0.0.3": 600L, "127.0.0.4": 600L])
+
+            syncVolumeSizeTimes(1)
+            TimeUnit.MILLISECONDS.sleep(500)
+
+            assert receivedBy("localhost") == 1
+            assert receivedBy("127.0.0.3") + receivedBy("127.0.0.4") == 1
+        } finally {
+            CephGlobalProperty.MON_HEDGE_MIN_DELAY = minDelay
+            env.cleanAfterSimulatorHandlers()
+        }
+    }
+
+    void testStatisticsByJmx() {
+        CephMonHealthRegistry.forgetStorage(ps.uuid)
+        syncVolumeSizeTimes(10)
+
+        Map<String, CephMonHealthStatistic> statistics = bean(CephMonHealthJMX.class).getMonHealthStatistics()
+        CephMonHealthStatistic statistic = statistics.values().find { it.storageUuid == ps.uuid }
+        assert statistic != null
+        assert monUuids.values().contains(statistic.monUuid)
+        assert statistic.samples > 0
+        assert !statistic.circuitOpen
+    }
+}
@@ -0,0 +1,252 @@
+package org.zstack.test.integration.storage.primary.local
+
+import org.zstack.core.Platform
+import org.zstack.core.db.DatabaseFacade
+import org.zstack.core.db.Q
+import org.zstack.core.db.SQL
+import org.zstack.header.allocator.HostAllocatorSpec
+import org.zstack.header.errorcode.OperationFailureException
+import org.zstack.header.host.HostState
+import org.zstack.header.host.HostStatus
+import org.zstack.header.host.HostVO
+import org.zstack.header.host.HostVO_
+import org.zstack.header.vm.VmInstanceConstant
+import org.zstack.header.vm.VmInstanceInventory
+import org.zstack.sdk.ClusterInventory
+import org.zstack.sdk.PrimaryStorageInventory
+import org.zstack.storage.primary.local.LocalStorageAllocatorFactory
+import org.zstack.storage.primary.local.LocalStorageCapacityUpdater
+import org.zstack.storage.primary.local.LocalStorageGlobalProperty
+import org.zstack.storage.primary.local.LocalStorageHostCapacityCache
+import org.zstack.storage.primary.local.LocalStorageHostRefVO
+import org.zstack.storage.primary.local.LocalStorageHostRefVO_
+import org.zstack.storage.primary.local.LocalStorageKvmBackend
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+import org.zstack.utils.data.SizeUnit
+
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+
+class LocalStorageHostCapacityCacheCase extends SubCase {
+    EnvSpec env
+    DatabaseFacade dbf
+    LocalStorageAllocatorFactory factory
+    PrimaryStorageInventory ps
+    ClusterInventory cluster
+    List<String> hostUuids = []
+
+    long diskSize = SizeUnit.GIGABYTE.toByte(100)
+
+    @Override
+    void clean() {
+        if (!hostUuids.isEmpty()) {
+            SQL.New(LocalStorageHostRefVO.class).in(LocalStorageHostRefVO_.hostUuid, hostUuids).hardDelete()
+            SQL.New(HostVO.class).in(HostVO_.uuid, hostUuids).hardDelete()
+            LocalStorageHostCapacityCache.invalidate(null)
+        }
+
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        spring {
+            localStorage()
+            kvm()
+        }
+    }
+
+    @Override
+    void environment() {
+        env = env {
+            zone {
+                name = "zone"
+
+                cluster {
+                    name = "cluster"
+                    hypervisorType = "KVM"
+
+                    attachPrimaryStorage("local")
+                }
+
+                localPrimaryStorage {
+                    name = "local"
+                    url = "/local_ps"
+                }
+            }
+        }
+    }
+
+    @Override
+    void test() {
+        env.create {
+            prepare()
+
+            testFilterByCachedCapacities()
+            testCapacityChanges()
+            testConcurrentAllocations()
+        }
+    }
+
+    void prepare() {
+        dbf = bean(DatabaseFacade.class)
+        factory = bean(LocalStorageAllocatorFactory.class)
+        ps = env.inventoryByName("local") as PrimaryStorageInventory
+        cluster = env.inventoryByName("cluster") as ClusterInventory
+    }
+
+    /**
+     * every 10th host doesn't have capacity for the disk
+     */
+    List<HostVO> createHosts(int num) {
+        List<HostVO> hosts = []
+        List<LocalStorageHostRefVO> refs = []
+        num.times { i ->
+            int n = hostUuids.size() + i
+            def host = new HostVO()
+            host.uuid = Platform.getUuid()
+            host.name = "host-${i}".toString()
+            host.zoneUuid = cluster.zoneUuid
+            host.clusterUuid = cluster.uuid
+            host.managementIp = "10.${n >> 16 & 0xff}.${n >> 8 & 0xff}.${n & 0xff}".toString()
+            host.hypervisorType = "KVM"
+            host.state = HostState.Enabled
+            host.status = HostStatus.Connected
+            hosts.add(host)
+
+            def ref = new LocalStorageHostRefVO()
+            ref.hostUuid = host.uuid
+            ref.primaryStorageUuid = ps.uuid
+            ref.totalCapacity = SizeUnit.TERABYTE.toByte(1)
+            ref.availableCapacity = i % 10 == 0 ? SizeUnit.GIGABYTE.toByte(1) : SizeUnit.GIGABYTE.toByte(500)
+            ref.totalPhysicalCapacity = ref.totalCapacity
+            ref.availablePhysicalCapacity = ref.totalPhysicalCapacity
+            refs.add(ref)
+        }
+
+        dbf.persistCollection(hosts)
+        dbf.persistCollection(refs)
+        hostUuids.addAll(hosts*.uuid)
+        return Q.New(HostVO.class).in(HostVO_.uuid, hosts*.uuid).list()
+    }
+
+    HostAllocatorSpec newSpec() {
+        def vm = new VmInstanceInventory()
+        vm.uuid = Platform.getUuid()
+
+        def spec = new HostAllocatorSpec()
+        spec.vmOperation = VmInstanceConstant.VmOperation.NewCreate.toString()
+        spec.diskSize = diskSize
+        spec.vmInstance = vm
+        spec.requiredPrimaryStorageUuids = [ps.uuid] as Set
+        return spec
+    }
+
+    List<String> filter(List<HostVO> candidates) {
+        return factory.filterHostCandidates(new ArrayList<>(candidates), newSpec())*.uuid
+    }
+
+    void setAvailableCapacity(String hostUuid, long capacity) {
+        LocalStorageHostRefVO ref = Q.New(LocalStorageHostRefVO.class).eq(LocalStorageHostRefVO_.hostUuid, hostUuid).find()
+        ref.availableCapacity = capacity
+        dbf.update(ref)
+    }
+
+    void testFilterByCachedCapacities() {
+        List<HostVO> hosts = createHosts(20)
+        List<String> expected = Q.New(LocalStorageHostRefVO.class)
+                .select(LocalStorageHostRefVO_.hostUuid)
+                .in(LocalStorageHostRefVO_.hostUuid, hosts*.uuid)
+                .gt(LocalStorageHostRefVO_.availableCapacity, diskSize)
+                .listValues()
+
+        def spec = newSpec()
+        List<String> ret = factory.filterHostCandidates(new ArrayList<>(hosts), spec)*.uuid
+        assert ret.toSet() == expected.toSet()
+        assert ret.size() == 18
+        assert spec.host2PrimaryStorageBlacklist.keySet() == (hosts*.uuid - expected).toSet()
+        assert spec.host2PrimaryStorageBlacklist.values().every { it == [ps.uuid] as Set }
+
+        // the same as filtering by database
+        LocalStorageGlobalProperty.HOST_CAPACITY_CACHE_ENABLE = false
+        try {
+            assert filter(hosts).toSet() == ret.toSet()
+        } finally {
+            LocalStorageGlobalProperty.HOST_CAPACITY_CACHE_ENABLE = true
+        }
+
+        // hosts of other primary storages are not candidates of the local storage
+        assert LocalStorageHostCapacityCache.getCapacities(hosts*.uuid, [Platform.getUuid()]).isEmpty()
+        assert LocalStorageHostCapacityCache.getCapacities([Platform.getUuid()], []).isEmpty()
+    }
+
+    void testCapacityChanges() {
+        List<HostVO> hosts = createHosts(2)
+        String host1 = hosts[0].uuid
+        String host2 = hosts[1].uuid
+
+        // written through the entity manager
+        setAvailableCapacity(host1, SizeUnit.GIGABYTE.toByte(500))
+        setAvailableCapacity(host2, SizeUnit.GIGABYTE.toByte(1))
+        assert filter(hosts) == [host1]
+
+        // physical capacities reported by agents
+        def rsp = new LocalStorageKvmBackend.AgentResponse()
+        rsp.totalCapacity = SizeUnit.TERABYTE.toByte(1)
+        rsp.availableCapacity = 0L
+        new LocalStorageCapacityUpdater().updatePhysicalCapacityByKvmAgentResponse(ps.uuid, host1, rsp)
+        expect(OperationFailureException.class) {
+            filter(hosts)
+        }
+
+        rsp.availableCapacity = SizeUnit.GIGABYTE.toByte(800)
+        new LocalStorageCapacityUpdater().updatePhysicalCapacityByKvmAgentResponse(ps.uuid, host1, rsp)
+        assert filter(hosts) == [host1]
+
+        // changes by SQL are not seen until invalidated
+        SQL.New(LocalStorageHostRefVO.class).eq(LocalStorageHostRefVO_.hostUuid, host2)
+                .set(LocalStorageHostRefVO_.availableCapacity, SizeUnit.GIGABYTE.toByte(500)).update()
+        assert filter(hosts) == [host1]
+        LocalStorageHostCapacityCache.invalidate([host2])
+        assert filter(hosts).toSet() == [host1, host2].toSet()
+
+        // detached hosts are removed from the cache
+        SQL.New(LocalStorageHostRefVO.class).eq(LocalStorageHostRefVO_.hostUuid, host2).hardDelete()
+        LocalStorageHostCapacityCache.invalidate([host2])
+        assert LocalStorageHostCapacityCache.getCapacities([host1, host2], [ps.uuid])*.hostUuid == [host1]
+    }
+
+    void allocateConcurrently(List<HostVO> hosts, int threadNum, int rounds) {
+        ExecutorService pool = Executors.newFixedThreadPool(threadNum)
+        try {
+            List<Future<List<String>>> futures = (1..threadNum).collect {
+                pool.submit({
+                    List<String> ret = null
+                    rounds.times { ret = filter(hosts) }
+                    return ret
+                } as Callable<List<String>>)
+            }
+
+            assert futures*.get().every { it.size() == hosts.size() * 9 / 10 }
+        } finally {
+            pool.shutdownNow()
+        }
+    }
+
+    void testConcurrentAllocations() {
+        List<HostVO> hosts = createHosts(100)
+
+        LocalStorageGlobalProperty.HOST_CAPACITY_CACHE_ENABLE = false
+        try {
+            allocateConcurrently(hosts, 10, 3)
+        } finally {
+            LocalStorageGlobalProperty.HOST_CAPACITY_CACHE_ENABLE = true
+        }
+
+        LocalStorageHostCapacityCache.invalidate(null)
+        allocateConcurrently(hosts, 10, 3)
+    }
+}
@@ -0,0 +1,172 @@
+package org.zstack.test.integration.storage.primary.local
+
+import org.zstack.core.CoreGlobalProperty
+import org.zstack.core.Platform
+import org.zstack.core.db.DatabaseFacade
+import org.zstack.core.db.Q
+import org.zstack.core.db.SQL
+import org.zstack.core.workflow.FlowChainJournal
+import org.zstack.core.workflow.WorkFlowChainState
+import org.zstack.core.workflow.WorkFlowChainVO
+import org.zstack.core.workflow.WorkFlowChainVO_
+import org.zstack.core.workflow.WorkFlowState
+import org.zstack.core.workflow.WorkFlowVO
+import org.zstack.header.managementnode.ManagementNodeInventory
+import org.zstack.header.storage.primary.PrimaryStorageVO
+import org.zstack.header.volume.VolumeStatus
+import org.zstack.header.volume.VolumeVO
+import org.zstack.header.volume.VolumeVO_
+import org.zstack.sdk.KVMHostInventory
+import org.zstack.sdk.PrimaryStorageInventory
+import org.zstack.sdk.VmInstanceInventory
+import org.zstack.storage.primary.local.LocalStorageHostRefVO
+import org.zstack.storage.primary.local.LocalStorageHostRefVO_
+import org.zstack.storage.primary.local.LocalStorageMigrateVolumeRecovery
+import org.zstack.storage.primary.local.LocalStorageUtils
+import org.zstack.test.integration.storage.Env
+import org.zstack.test.integration.storage.StorageTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+import org.zstack.utils.data.SizeUnit
+
+/**
+ * a node taking over the volume migration of a left node rolls it back, or completes it
+ * when the volume reference has been changed to the destination host
+ */
+class LocalStorageMigrateVolumeRecoveryCase extends SubCase {
+    EnvSpec env
+    DatabaseFacade dbf
+    FlowChainJournal journal
+
+    String volumeUuid
+    String srcHostUuid
+    String destHostUuid
+    PrimaryStorageVO ps
+
+    long size = SizeUnit.GIGABYTE.toByte(1)
+    boolean journalEnabled
+
+    @Override
+    void clean() {
+        env.delete()
+        CoreGlobalProperty.FLOW_CHAIN_JOURNAL_ENABLE = journalEnabled
+    }
+
+    @Override
+    void setup() {
+        useSpring(StorageTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = Env.localStorageOneVmEnv()
+    }
+
+    @Override
+    void test() {
+        journalEnabled = CoreGlobalProperty.FLOW_CHAIN_JOURNAL_ENABLE
+        CoreGlobalProperty.FLOW_CHAIN_JOURNAL_ENABLE = true
+
+        env.create {
+            dbf = bean(DatabaseFacade.class)
+            journal = bean(FlowChainJournal.class)
+
+            VmInstanceInventory vm = env.inventoryByName("vm") as VmInstanceInventory
+            volumeUuid = vm.rootVolumeUuid
+            srcHostUuid = vm.hostUuid
+            destHostUuid = ["kvm", "kvm1"].collect { (env.inventoryByName(it) as KVMHostInventory).uuid }.find { it != srcHostUuid }
+            ps = dbf.findByUuid((env.inventoryByName("local") as PrimaryStorageInventory).uuid, PrimaryStorageVO.class)
+
+            testRollbackMigrationNotChangedReference()
+            testCompleteMigrationChangedReference()
+        }
+    }
+
+    long availableCapacity(String hostUuid) {
+        return Q.New(LocalStorageHostRefVO.class).select(LocalStorageHostRefVO_.availableCapacity)
+                .eq(LocalStorageHostRefVO_.hostUuid, hostUuid)
+                .eq(LocalStorageHostRefVO_.primaryStorageUuid, ps.uuid).findValue()
+    }
+
+    VolumeStatus volumeStatus() {
+        return Q.New(VolumeVO.class).select(VolumeVO_.status).eq(VolumeVO_.uuid, volumeUuid).findValue()
+    }
+
+    // the journal of a migration whose node left after completing the flows and starting the interrupted one
+    String journalMigration(List<String> completedFlows, String interruptedFlow) {
+        SQL.New(VolumeVO.class).eq(VolumeVO_.uuid, volumeUuid).set(VolumeVO_.status, VolumeStatus.Migrating).update()
+
+        WorkFlowChainVO chain = new WorkFlowChainVO()
+        chain.uuid = Platform.uuid
+        chain.name = LocalStorageMigrateVolumeRecovery.JOURNAL_NAME
+        chain.owner = Platform.uuid
+        chain.state = WorkFlowChainState.Processing
+        chain.totalWorkFlows = completedFlows.size() + 1
+        chain.currentPosition = 0
+        chain.operationDate = new Date()
+        dbf.persist(chain)
+
+        byte[] context = FlowChainJournal.serializeData([
+                (LocalStorageMigrateVolumeRecovery.VOLUME_UUID): volumeUuid,
+                (LocalStorageMigrateVolumeRecovery.PRIMARY_STORAGE_UUID): ps.uuid,
+                (LocalStorageMigrateVolumeRecovery.SRC_HOST_UUID): srcHostUuid,
+                (LocalStorageMigrateVolumeRecovery.DEST_HOST_UUID): destHostUuid,
+                (LocalStorageMigrateVolumeRecovery.ORIGIN_VOLUME_STATUS): VolumeStatus.Ready,
+                (LocalStorageMigrateVolumeRecovery.REQUIRED_SIZE): size
+        ])
+        (completedFlows + [interruptedFlow]).eachWithIndex { String name, int i ->
+            [WorkFlowState.Processing, WorkFlowState.Done].each { WorkFlowState state ->
+                if (name == interruptedFlow && state == WorkFlowState.Done) {
+                    return
+                }
+
+                WorkFlowVO flow = new WorkFlowVO()
+                flow.chainUuid = chain.uuid
+                flow.position = i + 1
+                flow.name = name
+                flow.state = state
+                flow.context = state == WorkFlowState.Processing ? context : null
+                flow.operationDate = new Date()
+                dbf.persist(flow)
+            }
+        }
+
+        return chain.uuid
+    }
+
+    void leaveNode(String chainUuid) {
+        def inv = new ManagementNodeInventory()
+        inv.uuid = Q.New(WorkFlowChainVO.class).select(WorkFlowChainVO_.owner).eq(WorkFlowChainVO_.uuid, chainUuid).findValue()
+        journal.nodeLeft(inv)
+
+        journal.flush()
+        assert !Q.New(WorkFlowChainVO.class).eq(WorkFlowChainVO_.uuid, chainUuid).isExists()
+    }
+
+    void testRollbackMigrationNotChangedReference() {
+        long destBefore = availableCapacity(destHostUuid)
+        new LocalStorageUtils().reserveCapacityOnHost(destHostUuid, size, ps.uuid, ps, false)
+        assert availableCapacity(destHostUuid) < destBefore
+
+        leaveNode(journalMigration(["reserve-capacity-on-dest-host"], "migrate-bits-on-host"))
+
+        // the capacity reserved on the destination host is returned
+        assert availableCapacity(destHostUuid) == destBefore
+        assert volumeStatus() == VolumeStatus.Ready
+    }
+
+    void testCompleteMigrationChangedReference() {
+        // stands for the capacity the volume takes on the source host
+        long srcBefore = availableCapacity(srcHostUuid)
+        new LocalStorageUtils().reserveCapacityOnHost(srcHostUuid, size, ps.uuid, ps, false)
+        long destBefore = availableCapacity(destHostUuid)
+
+        leaveNode(journalMigration(["reserve-capacity-on-dest-host", "migrate-bits-on-host", "change-reference-to-dst-host"],
+                "return-capacity-to-src-host"))
+
+        // the capacity on the source host is returned, the one on the destination host is kept for the volume
+        assert availableCapacity(srcHostUuid) == srcBefore
+        assert availableCapacity(destHostUuid) == destBefore
+        assert volumeStatus() == VolumeStatus.Ready
+    }
+}
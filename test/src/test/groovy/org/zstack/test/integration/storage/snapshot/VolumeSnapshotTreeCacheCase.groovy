@@ -0,0 +1,173 @@
+package org.zstack.test.integration.storage.snapshot
+
+import org.zstack.core.Platform
+import org.zstack.core.db.DatabaseFacade
+import org.zstack.core.db.Q
+import org.zstack.core.db.SQL
+import org.zstack.header.storage.snapshot.*
+import org.zstack.header.storage.snapshot.VolumeSnapshotTree.SnapshotLeaf
+import org.zstack.storage.snapshot.VolumeSnapshotTreeCache
+import org.zstack.testlib.SubCase
+
+class VolumeSnapshotTreeCacheCase extends SubCase {
+    DatabaseFacade dbf
+    List<String> treeUuids = []
+
+    @Override
+    void clean() {
+        if (!treeUuids.isEmpty()) {
+            SQL.New(VolumeSnapshotVO.class).in(VolumeSnapshotVO_.treeUuid, treeUuids).hardDelete()
+            SQL.New(VolumeSnapshotTreeVO.class).in(VolumeSnapshotTreeVO_.uuid, treeUuids).hardDelete()
+            VolumeSnapshotTreeCache.invalidateTrees(treeUuids)
+        }
+    }
+
+    @Override
+    void setup() {
+    }
+
+    @Override
+    void environment() {
+    }
+
+    @Override
+    void test() {
+        dbf = bean(DatabaseFacade.class)
+
+        testLeafOfCachedTree()
+        testIncrementalChanges()
+        testBulkChanges()
+        testDeepChain()
+    }
+
+    String createTree() {
+        def tree = new VolumeSnapshotTreeVO()
+        tree.uuid = Platform.getUuid()
+        tree.current = true
+        tree.status = VolumeSnapshotTreeStatus.Completed
+        dbf.persist(tree)
+        treeUuids.add(tree.uuid)
+        return tree.uuid
+    }
+
+    static VolumeSnapshotVO newSnapshot(String treeUuid, String parentUuid) {
+        def vo = new VolumeSnapshotVO()
+        vo.uuid = Platform.getUuid()
+        vo.name = "snapshot"
+        vo.type = "Hypervisor"
+        vo.format = "qcow2"
+        vo.volumeType = "Root"
+        vo.treeUuid = treeUuid
+        vo.parentUuid = parentUuid
+        vo.state = VolumeSnapshotState.Enabled
+        vo.status = VolumeSnapshotStatus.Ready
+        return vo
+    }
+
+    VolumeSnapshotVO createSnapshot(String treeUuid, String parentUuid) {
+        return dbf.persistAndRefresh(newSnapshot(treeUuid, parentUuid))
+    }
+
+    List<String> createChain(String treeUuid, String parentUuid, int num) {
+        List<VolumeSnapshotVO> vos = []
+        num.times {
+            vos.add(newSnapshot(treeUuid, vos.isEmpty() ? parentUuid : vos.last().uuid))
+        }
+        dbf.persistCollection(vos)
+        return vos*.uuid
+    }
+
+    static List<String> descendantUuids(SnapshotLeaf leaf) {
+        return leaf.descendants*.uuid
+    }
+
+    static List<String> ancestorUuids(SnapshotLeaf leaf) {
+        return leaf.ancestors*.uuid
+    }
+
+    static VolumeSnapshotTree loadTree(String treeUuid) {
+        return VolumeSnapshotTree.fromVOs(Q.New(VolumeSnapshotVO.class).eq(VolumeSnapshotVO_.treeUuid, treeUuid).list())
+    }
+
+    void testLeafOfCachedTree() {
+        String treeUuid = createTree()
+        List<String> chain = createChain(treeUuid, null, 5)
+        List<String> branch = createChain(treeUuid, chain[1], 2)
+        VolumeSnapshotTreeCache.invalidateTrees([treeUuid])
+
+        SnapshotLeaf leaf = VolumeSnapshotTreeCache.getLeaf(treeUuid, chain[1])
+        assert leaf.inventory.uuid == chain[1]
+        assert ancestorUuids(leaf) == chain[0..1]
+        assert descendantUuids(leaf).toSet() == (chain[1..4] + branch).toSet()
+        assert leaf.parent.uuid == chain[0]
+        assert leaf.parent.children*.uuid == [chain[1]]
+
+        // the same as a tree built from database
+        SnapshotLeaf expected = loadTree(treeUuid).findSnapshot({ it.uuid == branch[1] } as org.zstack.utils.function.Function)
+        leaf = VolumeSnapshotTreeCache.getLeaf(treeUuid, branch[1])
+        assert ancestorUuids(leaf) == ancestorUuids(expected)
+        assert descendantUuids(leaf) == descendantUuids(expected)
+
+        // leaves are copies
+        leaf.inventory.name = "changed"
+        assert VolumeSnapshotTreeCache.getLeaf(treeUuid, branch[1]).inventory.name == "snapshot"
+
+        assert VolumeSnapshotTreeCache.getTree(treeUuid).root.descendants*.uuid.toSet() == (chain + branch).toSet()
+        assert VolumeSnapshotTreeCache.getLeaf(treeUuid, Platform.getUuid()) == null
+        assert VolumeSnapshotTreeCache.getTree(Platform.getUuid()) == null
+    }
+
+    void testIncrementalChanges() {
+        String treeUuid = createTree()
+        List<String> chain = createChain(treeUuid, null, 3)
+        assert VolumeSnapshotTreeCache.getLeaf(treeUuid, chain[0]) != null
+        def cached = VolumeSnapshotTreeCache.trees.get(treeUuid)
+
+        VolumeSnapshotVO vo = createSnapshot(treeUuid, chain[2])
+        assert descendantUuids(VolumeSnapshotTreeCache.getLeaf(treeUuid, chain[0])) == chain + [vo.uuid]
+
+        vo.parentUuid = chain[0]
+        vo.status = VolumeSnapshotStatus.Deleting
+        vo = dbf.updateAndRefresh(vo)
+        SnapshotLeaf leaf = VolumeSnapshotTreeCache.getLeaf(treeUuid, vo.uuid)
+        assert ancestorUuids(leaf) == [chain[0], vo.uuid]
+        assert leaf.inventory.status == VolumeSnapshotStatus.Deleting.toString()
+
+        dbf.remove(vo)
+        assert !descendantUuids(VolumeSnapshotTreeCache.getLeaf(treeUuid, chain[0])).contains(vo.uuid)
+
+        // changes are applied to the cached tree rather than reloading it
+        assert VolumeSnapshotTreeCache.trees.get(treeUuid).is(cached)
+    }
+
+    void testBulkChanges() {
+        String treeUuid = createTree()
+        List<String> chain = createChain(treeUuid, null, 3)
+        assert VolumeSnapshotTreeCache.getLeaf(treeUuid, chain[0]) != null
+
+        SQL.New(VolumeSnapshotVO.class).eq(VolumeSnapshotVO_.uuid, chain[1]).set(VolumeSnapshotVO_.size, 100L).update()
+        VolumeSnapshotTreeCache.invalidate([chain[1]])
+        assert VolumeSnapshotTreeCache.getLeaf(treeUuid, chain[1]).inventory.size == 100L
+
+        // removing a snapshot with children drops the tree, the orphan makes a second root then
+        // and the tree can't be cached any more
+        SQL.New(VolumeSnapshotVO.class).eq(VolumeSnapshotVO_.uuid, chain[1]).hardDelete()
+        VolumeSnapshotTreeCache.invalidate([chain[1]])
+        assert VolumeSnapshotTreeCache.getLeaf(treeUuid, chain[1]) == null
+        assert VolumeSnapshotTreeCache.trees.get(treeUuid) == null
+    }
+
+    void testDeepChain() {
+        int depth = 50
+
+        String treeUuid = createTree()
+        List<String> chain = createChain(treeUuid, null, depth)
+        String uuid = chain[depth - 10]
+
+        SnapshotLeaf expected = loadTree(treeUuid).findSnapshot({ it.uuid == uuid } as org.zstack.utils.function.Function)
+        SnapshotLeaf leaf = VolumeSnapshotTreeCache.getLeaf(treeUuid, uuid)
+        assert ancestorUuids(leaf) == chain[0..depth - 10]
+        assert ancestorUuids(leaf) == ancestorUuids(expected)
+        assert descendantUuids(leaf) == descendantUuids(expected)
+    }
+}
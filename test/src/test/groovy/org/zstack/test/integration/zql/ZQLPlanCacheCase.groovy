@@ -0,0 +1,77 @@
+package org.zstack.test.integration.zql
+
+import org.zstack.header.vm.VmInstanceInventory
+import org.zstack.test.integration.kvm.Env
+import org.zstack.test.integration.kvm.KvmTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+import org.zstack.zql.ZQL
+import org.zstack.zql.ZQLGlobalProperty
+
+class ZQLPlanCacheCase extends SubCase {
+    EnvSpec env
+
+    @Override
+    void clean() {
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(KvmTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = Env.oneVmBasicEnv()
+    }
+
+    @Override
+    void test() {
+        env.create {
+            testPlanCacheHit()
+            testFieldQueryMapping()
+            testSameResultsWithoutPlanCache()
+        }
+    }
+
+    void testPlanCacheHit() {
+        ZQL.cleanPlanCache()
+        ZQL.cleanStatisticData()
+
+        String text = "query vminstance where name='vm'"
+        def r1 = ZQL.fromString(text).getSingleResult()
+        def r2 = ZQL.fromString(text + ";").getSingleResult()
+
+        assert r1.inventories.size() == 1
+        assert r2.inventories.size() == 1
+        assert ZQL.getZQLStatistic().planCacheMissCount.get() >= 1
+        assert ZQL.getZQLStatistic().planCacheHitCount.get() >= 1
+    }
+
+    void testFieldQueryMapping() {
+        def vm = env.inventoryByName("vm") as org.zstack.sdk.VmInstanceInventory
+
+        def r = ZQL.fromString("query vminstance.uuid,name,memorySize,state where uuid='${vm.uuid}'").getSingleResult()
+        VmInstanceInventory inv = r.inventories[0] as VmInstanceInventory
+        assert inv.uuid == vm.uuid
+        assert inv.name == vm.name
+        assert inv.memorySize == vm.memorySize
+        assert inv.state == vm.state
+        assert inv.hostUuid == null
+    }
+
+    void testSameResultsWithoutPlanCache() {
+        String text = "query vminstance.uuid,name where name='vm' and state='Running' order by createDate desc limit 10"
+
+        def cached = ZQL.fromString(text).getSingleResult()
+        int cacheSize = ZQLGlobalProperty.PLAN_CACHE_SIZE
+        ZQLGlobalProperty.PLAN_CACHE_SIZE = 0
+        try {
+            def uncached = ZQL.fromString(text).getSingleResult()
+            assert uncached.inventories*.uuid == cached.inventories*.uuid
+        } finally {
+            ZQLGlobalProperty.PLAN_CACHE_SIZE = cacheSize
+        }
+    }
+}
@@ -39,6 +39,7 @@ public class BeanConstructor {
             "<import resource=\"springConfigXml/jmx.xml\" />",
             "<import resource=\"springConfigXml/Error.xml\" />",
             "<import resource=\"springConfigXml/gc.xml\" />",
+            "<import resource=\"springConfigXml/workflow.xml\" />",
             "<import resource=\"springConfigXml/debug.xml\" />",
             "<import resource=\"springConfigXml/jsonlabel.xml\" />",
             "<import resource=\"springConfigXml/encrypt.xml\" />",
@@ -0,0 +1,27 @@
+package org.zstack.test.core.workflow;
+
+import org.zstack.core.workflow.FlowChainJournalRecord;
+import org.zstack.core.workflow.FlowChainRecoveryExtensionPoint;
+
+import java.util.function.Consumer;
+
+/**
+ * recovers the journaled flow chains of test cases by the recovery they set
+ */
+public class FlowChainRecoveryForTest implements FlowChainRecoveryExtensionPoint {
+    public static final String JOURNAL_NAME = "journal-recovery-chain";
+
+    public volatile Consumer<FlowChainJournalRecord> recovery;
+
+    @Override
+    public String getFlowChainNameForRecovery() {
+        return JOURNAL_NAME;
+    }
+
+    @Override
+    public void recoverFlowChain(FlowChainJournalRecord record) {
+        if (recovery != null) {
+            recovery.accept(record);
+        }
+    }
+}
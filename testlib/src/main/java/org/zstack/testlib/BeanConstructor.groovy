@@ -29,6 +29,7 @@ class BeanConstructor {
             "jmx.xml",
             "Error.xml",
             "gc.xml",
+            "workflow.xml",
             "debug.xml",
             "jsonlabel.xml",
             "encrypt.xml",
@@ -37,6 +37,13 @@ import static org.zstack.kvm.KVMAgentCommands.*
  */
 class KVMSimulator implements Simulator {
     static ConcurrentHashMap<String, KVMAgentCommands.ConnectCmd> connectCmdConcurrentHashMap = new ConcurrentHashMap<>()
+    // host uuid to the VM states the simulated agent reported in the last vm sync
+    static ConcurrentHashMap<String, VmSyncSnapshot> vmSyncSnapshots = new ConcurrentHashMap<>()
+
+    static class VmSyncSnapshot {
+        long sequence
+        Map<String, String> states
+    }
     private static Map<String, VFSPrimaryStorageTakeSnapshotBackend> takeSnapshotBackends = [:]
 
     static {
@@ -321,25 +328,52 @@ class KVMSimulator implements Simulator {
 
         spec.simulator(KVMConstant.KVM_VM_SYNC_PATH) { HttpEntity<String> e ->
             def hostUuid = e.getHeaders().getFirst(Constants.AGENT_HTTP_HEADER_RESOURCE_UUID)
+            def cmd = JSONObjectUtil.toObject(e.body, VmSyncCmd.class)
 
             List<Tuple> states = Q.New(VmInstanceVO.class)
                     .select(VmInstanceVO_.uuid, VmInstanceVO_.state)
                     .in(VmInstanceVO_.state, [VmInstanceState.Running, VmInstanceState.Unknown])
                     .eq(VmInstanceVO_.hostUuid, hostUuid).listTuple()
 
-            def rsp = new KVMAgentCommands.VmSyncResponse()
-            rsp.states = [:]
+            HashMap<String, String> currentStates = [:]
             states.each {
                 String vmUuid = it.get(0, String.class)
                 VmInstanceState state = it.get(1, VmInstanceState.class)
                 if (state == VmInstanceState.Unknown) {
                     // host reconnecting will set VMs to Unknown in DB
                     // the spec.simulator treat them as Running by default
-                    rsp.states[(vmUuid)] = KVMConstant.KvmVmState.Running.toString()
+                    currentStates[(vmUuid)] = KVMConstant.KvmVmState.Running.toString()
                 } else {
-                    rsp.states[(vmUuid)] = KVMConstant.KvmVmState.fromVmInstanceState(state).toString()
+                    currentStates[(vmUuid)] = KVMConstant.KvmVmState.fromVmInstanceState(state).toString()
                 }
             }
+
+            def rsp = new KVMAgentCommands.VmSyncResponse()
+            rsp.states = currentStates
+
+            // emulate the sequence of the agent, an incremental sync is replied only if
+            // the sequence acknowledged by the management node is the latest one
+            VmSyncSnapshot last = vmSyncSnapshots[(hostUuid)]
+            long sequence = last == null ? 1 : last.sequence + 1
+            if (last != null && cmd.lastSequence == last.sequence) {
+                HashMap<String, String> changes = [:]
+                currentStates.each { vmUuid, state ->
+                    if (last.states[(vmUuid)] != state) {
+                        changes[(vmUuid)] = state
+                    }
+                }
+                last.states.keySet().findAll { !currentStates.containsKey(it) }.each {
+                    changes[(it)] = KVMConstant.KvmVmState.Shutdown.toString()
+                }
+
+                sequence = changes.isEmpty() ? last.sequence : sequence
+                rsp.incremental = true
+                rsp.baseSequence = cmd.lastSequence
+                rsp.states = changes
+            }
+
+            vmSyncSnapshots[(hostUuid)] = new VmSyncSnapshot(sequence: sequence, states: currentStates)
+            rsp.sequence = sequence
             rsp.setVmInShutdowns(new ArrayList<String>())
             return rsp
         }
@@ -10,10 +10,27 @@ import org.zstack.network.l2.vxlan.vxlanNetworkPool.VxlanNetworkPoolConstant
 import org.zstack.sdk.L2NetworkInventory
 import org.zstack.utils.gson.JSONObjectUtil
 
+import java.util.concurrent.ConcurrentHashMap
+
 /**
  * Created by weiwang on 15/03/2017.
  */
 class L2VxlanNetworkPoolSpec extends L2NetworkSpec implements Simulator {
+    /**
+     * FDB of a vxlan network pool on a simulated host, peers by vxlan network uuid
+     */
+    static class SimulatedFdb {
+        long generation
+        Map<String, Set<String>> peers = [:]
+    }
+
+    // by "hostUuid/poolUuid"
+    static Map<String, SimulatedFdb> simulatedFdbs = new ConcurrentHashMap<>()
+
+    static SimulatedFdb simulatedFdb(String hostUuid, String poolUuid) {
+        return simulatedFdbs.computeIfAbsent("${hostUuid}/${poolUuid}".toString(), { new SimulatedFdb() })
+    }
+
     L2VxlanNetworkPoolSpec(EnvSpec envSpec) {
         super(envSpec)
     }
@@ -66,7 +83,38 @@ class L2VxlanNetworkPoolSpec extends L2NetworkSpec implements Simulator {
         }
 
         env.simulator(VxlanNetworkPoolConstant.VXLAN_KVM_POPULATE_FDB_L2VXLAN_NETWORKS_PATH) { HttpEntity<String> entity, EnvSpec spec ->
-            return new VxlanKvmAgentCommands.PopulateVxlanNetworksFdbCmd()
+            def cmd = JSONObjectUtil.toObject(entity.body, VxlanKvmAgentCommands.PopulateVxlanNetworksFdbCmd.class)
+            def hostUuid = entity.getHeaders().getFirst(Constants.AGENT_HTTP_HEADER_RESOURCE_UUID)
+
+            def fdb = simulatedFdb(hostUuid, cmd.poolUuid)
+            synchronized (fdb) {
+                cmd.networkUuids.each { fdb.peers[it] = new HashSet<>(cmd.peers) }
+                fdb.generation = cmd.generation
+            }
+
+            return new VxlanKvmAgentCommands.PopulateVxlanNetworksFdbResponse()
+        }
+
+        env.simulator(VxlanNetworkPoolConstant.VXLAN_KVM_UPDATE_FDB_L2VXLAN_NETWORKS_PATH) { HttpEntity<String> entity, EnvSpec spec ->
+            def cmd = JSONObjectUtil.toObject(entity.body, VxlanKvmAgentCommands.UpdateVxlanNetworksFdbCmd.class)
+            def hostUuid = entity.getHeaders().getFirst(Constants.AGENT_HTTP_HEADER_RESOURCE_UUID)
+
+            def rsp = new VxlanKvmAgentCommands.UpdateVxlanNetworksFdbResponse()
+            def fdb = simulatedFdb(hostUuid, cmd.poolUuid)
+            synchronized (fdb) {
+                // a delta based on another generation is not applied
+                if (fdb.generation == cmd.baseGeneration) {
+                    cmd.networkUuids.each {
+                        Set<String> peers = fdb.peers.computeIfAbsent(it, { new HashSet<>() })
+                        peers.addAll(cmd.addedPeers)
+                        peers.removeAll(cmd.removedPeers)
+                    }
+                    fdb.generation = cmd.generation
+                }
+                rsp.generation = fdb.generation
+            }
+
+            return rsp
         }
         env.simulator(VxlanNetworkPoolConstant.VXLAN_KVM_REALIZE_L2VXLAN_NETWORKS_PATH) { HttpEntity<String> entity, EnvSpec spec ->
             return new VxlanKvmAgentCommands.CreateVxlanBridgesCmd()
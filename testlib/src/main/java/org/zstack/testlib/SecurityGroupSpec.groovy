@@ -1,9 +1,15 @@
 package org.zstack.testlib
 
+import org.springframework.http.HttpEntity
+import org.zstack.header.Constants
 import org.zstack.kvm.KVMAgentCommands
 import org.zstack.kvm.KVMSecurityGroupBackend
+import org.zstack.network.securitygroup.SecurityGroupMembersTO
 import org.zstack.sdk.SecurityGroupInventory
 import org.zstack.sdk.VmNicInventory
+import org.zstack.utils.gson.JSONObjectUtil
+
+import java.util.concurrent.ConcurrentHashMap
 
 /**
  * Created by xing5 on 2017/2/20.
@@ -18,6 +24,22 @@ class SecurityGroupSpec extends Spec implements HasSession {
 
     SecurityGroupInventory inventory
 
+    /**
+     * members of a security group on a simulated host
+     */
+    static class SimulatedMembers {
+        long generation
+        Set<String> ips = new HashSet<>()
+        Set<String> ip6s = new HashSet<>()
+    }
+
+    // by "hostUuid/securityGroupUuid"
+    static Map<String, SimulatedMembers> simulatedMembers = new ConcurrentHashMap<>()
+
+    static SimulatedMembers simulatedMembers(String hostUuid, String sgUuid) {
+        return simulatedMembers.computeIfAbsent("${hostUuid}/${sgUuid}".toString(), { new SimulatedMembers() })
+    }
+
     SecurityGroupSpec(EnvSpec envSpec) {
         super(envSpec)
     }
@@ -41,10 +63,53 @@ class SecurityGroupSpec extends Spec implements HasSession {
                 return new KVMAgentCommands.CleanupUnusedRulesOnHostResponse()
             }
 
-            simulator(KVMSecurityGroupBackend.SECURITY_GROUP_UPDATE_GROUP_MEMBER){
+            simulator(KVMSecurityGroupBackend.SECURITY_GROUP_UPDATE_GROUP_MEMBER) { HttpEntity<String> e ->
+                def cmd = JSONObjectUtil.toObject(e.body, KVMAgentCommands.UpdateGroupMemberCmd.class)
+                def hostUuid = e.getHeaders().getFirst(Constants.AGENT_HTTP_HEADER_RESOURCE_UUID)
+
+                cmd.updateGroupTOs.each { to ->
+                    if (to.actionCode == SecurityGroupMembersTO.ACTION_CODE_DELETE_GROUP) {
+                        simulatedMembers.remove("${hostUuid}/${to.securityGroupUuid}".toString())
+                        return
+                    }
+
+                    def members = simulatedMembers(hostUuid, to.securityGroupUuid)
+                    synchronized (members) {
+                        members.ips = new HashSet<>(to.securityGroupVmIps ?: [])
+                        members.ip6s = new HashSet<>(to.securityGroupVmIp6s ?: [])
+                        members.generation = to.generation
+                    }
+                }
+
                 return new KVMAgentCommands.UpdateGroupMemberResponse()
             }
 
+            simulator(KVMSecurityGroupBackend.SECURITY_GROUP_UPDATE_GROUP_MEMBER_DELTA) { HttpEntity<String> e ->
+                def cmd = JSONObjectUtil.toObject(e.body, KVMAgentCommands.UpdateGroupMemberDeltaCmd.class)
+                def hostUuid = e.getHeaders().getFirst(Constants.AGENT_HTTP_HEADER_RESOURCE_UUID)
+
+                def rsp = new KVMAgentCommands.UpdateGroupMemberDeltaResponse()
+                cmd.updateGroupDeltaTOs.each { to ->
+                    def members = simulatedMembers(hostUuid, to.securityGroupUuid)
+                    synchronized (members) {
+                        // a delta based on another generation is not applied
+                        if (members.generation != to.baseGeneration) {
+                            rsp.success = false
+                            rsp.error = "members of security group[uuid:${to.securityGroupUuid}] are at generation ${members.generation}, but the delta is based on generation ${to.baseGeneration}".toString()
+                            return
+                        }
+
+                        members.ips.addAll(to.addedVmIps)
+                        members.ips.removeAll(to.removedVmIps)
+                        members.ip6s.addAll(to.addedVmIp6s)
+                        members.ip6s.removeAll(to.removedVmIp6s)
+                        members.generation = to.generation
+                    }
+                }
+
+                return rsp
+            }
+
             simulator(KVMSecurityGroupBackend.SECURITY_GROUP_CHECK_DEFAULT_RULES_ON_HOST_PATH) {
                 return new KVMAgentCommands.CheckDefaultSecurityGroupResponse()
             }